@@ -0,0 +1,377 @@
+package me.kenzierocks.converse.apt;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * Generates a streaming Gson {@code TypeAdapter} for every {@code @AutoGson}
+ * type, so (de)serializing them needs neither reflection nor the
+ * {@code hashCode()} trick to find {@code null}s.
+ * <p>
+ * For a type {@code pkg.Foo} this writes {@code pkg.AutoGson_Foo}, next to the
+ * {@code AutoValue_Foo} it builds, with a public constructor taking the
+ * {@code Gson}. {@code AutoValueAdapterFactory} finds it by that name, so
+ * each adapter is written in the round that sees its type and nothing is
+ * left for the last round.
+ * <p>
+ * Generated adapters read JSON names equal to the AutoValue property names,
+ * the same names the reflective adapter used. Missing or {@code null}
+ * properties are rejected unless they are {@code @Nullable}; missing
+ * primitives keep their default value, as they did under reflection, and
+ * missing immutable collections read as empty, so a collection can be added
+ * to a type without breaking files written before it.
+ */
+public final class AutoGsonProcessor extends AbstractProcessor {
+
+    private static final String AUTO_GSON = "me.kenzierocks.converse.gsonadapt.autovalue.AutoGson";
+    private static final String AUTO_VALUE_BUILDER = "com.google.auto.value.AutoValue.Builder";
+    private static final Set<String> IMMUTABLE_COLLECTIONS = new HashSet<>(
+            Arrays.asList("com.google.common.collect.ImmutableList", "com.google.common.collect.ImmutableSet",
+                    "com.google.common.collect.ImmutableMap"));
+
+    private static final class Property {
+
+        private final String name;
+        private final String getter;
+        private final TypeMirror type;
+        private final boolean nullable;
+
+        private Property(String name, String getter, TypeMirror type, boolean nullable) {
+            this.name = name;
+            this.getter = getter;
+            this.type = type;
+            this.nullable = nullable;
+        }
+
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(AUTO_GSON);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement autoGson = this.processingEnv.getElementUtils().getTypeElement(AUTO_GSON);
+        if (autoGson == null) {
+            return false;
+        }
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(autoGson))) {
+            try {
+                generateAdapter(type);
+            } catch (IOException e) {
+                error(type, "Unable to write adapter: " + e);
+            }
+        }
+        return false;
+    }
+
+    private void error(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+    }
+
+    private void generateAdapter(TypeElement type) throws IOException {
+        String pkg = packageOf(type);
+        String flatName = flatName(type);
+        String valueType = type.getQualifiedName().toString();
+        String autoValue = "AutoValue_" + flatName;
+        String adapterName = "AutoGson_" + flatName;
+        Optional<TypeElement> builder = findBuilder(type);
+        if (!builder.isPresent()) {
+            error(type, "@AutoGson types need an @AutoValue.Builder");
+            return;
+        }
+        List<Property> properties = findProperties(type, builder.get());
+
+        String qualifiedAdapter = pkg.isEmpty() ? adapterName : pkg + "." + adapterName;
+        Writer file = this.processingEnv.getFiler().createSourceFile(qualifiedAdapter, type).openWriter();
+        try (PrintWriter out = new PrintWriter(file)) {
+            if (!pkg.isEmpty()) {
+                out.println("package " + pkg + ";");
+                out.println();
+            }
+            out.println("// Generated by " + AutoGsonProcessor.class.getName());
+            out.println("public final class " + adapterName + " extends com.google.gson.TypeAdapter<" + valueType
+                    + "> {");
+            out.println();
+            for (Property p : properties) {
+                if (!isInline(p.type)) {
+                    out.println("    private final com.google.gson.TypeAdapter<" + boxed(p.type) + "> " + p.name
+                            + "Adapter;");
+                }
+            }
+            out.println();
+            out.println("    public " + adapterName + "(com.google.gson.Gson gson) {");
+            for (Property p : properties) {
+                if (!isInline(p.type)) {
+                    out.println("        this." + p.name + "Adapter = gson.getAdapter(" + typeToken(p.type) + ");");
+                }
+            }
+            out.println("    }");
+            out.println();
+
+            // write
+            out.println("    @Override");
+            out.println("    public void write(com.google.gson.stream.JsonWriter out, " + valueType
+                    + " value) throws java.io.IOException {");
+            out.println("        if (value == null) {");
+            out.println("            out.nullValue();");
+            out.println("            return;");
+            out.println("        }");
+            out.println("        out.beginObject();");
+            for (Property p : properties) {
+                out.println("        out.name(\"" + p.name + "\");");
+                if (isInline(p.type)) {
+                    out.println("        out.value(value." + p.getter + "());");
+                } else {
+                    out.println("        this." + p.name + "Adapter.write(out, value." + p.getter + "());");
+                }
+            }
+            out.println("        out.endObject();");
+            out.println("    }");
+            out.println();
+
+            // read
+            out.println("    @Override");
+            out.println("    public " + valueType
+                    + " read(com.google.gson.stream.JsonReader in) throws java.io.IOException {");
+            out.println("        if (in.peek() == com.google.gson.stream.JsonToken.NULL) {");
+            out.println("            in.nextNull();");
+            out.println("            return null;");
+            out.println("        }");
+            for (Property p : properties) {
+                out.println("        " + p.type + " " + local(p) + " = " + defaultValue(p.type) + ";");
+            }
+            out.println("        in.beginObject();");
+            out.println("        while (in.hasNext()) {");
+            out.println("            switch (in.nextName()) {");
+            for (Property p : properties) {
+                out.println("                case \"" + p.name + "\":");
+                if (p.type.getKind().isPrimitive() && isInline(p.type)) {
+                    out.println("                    " + local(p) + " = in." + readPrimitive(p.type) + "();");
+                } else if (p.type.getKind().isPrimitive()) {
+                    // float, short, byte and char read the way they're written, through Gson's adapter, and a
+                    // null keeps the default as it did under reflection
+                    String read = p.name + "Read";
+                    out.println("                    " + boxed(p.type) + " " + read + " = this." + p.name
+                            + "Adapter.read(in);");
+                    out.println("                    if (" + read + " != null) {");
+                    out.println("                        " + local(p) + " = " + read + ";");
+                    out.println("                    }");
+                } else if (isInline(p.type)) {
+                    out.println("                    if (in.peek() == com.google.gson.stream.JsonToken.NULL) {");
+                    out.println("                        in.nextNull();");
+                    out.println("                        " + local(p) + " = null;");
+                    out.println("                    } else {");
+                    out.println("                        " + local(p) + " = in.nextString();");
+                    out.println("                    }");
+                } else {
+                    out.println("                    " + local(p) + " = this." + p.name + "Adapter.read(in);");
+                }
+                out.println("                    break;");
+            }
+            out.println("                default:");
+            out.println("                    in.skipValue();");
+            out.println("            }");
+            out.println("        }");
+            out.println("        in.endObject();");
+            for (Property p : properties) {
+                if (!p.type.getKind().isPrimitive() && !p.nullable) {
+                    out.println("        if (" + local(p) + " == null) {");
+                    out.println("            throw new com.google.gson.JsonParseException(\"" + type.getSimpleName()
+                            + " is missing required property " + p.name + "\");");
+                    out.println("        }");
+                }
+            }
+            out.println("        return new " + autoValue + ".Builder()");
+            for (Property p : properties) {
+                out.println("                ." + setterName(builder.get(), p) + "(" + local(p) + ")");
+            }
+            out.println("                .build();");
+            out.println("    }");
+            out.println();
+            out.println("}");
+        }
+    }
+
+    private static String packageOf(Element element) {
+        Element e = element;
+        while (e.getKind() != ElementKind.PACKAGE) {
+            e = e.getEnclosingElement();
+        }
+        return ((PackageElement) e).getQualifiedName().toString();
+    }
+
+    private static String flatName(TypeElement type) {
+        String pkg = packageOf(type);
+        String qualified = type.getQualifiedName().toString();
+        return (pkg.isEmpty() ? qualified : qualified.substring(pkg.length() + 1)).replace('.', '_');
+    }
+
+    private static Optional<TypeElement> findBuilder(TypeElement type) {
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            for (AnnotationMirror annotation : nested.getAnnotationMirrors()) {
+                TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+                if (annotationType.getQualifiedName().contentEquals(AUTO_VALUE_BUILDER)) {
+                    return Optional.of(nested);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private List<Property> findProperties(TypeElement type, TypeElement builder) {
+        List<ExecutableElement> getters = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (method.getModifiers().contains(Modifier.ABSTRACT) && method.getParameters().isEmpty()
+                    && method.getReturnType().getKind() != TypeKind.VOID
+                    && !this.processingEnv.getTypeUtils().isSameType(method.getReturnType(), builder.asType())) {
+                getters.add(method);
+            }
+        }
+        boolean allPrefixed = getters.stream().allMatch(m -> prefixLength(m) > 0);
+        List<Property> properties = new ArrayList<>();
+        for (ExecutableElement getter : getters) {
+            String getterName = getter.getSimpleName().toString();
+            String name = allPrefixed ? decapitalize(getterName.substring(prefixLength(getter))) : getterName;
+            properties.add(new Property(name, getterName, getter.getReturnType(), isNullable(getter)));
+        }
+        return properties;
+    }
+
+    private static int prefixLength(ExecutableElement method) {
+        String name = method.getSimpleName().toString();
+        if (name.startsWith("get") && name.length() > 3 && Character.isUpperCase(name.charAt(3))) {
+            return 3;
+        }
+        if (name.startsWith("is") && name.length() > 2 && Character.isUpperCase(name.charAt(2))
+                && method.getReturnType().getKind() == TypeKind.BOOLEAN) {
+            return 2;
+        }
+        return 0;
+    }
+
+    private static String decapitalize(String name) {
+        // same rule as java.beans.Introspector
+        if (name.length() > 1 && Character.isUpperCase(name.charAt(1))) {
+            return name;
+        }
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static boolean isNullable(ExecutableElement getter) {
+        return getter.getAnnotationMirrors().stream()
+                .anyMatch(a -> a.getAnnotationType().asElement().getSimpleName().contentEquals("Nullable"));
+    }
+
+    private static String setterName(TypeElement builder, Property p) {
+        String prefixed = "set" + Character.toUpperCase(p.name.charAt(0)) + p.name.substring(1);
+        boolean hasBare = ElementFilter.methodsIn(builder.getEnclosedElements()).stream()
+                .anyMatch(m -> m.getSimpleName().contentEquals(p.name) && m.getParameters().size() == 1);
+        return hasBare ? p.name : prefixed;
+    }
+
+    private static String local(Property p) {
+        return p.name + "Value";
+    }
+
+    private static boolean isInline(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+            case LONG:
+            case BOOLEAN:
+            case DOUBLE:
+                return true;
+            case DECLARED:
+                return type.toString().equals("java.lang.String");
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the {@code JsonReader} method for an {@link #isInline inline}
+     *         primitive
+     */
+    private static String readPrimitive(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return "nextInt";
+            case LONG:
+                return "nextLong";
+            case BOOLEAN:
+                return "nextBoolean";
+            case DOUBLE:
+                return "nextDouble";
+            default:
+                throw new AssertionError(type);
+        }
+    }
+
+    private String defaultValue(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "false";
+            case CHAR:
+                return "'\\0'";
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return "(" + type + ") 0";
+            case DECLARED:
+                String erased = this.processingEnv.getTypeUtils().erasure(type).toString();
+                return IMMUTABLE_COLLECTIONS.contains(erased) ? erased + ".of()" : "null";
+            default:
+                return "null";
+        }
+    }
+
+    private String boxed(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return this.processingEnv.getTypeUtils()
+                    .boxedClass(this.processingEnv.getTypeUtils().getPrimitiveType(type.getKind())).getQualifiedName()
+                    .toString();
+        }
+        return type.toString();
+    }
+
+    private String typeToken(TypeMirror type) {
+        String boxed = boxed(type);
+        if (boxed.indexOf('<') < 0) {
+            return boxed + ".class";
+        }
+        return "new com.google.gson.reflect.TypeToken<" + boxed + ">() {}";
+    }
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Annotation processors that run over the main project at compile time.
+ */
+package me.kenzierocks.converse.apt;
\ No newline at end of file
@@ -0,0 +1,136 @@
+package me.kenzierocks.converse.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.kenzierocks.converse.history.MessageKind;
+
+/**
+ * Fills a buffer with 1M lines of generated traffic and reports the heap it
+ * keeps, printed after each iteration, against the same lines held as one object
+ * with its own strings each, the way they arrive from the client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MessageBufferHeapBenchmark {
+
+    private static final int LINES = 1000000;
+    private static final int CHANNELS = 20;
+    private static final int NICKS = 2000;
+
+    private static final class Line {
+
+        private final long timestamp;
+        private final MessageKind kind;
+        private final String channel;
+        private final String nick;
+        private final String userHost;
+        private final String text;
+
+        Line(long timestamp, MessageKind kind, String channel, String nick, String userHost, String text) {
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.channel = channel;
+            this.nick = nick;
+            this.userHost = userHost;
+            this.text = text;
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class Footprint {
+
+        long retainedBytes;
+
+        // keeps the lines reachable until they're measured
+        Object held;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            this.held = null;
+            this.retainedBytes = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void report() {
+            System.out.println("retained " + this.retainedBytes / (1024 * 1024) + " MiB");
+            this.held = null;
+        }
+
+    }
+
+    @Param({ "40", "200" })
+    public int textLength;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private String text(Random random) {
+        char[] chars = new char[this.textLength];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    // names come off the wire as new strings every time
+    private static String nick(Random random) {
+        return new StringBuilder("nick").append(random.nextInt(NICKS)).toString();
+    }
+
+    @Benchmark
+    public void strings(Footprint footprint) {
+        long before = usedHeap();
+        Random random = new Random(42);
+        List<Line> lines = new ArrayList<>(LINES);
+        for (int i = 0; i < LINES; i++) {
+            String nick = nick(random);
+            lines.add(new Line(i, MessageKind.MESSAGE, new StringBuilder("#chan").append(i % CHANNELS).toString(),
+                    nick, new StringBuilder("~").append(nick).append("@host.example.com").toString(),
+                    text(random)));
+        }
+        footprint.held = lines;
+        footprint.retainedBytes = usedHeap() - before;
+    }
+
+    @Benchmark
+    public void buffer(Footprint footprint) {
+        long before = usedHeap();
+        Random random = new Random(42);
+        MessageBuffer buffer = new MessageBuffer(new NameDictionary(), LINES);
+        for (int i = 0; i < LINES; i++) {
+            String nick = nick(random);
+            buffer.add(i, MessageKind.MESSAGE, new StringBuilder("#chan").append(i % CHANNELS).toString(), nick,
+                    new StringBuilder("~").append(nick).append("@host.example.com").toString(), text(random));
+        }
+        footprint.held = buffer;
+        footprint.retainedBytes = usedHeap() - before;
+    }
+
+}
@@ -0,0 +1,95 @@
+package me.kenzierocks.converse.gsonadapt;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Compares {@link ImmutableCollectionsAdapterFactory} with the old approach
+ * of deserializing into a {@code List} and copying it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImmutableCollectionsBenchmark {
+
+    private static final Type LIST_OF_STRINGS = new TypeToken<ImmutableList<String>>() {
+    }.getType();
+
+    /**
+     * The deserializer this factory replaced.
+     */
+    private static final JsonDeserializer<ImmutableList<?>> COPYING = (json, typeOfT, context) -> {
+        @SuppressWarnings("unchecked")
+        com.google.common.reflect.TypeToken<ImmutableList<?>> tt =
+                (com.google.common.reflect.TypeToken<ImmutableList<?>>) com.google.common.reflect.TypeToken
+                        .of(typeOfT);
+        return ImmutableList.copyOf((List<?>) context.deserialize(json, tt.getSupertype(List.class).getType()));
+    };
+
+    @Param({ "10", "1000", "100000" })
+    public int size;
+
+    private String json;
+    private ImmutableList<String> list;
+    private Gson streaming;
+    private Gson copying;
+
+    @Setup
+    public void setup() {
+        JsonArray array = new JsonArray();
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (int i = 0; i < this.size; i++) {
+            array.add("#channel-" + i);
+            builder.add("#channel-" + i);
+        }
+        this.json = array.toString();
+        this.list = builder.build();
+        this.streaming = new GsonBuilder().registerTypeAdapterFactory(new ImmutableCollectionsAdapterFactory())
+                .create();
+        this.copying = new GsonBuilder().registerTypeAdapter(ImmutableList.class, COPYING).create();
+    }
+
+    @Benchmark
+    public ImmutableList<String> readStreaming() {
+        return this.streaming.fromJson(this.json, LIST_OF_STRINGS);
+    }
+
+    @Benchmark
+    public ImmutableList<String> readCopying() {
+        return this.copying.fromJson(this.json, LIST_OF_STRINGS);
+    }
+
+    @Benchmark
+    public String writeStreaming() {
+        return this.streaming.toJson(this.list, LIST_OF_STRINGS);
+    }
+
+    @Benchmark
+    public String writeReflective() {
+        return this.copying.toJson(this.list, LIST_OF_STRINGS);
+    }
+
+}
@@ -0,0 +1,77 @@
+package me.kenzierocks.converse.history;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Append throughput across many channels, from several client threads. Run
+ * with {@code -prof gc} to check the per-append allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ChannelLogAppendBenchmark {
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+
+    }
+
+    @Param({ "1", "64" })
+    public int channels;
+
+    private Path root;
+    private HistoryStore store;
+    private ChannelLog[] logs;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("converse-history-bench");
+        this.store = new HistoryStore(this.root);
+        this.logs = new ChannelLog[this.channels];
+        for (int i = 0; i < this.channels; i++) {
+            this.logs[i] = this.store.getLog("irc.example.com", "#channel" + i);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        this.store.close();
+        try (Stream<Path> files = Files.walk(this.root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long append(Cursor cursor) throws IOException {
+        ChannelLog log = this.logs[cursor.next++ % this.channels];
+        return log.append(MessageKind.MESSAGE, "someone",
+                "a reasonably ordinary line of chat, about as long as most of them are");
+    }
+
+}
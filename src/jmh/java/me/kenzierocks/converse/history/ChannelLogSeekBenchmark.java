@@ -0,0 +1,90 @@
+package me.kenzierocks.converse.history;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * Random scrollback seeks into one large channel log: a page of 50 before a
+ * random id, and the first record at a random time. The log is written once
+ * per trial, which takes a while at the larger sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelLogSeekBenchmark {
+
+    private static final int PAGE = 50;
+    private static final String TEXT = "a reasonably ordinary line of chat, about as long as most of them are";
+
+    @Param({ "256", "4096" })
+    public int logMegabytes;
+
+    private Path root;
+    private HistoryStore store;
+    private ChannelLog log;
+    private long lastId;
+    private long lastTimestamp;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("converse-history-seek");
+        this.store = new HistoryStore(this.root, 64 * 1024 * 1024);
+        this.log = this.store.getLog("irc.example.com", "#big");
+        long bytes = this.logMegabytes * 1024L * 1024L;
+        long recordBytes = Segment.recordLength(7, Utf8.encodedLength(TEXT));
+        long count = bytes / recordBytes;
+        for (long i = 0; i < count; i++) {
+            // a line every 100ms
+            this.log.append(i * 100, MessageKind.MESSAGE, "someone", TEXT);
+        }
+        this.lastId = this.log.getLastId();
+        this.lastTimestamp = (count - 1) * 100;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.store.close();
+        try (Stream<Path> files = Files.walk(this.root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void pageBeforeId(Blackhole hole) {
+        long before = 1 + ThreadLocalRandom.current().nextLong(this.lastId);
+        this.log.readBefore(before, PAGE, view -> {
+            hole.consume(view.getTimestamp());
+            return true;
+        });
+    }
+
+    @Benchmark
+    public long seekTime() {
+        return this.log.findIdAtOrAfter(ThreadLocalRandom.current().nextLong(this.lastTimestamp));
+    }
+
+}
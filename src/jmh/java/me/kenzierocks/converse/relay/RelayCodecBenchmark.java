@@ -0,0 +1,172 @@
+package me.kenzierocks.converse.relay;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import me.kenzierocks.converse.history.MessageKind;
+
+/**
+ * Encodes the same batch of channel lines as binary frames and as the old
+ * one-line Gson JSON, each with and without a deflate stream sync-flushed
+ * once per batch, the way a client socket drains. Setup prints the bytes
+ * per event each way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayCodecBenchmark {
+
+    private static final int BATCH = 64;
+    private static final Gson GSON = new Gson();
+    private static final String[] WORDS = { "the", "build", "is", "green", "again", "who", "broke", "master",
+            "lgtm", "ship", "it", "can", "you", "review", "my", "patch", "please", "thanks", "no", "idea" };
+
+    private final RelayCodec codec = new RelayCodec();
+    private RelayEvent[] events;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] deflated = new byte[256 * 1024];
+
+    @Setup
+    public void setUp() {
+        this.events = new RelayEvent[BATCH * 16];
+        for (int i = 0; i < this.events.length; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 4 + i % 12; w++) {
+                text.append(WORDS[(i * 7 + w * 3) % WORDS.length]).append(' ');
+            }
+            this.events[i] = RelayEvent.create("irc.example.com", "#chan" + (i % 20), 1000000 + i,
+                    1460000000000L + i * 1500, MessageKind.MESSAGE, "nick" + (i % 200), text.toString().trim());
+        }
+        long binary = 0;
+        long binaryDeflated = 0;
+        long json = 0;
+        long jsonDeflated = 0;
+        BitSet defined = new BitSet();
+        for (int start = 0; start < this.events.length; start += BATCH) {
+            for (int i = start; i < start + BATCH; i++) {
+                Frame frame = this.codec.message(this.events[i]);
+                for (int id : frame.getNames()) {
+                    if (!defined.get(id)) {
+                        defined.set(id);
+                        binary += this.codec.define(id).remaining();
+                        binaryDeflated += deflate(this.codec.define(id), false);
+                    }
+                }
+                binary += frame.getBytes().remaining();
+                binaryDeflated += deflate(frame.getBytes(), false);
+            }
+            binaryDeflated += this.deflater.deflate(this.deflated, 0, this.deflated.length, Deflater.SYNC_FLUSH);
+            for (int i = start; i < start + BATCH; i++) {
+                ByteBuffer line = json(this.events[i]);
+                json += line.remaining();
+            }
+        }
+        this.deflater.reset();
+        for (int start = 0; start < this.events.length; start += BATCH) {
+            for (int i = start; i < start + BATCH; i++) {
+                jsonDeflated += deflate(json(this.events[i]), false);
+            }
+            jsonDeflated += this.deflater.deflate(this.deflated, 0, this.deflated.length, Deflater.SYNC_FLUSH);
+        }
+        this.deflater.reset();
+        double n = this.events.length;
+        System.out.printf("%nbytes/event: binary %.1f, binary+deflate %.1f, json %.1f, json+deflate %.1f%n",
+                binary / n, binaryDeflated / n, json / n, jsonDeflated / n);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.deflater.end();
+    }
+
+    private static ByteBuffer json(RelayEvent event) {
+        return ByteBuffer.wrap((GSON.toJson(event) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int deflate(ByteBuffer frame, boolean flush) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        this.deflater.setInput(bytes);
+        int total = 0;
+        while (!this.deflater.needsInput()) {
+            total += this.deflater.deflate(this.deflated, 0, this.deflated.length, Deflater.NO_FLUSH);
+        }
+        if (flush) {
+            total += this.deflater.deflate(this.deflated, 0, this.deflated.length, Deflater.SYNC_FLUSH);
+        }
+        return total;
+    }
+
+    private int batch;
+
+    private int nextBatch() {
+        this.batch = (this.batch + BATCH) % this.events.length;
+        return this.batch;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long binary() {
+        int start = nextBatch();
+        long bytes = 0;
+        for (int i = start; i < start + BATCH; i++) {
+            bytes += this.codec.message(this.events[i]).getBytes().remaining();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long binaryDeflated() {
+        int start = nextBatch();
+        long bytes = 0;
+        for (int i = start; i < start + BATCH; i++) {
+            bytes += deflate(this.codec.message(this.events[i]).getBytes(), i == start + BATCH - 1);
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long json() {
+        int start = nextBatch();
+        long bytes = 0;
+        for (int i = start; i < start + BATCH; i++) {
+            bytes += json(this.events[i]).remaining();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long jsonDeflated() {
+        int start = nextBatch();
+        long bytes = 0;
+        for (int i = start; i < start + BATCH; i++) {
+            bytes += deflate(json(this.events[i]), i == start + BATCH - 1);
+        }
+        return bytes;
+    }
+
+}
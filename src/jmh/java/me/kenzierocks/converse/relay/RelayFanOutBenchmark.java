@@ -0,0 +1,150 @@
+package me.kenzierocks.converse.relay;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.kenzierocks.converse.history.MessageKind;
+
+/**
+ * Publishes batches of events to hundreds of loopback clients and waits until
+ * every reading client has all of them, so the score is the end-to-end cost
+ * of one event reaching every client. One thread drains all the reading
+ * clients; the stalled ones never read, and should be dropped without
+ * slowing the rest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayFanOutBenchmark {
+
+    private static final int BATCH = 1000;
+    private static final String TEXT = "the quick brown fox jumps over the lazy dog, again and again and again";
+
+    @Param({ "100", "500" })
+    public int clients;
+
+    @Param({ "0", "10" })
+    public int stalledClients;
+
+    private RelayServer server;
+    private final List<SocketChannel> sockets = new ArrayList<>();
+    private Selector drain;
+    private Thread drainer;
+    private final AtomicLong received = new AtomicLong();
+    private volatile boolean stopping;
+    private long expected;
+    private RelayEvent[] events;
+    // what each client is sent, ids the same as the server's
+    private final RelayCodec codec = new RelayCodec();
+    private final BitSet defined = new BitSet();
+
+    @Setup
+    public void setUp() throws Exception {
+        this.server = new RelayServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024 * 1024);
+        this.drain = Selector.open();
+        for (int i = 0; i < this.clients + this.stalledClients; i++) {
+            SocketChannel socket = SocketChannel.open(this.server.getAddress());
+            socket.write(RelayRequests.hello(0));
+            this.sockets.add(socket);
+            if (i < this.clients) {
+                socket.configureBlocking(false);
+                socket.register(this.drain, SelectionKey.OP_READ);
+            }
+        }
+        while (this.server.getClientCount() < this.sockets.size()) {
+            Thread.sleep(10);
+        }
+        this.expected = (long) RelayRequests.hello(0).remaining() * this.clients;
+        this.events = new RelayEvent[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            this.events[i] = RelayEvent.create("irc.example.com", "#chan" + (i % 20), i, MessageKind.MESSAGE,
+                    "nick" + (i % 200), i + " " + TEXT);
+        }
+        this.drainer = new Thread(this::drain, "relay-benchmark-drain");
+        this.drainer.start();
+    }
+
+    private void drain() {
+        ByteBuffer scratch = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (!this.stopping) {
+                this.drain.select(100);
+                for (SelectionKey key : this.drain.selectedKeys()) {
+                    int read;
+                    do {
+                        scratch.clear();
+                        read = ((SocketChannel) key.channel()).read(scratch);
+                        if (read > 0) {
+                            this.received.addAndGet(read);
+                        }
+                    } while (read > 0);
+                }
+                this.drain.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.stopping = true;
+        this.drainer.join();
+        this.server.close();
+        for (SocketChannel socket : this.sockets) {
+            socket.close();
+        }
+        this.drain.close();
+        System.out.println("evictions " + this.server.getEvictions() + ", fan-out p99 "
+                + this.server.getFanOutMicros().getPercentile(99) + "us");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void publishToAll() throws InterruptedException {
+        long bytes = 0;
+        for (RelayEvent event : this.events) {
+            this.server.publish(event);
+            Frame frame = this.codec.message(event);
+            for (int id : frame.getNames()) {
+                if (!this.defined.get(id)) {
+                    this.defined.set(id);
+                    bytes += this.codec.define(id).remaining();
+                }
+            }
+            bytes += frame.getBytes().remaining();
+        }
+        this.expected += bytes * this.clients;
+        while (this.received.get() < this.expected) {
+            Thread.yield();
+        }
+    }
+
+}
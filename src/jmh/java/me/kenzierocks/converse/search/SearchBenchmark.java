@@ -0,0 +1,107 @@
+package me.kenzierocks.converse.search;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.kenzierocks.converse.history.ChannelLog;
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.history.MessageKind;
+
+/**
+ * Searches over generated traffic spread across ten channels. Words are drawn
+ * from a skewed vocabulary, so "w0" is in most messages and "w4000" in very
+ * few. Setup writes and indexes everything, which takes minutes at 10M.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final int CHANNELS = 10;
+    private static final int VOCABULARY = 5000;
+    private static final int NICKS = 500;
+    private static final int WORDS_PER_MESSAGE = 12;
+
+    @Param({ "1000000", "10000000" })
+    public int messages;
+
+    private Path root;
+    private HistoryStore store;
+    private SearchEngine engine;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("converse-search");
+        this.store = new HistoryStore(this.root, 64 * 1024 * 1024);
+        this.engine = new SearchEngine(this.store);
+        ChannelLog[] logs = new ChannelLog[CHANNELS];
+        for (int i = 0; i < CHANNELS; i++) {
+            logs[i] = this.store.getLog("irc.example.com", "#chan" + i);
+        }
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < this.messages; i++) {
+            text.setLength(0);
+            for (int w = 0; w < WORDS_PER_MESSAGE; w++) {
+                // roughly zipfian
+                double skew = random.nextDouble();
+                text.append('w').append((int) (VOCABULARY * skew * skew * skew)).append(' ');
+            }
+            logs[i % CHANNELS].append(i * 100L, MessageKind.MESSAGE, "nick" + random.nextInt(NICKS), text);
+        }
+        // index up front, not in the first measured call
+        this.engine.search(Query.builder().words("w0").build()).findFirst();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.engine.close();
+        this.store.close();
+        try (Stream<Path> files = Files.walk(this.root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object firstPageOfCommonWord() throws IOException {
+        return this.engine.search(Query.builder().words("w0").build()).limit(50).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public long allOfRareAndCommonWord() throws IOException {
+        return this.engine.search(Query.builder().words("w4000", "w1").build()).count();
+    }
+
+    @Benchmark
+    public long allOfNickAndWord() throws IOException {
+        return this.engine.search(Query.builder().nick("nick7").words("w300").build()).count();
+    }
+
+    @Benchmark
+    public long allOfPhrase() throws IOException {
+        return this.engine.search(Query.builder().phrases("w2 w3").channel("#chan3").build()).count();
+    }
+
+}
@@ -0,0 +1,128 @@
+package me.kenzierocks.converse.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the table-driven {@link IRCUtil} and {@link CaseMapping} with
+ * what they replaced: the nick regex, and folding a lowercased copy of each
+ * name to look it up or compare it. Names are channel names as servers echo
+ * them, mixed case.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IRCUtilBenchmark {
+
+    private static final int NAMES = 1024;
+
+    /**
+     * The check {@link IRCUtil#isValidNickName(String)} used to be.
+     */
+    private static final Predicate<String> NICK_PATTERN =
+            Pattern.compile("^[a-zA-Z0-9`^\\-\\\\\\[\\]{}|]+$").asPredicate();
+
+    private final String[] nicks = new String[NAMES];
+    private final String[] channels = new String[NAMES];
+    private final Map<String, Integer> lowercased = new HashMap<>();
+    private final CaseMappedMap<Integer> mapped = new CaseMappedMap<>(CaseMapping.RFC1459);
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1459);
+        String nickChars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789`^-[]{}|";
+        for (int i = 0; i < NAMES; i++) {
+            StringBuilder nick = new StringBuilder();
+            for (int c = 4 + random.nextInt(12); c > 0; c--) {
+                nick.append(nickChars.charAt(random.nextInt(nickChars.length())));
+            }
+            this.nicks[i] = nick.toString();
+            String channel = "#Channel-" + Integer.toString(i * 7919, 36);
+            this.channels[i] = random.nextBoolean() ? channel : channel.toLowerCase(Locale.ROOT);
+            this.lowercased.put(channel.toLowerCase(Locale.ROOT), i);
+            this.mapped.put(channel, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public int nickRegex() {
+        int valid = 0;
+        for (String nick : this.nicks) {
+            valid += NICK_PATTERN.test(nick) ? 1 : 0;
+        }
+        return valid;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public int nickTable() {
+        int valid = 0;
+        for (String nick : this.nicks) {
+            valid += IRCUtil.isValidNickName(nick) ? 1 : 0;
+        }
+        return valid;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public int lookupLowercasedCopy() {
+        int sum = 0;
+        for (String channel : this.channels) {
+            sum += this.lowercased.get(channel.toLowerCase(Locale.ROOT));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public int lookupCaseMapped() {
+        int sum = 0;
+        for (String channel : this.channels) {
+            sum += this.mapped.get(channel);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public int equalsLowercasedCopy() {
+        int equal = 0;
+        for (int i = 1; i < NAMES; i++) {
+            equal += this.channels[i].toLowerCase(Locale.ROOT).equals(this.channels[i - 1].toLowerCase(Locale.ROOT))
+                    ? 1 : 0;
+        }
+        return equal;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public int equalsCaseMapped() {
+        int equal = 0;
+        for (int i = 1; i < NAMES; i++) {
+            equal += CaseMapping.RFC1459.equals(this.channels[i], this.channels[i - 1]) ? 1 : 0;
+        }
+        return equal;
+    }
+
+}
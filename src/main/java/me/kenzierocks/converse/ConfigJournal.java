@@ -0,0 +1,191 @@
+package me.kenzierocks.converse;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Append-only log of configuration changes that sits next to
+ * {@code config.cfg}.
+ * <p>
+ * Each line is {@code <crc32 hex> <json>}, where the JSON holds the new
+ * revision and only the top-level parts that changed. Replay stops at the
+ * first line that is torn or fails its checksum, and cuts the file back to
+ * the last good record.
+ */
+final class ConfigJournal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigJournal.class);
+    private static final Type NETWORKS_TYPE = new TypeToken<ImmutableList<Network>>() {
+    }.getType();
+    private static final String REVISION = "revision";
+    private static final String NETWORKS = "networks";
+    private static final String DEFAULTS = "defaults";
+    private static final String WINDOW_SETTINGS = "windowSettings";
+
+    private final Path path;
+    private final Gson gson;
+    private long sizeInBytes = -1;
+
+    ConfigJournal(Path path, Gson gson) {
+        this.path = checkNotNull(path);
+        this.gson = checkNotNull(gson);
+    }
+
+    Path getPath() {
+        return this.path;
+    }
+
+    long getSizeInBytes() throws IOException {
+        if (this.sizeInBytes < 0) {
+            this.sizeInBytes = Files.exists(this.path) ? Files.size(this.path) : 0;
+        }
+        return this.sizeInBytes;
+    }
+
+    /**
+     * Applies every record newer than {@code base} to it.
+     */
+    ConfigSnapshot replay(ConfigSnapshot base) throws IOException {
+        if (Files.notExists(this.path)) {
+            return base;
+        }
+        byte[] data = Files.readAllBytes(this.path);
+        ConfigSnapshot current = base;
+        int applied = 0;
+        int start = 0;
+        while (start < data.length) {
+            int end = indexOf(data, (byte) '\n', start);
+            ConfigSnapshot next = end < 0 ? null : decode(data, start, end, current);
+            if (next == null) {
+                LOGGER.warn("Dropping " + (data.length - start) + " bytes of torn or corrupt config journal at offset "
+                        + start);
+                truncate(start);
+                break;
+            }
+            if (next != current) {
+                applied++;
+            }
+            current = next;
+            start = end + 1;
+        }
+        LOGGER.debug("Replayed " + applied + " config journal records, now at revision " + current.getRevision());
+        return current;
+    }
+
+    /**
+     * Appends a record that turns {@code from} into {@code to}.
+     */
+    void append(ConfigSnapshot from, ConfigSnapshot to) throws IOException {
+        JsonObject record = new JsonObject();
+        record.addProperty(REVISION, to.getRevision());
+        if (!from.getNetworks().equals(to.getNetworks())) {
+            record.add(NETWORKS, this.gson.toJsonTree(to.getNetworks(), NETWORKS_TYPE));
+        }
+        if (!from.getDefaults().equals(to.getDefaults())) {
+            record.add(DEFAULTS, this.gson.toJsonTree(to.getDefaults(), Defaults.class));
+        }
+        if (!from.getWindowSettings().equals(to.getWindowSettings())) {
+            record.add(WINDOW_SETTINGS, this.gson.toJsonTree(to.getWindowSettings(), WindowSettings.class));
+        }
+        byte[] json = this.gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+        String prefix = String.format("%08x ", checksum(json, 0, json.length));
+        ByteBuffer line = ByteBuffer.allocate(prefix.length() + json.length + 1);
+        line.put(prefix.getBytes(StandardCharsets.US_ASCII)).put(json).put((byte) '\n');
+        line.flip();
+        long sizeBefore = getSizeInBytes();
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+        }
+        this.sizeInBytes = sizeBefore + line.limit();
+    }
+
+    /**
+     * Empties the journal, once its records are part of a full snapshot.
+     */
+    void reset() throws IOException {
+        truncate(0);
+    }
+
+    private void truncate(long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+            channel.force(true);
+        }
+        this.sizeInBytes = size;
+    }
+
+    private ConfigSnapshot decode(byte[] data, int start, int end, ConfigSnapshot base) {
+        // 8 hex digits, a space, and at least "{}"
+        if (end - start < 11 || data[start + 8] != ' ') {
+            return null;
+        }
+        int jsonStart = start + 9;
+        try {
+            long expected = Long.parseLong(new String(data, start, 8, StandardCharsets.US_ASCII), 16);
+            if (expected != checksum(data, jsonStart, end - jsonStart)) {
+                return null;
+            }
+            JsonObject record = new JsonParser()
+                    .parse(new String(data, jsonStart, end - jsonStart, StandardCharsets.UTF_8)).getAsJsonObject();
+            long revision = record.get(REVISION).getAsLong();
+            if (revision <= base.getRevision()) {
+                // already compacted into the snapshot
+                return base;
+            }
+            ConfigSnapshot.Builder next = base.toBuilder().revision(revision);
+            if (record.has(NETWORKS)) {
+                ImmutableList<Network> networks = this.gson.fromJson(record.get(NETWORKS), NETWORKS_TYPE);
+                next.networks(networks);
+            }
+            if (record.has(DEFAULTS)) {
+                next.defaults(this.gson.fromJson(record.get(DEFAULTS), Defaults.class));
+            }
+            if (record.has(WINDOW_SETTINGS)) {
+                next.windowSettings(this.gson.fromJson(record.get(WINDOW_SETTINGS), WindowSettings.class));
+            }
+            return next.build();
+        } catch (NumberFormatException | JsonParseException | IllegalStateException | NullPointerException e) {
+            LOGGER.warn("Unreadable config journal record", e);
+            return null;
+        }
+    }
+
+    private static long checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    private static int indexOf(byte[] data, byte b, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,76 @@
+package me.kenzierocks.converse;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.gsonadapt.autovalue.AutoGson;
+
+/**
+ * One immutable version of the whole {@link Configuration}. This is also the
+ * on-disk format of {@code config.cfg}.
+ * <p>
+ * Modifications share every unchanged part with the previous snapshot, so
+ * taking one is only a reference read.
+ */
+@AutoValue
+@AutoGson
+public abstract class ConfigSnapshot {
+
+    public static Builder builder() {
+        return new AutoValue_ConfigSnapshot.Builder().configVersion(Configuration.CONFIG_VERSION).revision(0)
+                .networks(ImmutableList.of()).defaults(Defaults.builder().build())
+                .windowSettings(WindowSettings.builder().width(800).height(600).build());
+    }
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+
+        Builder() {
+        }
+
+        public abstract Builder configVersion(int val);
+
+        public abstract Builder revision(long val);
+
+        public abstract Builder networks(Iterable<Network> val);
+
+        public abstract Builder defaults(Defaults val);
+
+        public abstract Builder windowSettings(WindowSettings val);
+
+        public abstract ConfigSnapshot build();
+
+    }
+
+    ConfigSnapshot() {
+    }
+
+    public abstract int getConfigVersion();
+
+    /**
+     * @return a counter that increases with every modification, for telling
+     *         snapshots apart cheaply
+     */
+    public abstract long getRevision();
+
+    public abstract ImmutableList<Network> getNetworks();
+
+    public final ConfigSnapshot withNetworks(Iterable<Network> networks) {
+        return toBuilder().networks(networks).build();
+    }
+
+    public abstract Defaults getDefaults();
+
+    public final ConfigSnapshot withDefaults(Defaults defaults) {
+        return toBuilder().defaults(defaults).build();
+    }
+
+    public abstract WindowSettings getWindowSettings();
+
+    public final ConfigSnapshot withWindowSettings(WindowSettings windowSettings) {
+        return toBuilder().windowSettings(windowSettings).build();
+    }
+
+    public abstract Builder toBuilder();
+
+}
@@ -0,0 +1,79 @@
+package me.kenzierocks.converse;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a single file for changes made by someone else, and pokes a
+ * callback for each one. Callers are expected to debounce, editors and
+ * deployment tools tend to touch a file several times per save.
+ */
+final class ConfigWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigWatcher.class);
+
+    private final Path file;
+    private final Runnable onChange;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    ConfigWatcher(Path file, Runnable onChange) throws IOException {
+        this.file = checkNotNull(file).toAbsolutePath().normalize();
+        this.onChange = checkNotNull(onChange);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // Watch the directory, atomic replaces swap the file out from under a
+        // file-level watch.
+        this.file.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "converse-config-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        this.thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // might have been us, might not
+                        changed = true;
+                    } else if (this.file.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    this.onChange.run();
+                }
+                if (!key.reset()) {
+                    LOGGER.warn("Config directory is no longer watchable, hot reload stopped");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.watchService.close();
+    }
+
+}
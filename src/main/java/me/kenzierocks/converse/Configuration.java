@@ -1,24 +1,32 @@
 package me.kenzierocks.converse;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,15 +35,16 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.ImmutableList;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 
-import me.kenzierocks.converse.gsonadapt.ImmutableListDeserializer;
+import me.kenzierocks.converse.gsonadapt.ImmutableCollectionsAdapterFactory;
 import me.kenzierocks.converse.gsonadapt.OptionalIntAdapter;
 import me.kenzierocks.converse.gsonadapt.autovalue.AutoValueAdapterFactory;
+import me.kenzierocks.converse.util.AtomicFiles;
 import me.kenzierocks.converse.util.FunctionEx;
+import me.kenzierocks.converse.util.WriteBehind;
 
 public class Configuration {
 
@@ -65,21 +74,38 @@ public class Configuration {
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Configuration.class);
-    private static final int CONFIG_VERSION = 1;
+    static final int CONFIG_VERSION = 1;
+    /**
+     * Mutations within this many milliseconds of each other share one write.
+     */
+    private static final long SAVE_WINDOW_MILLIS = 500;
+    /**
+     * Once the journal grows past this, the next save rewrites the full config
+     * instead of appending.
+     */
+    private static final long COMPACT_JOURNAL_BYTES = 64 * 1024;
+    /**
+     * External edits are reloaded once the file has been quiet this long.
+     */
+    private static final long RELOAD_DEBOUNCE_MILLIS = 250;
 
     private static final Gson dataHandler;
-    private static final Gson cloneHandler;
+    private static final Gson journalHandler;
     static {
         GsonBuilder builder = new GsonBuilder().serializeNulls().disableHtmlEscaping()
-                .registerTypeAdapter(ImmutableList.class, new ImmutableListDeserializer())
+                .registerTypeAdapterFactory(new ImmutableCollectionsAdapterFactory())
                 .registerTypeAdapterFactory(new AutoValueAdapterFactory())
                 .registerTypeAdapter(OptionalInt.class, OptionalIntAdapter.INSTANCE);
-        cloneHandler = builder.create();
+        // journal records must stay on one line
+        journalHandler = builder.create();
         dataHandler = builder.setPrettyPrinting().create();
     }
 
+    private static final Path CONFIG_FILE = Paths.get(".").resolve("config").resolve("config.cfg");
+    private static final Path JOURNAL_FILE = CONFIG_FILE.resolveSibling("config.cfg.journal");
+
     private static Path getConfigPath() {
-        Path configPath = Paths.get(".").resolve("config").resolve("config.cfg");
+        Path configPath = CONFIG_FILE;
         try {
             Files.createDirectories(configPath.getParent());
             if (Files.notExists(configPath)) {
@@ -95,10 +121,13 @@ public class Configuration {
 
     public static Configuration loadConfig() throws IOException {
         Configuration config = useFile(getConfigPath(), path -> {
+            ConfigSnapshot snapshot;
             try (Reader reader = Files.newBufferedReader(path)) {
                 LOGGER.debug("Loading config file");
-                return dataHandler.fromJson(reader, Configuration.class);
+                snapshot = dataHandler.fromJson(reader, ConfigSnapshot.class);
             }
+            // pick up changes made since the last full write
+            return new Configuration(CONFIG_FILE, new ConfigJournal(JOURNAL_FILE, journalHandler).replay(snapshot));
         });
         if (config.getConfigVersion() < CONFIG_VERSION) {
             // Upgrade!
@@ -121,7 +150,29 @@ public class Configuration {
         return config;
     }
 
-    private static final ExecutorService SAVE_THREADS = Executors.newSingleThreadExecutor(new SaveThreadProvider());
+    /**
+     * Loads the config, replacing it with a fresh one if it can't be parsed.
+     */
+    public static Configuration loadOrReset() {
+        try {
+            return loadConfig();
+        } catch (Exception e) {
+            if (e instanceof IOException) {
+                throw Throwables.propagate(e);
+            }
+            // Probably a bad config. Try overwriting.
+            Configuration fresh = new Configuration();
+            try {
+                fresh.saveConfig();
+            } catch (IOException e1) {
+                throw Throwables.propagate(e1);
+            }
+            return fresh;
+        }
+    }
+
+    private static final ScheduledExecutorService SAVE_THREADS =
+            Executors.newSingleThreadScheduledExecutor(new SaveThreadProvider());
     private static final LoadingCache<Path, ReentrantLock> interThreadFileLocks =
             CacheBuilder.newBuilder().weakValues().build(CacheLoader.from(() -> new ReentrantLock()));
 
@@ -144,13 +195,17 @@ public class Configuration {
     }
 
     public void saveConfig() throws IOException {
-        saveConfig(getConfigPath());
+        awaitSave(saveConfigAsync());
     }
 
     private void saveConfig(Path path) throws IOException {
+        awaitSave(saveConfigAsync(path));
+    }
+
+    private static void awaitSave(CompletableFuture<Optional<IOException>> save) throws IOException {
         // Syncs up an async save.
         try {
-            Optional<IOException> ioError = saveConfigAsync(path).get();
+            Optional<IOException> ioError = save.get();
             if (ioError.isPresent()) {
                 throw ioError.get();
             }
@@ -160,91 +215,270 @@ public class Configuration {
         }
     }
 
+    /**
+     * Writes the full config and empties the journal.
+     */
     public CompletableFuture<Optional<IOException>> saveConfigAsync() {
-        return saveConfigAsync(getConfigPath());
+        return CompletableFuture.supplyAsync(this::compact, SAVE_THREADS);
     }
 
     private CompletableFuture<Optional<IOException>> saveConfigAsync(Path path) {
-        Configuration crossThreadSafetyNet = cloneByJson();
-        return CompletableFuture.supplyAsync(() -> {
+        ConfigSnapshot snapshot = getSnapshot();
+        return CompletableFuture.supplyAsync(() -> writeConfig(snapshot, path), SAVE_THREADS);
+    }
+
+    private static Optional<IOException> writeConfig(ConfigSnapshot snapshot, Path path) {
+        try {
+            return useFile(path, p -> {
+                try {
+                    LOGGER.debug("Saving config file to " + path.toAbsolutePath());
+                    AtomicFiles.write(path, out -> {
+                        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                        dataHandler.toJson(snapshot, writer);
+                        writer.flush();
+                    });
+                } catch (IOException t) {
+                    return Optional.of(t);
+                }
+                return Optional.empty();
+            });
+        } catch (Exception wtfJavac) {
+            // This block is due to javac being stupid.
+            throw Throwables.propagate(wtfJavac);
+        }
+    }
+
+    // only called on the save thread
+    private Optional<IOException> compact() {
+        ConfigSnapshot snapshot = getSnapshot();
+        // not getConfigPath(), that may block on this thread
+        Optional<IOException> ioError = writeConfig(snapshot, this.configFile);
+        if (ioError.isPresent()) {
+            return ioError;
+        }
+        this.lastPersisted = snapshot;
+        this.lastWritten = snapshot;
+        try {
+            // if this fails, replay skips the records by revision anyways
+            this.journal.reset();
+        } catch (IOException e) {
+            return Optional.of(e);
+        }
+        return Optional.empty();
+    }
+
+    private void writeBehind() throws IOException {
+        ConfigSnapshot snapshot = getSnapshot();
+        if (snapshot.getRevision() == this.lastPersisted.getRevision()) {
+            // picked up by a write that raced this request
+            return;
+        }
+        if (this.journal.getSizeInBytes() >= COMPACT_JOURNAL_BYTES) {
+            Optional<IOException> ioError = compact();
+            if (ioError.isPresent()) {
+                throw ioError.get();
+            }
+            return;
+        }
+        this.journal.append(this.lastPersisted, snapshot);
+        this.lastPersisted = snapshot;
+    }
+
+    // only called on the save thread
+    private void reloadFromDisk() throws IOException {
+        ConfigSnapshot onDisk;
+        try (Reader reader = Files.newBufferedReader(this.configFile)) {
+            onDisk = dataHandler.fromJson(reader, ConfigSnapshot.class);
+        } catch (JsonParseException e) {
+            LOGGER.warn("Ignoring unreadable external change to config", e);
+            return;
+        }
+        if (onDisk == null) {
+            // emptied mid-write, the next event will have the content
+            return;
+        }
+        ConfigSnapshot written = this.lastWritten;
+        if (written != null && onDisk.getNetworks().equals(written.getNetworks())
+                && onDisk.getDefaults().equals(written.getDefaults())) {
+            // our own write; anything changed since is newer than the file
+            return;
+        }
+        ConfigSnapshot before = getSnapshot();
+        // Window settings are ours, and the journal is usually ahead of the
+        // file for them.
+        ConfigSnapshot after =
+                modify(s -> s.withNetworks(onDisk.getNetworks()).withDefaults(onDisk.getDefaults()));
+        if (after.getRevision() == before.getRevision()) {
+            // an edit that agrees with us
+            return;
+        }
+        LOGGER.info("Reloaded config after an external change");
+        // The journal was relative to the old file, rebase it onto the new one.
+        Optional<IOException> ioError = compact();
+        if (ioError.isPresent()) {
+            throw ioError.get();
+        }
+    }
+
+    /**
+     * Starts reloading {@code config.cfg} whenever something else edits it.
+     * Networks and defaults are taken from the file, window settings are
+     * kept.
+     */
+    public synchronized void watchForExternalChanges() throws IOException {
+        if (this.watcher == null) {
+            this.watcher = new ConfigWatcher(this.configFile, this.reloader::requestWrite);
+            this.watcher.start();
+        }
+    }
+
+    /**
+     * Reloads {@code config.cfg} as the watcher would, and waits for it.
+     */
+    void reloadNow() throws InterruptedException, TimeoutException {
+        this.reloader.requestWrite();
+        this.reloader.flush(5, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopWatching() {
+        if (this.watcher != null) {
             try {
-                return useFile(path, p -> {
-                    try (Writer writer = Files.newBufferedWriter(path)) {
-                        LOGGER.debug("Saving config file to " + path.toAbsolutePath());
-                        dataHandler.toJson(crossThreadSafetyNet, writer);
-                    } catch (IOException t) {
-                        return Optional.of(t);
-                    }
-                    return Optional.empty();
-                });
-            } catch (Exception wtfJavac) {
-                // This block is due to javac being stupid.
-                throw Throwables.propagate(wtfJavac);
+                this.watcher.close();
+            } catch (IOException e) {
+                LOGGER.warn("error closing config watcher", e);
             }
-        }, SAVE_THREADS);
+            this.watcher = null;
+        }
+    }
+
+    /**
+     * Listeners are called with the old and new snapshot after every change,
+     * on the thread that made it.
+     */
+    public void addChangeListener(BiConsumer<ConfigSnapshot, ConfigSnapshot> listener) {
+        this.changeListeners.add(checkNotNull(listener));
     }
 
-    private void saveConfigOrLogException() {
-        Consumer<Exception> log = e -> LOGGER.warn("error saving config", e);
+    /**
+     * Writes out any changes that are waiting for the save window to close.
+     * Call this before exiting, since the save thread does not keep the JVM
+     * alive.
+     */
+    public void flush() {
         try {
-            saveConfigAsync().get().ifPresent(log);
-        } catch (Exception ex) {
-            log.accept(ex);
+            this.saver.flush(5, TimeUnit.SECONDS);
+            // leave a clean config.cfg behind
+            saveConfigAsync().get(5, TimeUnit.SECONDS).ifPresent(e -> LOGGER.warn("error compacting config", e));
+        } catch (ExecutionException e) {
+            LOGGER.warn("error compacting config", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("interrupted while flushing config", e);
+        } catch (TimeoutException e) {
+            LOGGER.warn("timed out flushing config", e);
         }
+        LOGGER.debug("Config saver stats: " + this.saver);
     }
 
-    private Configuration cloneByJson() {
-        // might be expensive.
-        JsonElement tree = cloneHandler.toJsonTree(this);
-        return cloneHandler.fromJson(tree, Configuration.class);
+    private final WriteBehind saver =
+            new WriteBehind("config saver", SAVE_THREADS, SAVE_WINDOW_MILLIS, this::writeBehind);
+    private final WriteBehind reloader =
+            new WriteBehind("config reloader", SAVE_THREADS, RELOAD_DEBOUNCE_MILLIS, this::reloadFromDisk);
+    private final Path configFile;
+    private final ConfigJournal journal;
+    private final List<BiConsumer<ConfigSnapshot, ConfigSnapshot>> changeListeners = new CopyOnWriteArrayList<>();
+    private ConfigWatcher watcher;
+    private final AtomicReference<ConfigSnapshot> snapshot;
+    // only touched on the save thread after construction
+    private ConfigSnapshot lastPersisted;
+    // what config.cfg holds as far as we know, null until we write it
+    private ConfigSnapshot lastWritten;
+
+    public Configuration() {
+        this(CONFIG_FILE, ConfigSnapshot.builder().build());
     }
 
-    private int configVersion = CONFIG_VERSION;
-    private List<Network> networks = new ArrayList<>();
-    private Defaults defaults = Defaults.builder().build();
-    private WindowSettings windowSettings = WindowSettings.builder().width(800).height(600).build();
+    Configuration(Path configFile, ConfigSnapshot snapshot) {
+        this.configFile = checkNotNull(configFile);
+        this.journal = new ConfigJournal(configFile.resolveSibling(configFile.getFileName() + ".journal"),
+                journalHandler);
+        this.snapshot = new AtomicReference<>(snapshot);
+        this.lastPersisted = snapshot;
+    }
+
+    /**
+     * @return the current state of the configuration; safe to hand to any
+     *         thread
+     */
+    public ConfigSnapshot getSnapshot() {
+        return this.snapshot.get();
+    }
+
+    /**
+     * Atomically applies {@code modification} to the current snapshot. Under
+     * contention the modification may be applied more than once, so it should
+     * be free of side effects.
+     */
+    public ConfigSnapshot modify(UnaryOperator<ConfigSnapshot> modification) {
+        ConfigSnapshot prev;
+        ConfigSnapshot next;
+        do {
+            prev = this.snapshot.get();
+            next = modification.apply(prev);
+            if (next.equals(prev)) {
+                return prev;
+            }
+            next = next.toBuilder().revision(prev.getRevision() + 1).build();
+        } while (!this.snapshot.compareAndSet(prev, next));
+        this.saver.requestWrite();
+        for (BiConsumer<ConfigSnapshot, ConfigSnapshot> listener : this.changeListeners) {
+            try {
+                listener.accept(prev, next);
+            } catch (RuntimeException e) {
+                LOGGER.warn("error in config change listener", e);
+            }
+        }
+        return next;
+    }
 
     public int getConfigVersion() {
-        return this.configVersion;
+        return getSnapshot().getConfigVersion();
     }
 
     public List<Network> getNetworks() {
-        return ImmutableList.copyOf(this.networks);
+        return getSnapshot().getNetworks();
     }
 
     public void transformNetworks(Function<List<Network>, List<Network>> transform) {
-        setNetworks(transform.apply(getNetworks()));
+        modify(s -> s.withNetworks(transform.apply(s.getNetworks())));
     }
 
     public void setNetworks(List<Network> networks) {
-        this.networks = networks;
-        saveConfigOrLogException();
+        modify(s -> s.withNetworks(networks));
     }
 
     public Defaults getDefaults() {
-        return this.defaults;
+        return getSnapshot().getDefaults();
     }
 
     public void transformDefaults(Function<Defaults, Defaults> transform) {
-        setDefaults(transform.apply(getDefaults()));
+        modify(s -> s.withDefaults(transform.apply(s.getDefaults())));
     }
 
     public void setDefaults(Defaults defaults) {
-        this.defaults = defaults;
-        saveConfigOrLogException();
+        modify(s -> s.withDefaults(defaults));
     }
 
     public WindowSettings getWindowSettings() {
-        return this.windowSettings;
+        return getSnapshot().getWindowSettings();
     }
 
     public void transformWindowSettings(Function<WindowSettings, WindowSettings> transform) {
-        setWindowSettings(transform.apply(getWindowSettings()));
+        modify(s -> s.withWindowSettings(transform.apply(s.getWindowSettings())));
     }
 
     public void setWindowSettings(WindowSettings windowSettings) {
-        this.windowSettings = windowSettings;
-        saveConfigOrLogException();
+        modify(s -> s.withWindowSettings(windowSettings));
     }
 
 }
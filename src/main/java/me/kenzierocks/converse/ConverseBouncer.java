@@ -0,0 +1,95 @@
+package me.kenzierocks.converse;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.relay.RelayFeed;
+import me.kenzierocks.converse.relay.RelayHistoryFeed;
+import me.kenzierocks.converse.relay.RelayServer;
+import me.kenzierocks.converse.search.SearchEngine;
+
+/**
+ * Headless entry point: connects to the configured networks and records
+ * their traffic, with no UI, so it can run on a server without JavaFX. It
+ * follows the config file like the UI does, and shuts down cleanly on
+ * SIGTERM or Ctrl-C.
+ * <p>
+ * Live traffic is relayed to attached frontends on
+ * {@code converse.relay.host}:{@code converse.relay.port}, loopback and
+ * {@value #DEFAULT_RELAY_PORT} by default, and frontends that resume catch
+ * up from the history, with their cursors kept in {@code relay-cursors.json}.
+ * The relay has no authentication yet, reach it through an SSH tunnel.
+ * <p>
+ * Nothing here may touch {@link ConverseRelay}, which needs JavaFX to load.
+ */
+public final class ConverseBouncer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConverseBouncer.class);
+    public static final int DEFAULT_RELAY_PORT = 7667;
+
+    public static void main(String[] args) throws Exception {
+        LOGGER.info("Launching " + ConverseBouncer.class.getName() + " with arguments " + Arrays.toString(args));
+        Configuration config = Configuration.loadOrReset();
+        InetSocketAddress relayAddress = new InetSocketAddress(
+                System.getProperty("converse.relay.host", InetAddress.getLoopbackAddress().getHostAddress()),
+                Integer.getInteger("converse.relay.port", DEFAULT_RELAY_PORT));
+        ConverseBouncer bouncer = new ConverseBouncer(config, relayAddress);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            bouncer.stop();
+            stopped.countDown();
+        }, "converse-bouncer-shutdown"));
+        bouncer.start();
+        // every other thread is a daemon, so this keeps the process up
+        stopped.await();
+    }
+
+    private final Configuration config;
+    private final HistoryStore history = new HistoryStore(Paths.get("history"));
+    private final SearchEngine search = new SearchEngine(this.history);
+    private final NetworkManager netManager;
+    private final RelayServer relay;
+
+    private ConverseBouncer(Configuration config, InetSocketAddress relayAddress) throws IOException {
+        this.config = config;
+        this.relay = new RelayServer(relayAddress, RelayServer.DEFAULT_MAX_QUEUED_BYTES, this.history,
+                Paths.get("relay-cursors.json"));
+        this.netManager = new NetworkManager(config, this.history, this.search, Paths.get("scrollback"));
+        this.netManager.addAppendListener(new RelayHistoryFeed(this.relay));
+        this.netManager.addClientListener(network -> new RelayFeed(this.relay, network));
+    }
+
+    private void start() {
+        this.netManager.reconcile(this.config.getNetworks());
+        this.config.addChangeListener((old, now) -> {
+            if (!old.getNetworks().equals(now.getNetworks())) {
+                this.netManager.reconcile(now.getNetworks());
+            }
+        });
+        try {
+            this.config.watchForExternalChanges();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to watch the config for changes, hot reload disabled", e);
+        }
+        LOGGER.info("Bouncer started with " + this.netManager.getNetworks().size() + " networks");
+    }
+
+    private void stop() {
+        LOGGER.info("Bouncer stopping");
+        this.config.stopWatching();
+        this.netManager.shutdown();
+        this.relay.close();
+        this.search.close();
+        this.history.close();
+        this.config.flush();
+    }
+
+}
@@ -5,15 +5,13 @@ import static com.google.common.base.Preconditions.checkState;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Throwables;
-
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
@@ -21,9 +19,14 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.MenuBar;
-import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 import javafx.stage.Stage;
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.jfx.NetworkTree;
+import me.kenzierocks.converse.jfx.UiDispatcher;
+import me.kenzierocks.converse.search.SearchEngine;
+import me.kenzierocks.converse.unread.UnreadRecorder;
+import me.kenzierocks.converse.unread.UnreadTracker;
 import me.kenzierocks.converse.util.SplittingOutputStream;
 
 public class ConverseRelay extends Application {
@@ -48,22 +51,7 @@ public class ConverseRelay extends Application {
             // Force shutdown.
             System.exit(1);
         }
-        Configuration tmp;
-        try {
-            tmp = Configuration.loadConfig();
-        } catch (Exception e) {
-            if (e instanceof IOException) {
-                throw Throwables.propagate(e);
-            }
-            // Probably a bad config. Try overwriting.
-            tmp = new Configuration();
-            try {
-                tmp.saveConfig();
-            } catch (IOException e1) {
-                throw Throwables.propagate(e1);
-            }
-        }
-        CONFIG = tmp;
+        CONFIG = Configuration.loadOrReset();
     }
 
     public static void main(String[] args) throws Exception {
@@ -96,7 +84,13 @@ public class ConverseRelay extends Application {
         }
     }
 
-    public final NetworkManager netManager = new NetworkManager();
+    public final HistoryStore history = new HistoryStore(Paths.get("history"));
+    public final SearchEngine search = new SearchEngine(this.history);
+    public final NetworkManager netManager = new NetworkManager(CONFIG, this.history, this.search,
+            Paths.get("scrollback"));
+    private final UnreadTracker unread = new UnreadTracker(Paths.get("unread.json"));
+    private final UiDispatcher dispatcher = new UiDispatcher();
+    private final NetworkTree networkTree = new NetworkTree(this.unread, this.dispatcher, this.netManager::viewChannel);
 
     @Override
     public void start(Stage primaryStage) throws Exception {
@@ -106,10 +100,21 @@ public class ConverseRelay extends Application {
             TreeView<String> netView = (TreeView<String>) parent.lookup("#network-tree");
             netView.getParent().getStylesheets()
                     .add(getClass().getClassLoader().getResource("css/network-label.css").toString());
-            TreeItem<String> root = new TreeItem<>();
-            root.getChildren().addAll(
-                    CONFIG.getNetworks().stream().map(this.netManager::loadNetwork).collect(Collectors.toList()));
-            netView.setRoot(root);
+            netView.setRoot(this.networkTree.getRoot());
+            netView.getSelectionModel().selectedItemProperty()
+                    .addListener((obs, old, now) -> this.networkTree.select(now));
+            this.netManager.addClientListener(network -> new UnreadRecorder(this.unread, network));
+            this.netManager.addObserver(new NetworkObserver() {
+
+                @Override
+                public void caseMappingChanged(NetworkState network) {
+                    ConverseRelay.this.unread.setCaseMapping(network.getName(), network.getCaseMapping());
+                }
+
+            });
+            this.netManager.addObserver(this.networkTree);
+            this.netManager.setOpenChannels(this.unread::isFocused);
+            this.netManager.reconcile(CONFIG.getNetworks());
             netView.setShowRoot(false);
             if (System.getProperty("os.name").toLowerCase().contains("mac")) {
                 LOGGER.debug(
@@ -138,11 +143,28 @@ public class ConverseRelay extends Application {
         primaryStage.yProperty().addListener(this::onYChange);
         primaryStage.widthProperty().addListener(this::onWidthChange);
         primaryStage.heightProperty().addListener(this::onHeightChange);
+
+        CONFIG.addChangeListener((old, now) -> {
+            if (!old.getNetworks().equals(now.getNetworks())) {
+                this.netManager.reconcile(now.getNetworks());
+            }
+        });
+        try {
+            CONFIG.watchForExternalChanges();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to watch the config for changes, hot reload disabled", e);
+        }
     }
 
     @Override
     public void stop() throws Exception {
+        CONFIG.stopWatching();
         this.netManager.shutdown();
+        this.unread.close();
+        LOGGER.info("UI dispatch: " + this.dispatcher);
+        this.search.close();
+        this.history.close();
+        CONFIG.flush();
     }
 
     private void onWidthChange(ObservableValue<? extends Number> obs, Number old, Number newVal) {
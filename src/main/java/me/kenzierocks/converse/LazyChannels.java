@@ -0,0 +1,185 @@
+package me.kenzierocks.converse;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.util.CaseMappedMap;
+import me.kenzierocks.converse.util.CaseMapping;
+
+/**
+ * One network's lazy channels: which of them we want to be in, and how long
+ * each has been quiet. A lazy channel is joined when it's viewed or
+ * subscribed to, and parted once nobody is viewing it, nobody is subscribed
+ * to it, and nothing has been said in it for the idle time, so members,
+ * names and per-event work are only paid for channels in use.
+ * <p>
+ * Times are monotonic milliseconds, passed in.
+ */
+final class LazyChannels {
+
+    /**
+     * Joins and parts channels on the live connection, if there is one.
+     */
+    interface Membership {
+
+        void join(String channel);
+
+        void part(String channel);
+
+    }
+
+    private static final class Channel {
+
+        private final String name;
+        private boolean wanted;
+        private long lastActive;
+        private int subscriptions;
+
+        Channel(String name) {
+            this.name = name;
+        }
+
+    }
+
+    private final Membership membership;
+    // guarded by this
+    private CaseMappedMap<Channel> channels = new CaseMappedMap<>(CaseMapping.RFC1459);
+    private long idleMillis;
+    @Nullable
+    private Channel viewed;
+
+    LazyChannels(Membership membership) {
+        this.membership = checkNotNull(membership);
+    }
+
+    /**
+     * Replaces the lazy channels. Channels that stay lazy keep their state.
+     * New ones start out parted, unless we're already in them, in which case
+     * they stay until they go idle.
+     *
+     * @param joined
+     *            - the channels we're already in
+     * @return the channels no longer lazy that we aren't in
+     */
+    synchronized List<String> configure(Collection<String> lazy, long idleMillis, Collection<String> joined,
+            long now) {
+        this.idleMillis = idleMillis;
+        CaseMappedMap<Channel> old = this.channels;
+        this.channels = new CaseMappedMap<>(old.getCaseMapping());
+        for (String name : lazy) {
+            Channel channel = old.remove(name);
+            if (channel == null) {
+                channel = new Channel(name);
+                channel.wanted = joined.stream().anyMatch(j -> old.getCaseMapping().equals(j, name));
+                channel.lastActive = now;
+            }
+            this.channels.put(name, channel);
+        }
+        if (this.viewed != null && this.channels.get(this.viewed.name) != this.viewed) {
+            this.viewed = null;
+        }
+        return ImmutableList.copyOf(old.values().stream().filter(c -> !c.wanted).map(c -> c.name).iterator());
+    }
+
+    /**
+     * Matches channel names the way the server says it does from now on.
+     */
+    synchronized void setCaseMapping(CaseMapping caseMapping) {
+        CaseMappedMap<Channel> old = this.channels;
+        this.channels = new CaseMappedMap<>(caseMapping);
+        old.forEach(this.channels::put);
+    }
+
+    synchronized boolean isLazy(String channel) {
+        return this.channels.containsKey(channel);
+    }
+
+    /**
+     * @return the lazy channels we want to be in, to rejoin on connecting
+     */
+    synchronized ImmutableList<String> getWanted() {
+        return ImmutableList.copyOf(
+                this.channels.values().stream().filter(c -> c.wanted).map(c -> c.name).iterator());
+    }
+
+    private void want(Channel channel, long now) {
+        channel.lastActive = now;
+        if (!channel.wanted) {
+            channel.wanted = true;
+            this.membership.join(channel.name);
+        }
+    }
+
+    /**
+     * Marks {@code channel} as the one the user is looking at, joining it if
+     * it's lazy. The last one viewed counts as active until then.
+     *
+     * @param channel
+     *            - {@code null} if the user is looking at none
+     */
+    synchronized void view(@Nullable String channel, long now) {
+        if (this.viewed != null) {
+            this.viewed.lastActive = now;
+        }
+        this.viewed = channel == null ? null : this.channels.get(channel);
+        if (this.viewed != null) {
+            want(this.viewed, now);
+        }
+    }
+
+    /**
+     * Keeps {@code channel} joined until as many
+     * {@link #unsubscribe(String, long) unsubscribes}, if it's lazy.
+     */
+    synchronized void subscribe(String channel, long now) {
+        Channel lazy = this.channels.get(channel);
+        if (lazy != null) {
+            lazy.subscriptions++;
+            want(lazy, now);
+        }
+    }
+
+    synchronized void unsubscribe(String channel, long now) {
+        Channel lazy = this.channels.get(channel);
+        if (lazy != null && lazy.subscriptions > 0) {
+            lazy.subscriptions--;
+            lazy.lastActive = now;
+        }
+    }
+
+    /**
+     * Notes traffic in {@code channel}, which keeps a lazy one joined.
+     */
+    synchronized void touch(String channel, long now) {
+        Channel lazy = this.channels.get(channel);
+        if (lazy != null) {
+            lazy.lastActive = now;
+        }
+    }
+
+    /**
+     * Parts the lazy channels that have been idle for the idle time.
+     *
+     * @return the channels parted
+     */
+    synchronized List<String> partIdle(long now) {
+        List<String> parted = new ArrayList<>();
+        for (Channel channel : this.channels.values()) {
+            if (channel.wanted && channel != this.viewed && channel.subscriptions == 0
+                    && now - channel.lastActive >= this.idleMillis) {
+                channel.wanted = false;
+                this.membership.part(channel.name);
+                parted.add(channel.name);
+            }
+        }
+        return parted;
+    }
+
+}
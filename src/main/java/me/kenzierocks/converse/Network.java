@@ -2,6 +2,7 @@ package me.kenzierocks.converse;
 
 import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -23,6 +24,7 @@ public abstract class Network {
 
     public static final int DEFAULT_PORT = 6667;
     public static final boolean DEFAULT_USE_SSL = false;
+    public static final int DEFAULT_LAZY_IDLE_MINUTES = 30;
 
     public static final Builder builder() {
         Defaults defaults = ConverseRelay.CONFIG.getDefaults();
@@ -33,7 +35,8 @@ public abstract class Network {
     }
 
     public static final Builder builderNoDefaults() {
-        return new AutoValue_Network.Builder();
+        // lazy channels are opt-in, not a default
+        return new AutoValue_Network.Builder().lazyChannels(ImmutableList.of()).lazyIdleMinutes(0);
     }
 
     @AutoValue.Builder
@@ -62,6 +65,10 @@ public abstract class Network {
 
         public abstract Builder channelsToJoinOnStartup(Collection<String> val);
 
+        public abstract Builder lazyChannels(Collection<String> val);
+
+        public abstract Builder lazyIdleMinutes(int val);
+
         public abstract Builder password(@Nullable String val);
 
         @Nullable
@@ -100,6 +107,22 @@ public abstract class Network {
 
     public abstract ImmutableList<String> getChannelsToJoinOnStartup();
 
+    /**
+     * Channels from {@link #getChannelsToJoinOnStartup()} that are only
+     * joined when viewed or subscribed to, and parted again once idle.
+     */
+    public abstract ImmutableList<String> getLazyChannels();
+
+    /**
+     * @return minutes a lazy channel may go unviewed and quiet before it's
+     *         parted, or {@code 0} for {@link #DEFAULT_LAZY_IDLE_MINUTES}
+     */
+    public abstract int getLazyIdleMinutes();
+
+    public long getLazyIdleMillis() {
+        return TimeUnit.MINUTES.toMillis(getLazyIdleMinutes() > 0 ? getLazyIdleMinutes() : DEFAULT_LAZY_IDLE_MINUTES);
+    }
+
     @Nullable
     public abstract String getPassword();
 
@@ -115,6 +138,15 @@ public abstract class Network {
     }
 
     public Client createClient() {
+        return createClient(msg -> {
+        });
+    }
+
+    /**
+     * @param inputListener
+     *            - receives every raw line from the server
+     */
+    public Client createClient(Consumer<String> inputListener) {
         Logger clientLogger = LoggerFactory.getLogger("clients." + getNetworkName() + ":" + getNickName());
         Client.Builder builder = Client.builder().serverHost(getNetworkAddress()).serverPort(getNetworkPort())
                 .secure(getUseSsl()).name(getNetworkName()).nick(getNickName());
@@ -133,7 +165,10 @@ public abstract class Network {
             }
         }
         builder.listenException(e -> clientLogger.error("", e));
-        builder.listenInput(msg -> clientLogger.debug("I--> " + msg));
+        builder.listenInput(msg -> {
+            clientLogger.debug("I--> " + msg);
+            inputListener.accept(msg);
+        });
         builder.listenOutput(msg -> clientLogger.debug("O<-- " + msg));
         return builder.build();
     }
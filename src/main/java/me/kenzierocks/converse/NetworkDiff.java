@@ -0,0 +1,133 @@
+package me.kenzierocks.converse;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * The difference between two network lists, matched up by
+ * {@linkplain Network#getNetworkName() network name}, sorted by how much of
+ * the live connection each change has to disturb.
+ */
+public final class NetworkDiff {
+
+    /**
+     * A network whose connection can stay up.
+     */
+    public static final class Update {
+
+        private final Network oldNetwork;
+        private final Network newNetwork;
+        private final ImmutableSet<String> joinedChannels;
+        private final ImmutableSet<String> partedChannels;
+
+        private Update(Network oldNetwork, Network newNetwork) {
+            this.oldNetwork = oldNetwork;
+            this.newNetwork = newNetwork;
+            Set<String> oldChannels = ImmutableSet.copyOf(oldNetwork.getChannelsToJoinOnStartup());
+            Set<String> newChannels = ImmutableSet.copyOf(newNetwork.getChannelsToJoinOnStartup());
+            this.joinedChannels = ImmutableSet.copyOf(Sets.difference(newChannels, oldChannels));
+            this.partedChannels = ImmutableSet.copyOf(Sets.difference(oldChannels, newChannels));
+        }
+
+        public Network getOldNetwork() {
+            return this.oldNetwork;
+        }
+
+        public Network getNewNetwork() {
+            return this.newNetwork;
+        }
+
+        public ImmutableSet<String> getJoinedChannels() {
+            return this.joinedChannels;
+        }
+
+        public ImmutableSet<String> getPartedChannels() {
+            return this.partedChannels;
+        }
+
+    }
+
+    public static NetworkDiff between(Collection<Network> current, Collection<Network> wanted) {
+        Map<String, Network> remaining = new LinkedHashMap<>();
+        current.forEach(n -> remaining.put(n.getNetworkName(), n));
+        ImmutableList.Builder<Network> added = ImmutableList.builder();
+        ImmutableList.Builder<Update> reconnected = ImmutableList.builder();
+        ImmutableList.Builder<Update> updated = ImmutableList.builder();
+        for (Network network : wanted) {
+            Network old = remaining.remove(network.getNetworkName());
+            if (old == null) {
+                added.add(network);
+            } else if (!old.equals(network)) {
+                (requiresReconnect(old, network) ? reconnected : updated).add(new Update(old, network));
+            }
+        }
+        return new NetworkDiff(added.build(), ImmutableList.copyOf(remaining.values()), reconnected.build(),
+                updated.build());
+    }
+
+    /**
+     * @return {@code true} if the two networks can't share a connection
+     */
+    public static boolean requiresReconnect(Network a, Network b) {
+        return !(a.getNetworkAddress().equals(b.getNetworkAddress()) && a.getNetworkPort() == b.getNetworkPort()
+                && a.getUseSsl() == b.getUseSsl() && a.getNickName().equals(b.getNickName())
+                && Objects.equals(a.getRealName(), b.getRealName())
+                && Objects.equals(a.getPassword(), b.getPassword())
+                && Objects.equals(a.getAccountName(), b.getAccountName()));
+    }
+
+    private final ImmutableList<Network> added;
+    private final ImmutableList<Network> removed;
+    private final ImmutableList<Update> reconnected;
+    private final ImmutableList<Update> updated;
+
+    private NetworkDiff(ImmutableList<Network> added, ImmutableList<Network> removed,
+            ImmutableList<Update> reconnected, ImmutableList<Update> updated) {
+        this.added = added;
+        this.removed = removed;
+        this.reconnected = reconnected;
+        this.updated = updated;
+    }
+
+    public ImmutableList<Network> getAdded() {
+        return this.added;
+    }
+
+    public ImmutableList<Network> getRemoved() {
+        return this.removed;
+    }
+
+    /**
+     * @return networks whose connection settings changed
+     */
+    public ImmutableList<Update> getReconnected() {
+        return this.reconnected;
+    }
+
+    /**
+     * @return networks that changed in ways the live connection can absorb,
+     *         such as their channel list or quit message
+     */
+    public ImmutableList<Update> getUpdated() {
+        return this.updated;
+    }
+
+    public boolean isEmpty() {
+        return this.added.isEmpty() && this.removed.isEmpty() && this.reconnected.isEmpty()
+                && this.updated.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkDiff[added=" + this.added.size() + ", removed=" + this.removed.size() + ", reconnected="
+                + this.reconnected.size() + ", updated=" + this.updated.size() + "]";
+    }
+
+}
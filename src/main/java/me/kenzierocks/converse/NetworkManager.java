@@ -1,79 +1,605 @@
 package me.kenzierocks.converse;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
 
 import org.kitteh.irc.client.library.Client;
 import org.kitteh.irc.client.library.event.client.ClientConnectedEvent;
+import org.kitteh.irc.client.library.event.client.ClientConnectionClosedEvent;
 import org.kitteh.irc.lib.net.engio.mbassy.listener.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import javafx.application.Platform;
-import javafx.scene.control.TreeItem;
-import me.kenzierocks.converse.jfx.StylableTreeItem;
+import me.kenzierocks.converse.buffer.BufferRecorder;
+import me.kenzierocks.converse.buffer.NetworkScrollback;
+import me.kenzierocks.converse.buffer.Scrollback;
+import me.kenzierocks.converse.history.ChannelLog;
+import me.kenzierocks.converse.history.HistoryRecorder;
+import me.kenzierocks.converse.history.HistoryStore;
 import me.kenzierocks.converse.listeners.AddChannelListener;
+import me.kenzierocks.converse.search.SearchEngine;
+import me.kenzierocks.converse.send.JoinPlanner;
+import me.kenzierocks.converse.send.MessageLines;
+import me.kenzierocks.converse.send.OutboundScheduler;
+import me.kenzierocks.converse.send.SendJob;
+import me.kenzierocks.converse.send.SendLane;
+import me.kenzierocks.converse.util.CaseMapping;
+import me.kenzierocks.converse.util.Timing;
 
 /**
- * Handles attaching networks to the tree and connecting the clients.
+ * Loads networks, keeps their clients connected, and tracks their
+ * {@link NetworkState} for any {@link NetworkObserver}s. Nothing here needs
+ * a UI; the JavaFX tree is just an observer.
+ * <p>
+ * Networks added together are announced in one batch. The clients are
+ * built, which is when they start connecting, on a small worker pool, and
+ * networks that share a host are spaced out so a bouncer with many accounts
+ * on one server doesn't trip its connection throttle. After that, each
+ * network's {@link ReconnectScheduler} keeps it connected.
+ * <p>
+ * Our own lines to a server, from probes to joins to what the user types, go
+ * through the client's {@link OutboundScheduler}, so they stay under the
+ * server's flood limit however they bunch up. Joins are packed into as few
+ * lines as fit by a {@link JoinPlanner}, channels the user has open first.
+ * <p>
+ * A network's {@linkplain Network#getLazyChannels() lazy channels} are only
+ * joined once viewed or subscribed to, and parted again when idle; see
+ * {@link LazyChannels}.
+ * <p>
+ * Channel names fold by the {@code CASEMAPPING} the server gives in
+ * {@code RPL_ISUPPORT}, which is handed to everything here keyed by them,
+ * and to observers through {@link NetworkState#getCaseMapping()}.
  */
 public class NetworkManager {
 
-    private static final class PerNetworkManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetworkManager.class);
+
+    /**
+     * Threads building clients and running reconnect timers.
+     */
+    private static final int CONNECT_THREADS = 4;
+    /**
+     * Maximum number of networks between starting to connect and being
+     * connected, across all networks.
+     */
+    private static final int MAX_CONCURRENT_CONNECTS = 8;
+    /**
+     * Gap between connects to the same host.
+     */
+    private static final long HOST_STAGGER_MILLIS = 2000;
+    /**
+     * Lines of scrollback kept in memory per channel, budget permitting.
+     */
+    private static final int BUFFERED_LINES = 100000;
+    /**
+     * Heap for in-memory scrollback across every channel.
+     */
+    private static final long SCROLLBACK_BYTES = 256L * 1024 * 1024;
+    /**
+     * How often lazy channels are checked for idleness.
+     */
+    private static final long IDLE_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final class PerNetworkManager implements ReconnectScheduler.Connection {
+
+        private final NetworkState state;
+        private volatile Network network;
+        private final AtomicReference<Client> client = new AtomicReference<>();
+        // the live client's
+        private final AtomicReference<OutboundScheduler> outbound = new AtomicReference<>();
+        private final JoinPlanner joins = new JoinPlanner();
+        private final LazyChannels lazy = new LazyChannels(new LazyChannels.Membership() {
+
+            @Override
+            public void join(String channel) {
+                PerNetworkManager.this.join(channel);
+            }
 
-        private final StylableTreeItem<String> networkItem;
-        private final Network network;
-        private final Client client;
-        private final Map<String, TreeItem<String>> channelItems;
+            @Override
+            public void part(String channel) {
+                send(SendLane.JOIN, ImmutableList.of("PART " + channel + " :Idle"));
+            }
 
-        private PerNetworkManager(TreeItem<String> networkItem, Network network, Client client,
-                Map<String, TreeItem<String>> channelItems) {
-            this.networkItem = StylableTreeItem.fromTreeItem(networkItem);
-            this.networkItem.getStylableItem().getStyleClass().add("dscn-network");
+        });
+        private final AddChannelListener channelJoiner;
+        private final HistoryRecorder historyRecorder;
+        // shared by every client this network builds, so name ids stay
+        // valid across reconnects
+        private final NetworkScrollback scrollback;
+        private final BufferRecorder bufferRecorder;
+        private final List<Object> extraListeners;
+        private final ReconnectScheduler reconnects;
+        private volatile Timing requested = Timing.now();
+
+        private PerNetworkManager(Network network) {
+            this.state = new NetworkState(network.getNetworkName());
             this.network = network;
-            this.client = client;
-            this.channelItems = channelItems;
+            this.lazy.configure(lazyOf(network), network.getLazyIdleMillis(), ImmutableList.of(), now());
+            this.channelJoiner = new AddChannelListener(this::joinOnConnect, eagerOf(network));
+            this.historyRecorder = new HistoryRecorder(NetworkManager.this.history, network.getNetworkName(), log -> {
+                this.lazy.touch(log.getChannel(), now());
+                NetworkManager.this.onAppend(log);
+            });
+            this.scrollback = NetworkManager.this.scrollback.getNetwork(network.getNetworkName());
+            this.bufferRecorder = new BufferRecorder(this.scrollback);
+            this.extraListeners = NetworkManager.this.listenerFactories.stream()
+                    .map(factory -> factory.apply(network.getNetworkName())).collect(Collectors.toList());
+            this.reconnects = new ReconnectScheduler(network.getNetworkName(), NetworkManager.this.connectThreads,
+                    NetworkManager.this.connectPermits, this);
+            network.getChannelsToJoinOnStartup().forEach(this.state::addChannel);
+        }
+
+        /**
+         * Builds the client, which starts the connection.
+         */
+        @Override
+        public void connect() {
+            Timing start = Timing.now();
+            Client built = this.network.createClient(this::onInput);
+            built.getEventManager().registerEventListener(this.channelJoiner);
+            built.getEventManager().registerEventListener(this.historyRecorder);
+            built.getEventManager().registerEventListener(this.bufferRecorder);
+            this.extraListeners.forEach(built.getEventManager()::registerEventListener);
+            built.getEventManager().registerEventListener(this);
+            LOGGER.debug("Built client for " + this.network.getNetworkName() + " in " + start.getDifferenceNow()
+                    + "ms, after waiting " + this.requested.getDifference(start) + "ms to start");
+            setOutbound(new OutboundScheduler(this.network.getNetworkName(), built::sendRawLineImmediately,
+                    NetworkManager.this.sendThread));
+            this.client.set(built);
+        }
+
+        private void setOutbound(@Nullable OutboundScheduler outbound) {
+            OutboundScheduler old = this.outbound.getAndSet(outbound);
+            if (old != null) {
+                old.close();
+            }
+            // joins planned for the old connection won't be answered
+            this.joins.reset();
+        }
+
+        @Override
+        public void disconnect(String reason) {
+            setOutbound(null);
+            Client current = this.client.getAndSet(null);
+            if (current != null) {
+                current.shutdown(reason);
+            }
+            this.requested = Timing.now();
+            setConnected(false);
+        }
+
+        @Override
+        public void sendPing(String token) {
+            send(SendLane.URGENT, ImmutableList.of("PING :" + token));
+        }
+
+        /**
+         * Joins {@code channels}, and the lazy channels we were in, in one
+         * plan.
+         */
+        private void joinOnConnect(String... channels) {
+            List<String> all = new ArrayList<>(Arrays.asList(channels));
+            all.addAll(this.lazy.getWanted());
+            join(all.toArray(new String[all.size()]));
+        }
+
+        private void join(String... channels) {
+            OutboundScheduler current = this.outbound.get();
+            if (current == null || channels.length == 0) {
+                return;
+            }
+            String name = this.state.getName();
+            current.send(SendLane.JOIN, this.joins.plan(Arrays.asList(channels),
+                    channel -> NetworkManager.this.openChannels.test(name, channel)));
+        }
+
+        private Optional<SendJob> send(SendLane lane, List<String> lines) {
+            OutboundScheduler current = this.outbound.get();
+            return current == null ? Optional.empty() : Optional.of(current.send(lane, lines));
+        }
+
+        private void onInput(String line) {
+            int token = line.indexOf(ReconnectScheduler.PROBE_PREFIX);
+            if (token >= 0 && line.contains(" PONG ")) {
+                this.reconnects.onPong(line.substring(token).trim());
+            }
+            CaseMapping caseMapping = CaseMapping.fromISupportLine(line);
+            if (caseMapping != null) {
+                setCaseMapping(caseMapping);
+            }
+            Client current = this.client.get();
+            if (current != null) {
+                this.joins.onServerLine(line, current.getNick());
+            }
+        }
+
+        private void setCaseMapping(CaseMapping caseMapping) {
+            if (this.state.getCaseMapping() == caseMapping) {
+                return;
+            }
+            LOGGER.debug(this.network.getNetworkName() + " folds names by " + caseMapping.getToken());
+            this.state.setCaseMapping(caseMapping);
+            this.joins.setCaseMapping(caseMapping);
+            this.lazy.setCaseMapping(caseMapping);
+            this.scrollback.setCaseMapping(caseMapping);
+            NetworkManager.this.history.setCaseMapping(this.network.getNetworkName(), caseMapping);
+            NetworkManager.this.observers.forEach(o -> o.caseMappingChanged(this.state));
+        }
+
+        private void stop(String reason) {
+            // no new clients after this returns
+            this.reconnects.stop();
+            disconnect(reason);
         }
 
         @Handler
         public void onConnected(ClientConnectedEvent event) {
-            Platform.runLater(() -> {
-                this.networkItem.getStylableItem().getStyleClass().remove("dscn-network");
-                this.networkItem.getStylableItem().getStyleClass().add("conn-network");
-                this.networkItem.getStylableItem().applyCss();
+            if (event.getClient() != this.client.get()) {
+                return;
+            }
+            LOGGER.info("Connected to " + this.network.getNetworkName() + " in "
+                    + this.requested.getDifferenceNow() + "ms");
+            this.reconnects.onConnected();
+            setConnected(true);
+        }
+
+        @Handler
+        public void onConnectionClosed(ClientConnectionClosedEvent event) {
+            // only if it's the live client, and not us closing it
+            if (!this.client.compareAndSet(event.getClient(), null)) {
+                return;
+            }
+            LOGGER.info("Lost connection to " + this.network.getNetworkName());
+            setOutbound(null);
+            // the library would retry on its own fixed timer, we do our own
+            event.getClient().shutdown("Reconnecting");
+            this.requested = Timing.now();
+            setConnected(false);
+            this.reconnects.onDisconnected();
+        }
+
+        private void setConnected(boolean connected) {
+            if (this.state.isConnected() != connected) {
+                this.state.setConnected(connected);
+                NetworkManager.this.observers.forEach(o -> o.connectionChanged(this.state));
+            }
+        }
+
+        private void update(NetworkDiff.Update update) {
+            this.network = update.getNewNetwork();
+            this.channelJoiner.setChannels(eagerOf(this.network));
+            // lazy or not, a channel we're in stays until it idles out
+            List<String> nowEager = this.lazy.configure(lazyOf(this.network), this.network.getLazyIdleMillis(),
+                    Arrays.asList(eagerOf(update.getOldNetwork())), now());
+            List<String> toJoin = new ArrayList<>();
+            nowEager.stream().filter(this.network.getChannelsToJoinOnStartup()::contains)
+                    .filter(chan -> !update.getJoinedChannels().contains(chan)).forEach(toJoin::add);
+            update.getPartedChannels().forEach(chan -> {
+                // paced with the joins, not a burst on Kitteh's own queue
+                send(SendLane.JOIN, ImmutableList.of("PART " + chan + " :Removed from config"));
+                if (this.state.removeChannel(chan)) {
+                    NetworkManager.this.observers.forEach(o -> o.channelRemoved(this.state, chan));
+                }
             });
+            if (!update.getJoinedChannels().isEmpty()) {
+                List<String> added = ImmutableList.copyOf(update.getJoinedChannels());
+                added.forEach(this.state::addChannel);
+                NetworkManager.this.observers.forEach(o -> o.channelsAdded(this.state, added));
+                added.stream().filter(chan -> !this.lazy.isLazy(chan)).forEach(toJoin::add);
+            }
+            // with no client yet, the channel joiner picks them up
+            join(toJoin.toArray(new String[toJoin.size()]));
         }
 
     }
 
-    private final Map<Network, Client> clients = new HashMap<>();
+    private static ImmutableList<String> lazyOf(Network network) {
+        Set<String> lazy = ImmutableSet.copyOf(network.getLazyChannels());
+        return ImmutableList.copyOf(network.getChannelsToJoinOnStartup().stream().filter(lazy::contains).iterator());
+    }
+
+    private static String[] eagerOf(Network network) {
+        Set<String> lazy = ImmutableSet.copyOf(network.getLazyChannels());
+        return network.getChannelsToJoinOnStartup().stream().filter(chan -> !lazy.contains(chan))
+                .toArray(String[]::new);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
 
-    public TreeItem<String> loadNetwork(Network network) {
-        Client client = network.createClient();
-        this.clients.put(network, client);
-        TreeItem<String> networkNode = new TreeItem<String>(network.getNetworkName());
-        String[] channels = network.getChannelsToJoinOnStartup().stream().toArray(String[]::new);
-        if (channels.length > 0) {
-            client.getEventManager().registerEventListener(new AddChannelListener(channels));
+    private final Configuration config;
+    private final HistoryStore history;
+    private final SearchEngine search;
+    private final Scrollback scrollback;
+    private final ScheduledExecutorService connectThreads;
+    private final ScheduledExecutorService sendThread = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("converse-network-send").setDaemon(true).build());
+    private final Semaphore connectPermits = new Semaphore(MAX_CONCURRENT_CONNECTS);
+    private final List<NetworkObserver> observers = new CopyOnWriteArrayList<>();
+    private final List<Function<String, Object>> listenerFactories = new CopyOnWriteArrayList<>();
+    private final List<Consumer<ChannelLog>> appendListeners = new CopyOnWriteArrayList<>();
+    private volatile BiPredicate<String, String> openChannels = (network, channel) -> false;
+    // guarded by this
+    private final Map<String, PerNetworkManager> networks = new HashMap<>();
+    // load order, which reconnects keep
+    private final List<PerNetworkManager> order = new ArrayList<>();
+    private final Map<String, Long> nextConnectByHost = new HashMap<>();
+
+    /**
+     * @param scrollbackSpill
+     *            - where scrollback evicted from memory is written, or
+     *            {@code null} to leave it to the history log
+     */
+    public NetworkManager(Configuration config, HistoryStore history, SearchEngine search,
+            @Nullable Path scrollbackSpill) {
+        this.config = checkNotNull(config);
+        this.history = checkNotNull(history);
+        this.search = checkNotNull(search);
+        this.scrollback = new Scrollback(SCROLLBACK_BYTES, BUFFERED_LINES, scrollbackSpill);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(CONNECT_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("converse-network-connect-%d").setDaemon(true).build());
+        executor.setRemoveOnCancelPolicy(true);
+        this.connectThreads = executor;
+        this.connectThreads.scheduleWithFixedDelay(this::partIdleChannels, IDLE_CHECK_MILLIS, IDLE_CHECK_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void partIdleChannels() {
+        long now = now();
+        this.order.forEach(manager -> {
+            List<String> parted = manager.lazy.partIdle(now);
+            if (!parted.isEmpty()) {
+                LOGGER.debug("Parted idle lazy channels on " + manager.state.getName() + ": " + parted);
+            }
+        });
+    }
+
+    /**
+     * Adds a Kitteh event listener to each network loaded after this, made by
+     * {@code factory} from the network's name and registered on every client
+     * the network builds.
+     */
+    public void addClientListener(Function<String, Object> factory) {
+        this.listenerFactories.add(checkNotNull(factory));
+    }
+
+    /**
+     * Adds a listener called on the event thread after each record any
+     * network writes to the history, like {@link SearchEngine#onAppend}.
+     */
+    public void addAppendListener(Consumer<ChannelLog> listener) {
+        this.appendListeners.add(checkNotNull(listener));
+    }
+
+    private void onAppend(ChannelLog log) {
+        this.search.onAppend(log);
+        for (Consumer<ChannelLog> listener : this.appendListeners) {
+            listener.accept(log);
         }
-        ImmutableMap.Builder<String, TreeItem<String>> channelItems = ImmutableMap.builder();
-        network.getChannelsToJoinOnStartup().stream().forEach(chan -> {
-            TreeItem<String> chanNode = new TreeItem<>(chan);
-            channelItems.put(chan, chanNode);
-            networkNode.getChildren().add(chanNode);
+    }
+
+    /**
+     * Adds an observer. It isn't told about networks already loaded, see
+     * {@link #getNetworks()}.
+     */
+    public void addObserver(NetworkObserver observer) {
+        this.observers.add(checkNotNull(observer));
+    }
+
+    public void removeObserver(NetworkObserver observer) {
+        this.observers.remove(observer);
+    }
+
+    /**
+     * @return the loaded networks, in order
+     */
+    public synchronized ImmutableList<NetworkState> getNetworks() {
+        return ImmutableList.copyOf(this.order.stream().map(m -> m.state).iterator());
+    }
+
+    /**
+     * @return each network's connection state, RTT and reconnect metrics, by
+     *         network name
+     */
+    public synchronized ImmutableMap<String, ReconnectScheduler> getReconnectSchedulers() {
+        ImmutableMap.Builder<String, ReconnectScheduler> schedulers = ImmutableMap.builder();
+        this.order.forEach(manager -> schedulers.put(manager.state.getName(), manager.reconnects));
+        return schedulers.build();
+    }
+
+    /**
+     * @return each connected network's outbound queue depths and wait times,
+     *         by network name
+     */
+    public synchronized ImmutableMap<String, OutboundScheduler> getOutboundSchedulers() {
+        ImmutableMap.Builder<String, OutboundScheduler> schedulers = ImmutableMap.builder();
+        this.order.forEach(manager -> {
+            OutboundScheduler outbound = manager.outbound.get();
+            if (outbound != null) {
+                schedulers.put(manager.state.getName(), outbound);
+            }
         });
-        client.getEventManager()
-                .registerEventListener(new PerNetworkManager(networkNode, network, client, channelItems.build()));
-        return networkNode;
+        return schedulers.build();
+    }
+
+    /**
+     * @return each network's join latencies and the time to be back in every
+     *         channel after connecting, by network name
+     */
+    public synchronized ImmutableMap<String, JoinPlanner> getJoinPlanners() {
+        ImmutableMap.Builder<String, JoinPlanner> planners = ImmutableMap.builder();
+        this.order.forEach(manager -> planners.put(manager.state.getName(), manager.joins));
+        return planners.build();
+    }
+
+    /**
+     * Sets which channels the user has open, tested with a network and
+     * channel name. They're joined ahead of the rest.
+     */
+    public void setOpenChannels(BiPredicate<String, String> openChannels) {
+        this.openChannels = checkNotNull(openChannels);
+    }
+
+    /**
+     * Marks the channel the user is looking at, joining it if it's lazy and
+     * reading its scrollback back in if it was evicted.
+     *
+     * @param networkName
+     *            - {@code null}, with {@code channel}, if it's none
+     */
+    public synchronized void viewChannel(@Nullable String networkName, @Nullable String channel) {
+        long now = now();
+        this.order.forEach(manager -> {
+            boolean viewed = manager.state.getName().equals(networkName);
+            manager.lazy.view(viewed ? channel : null, now);
+            if (viewed && channel != null) {
+                // reloading reads the spill file, keep it off the UI thread
+                this.connectThreads.execute(() -> manager.scrollback.view(channel));
+            }
+        });
+    }
+
+    /**
+     * Keeps a lazy channel joined, for something that watches it, such as a
+     * keyword alert, until as many {@link #unsubscribe(String, String)
+     * unsubscribes}. Joins it now if it isn't.
+     */
+    public synchronized void subscribe(String networkName, String channel) {
+        PerNetworkManager manager = this.networks.get(networkName);
+        if (manager != null) {
+            manager.lazy.subscribe(channel, now());
+        }
+    }
+
+    public synchronized void unsubscribe(String networkName, String channel) {
+        PerNetworkManager manager = this.networks.get(networkName);
+        if (manager != null) {
+            manager.lazy.unsubscribe(channel, now());
+        }
+    }
+
+    /**
+     * Sends what the user typed to {@code target}, split into lines by
+     * {@link MessageLines}. A single line jumps ahead of joins and pastes;
+     * several lines are queued as one paste, which can be cancelled.
+     *
+     * @return the queued job, or nothing if the network isn't connected or
+     *         there's nothing to send
+     */
+    public Optional<SendJob> send(String networkName, String target, String text) {
+        List<String> lines = MessageLines.privmsg(target, text);
+        PerNetworkManager manager;
+        synchronized (this) {
+            manager = this.networks.get(networkName);
+        }
+        if (manager == null || lines.isEmpty()) {
+            return Optional.empty();
+        }
+        return manager.send(lines.size() == 1 ? SendLane.INTERACTIVE : SendLane.BULK, lines);
+    }
+
+    /**
+     * @return the in-memory scrollback of every network, with its budget and
+     *         per-channel footprints
+     */
+    public Scrollback getScrollback() {
+        return this.scrollback;
+    }
+
+    private PerNetworkManager loadNetwork(Network network) {
+        PerNetworkManager manager = new PerNetworkManager(network);
+        this.networks.put(network.getNetworkName(), manager);
+        String host = network.getNetworkAddress().toLowerCase();
+        long now = System.currentTimeMillis();
+        long connectAt = Math.max(now, this.nextConnectByHost.getOrDefault(host, now));
+        this.nextConnectByHost.put(host, connectAt + HOST_STAGGER_MILLIS);
+        manager.reconnects.start(connectAt - now);
+        return manager;
+    }
+
+    /**
+     * Brings the loaded networks in line with {@code wanted}, touching only
+     * the connections that changed.
+     */
+    public synchronized void reconcile(List<Network> wanted) {
+        List<Network> current = this.order.stream().map(m -> m.network).collect(Collectors.toList());
+        NetworkDiff diff = NetworkDiff.between(current, wanted);
+        if (diff.isEmpty()) {
+            return;
+        }
+        LOGGER.info("Reconciling networks: " + diff);
+        diff.getRemoved().forEach(net -> {
+            unloadNetwork(net.getNetworkName(), "Removed from config");
+            this.scrollback.removeNetwork(net.getNetworkName());
+        });
+        diff.getReconnected().forEach(update -> {
+            int index = unloadNetwork(update.getOldNetwork().getNetworkName(), "Reconnecting with new settings");
+            PerNetworkManager manager = loadNetwork(update.getNewNetwork());
+            // keep the network where the user last saw it
+            this.order.add(index, manager);
+            this.observers.forEach(o -> o.networksAdded(index, ImmutableList.of(manager.state)));
+        });
+        diff.getUpdated().forEach(update -> this.networks.get(update.getNewNetwork().getNetworkName()).update(update));
+        if (!diff.getAdded().isEmpty()) {
+            int index = this.order.size();
+            List<NetworkState> added = new ArrayList<>(diff.getAdded().size());
+            diff.getAdded().forEach(net -> {
+                PerNetworkManager manager = loadNetwork(net);
+                this.order.add(manager);
+                added.add(manager.state);
+            });
+            // one change for the whole batch, not one per network
+            this.observers.forEach(o -> o.networksAdded(index, added));
+        }
+    }
+
+    /**
+     * @return the index the network used to occupy
+     */
+    private int unloadNetwork(String networkName, String quitMessage) {
+        PerNetworkManager manager = this.networks.remove(networkName);
+        manager.stop(quitMessage);
+        int index = this.order.indexOf(manager);
+        this.order.remove(index);
+        this.observers.forEach(o -> o.networkRemoved(manager.state));
+        return index;
     }
 
-    public void shutdown() {
-        this.clients.forEach((net, conn) -> {
-            String quit = Optional.ofNullable(net.getQuitMessage())
-                    .orElse(ConverseRelay.CONFIG.getDefaults().getQuitMessage());
-            conn.shutdown(quit == null ? "ConverseRelay™" : quit);
+    public synchronized void shutdown() {
+        this.order.forEach(manager -> {
+            String quit = Optional.ofNullable(manager.network.getQuitMessage())
+                    .orElse(this.config.getDefaults().getQuitMessage());
+            manager.stop(quit == null ? "ConverseRelay™" : quit);
         });
+        this.connectThreads.shutdownNow();
+        this.sendThread.shutdownNow();
     }
 
 }
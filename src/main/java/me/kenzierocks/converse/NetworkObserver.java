@@ -0,0 +1,42 @@
+package me.kenzierocks.converse;
+
+import java.util.List;
+
+/**
+ * Watches the networks a {@link NetworkManager} has loaded. The JavaFX
+ * network tree is one; a headless bouncer needn't have any.
+ * <p>
+ * Methods are called on whichever thread made the change, the one calling
+ * {@link NetworkManager#reconcile(List)} or a client's event thread, in the
+ * order the changes happened. Observers with their own thread should hand
+ * the change over in that same order.
+ */
+public interface NetworkObserver {
+
+    /**
+     * {@code added} were loaded, and now sit in order from {@code index} in
+     * the network list.
+     */
+    default void networksAdded(int index, List<NetworkState> added) {
+    }
+
+    default void networkRemoved(NetworkState network) {
+    }
+
+    default void connectionChanged(NetworkState network) {
+    }
+
+    /**
+     * The server named a different {@code CASEMAPPING}; channel names fold
+     * by {@link NetworkState#getCaseMapping()} from now on.
+     */
+    default void caseMappingChanged(NetworkState network) {
+    }
+
+    default void channelsAdded(NetworkState network, List<String> channels) {
+    }
+
+    default void channelRemoved(NetworkState network, String channel) {
+    }
+
+}
@@ -0,0 +1,69 @@
+package me.kenzierocks.converse;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.util.CaseMapping;
+
+/**
+ * What a frontend shows of a loaded network: its name, whether it's
+ * connected, its channels, and how the server folds their names.
+ * {@link NetworkManager} keeps it current and tells its
+ * {@link NetworkObserver}s what changed.
+ */
+public final class NetworkState {
+
+    private final String name;
+    private volatile boolean connected;
+    // RFC1459 until the server says otherwise
+    private volatile CaseMapping caseMapping = CaseMapping.RFC1459;
+    private final List<String> channels = new CopyOnWriteArrayList<>();
+
+    NetworkState(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    void setConnected(boolean connected) {
+        this.connected = connected;
+    }
+
+    /**
+     * @return how the server folds channel names and nicks, as of its last
+     *         {@code CASEMAPPING}
+     */
+    public CaseMapping getCaseMapping() {
+        return this.caseMapping;
+    }
+
+    void setCaseMapping(CaseMapping caseMapping) {
+        this.caseMapping = caseMapping;
+    }
+
+    public ImmutableList<String> getChannels() {
+        return ImmutableList.copyOf(this.channels);
+    }
+
+    void addChannel(String channel) {
+        this.channels.add(channel);
+    }
+
+    boolean removeChannel(String channel) {
+        return this.channels.remove(channel);
+    }
+
+    @Override
+    public String toString() {
+        return this.name + (this.connected ? " (connected)" : " (disconnected)");
+    }
+
+}
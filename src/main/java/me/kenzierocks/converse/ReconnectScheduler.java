@@ -0,0 +1,233 @@
+package me.kenzierocks.converse;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import me.kenzierocks.converse.util.Backoff;
+import me.kenzierocks.converse.util.Histogram;
+
+/**
+ * Keeps one network connected. Connection attempts take a permit from a pool
+ * shared by every network, so a netsplit doesn't turn into dozens of
+ * simultaneous reconnects; failed attempts back off exponentially with
+ * jitter. While connected, the link is probed with PINGs and declared dead if
+ * a probe goes unanswered for a whole probe interval.
+ */
+public final class ReconnectScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReconnectScheduler.class);
+
+    /**
+     * Token prefix for our PINGs, so our PONGs can be told apart from the
+     * server's own.
+     */
+    static final String PROBE_PREFIX = "converse-probe-";
+
+    private static final long BACKOFF_BASE_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long BACKOFF_MAX_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long PERMIT_RETRY_MILLIS = 500;
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long PROBE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    public enum State {
+        /**
+         * Waiting for a connect attempt to be scheduled or to get a permit.
+         */
+        WAITING, CONNECTING, CONNECTED, STOPPED;
+    }
+
+    /**
+     * The connection being kept alive. Called on a scheduler thread.
+     */
+    interface Connection {
+
+        /**
+         * Starts connecting. Completion is reported through
+         * {@link ReconnectScheduler#onConnected()} or
+         * {@link ReconnectScheduler#onDisconnected()}.
+         */
+        void connect() throws Exception;
+
+        void disconnect(String reason);
+
+        void sendPing(String token);
+
+    }
+
+    private final String name;
+    private final ScheduledExecutorService executor;
+    private final Semaphore connectPermits;
+    private final Connection connection;
+    private final Backoff backoff = new Backoff(BACKOFF_BASE_MILLIS, BACKOFF_MAX_MILLIS);
+    private final Histogram rtt = new Histogram();
+    private final Histogram reconnectDelay = new Histogram();
+    private volatile State state = State.WAITING;
+    private volatile int reconnects;
+    // guarded by this
+    private boolean holdingPermit;
+    private ScheduledFuture<?> pending;
+    private boolean probeOutstanding;
+    private long probeSequence;
+    private long probeSentAt;
+
+    ReconnectScheduler(String name, ScheduledExecutorService executor, Semaphore connectPermits,
+            Connection connection) {
+        this.name = checkNotNull(name);
+        this.executor = checkNotNull(executor);
+        this.connectPermits = checkNotNull(connectPermits);
+        this.connection = checkNotNull(connection);
+    }
+
+    /**
+     * Schedules the first connect attempt.
+     */
+    synchronized void start(long delayMillis) {
+        schedule(this::attemptConnect, delayMillis);
+    }
+
+    private void schedule(Runnable task, long delayMillis) {
+        if (this.pending != null) {
+            this.pending.cancel(false);
+        }
+        this.pending = this.executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void attemptConnect() {
+        if (this.state == State.STOPPED) {
+            return;
+        }
+        if (!this.connectPermits.tryAcquire()) {
+            // jitter so the waiters don't all wake up together either
+            schedule(this::attemptConnect,
+                    PERMIT_RETRY_MILLIS + ThreadLocalRandom.current().nextLong(PERMIT_RETRY_MILLIS));
+            return;
+        }
+        this.holdingPermit = true;
+        this.state = State.CONNECTING;
+        schedule(this::connectTimedOut, CONNECT_TIMEOUT_MILLIS);
+        try {
+            this.connection.connect();
+        } catch (Throwable t) {
+            LOGGER.error("Failed to start connecting to " + this.name, t);
+            onDisconnected();
+        }
+    }
+
+    private synchronized void connectTimedOut() {
+        if (this.state == State.CONNECTING) {
+            LOGGER.warn("Timed out connecting to " + this.name);
+            this.connection.disconnect("Connect timed out");
+            onDisconnected();
+        }
+    }
+
+    synchronized void onConnected() {
+        if (this.state != State.CONNECTING) {
+            return;
+        }
+        releasePermit();
+        this.backoff.reset();
+        this.state = State.CONNECTED;
+        this.probeOutstanding = false;
+        if (this.pending != null) {
+            this.pending.cancel(false);
+        }
+        this.pending = this.executor.scheduleWithFixedDelay(this::probe, PROBE_INTERVAL_MILLIS,
+                PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called when the connection is lost or an attempt fails. Schedules the
+     * next attempt.
+     */
+    synchronized void onDisconnected() {
+        if (this.state == State.STOPPED || this.state == State.WAITING) {
+            return;
+        }
+        releasePermit();
+        this.state = State.WAITING;
+        long delay = this.backoff.nextDelayMillis();
+        this.reconnects++;
+        this.reconnectDelay.record(delay);
+        LOGGER.info("Reconnecting to " + this.name + " in " + delay + "ms (attempt " + this.backoff.getAttempts()
+                + ")");
+        schedule(this::attemptConnect, delay);
+    }
+
+    private synchronized void probe() {
+        if (this.state != State.CONNECTED) {
+            return;
+        }
+        if (this.probeOutstanding) {
+            LOGGER.warn("No PONG from " + this.name + " in " + PROBE_INTERVAL_MILLIS + "ms, link is dead");
+            this.connection.disconnect("Ping timeout");
+            onDisconnected();
+            return;
+        }
+        this.probeOutstanding = true;
+        this.probeSequence++;
+        this.probeSentAt = System.nanoTime();
+        this.connection.sendPing(PROBE_PREFIX + this.probeSequence);
+    }
+
+    /**
+     * Feed every PONG token from the server here.
+     */
+    synchronized void onPong(String token) {
+        if (!this.probeOutstanding || !token.equals(PROBE_PREFIX + this.probeSequence)) {
+            return;
+        }
+        this.rtt.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.probeSentAt));
+        this.probeOutstanding = false;
+    }
+
+    synchronized void stop() {
+        this.state = State.STOPPED;
+        releasePermit();
+        if (this.pending != null) {
+            this.pending.cancel(false);
+            this.pending = null;
+        }
+    }
+
+    private void releasePermit() {
+        if (this.holdingPermit) {
+            this.holdingPermit = false;
+            this.connectPermits.release();
+        }
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    /**
+     * @return the number of reconnects scheduled since start
+     */
+    public int getReconnectCount() {
+        return this.reconnects;
+    }
+
+    /**
+     * @return round trip times of PING probes, in milliseconds
+     */
+    public Histogram getRtt() {
+        return this.rtt;
+    }
+
+    /**
+     * @return the backoff delays chosen for reconnects, in milliseconds
+     */
+    public Histogram getReconnectDelay() {
+        return this.reconnectDelay;
+    }
+
+}
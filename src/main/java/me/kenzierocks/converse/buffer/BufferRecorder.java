@@ -0,0 +1,63 @@
+package me.kenzierocks.converse.buffer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.channel.ChannelCTCPEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelJoinEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelNoticeEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelPartEvent;
+import org.kitteh.irc.lib.net.engio.mbassy.listener.Handler;
+
+import me.kenzierocks.converse.history.MessageKind;
+
+/**
+ * Client listener that adds a network's channel traffic to its
+ * {@link NetworkScrollback}.
+ */
+public final class BufferRecorder {
+
+    private static final String ACTION_PREFIX = "ACTION ";
+
+    private final NetworkScrollback scrollback;
+
+    public BufferRecorder(NetworkScrollback scrollback) {
+        this.scrollback = checkNotNull(scrollback);
+    }
+
+    private void add(Channel channel, MessageKind kind, User user, String text) {
+        this.scrollback.add(System.currentTimeMillis(), kind, channel.getName(), user.getNick(),
+                user.getUserString() + "@" + user.getHost(), text == null ? "" : text);
+    }
+
+    @Handler
+    public void onMessage(ChannelMessageEvent event) {
+        add(event.getChannel(), MessageKind.MESSAGE, event.getActor(), event.getMessage());
+    }
+
+    @Handler
+    public void onNotice(ChannelNoticeEvent event) {
+        add(event.getChannel(), MessageKind.NOTICE, event.getActor(), event.getMessage());
+    }
+
+    @Handler
+    public void onCtcp(ChannelCTCPEvent event) {
+        String message = event.getMessage();
+        if (message.startsWith(ACTION_PREFIX)) {
+            add(event.getChannel(), MessageKind.ACTION, event.getActor(), message.substring(ACTION_PREFIX.length()));
+        }
+    }
+
+    @Handler
+    public void onJoin(ChannelJoinEvent event) {
+        add(event.getChannel(), MessageKind.JOIN, event.getUser(), "");
+    }
+
+    @Handler
+    public void onPart(ChannelPartEvent event) {
+        add(event.getChannel(), MessageKind.PART, event.getUser(), event.getMessage());
+    }
+
+}
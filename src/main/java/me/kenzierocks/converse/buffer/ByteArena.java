@@ -0,0 +1,101 @@
+package me.kenzierocks.converse.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * Append-only UTF-8 storage in chunks, addressed by a {@code long} of the
+ * chunk number, which keeps counting up, and the offset in it. Text never
+ * straddles a chunk, and whole chunks are dropped from the front once nothing
+ * refers to them; the last dropped one is kept for reuse, so a full buffer
+ * stops allocating.
+ * <p>
+ * Chunks start small and double up to {@link #MAX_CHUNK_BYTES}, so a quiet
+ * channel holds a few KiB, not a megabyte.
+ * <p>
+ * Not thread safe, {@link MessageBuffer} locks around it.
+ */
+final class ByteArena {
+
+    static final int MIN_CHUNK_BYTES = 4 * 1024;
+    static final int MAX_CHUNK_BYTES = 1 << 20;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    // chunk number of chunks.get(0)
+    private long firstChunk;
+    private ByteBuffer spare;
+    private long capacity;
+
+    /**
+     * @return the address of the encoded text, which is
+     *         {@link Utf8#encodedLength(CharSequence)} bytes long
+     */
+    long append(CharSequence text, int length) {
+        if (length > MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("text longer than a chunk");
+        }
+        ByteBuffer last = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+        if (last == null || last.remaining() < length) {
+            int size = last == null ? MIN_CHUNK_BYTES : Math.min(last.capacity() * 2, MAX_CHUNK_BYTES);
+            size = Math.max(size, length);
+            if (this.spare != null && this.spare.capacity() >= size) {
+                last = this.spare;
+                last.clear();
+            } else {
+                last = ByteBuffer.allocate(size);
+                this.capacity += size;
+                if (this.spare != null) {
+                    this.capacity -= this.spare.capacity();
+                }
+            }
+            this.spare = null;
+            this.chunks.add(last);
+        }
+        long address = ((this.firstChunk + this.chunks.size() - 1) << 32) | last.position();
+        Utf8.encode(text, last);
+        return address;
+    }
+
+    /**
+     * Drops the chunks wholly before {@code address}.
+     */
+    void releaseBefore(long address) {
+        long chunk = address >>> 32;
+        while (this.firstChunk < chunk && this.chunks.size() > 1) {
+            if (this.spare != null) {
+                this.capacity -= this.spare.capacity();
+            }
+            this.spare = this.chunks.remove(0);
+            this.firstChunk++;
+        }
+    }
+
+    /**
+     * Drops every chunk, the spare too.
+     */
+    void clear() {
+        this.firstChunk += this.chunks.size();
+        this.chunks.clear();
+        this.spare = null;
+        this.capacity = 0;
+    }
+
+    ByteBuffer chunkOf(long address) {
+        return this.chunks.get((int) ((address >>> 32) - this.firstChunk));
+    }
+
+    static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    /**
+     * @return the bytes held, used or not, including the spare chunk
+     */
+    long getCapacity() {
+        return this.capacity;
+    }
+
+}
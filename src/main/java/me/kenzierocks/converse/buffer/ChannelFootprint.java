@@ -0,0 +1,45 @@
+package me.kenzierocks.converse.buffer;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * How much of the {@link Scrollback} budget a channel is using.
+ */
+@AutoValue
+public abstract class ChannelFootprint {
+
+    static ChannelFootprint create(String network, String channel, int lines, long bytes, int spilledLines,
+            long lastViewed) {
+        return new AutoValue_ChannelFootprint(network, channel, lines, bytes, spilledLines, lastViewed);
+    }
+
+    ChannelFootprint() {
+    }
+
+    public abstract String getNetwork();
+
+    public abstract String getChannel();
+
+    /**
+     * @return the lines in memory
+     */
+    public abstract int getLines();
+
+    /**
+     * @return the heap those lines take, counted against the budget
+     */
+    public abstract long getBytes();
+
+    /**
+     * @return the lines waiting in the spill file, to be read back when the
+     *         channel is next viewed
+     */
+    public abstract int getSpilledLines();
+
+    /**
+     * @return when the channel was last viewed, or {@code 0} if it hasn't
+     *         been
+     */
+    public abstract long getLastViewed();
+
+}
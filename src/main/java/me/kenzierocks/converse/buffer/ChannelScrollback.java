@@ -0,0 +1,268 @@
+package me.kenzierocks.converse.buffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import me.kenzierocks.converse.history.MessageKind;
+
+/**
+ * One channel's in-memory scrollback, and its spill file while it's evicted.
+ * <p>
+ * The buffer is replaced when the channel is evicted or reloaded, with
+ * sequence numbers carried over, so pages read before still line up. Methods
+ * that change the footprint return the change since it was last counted; the
+ * caller hands it to the {@link Scrollback} once this channel's lock is
+ * released.
+ */
+final class ChannelScrollback {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChannelScrollback.class);
+    private static final int SPILL_MAGIC = 0x43535350;
+
+    private final String network;
+    private final String channel;
+    private final NameDictionary names;
+    private final int capacity;
+    @Nullable
+    private final Path spillFile;
+    // guarded by this
+    private MessageBuffer buffer;
+    private long countedBytes;
+    private boolean spilled;
+    private int spilledLines;
+    // the sequence after the last spilled line
+    private long spilledNext;
+    private volatile long lastViewed;
+    private volatile long lastActivity;
+
+    ChannelScrollback(String network, String channel, NameDictionary names, int capacity,
+            @Nullable Path spillFile) {
+        this.network = network;
+        this.channel = channel;
+        this.names = names;
+        this.capacity = capacity;
+        this.spillFile = spillFile;
+        this.buffer = new MessageBuffer(names, capacity);
+    }
+
+    String getNetwork() {
+        return this.network;
+    }
+
+    String getChannel() {
+        return this.channel;
+    }
+
+    long getLastViewed() {
+        return this.lastViewed;
+    }
+
+    long getLastActivity() {
+        return this.lastActivity;
+    }
+
+    /**
+     * @return the bytes counted against the budget so far
+     */
+    synchronized long getCountedBytes() {
+        return this.countedBytes;
+    }
+
+    private long recount() {
+        long footprint = this.buffer.getFootprintBytes();
+        long delta = footprint - this.countedBytes;
+        this.countedBytes = footprint;
+        return delta;
+    }
+
+    synchronized ChannelFootprint getFootprint() {
+        return ChannelFootprint.create(this.network, this.channel, this.buffer.size(),
+                this.buffer.getFootprintBytes(), this.spilled ? this.spilledLines : 0, this.lastViewed);
+    }
+
+    /**
+     * @return the footprint change
+     */
+    synchronized long add(long timestamp, MessageKind kind, String nick, String userHost, CharSequence text) {
+        this.buffer.add(timestamp, kind, this.channel, nick, userHost, text);
+        this.lastActivity = timestamp;
+        return recount();
+    }
+
+    /**
+     * Marks the channel as just viewed.
+     */
+    void touch() {
+        this.lastViewed = System.currentTimeMillis();
+    }
+
+    synchronized MessageBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Reads the spill file back in front of the lines that came in since.
+     *
+     * @return the footprint change
+     */
+    synchronized long reload() {
+        if (!this.spilled) {
+            return 0;
+        }
+        if (this.spilledNext != this.buffer.getFirstSequence()) {
+            // the buffer filled up since, so they'd be dropped anyway
+            deleteSpill();
+            return 0;
+        }
+        MessageBuffer restored = null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(this.spillFile)))) {
+            if (in.readInt() != SPILL_MAGIC) {
+                throw new IOException("not a spill file");
+            }
+            // only the last capacity lines stay
+            restored = new MessageBuffer(this.names, this.capacity, in.readLong());
+            for (int i = 0; i < this.spilledLines; i++) {
+                restored.add(in.readLong(), MessageKind.fromCode(in.readByte()), this.channel, in.readUTF(),
+                        in.readUTF(), in.readUTF());
+            }
+            MessageBuffer merged = restored;
+            this.buffer.readBefore(Long.MAX_VALUE, this.buffer.size(), null, line -> {
+                merged.add(line.getTimestamp(), line.getKind(), this.channel, line.getNick(), line.getUserHost(),
+                        line.getText());
+                return true;
+            });
+            this.buffer.clear();
+            this.buffer = merged;
+        } catch (IOException | RuntimeException e) {
+            // the history log still has them
+            LOGGER.warn("Unable to reload scrollback for " + this.network + "/" + this.channel, e);
+            if (restored != null) {
+                restored.clear();
+            }
+        }
+        deleteSpill();
+        return recount();
+    }
+
+    /**
+     * Empties the buffer, adding it to the spill file first if there is one.
+     *
+     * @return the footprint change
+     */
+    synchronized long evict() {
+        if (this.buffer.size() == 0) {
+            return recount();
+        }
+        long reloaded = 0;
+        if (this.spillFile != null) {
+            if (this.spilled && this.spilledLines + this.buffer.size() > 2 * this.capacity) {
+                // mostly lines a reload would drop, so fold the file in and
+                // start it over; once per capacity lines spilled, not every
+                // eviction
+                reloaded = reload();
+            }
+            spill();
+        }
+        MessageBuffer evicted = this.buffer;
+        this.buffer = new MessageBuffer(this.names, this.capacity, evicted.getNextSequence());
+        // anyone still holding it sees it empty, not names released under it
+        evicted.clear();
+        return reloaded + recount();
+    }
+
+    /**
+     * Appends the buffer to the spill file, or starts one with it. Spill
+     * files don't outlive the process, so there's no need to write them
+     * atomically; a failed write just drops the file.
+     */
+    private void spill() {
+        MessageBuffer spilling = this.buffer;
+        // an evicted buffer picks up where the spill left off, unless it
+        // filled up since and the spill is stale
+        boolean append = this.spilled && this.spilledNext == spilling.getFirstSequence();
+        try {
+            Files.createDirectories(this.spillFile.toAbsolutePath().getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(append
+                    ? Files.newOutputStream(this.spillFile, StandardOpenOption.APPEND)
+                    : Files.newOutputStream(this.spillFile)))) {
+                if (!append) {
+                    out.writeInt(SPILL_MAGIC);
+                    out.writeLong(spilling.getFirstSequence());
+                }
+                spilling.readBefore(Long.MAX_VALUE, spilling.size(), null, line -> {
+                    try {
+                        out.writeLong(line.getTimestamp());
+                        out.writeByte(line.getKind().getCode());
+                        out.writeUTF(line.getNick());
+                        out.writeUTF(line.getUserHost());
+                        out.writeUTF(line.getText());
+                    } catch (IOException e) {
+                        throw new SpillException(e);
+                    }
+                    return true;
+                });
+            } catch (SpillException e) {
+                throw e.getCause();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to spill scrollback for " + this.network + "/" + this.channel + ", dropping it", e);
+            // a torn record would throw off the next read
+            deleteSpill();
+            return;
+        }
+        this.spilledLines = (append ? this.spilledLines : 0) + spilling.size();
+        this.spilledNext = spilling.getNextSequence();
+        this.spilled = true;
+    }
+
+    /**
+     * Drops the lines and the spill file, for a channel no longer kept.
+     *
+     * @return the footprint change
+     */
+    synchronized long discard() {
+        deleteSpill();
+        this.buffer.clear();
+        return recount();
+    }
+
+    synchronized void deleteSpill() {
+        this.spilled = false;
+        if (this.spillFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(this.spillFile);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete " + this.spillFile, e);
+        }
+    }
+
+    private static final class SpillException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        SpillException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+
+    }
+
+}
@@ -0,0 +1,276 @@
+package me.kenzierocks.converse.buffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import me.kenzierocks.converse.history.MessageKind;
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * The last {@code capacity} lines of channel traffic, kept without a single
+ * {@code String} per line: names are ids in the network's
+ * {@link NameDictionary}, text is UTF-8 in a {@link ByteArena}, and the rest
+ * sits in parallel primitive arrays. A line only becomes strings when a
+ * {@link LineView} is asked for them.
+ * <p>
+ * Every line gets a sequence number, counting up; the oldest are dropped when
+ * the buffer holds {@code capacity} lines. The arrays are allocated with the
+ * first line, start small and double as lines come in, so a quiet channel's
+ * buffer stays small and an empty one holds nothing. All access locks the
+ * buffer, and visitors run under the lock, so keep them to rendering a page.
+ */
+public final class MessageBuffer {
+
+    private static final int INITIAL_SLOTS = 64;
+    /**
+     * Heap taken by each slot across the arrays.
+     */
+    private static final int SLOT_BYTES = 8 + 1 + 4 + 4 + 4 + 8 + 4;
+
+    private final NameDictionary names;
+    private final int capacity;
+    // guarded by this
+    private long[] timestamps;
+    private byte[] kinds;
+    private int[] channels;
+    private int[] nicks;
+    private int[] userHosts;
+    private long[] textAddresses;
+    private int[] textLengths;
+    private final ByteArena arena = new ByteArena();
+    private long firstSequence;
+    private long nextSequence;
+
+    public MessageBuffer(NameDictionary names, int capacity) {
+        this(names, capacity, 0);
+    }
+
+    /**
+     * @param firstSequence
+     *            - the sequence number of the first line added
+     */
+    MessageBuffer(NameDictionary names, int capacity, long firstSequence) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        checkArgument(firstSequence >= 0, "negative sequence");
+        this.names = checkNotNull(names);
+        this.capacity = capacity;
+        this.firstSequence = firstSequence;
+        this.nextSequence = firstSequence;
+        allocate(0);
+    }
+
+    private void allocate(int slots) {
+        this.timestamps = new long[slots];
+        this.kinds = new byte[slots];
+        this.channels = new int[slots];
+        this.nicks = new int[slots];
+        this.userHosts = new int[slots];
+        this.textAddresses = new long[slots];
+        this.textLengths = new int[slots];
+    }
+
+    private void grow() {
+        long[] oldTimestamps = this.timestamps;
+        byte[] oldKinds = this.kinds;
+        int[] oldChannels = this.channels;
+        int[] oldNicks = this.nicks;
+        int[] oldUserHosts = this.userHosts;
+        long[] oldTextAddresses = this.textAddresses;
+        int[] oldTextLengths = this.textLengths;
+        int oldSlots = oldTimestamps.length;
+        allocate(oldSlots == 0 ? Math.min(this.capacity, INITIAL_SLOTS)
+                : (int) Math.min((long) oldSlots * 2, this.capacity));
+        for (long sequence = this.firstSequence; sequence < this.nextSequence; sequence++) {
+            int from = (int) (sequence % oldSlots);
+            int to = slot(sequence);
+            this.timestamps[to] = oldTimestamps[from];
+            this.kinds[to] = oldKinds[from];
+            this.channels[to] = oldChannels[from];
+            this.nicks[to] = oldNicks[from];
+            this.userHosts[to] = oldUserHosts[from];
+            this.textAddresses[to] = oldTextAddresses[from];
+            this.textLengths[to] = oldTextLengths[from];
+        }
+    }
+
+    public NameDictionary getNames() {
+        return this.names;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % this.timestamps.length);
+    }
+
+    /**
+     * @return the line's sequence number
+     */
+    public long add(long timestamp, MessageKind kind, String channel, String nick, String userHost,
+            CharSequence text) {
+        int channelId = this.names.retain(channel);
+        int nickId = this.names.retain(nick);
+        int userHostId = this.names.retain(userHost);
+        int length = Utf8.encodedLength(text);
+        synchronized (this) {
+            long sequence = this.nextSequence;
+            boolean full = sequence - this.firstSequence == this.capacity;
+            if (full) {
+                this.firstSequence++;
+            } else if (sequence - this.firstSequence == this.timestamps.length) {
+                grow();
+            }
+            int slot = slot(sequence);
+            if (full) {
+                // the oldest line's slot
+                releaseNames(slot);
+            }
+            this.timestamps[slot] = timestamp;
+            this.kinds[slot] = kind.getCode();
+            this.channels[slot] = channelId;
+            this.nicks[slot] = nickId;
+            this.userHosts[slot] = userHostId;
+            this.textAddresses[slot] = this.arena.append(text, length);
+            this.textLengths[slot] = length;
+            this.nextSequence = sequence + 1;
+            if (full) {
+                this.arena.releaseBefore(this.textAddresses[slot(this.firstSequence)]);
+            }
+            return sequence;
+        }
+    }
+
+    private void releaseNames(int slot) {
+        this.names.release(this.channels[slot]);
+        this.names.release(this.nicks[slot]);
+        this.names.release(this.userHosts[slot]);
+    }
+
+    /**
+     * Drops every line, releasing their names and text. Sequence numbers
+     * carry on from where they were.
+     */
+    public synchronized void clear() {
+        for (long sequence = this.firstSequence; sequence < this.nextSequence; sequence++) {
+            releaseNames(slot(sequence));
+        }
+        this.firstSequence = this.nextSequence;
+        this.arena.clear();
+        allocate(0);
+    }
+
+    public synchronized long getFirstSequence() {
+        return this.firstSequence;
+    }
+
+    public synchronized long getNextSequence() {
+        return this.nextSequence;
+    }
+
+    public synchronized int size() {
+        return (int) (this.nextSequence - this.firstSequence);
+    }
+
+    /**
+     * Visits, oldest first, up to {@code limit} lines before
+     * {@code beforeSequence}, only from {@code channel} if it isn't
+     * {@code null}. Pass the oldest sequence of the previous page to page
+     * back.
+     */
+    public synchronized void readBefore(long beforeSequence, int limit, @Nullable String channel,
+            Predicate<LineView> visitor) {
+        checkArgument(limit >= 0, "negative limit");
+        int channelId = channel == null ? -1 : this.names.find(channel);
+        if (channel != null && channelId < 0) {
+            // never seen, so no lines
+            return;
+        }
+        long[] page = new long[Math.min(limit, size())];
+        int found = 0;
+        long end = Math.min(beforeSequence, this.nextSequence);
+        for (long sequence = end - 1; sequence >= this.firstSequence && found < page.length; sequence--) {
+            if (channelId < 0 || this.channels[slot(sequence)] == channelId) {
+                page[found++] = sequence;
+            }
+        }
+        LineView view = new LineView();
+        for (int i = found - 1; i >= 0; i--) {
+            view.sequence = page[i];
+            view.slot = slot(page[i]);
+            if (!visitor.test(view)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the bytes held in the arena, including unused space at the end
+     *         of the last chunk
+     */
+    public synchronized long getArenaBytes() {
+        return this.arena.getCapacity();
+    }
+
+    /**
+     * @return the heap held by the buffer's arrays and arena, not counting
+     *         the names, which the network's buffers share
+     */
+    public synchronized long getFootprintBytes() {
+        return (long) this.timestamps.length * SLOT_BYTES + this.arena.getCapacity();
+    }
+
+    /**
+     * A buffered line. Only valid inside the visitor it's handed to; the
+     * getters that return strings are where they're made.
+     */
+    public final class LineView {
+
+        private long sequence;
+        private int slot;
+
+        private LineView() {
+        }
+
+        public long getSequence() {
+            return this.sequence;
+        }
+
+        public long getTimestamp() {
+            return MessageBuffer.this.timestamps[this.slot];
+        }
+
+        public MessageKind getKind() {
+            return MessageKind.fromCode(MessageBuffer.this.kinds[this.slot]);
+        }
+
+        public int getChannelId() {
+            return MessageBuffer.this.channels[this.slot];
+        }
+
+        public String getChannel() {
+            return MessageBuffer.this.names.nameOf(getChannelId());
+        }
+
+        public int getNickId() {
+            return MessageBuffer.this.nicks[this.slot];
+        }
+
+        public String getNick() {
+            return MessageBuffer.this.names.nameOf(getNickId());
+        }
+
+        public String getUserHost() {
+            return MessageBuffer.this.names.nameOf(MessageBuffer.this.userHosts[this.slot]);
+        }
+
+        public String getText() {
+            long address = MessageBuffer.this.textAddresses[this.slot];
+            return Utf8.decode(MessageBuffer.this.arena.chunkOf(address), ByteArena.offsetOf(address),
+                    MessageBuffer.this.textLengths[this.slot]);
+        }
+
+    }
+
+}
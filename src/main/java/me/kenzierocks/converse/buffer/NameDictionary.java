@@ -0,0 +1,128 @@
+package me.kenzierocks.converse.buffer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives each distinct name, a nick, user@host or channel, a small integer id,
+ * so buffered lines hold an {@code int} instead of their own copy of the
+ * string.
+ * <p>
+ * Buffers {@link #retain(String) retain} a name for each line that uses it
+ * and {@link #release(int) release} it when the line is dropped; a name no
+ * line uses is forgotten and its id reused, so a long-running network's
+ * dictionary holds only the names still in its scrollback. Ids from
+ * {@link #idOf(String)} are never released, for users that hand them out
+ * and can't take them back.
+ * <p>
+ * Adding and releasing lock the dictionary; looking up an id doesn't.
+ */
+public final class NameDictionary {
+
+    private static final int PINNED = -1;
+
+    // guarded by this
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int[] references = new int[64];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+    // replaced when full, after the new entry is in
+    private volatile String[] names = new String[64];
+
+    /**
+     * @return the id of {@code name}, giving it one if it's new; the id is
+     *         never released
+     */
+    public synchronized int idOf(String name) {
+        int id = lookup(name);
+        this.references[id] = PINNED;
+        return id;
+    }
+
+    /**
+     * Adds a reference to {@code name}, giving it an id if it's new.
+     *
+     * @return the id of {@code name}, valid until as many
+     *         {@link #release(int)}s
+     */
+    public synchronized int retain(String name) {
+        int id = lookup(name);
+        if (this.references[id] != PINNED) {
+            this.references[id]++;
+        }
+        return id;
+    }
+
+    /**
+     * Drops a reference taken by {@link #retain(String)}, forgetting the
+     * name if it was the last.
+     */
+    public synchronized void release(int id) {
+        int references = this.references[id];
+        if (references == PINNED) {
+            return;
+        }
+        if (references <= 0) {
+            throw new IllegalStateException("name " + id + " released more than retained");
+        }
+        if (references == 1) {
+            String[] current = this.names;
+            this.ids.remove(current[id]);
+            current[id] = null;
+            if (this.freeCount == this.freeIds.length) {
+                this.freeIds = Arrays.copyOf(this.freeIds, this.freeCount * 2);
+            }
+            this.freeIds[this.freeCount++] = id;
+        }
+        this.references[id] = references - 1;
+    }
+
+    private int lookup(String name) {
+        Integer existing = this.ids.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = this.names;
+        int id;
+        if (this.freeCount > 0) {
+            id = this.freeIds[--this.freeCount];
+        } else {
+            id = this.nextId++;
+            if (id == current.length) {
+                current = Arrays.copyOf(current, id * 2);
+                this.references = Arrays.copyOf(this.references, id * 2);
+            }
+        }
+        current[id] = name;
+        this.names = current;
+        this.references[id] = 0;
+        this.ids.put(name, id);
+        return id;
+    }
+
+    /**
+     * @return the id of {@code name}, or {@code -1} if it hasn't got one
+     */
+    public synchronized int find(String name) {
+        return this.ids.getOrDefault(name, -1);
+    }
+
+    /**
+     * @return the name with id {@code id}, which must come from
+     *         {@link #idOf(String)}, or {@link #retain(String)} and not yet be
+     *         released
+     */
+    public String nameOf(int id) {
+        return this.names[id];
+    }
+
+    /**
+     * @return the names known right now
+     */
+    public synchronized int size() {
+        return this.ids.size();
+    }
+
+}
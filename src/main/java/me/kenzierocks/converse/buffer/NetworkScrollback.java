@@ -0,0 +1,104 @@
+package me.kenzierocks.converse.buffer;
+
+import java.nio.file.Path;
+import java.util.Collection;
+
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.history.MessageKind;
+import me.kenzierocks.converse.util.CaseMappedMap;
+import me.kenzierocks.converse.util.CaseMapping;
+
+/**
+ * A network's channels in a {@link Scrollback}, sharing one
+ * {@link NameDictionary}. Channel names fold by the network's
+ * {@link CaseMapping}, so the UI's spelling and the server's find the same
+ * lines.
+ */
+public final class NetworkScrollback {
+
+    private final Scrollback scrollback;
+    private final String network;
+    private final NameDictionary names = new NameDictionary();
+    // guarded by this
+    private CaseMappedMap<ChannelScrollback> channels = new CaseMappedMap<>(CaseMapping.RFC1459);
+
+    NetworkScrollback(Scrollback scrollback, String network) {
+        this.scrollback = scrollback;
+        this.network = network;
+    }
+
+    public String getNetwork() {
+        return this.network;
+    }
+
+    public NameDictionary getNames() {
+        return this.names;
+    }
+
+    /**
+     * Folds channel names by {@code caseMapping} from now on. Channels that
+     * now fold together keep the first one's lines.
+     */
+    public void setCaseMapping(CaseMapping caseMapping) {
+        long change = 0;
+        synchronized (this) {
+            CaseMappedMap<ChannelScrollback> old = this.channels;
+            this.channels = new CaseMappedMap<>(caseMapping);
+            for (ChannelScrollback channel : old.values()) {
+                if (this.channels.computeIfAbsent(channel.getChannel(), c -> channel) != channel) {
+                    change += channel.discard();
+                }
+            }
+        }
+        this.scrollback.adjust(change);
+    }
+
+    private synchronized ChannelScrollback channel(String channel) {
+        return this.channels.computeIfAbsent(channel, c -> {
+            Path spillDirectory = this.scrollback.getSpillDirectory();
+            // ascii is the finest folding, so no two channels share a file
+            // under any mapping, before or after it changes
+            Path spillFile = spillDirectory == null ? null
+                    : spillDirectory.resolve(HistoryStore.fileNameOf(CaseMapping.RFC1459, this.network))
+                            .resolve(HistoryStore.fileNameOf(CaseMapping.ASCII, c) + ".spill");
+            return new ChannelScrollback(this.network, c, this.names, this.scrollback.getChannelLines(),
+                    spillFile);
+        });
+    }
+
+    public void add(long timestamp, MessageKind kind, String channel, String nick, String userHost,
+            CharSequence text) {
+        this.scrollback.adjust(channel(channel).add(timestamp, kind, nick, userHost, text));
+    }
+
+    /**
+     * Marks the channel as just viewed, reading it back in if it was
+     * evicted.
+     *
+     * @return the channel's lines
+     */
+    public MessageBuffer view(String channel) {
+        ChannelScrollback viewed = channel(channel);
+        viewed.touch();
+        this.scrollback.adjust(viewed.reload());
+        return viewed.getBuffer();
+    }
+
+    synchronized Collection<ChannelScrollback> getChannels() {
+        return this.channels.values();
+    }
+
+    /**
+     * @return the bytes freed
+     */
+    synchronized long clear() {
+        long freed = 0;
+        for (ChannelScrollback channel : this.channels.values()) {
+            freed += channel.getCountedBytes();
+            channel.deleteSpill();
+        }
+        this.channels.clear();
+        return freed;
+    }
+
+}
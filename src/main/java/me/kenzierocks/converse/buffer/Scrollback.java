@@ -0,0 +1,196 @@
+package me.kenzierocks.converse.buffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Every network's in-memory scrollback, under one byte budget.
+ * <p>
+ * Each channel's buffer grows with its traffic, up to
+ * {@code channelLines}. When all of them together go over
+ * {@code budgetBytes}, whole channels are evicted, least recently viewed
+ * first, and never-viewed ones by least recent activity, until they're back
+ * under nine tenths of the budget. With a spill directory an evicted channel
+ * is written out and read back when it's next viewed; without one its lines
+ * are only in the history log.
+ * <p>
+ * Eviction runs on whichever thread pushed the total over, usually a
+ * client's event thread.
+ */
+public final class Scrollback {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Scrollback.class);
+
+    /**
+     * A channel's times as of the start of an eviction, so they hold still
+     * while sorting.
+     */
+    private static final class Candidate {
+
+        private static final Comparator<Candidate> EVICTION_ORDER = Comparator
+                .comparingLong((Candidate c) -> c.lastViewed).thenComparingLong(c -> c.lastActivity);
+
+        private final ChannelScrollback channel;
+        private final long lastViewed;
+        private final long lastActivity;
+
+        Candidate(ChannelScrollback channel) {
+            this.channel = channel;
+            this.lastViewed = channel.getLastViewed();
+            this.lastActivity = channel.getLastActivity();
+        }
+
+    }
+
+    private final long budgetBytes;
+    private final long lowWaterBytes;
+    private final int channelLines;
+    @Nullable
+    private final Path spillDirectory;
+    private final ConcurrentMap<String, NetworkScrollback> networks = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param spillDirectory
+     *            - where evicted channels are written, or {@code null} to
+     *            drop them. Anything in it is deleted, spill files don't
+     *            outlive the process.
+     */
+    public Scrollback(long budgetBytes, int channelLines, @Nullable Path spillDirectory) {
+        checkArgument(budgetBytes > 0, "budget must be positive");
+        checkArgument(channelLines > 0, "channelLines must be positive");
+        this.budgetBytes = budgetBytes;
+        this.lowWaterBytes = budgetBytes / 10 * 9;
+        this.channelLines = channelLines;
+        this.spillDirectory = spillDirectory;
+        if (spillDirectory != null) {
+            deleteSpills(spillDirectory);
+        }
+    }
+
+    private static void deleteSpills(Path spillDirectory) {
+        if (!Files.isDirectory(spillDirectory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(spillDirectory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                if (!file.equals(spillDirectory)) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to clear old scrollback spills from " + spillDirectory, e);
+        }
+    }
+
+    public long getBudgetBytes() {
+        return this.budgetBytes;
+    }
+
+    int getChannelLines() {
+        return this.channelLines;
+    }
+
+    @Nullable
+    Path getSpillDirectory() {
+        return this.spillDirectory;
+    }
+
+    /**
+     * @return the network's scrollback, kept until
+     *         {@link #removeNetwork(String)} so it survives reconnects
+     */
+    public NetworkScrollback getNetwork(String network) {
+        return this.networks.computeIfAbsent(network, n -> new NetworkScrollback(this, n));
+    }
+
+    /**
+     * Drops the network's scrollback and spill files.
+     */
+    public void removeNetwork(String network) {
+        NetworkScrollback removed = this.networks.remove(network);
+        if (removed != null) {
+            this.usedBytes.addAndGet(-removed.clear());
+        }
+    }
+
+    void adjust(long deltaBytes) {
+        if (this.usedBytes.addAndGet(deltaBytes) > this.budgetBytes) {
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        if (this.usedBytes.get() <= this.budgetBytes) {
+            // someone else got here first
+            return;
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        this.networks.values().forEach(network -> network.getChannels().forEach(c -> {
+            // already evicted, or never had a line; nothing to free
+            if (c.getCountedBytes() > 0) {
+                candidates.add(new Candidate(c));
+            }
+        }));
+        candidates.sort(Candidate.EVICTION_ORDER);
+        long before = this.usedBytes.get();
+        int evicted = 0;
+        for (Candidate candidate : candidates) {
+            if (this.usedBytes.get() <= this.lowWaterBytes) {
+                break;
+            }
+            long change = candidate.channel.evict();
+            this.usedBytes.addAndGet(change);
+            if (change < 0) {
+                evicted++;
+            }
+        }
+        this.evictions.addAndGet(evicted);
+        LOGGER.debug("Evicted scrollback of " + evicted + " channels, from " + before + " to "
+                + this.usedBytes.get() + " bytes");
+    }
+
+    /**
+     * @return the bytes held across all channels
+     */
+    public long getUsedBytes() {
+        return this.usedBytes.get();
+    }
+
+    /**
+     * @return how many times a channel has been evicted
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * @return every channel's footprint, largest first
+     */
+    public ImmutableList<ChannelFootprint> getFootprints() {
+        List<ChannelFootprint> footprints = new ArrayList<>();
+        this.networks.values()
+                .forEach(network -> network.getChannels().forEach(c -> footprints.add(c.getFootprint())));
+        footprints.sort(Comparator.comparingLong(ChannelFootprint::getBytes).reversed());
+        return ImmutableList.copyOf(footprints);
+    }
+
+}
@@ -0,0 +1,5 @@
+/**
+ * In-memory scrollback: recent channel traffic per network, kept compact until
+ * it is shown.
+ */
+package me.kenzierocks.converse.buffer;
\ No newline at end of file
@@ -0,0 +1,195 @@
+package me.kenzierocks.converse.gsonadapt;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams JSON straight into Guava's immutable builders for
+ * {@link ImmutableList}, {@link ImmutableSet} and {@link ImmutableMap}, with
+ * no intermediate mutable copy.
+ * <p>
+ * Element adapters are looked up once, when Gson asks for the collection
+ * type, and Gson caches the resulting adapter per type.
+ */
+public final class ImmutableCollectionsAdapterFactory implements TypeAdapterFactory {
+
+    private static abstract class CollectionAdapter<E, C extends ImmutableCollection<E>> extends TypeAdapter<C> {
+
+        private final TypeAdapter<E> elementAdapter;
+
+        CollectionAdapter(TypeAdapter<E> elementAdapter) {
+            this.elementAdapter = elementAdapter;
+        }
+
+        abstract ImmutableCollection.Builder<E> newBuilder();
+
+        @Override
+        public void write(JsonWriter out, C value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginArray();
+            for (E element : value) {
+                this.elementAdapter.write(out, element);
+            }
+            out.endArray();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public C read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ImmutableCollection.Builder<E> builder = newBuilder();
+            in.beginArray();
+            while (in.hasNext()) {
+                builder.add(notNull(this.elementAdapter.read(in), in));
+            }
+            in.endArray();
+            return (C) builder.build();
+        }
+
+    }
+
+    private static final class ListAdapter<E> extends CollectionAdapter<E, ImmutableList<E>> {
+
+        ListAdapter(TypeAdapter<E> elementAdapter) {
+            super(elementAdapter);
+        }
+
+        @Override
+        ImmutableCollection.Builder<E> newBuilder() {
+            return ImmutableList.builder();
+        }
+
+    }
+
+    private static final class SetAdapter<E> extends CollectionAdapter<E, ImmutableSet<E>> {
+
+        SetAdapter(TypeAdapter<E> elementAdapter) {
+            super(elementAdapter);
+        }
+
+        @Override
+        ImmutableCollection.Builder<E> newBuilder() {
+            return ImmutableSet.builder();
+        }
+
+    }
+
+    /**
+     * Maps are JSON objects; keys that are not strings go through their
+     * adapter as JSON strings, like Gson's own map adapter does.
+     */
+    private static final class MapAdapter<K, V> extends TypeAdapter<ImmutableMap<K, V>> {
+
+        private final TypeAdapter<K> keyAdapter;
+        private final TypeAdapter<V> valueAdapter;
+        private final boolean stringKeys;
+
+        MapAdapter(TypeAdapter<K> keyAdapter, TypeAdapter<V> valueAdapter, boolean stringKeys) {
+            this.keyAdapter = keyAdapter;
+            this.valueAdapter = valueAdapter;
+            this.stringKeys = stringKeys;
+        }
+
+        @Override
+        public void write(JsonWriter out, ImmutableMap<K, V> value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            for (Map.Entry<K, V> entry : value.entrySet()) {
+                out.name(this.stringKeys ? (String) entry.getKey()
+                        : this.keyAdapter.toJsonTree(entry.getKey()).getAsString());
+                this.valueAdapter.write(out, entry.getValue());
+            }
+            out.endObject();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public ImmutableMap<K, V> read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                K key = this.stringKeys ? (K) name : this.keyAdapter.fromJsonTree(new JsonPrimitive(name));
+                builder.put(key, notNull(this.valueAdapter.read(in), in));
+            }
+            in.endObject();
+            return builder.build();
+        }
+
+    }
+
+    /**
+     * Immutable collections can't hold {@code null}; reject it as bad JSON
+     * rather than let the builder throw.
+     */
+    private static <E> E notNull(E element, JsonReader in) {
+        if (element == null) {
+            throw new JsonParseException("null is not allowed in an immutable collection, at " + in.getPath());
+        }
+        return element;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) type).getActualTypeArguments()[index];
+            if (argument instanceof WildcardType) {
+                // ? extends X reads as X, ? and ? super X as Object
+                return ((WildcardType) argument).getUpperBounds()[0];
+            }
+            return argument;
+        }
+        // raw type
+        return Object.class;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        Type generic = type.getType();
+        // exact matches only, ImmutableList subtypes are Guava internals
+        if (rawType == ImmutableList.class) {
+            return (TypeAdapter<T>) new ListAdapter(gson.getAdapter(TypeToken.get(typeArgument(generic, 0))));
+        }
+        if (rawType == ImmutableSet.class) {
+            return (TypeAdapter<T>) new SetAdapter(gson.getAdapter(TypeToken.get(typeArgument(generic, 0))));
+        }
+        if (rawType == ImmutableMap.class) {
+            Type keyType = typeArgument(generic, 0);
+            return (TypeAdapter<T>) new MapAdapter(gson.getAdapter(TypeToken.get(keyType)),
+                    gson.getAdapter(TypeToken.get(typeArgument(generic, 1))), keyType == String.class);
+        }
+        return null;
+    }
+
+}
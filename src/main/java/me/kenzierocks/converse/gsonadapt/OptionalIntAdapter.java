@@ -1,33 +1,41 @@
 package me.kenzierocks.converse.gsonadapt;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.OptionalInt;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonNull;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-public enum OptionalIntAdapter implements JsonSerializer<OptionalInt>, JsonDeserializer<OptionalInt> {
+/**
+ * Maps {@link OptionalInt#empty()} to JSON {@code null}. This has to be a
+ * {@link TypeAdapter}, since Gson never hands {@code null} to a
+ * {@code JsonDeserializer}.
+ */
+public final class OptionalIntAdapter extends TypeAdapter<OptionalInt> {
 
-    INSTANCE;
+    public static final OptionalIntAdapter INSTANCE = new OptionalIntAdapter();
+
+    private OptionalIntAdapter() {
+    }
 
     @Override
-    public OptionalInt deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-            throws JsonParseException {
-        if (JsonNull.INSTANCE.equals(json)) {
+    public OptionalInt read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
             return OptionalInt.empty();
         }
-        return OptionalInt.of(json.getAsInt());
+        return OptionalInt.of(in.nextInt());
     }
 
     @Override
-    public JsonElement serialize(OptionalInt src, Type typeOfSrc, JsonSerializationContext context) {
-        return src.isPresent() ? new JsonPrimitive(src.getAsInt()) : JsonNull.INSTANCE;
+    public void write(JsonWriter out, OptionalInt value) throws IOException {
+        if (value == null || !value.isPresent()) {
+            out.nullValue();
+        } else {
+            out.value(value.getAsInt());
+        }
     }
 
 }
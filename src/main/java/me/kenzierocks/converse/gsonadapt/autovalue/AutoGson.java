@@ -13,7 +13,8 @@ import com.google.auto.value.AutoValue;
  * serialization.
  * <p>
  * This annotation is needed because the {@linkplain Retention retention} of
- * {@code @AutoValue} does not allow reflection at runtime.
+ * {@code @AutoValue} does not allow reflection at runtime. It also tells the
+ * {@code converse-apt} processor to generate a streaming adapter for the type.
  */
 @Target(TYPE)
 @Retention(RUNTIME)
@@ -1,7 +1,9 @@
 package me.kenzierocks.converse.gsonadapt.autovalue;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 
+import com.google.common.base.Throwables;
 import com.google.gson.Gson;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
@@ -51,6 +53,22 @@ public final class AutoValueAdapterFactory implements TypeAdapterFactory {
 
         String packageName = rawType.getPackage().getName();
         String className = rawType.getName().substring(packageName.length() + 1).replace('$', '_');
+
+        // Compile-time generated and streaming; only finding it is reflective.
+        String generatedName = packageName + ".AutoGson_" + className;
+        try {
+            Class<?> generatedType = Class.forName(generatedName, true, rawType.getClassLoader());
+            return (TypeAdapter<T>) generatedType.getConstructor(Gson.class).newInstance(gson);
+        } catch (ClassNotFoundException e) {
+            // Fall back to reflection for types the processor did not see.
+        } catch (InvocationTargetException e) {
+            // the adapter's own failure, e.g. Gson having no adapter for a
+            // property
+            throw Throwables.propagate(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Could not create generated adapter " + generatedName, e);
+        }
+
         String autoValueName = packageName + ".AutoValue_" + className;
 
         try {
@@ -0,0 +1,419 @@
+package me.kenzierocks.converse.history;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import me.kenzierocks.converse.util.CaseMapping;
+import me.kenzierocks.converse.util.Tokenizer;
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * The history of one channel: a directory of segments, each named for the
+ * first id it holds. Ids start at 1 and go up by one per record; timestamps
+ * never go backwards, even if the clock does.
+ * <p>
+ * Appends are serialized on the log. Reads don't lock and never see a
+ * partially written record. Every lookup, by id or by time, is a binary search
+ * over the segments, one within the segment, and then a sequential read.
+ * <p>
+ * Records move through three tiers, which reads page across without the
+ * caller noticing:
+ * <ul>
+ * <li>hot: the newest few hundred, also copied into a {@link HotRing}, which
+ * serves pages near the bottom of the channel</li>
+ * <li>warm: mapped {@link Segment segments}. The active one is rolled over
+ * when it's full, or when its first record is {@code segmentMillis} old.</li>
+ * <li>cold: rolled segments the {@link HistoryStore} has compressed into a
+ * {@link ColdSegment} for being old or over the warm budget</li>
+ * </ul>
+ * Rolled segments get a {@link SegmentFilter}, which lets
+ * {@link #findMatching} skip most of them.
+ */
+public final class ChannelLog implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChannelLog.class);
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    private static final int MAX_SENDER_BYTES = 0xFFFF;
+
+    static String segmentFileName(long firstId) {
+        return String.format("%020d", firstId) + SEGMENT_SUFFIX;
+    }
+
+    static ChannelLog open(Path dir, String network, String channel, Supplier<CaseMapping> caseMapping,
+            HistorySettings settings, ColdBlockCache coldCache) throws IOException {
+        Files.createDirectories(dir);
+        // first id to file
+        TreeMap<Long, Path> files = new TreeMap<>();
+        List<Path> compressed = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                "*{" + SEGMENT_SUFFIX + "," + ColdSegment.SUFFIX + "}")) {
+            for (Path file : stream) {
+                try {
+                    long firstId = Long.parseLong(stripSuffix(file));
+                    Path other = files.put(firstId, file);
+                    if (other != null) {
+                        // demoting was cut short, the cold copy is complete
+                        Path warm = other.toString().endsWith(SEGMENT_SUFFIX) ? other : file;
+                        files.put(firstId, warm == file ? other : file);
+                        compressed.add(warm);
+                    }
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring stray file " + file);
+                }
+            }
+        }
+        compressed.forEach(ChannelLog::deleteWarmFiles);
+        List<StoredSegment> segments = new ArrayList<>(files.size() + 1);
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            if (file.getValue().toString().endsWith(ColdSegment.SUFFIX)) {
+                segments.add(ColdSegment.open(file.getValue(), coldCache));
+            } else {
+                boolean last = file.getKey().equals(files.lastKey());
+                segments.add(Segment.open(file.getValue(), file.getKey(), last));
+            }
+        }
+        if (segments.isEmpty() || !(segments.get(segments.size() - 1) instanceof Segment)) {
+            long firstId = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).getLastId() + 1;
+            segments.add(Segment.create(dir.resolve(segmentFileName(firstId)), firstId, settings.getSegmentBytes()));
+        }
+        return new ChannelLog(dir, network, channel, caseMapping, settings, coldCache,
+                segments.toArray(new StoredSegment[segments.size()]));
+    }
+
+    private static String stripSuffix(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    private static void deleteWarmFiles(Path segment) {
+        try {
+            Files.deleteIfExists(segment);
+            Files.deleteIfExists(SegmentIndex.pathFor(segment));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to remove " + segment + " after compressing it, will retry on next open", e);
+        }
+    }
+
+    private final Path dir;
+    private final String network;
+    private final String channel;
+    private final Supplier<CaseMapping> caseMapping;
+    private final int segmentBytes;
+    private final long segmentMillis;
+    private final ColdBlockCache coldCache;
+    private final HotRing hot;
+    private final AtomicLong segmentsScanned = new AtomicLong();
+    private final AtomicLong segmentsSkipped = new AtomicLong();
+    // copy-on-write, replaced when rolling or demoting; the last is always
+    // the active, warm, segment
+    private volatile StoredSegment[] segments;
+    // guarded by this
+    private long nextId;
+    private long lastTimestamp;
+    private boolean closed;
+
+    private ChannelLog(Path dir, String network, String channel, Supplier<CaseMapping> caseMapping,
+            HistorySettings settings, ColdBlockCache coldCache, StoredSegment[] segments) {
+        this.dir = dir;
+        this.network = network;
+        this.channel = channel;
+        this.caseMapping = caseMapping;
+        this.segmentBytes = settings.getSegmentBytes();
+        this.segmentMillis = settings.getSegmentMillis();
+        this.coldCache = coldCache;
+        this.hot = new HotRing(settings.getHotRecords(), settings.getHotBytes());
+        this.segments = segments;
+        this.nextId = segments[segments.length - 1].getLastId() + 1;
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (!segments[i].isEmpty()) {
+                this.lastTimestamp = segments[i].getLastTimestamp();
+                break;
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return this.dir;
+    }
+
+    public String getNetwork() {
+        return this.network;
+    }
+
+    public String getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * @return the network's case mapping, as it is now
+     */
+    public CaseMapping getCaseMapping() {
+        return this.caseMapping.get();
+    }
+
+    /**
+     * @return the id given to the record
+     */
+    public long append(MessageKind kind, CharSequence sender, CharSequence text) throws IOException {
+        return append(System.currentTimeMillis(), kind, sender, text);
+    }
+
+    /**
+     * @return the id given to the record
+     */
+    public synchronized long append(long timestamp, MessageKind kind, CharSequence sender, CharSequence text)
+            throws IOException {
+        checkState(!this.closed, "log is closed");
+        checkNotNull(kind);
+        int senderBytes = Utf8.encodedLength(sender);
+        int textBytes = Utf8.encodedLength(text);
+        checkArgument(senderBytes <= MAX_SENDER_BYTES, "sender too long");
+        checkArgument(Segment.recordLength(senderBytes, textBytes) <= this.segmentBytes,
+                "record larger than a segment");
+        long ts = Math.max(timestamp, this.lastTimestamp);
+        long id = this.nextId;
+        StoredSegment[] current = this.segments;
+        Segment active = activeOf(current);
+        // the first timestamp is MAX_VALUE while empty, which never rolls
+        if (ts - active.getFirstTimestamp() >= this.segmentMillis) {
+            active = roll(current, id);
+            current = this.segments;
+        }
+        if (!active.tryAppend(id, ts, kind, sender, senderBytes, text, textBytes)) {
+            active = roll(current, id);
+            checkState(active.tryAppend(id, ts, kind, sender, senderBytes, text, textBytes));
+        }
+        this.hot.add(id, active.newReader(), active.getLastOffset());
+        this.nextId = id + 1;
+        this.lastTimestamp = ts;
+        return id;
+    }
+
+    private static Segment activeOf(StoredSegment[] segments) {
+        return (Segment) segments[segments.length - 1];
+    }
+
+    private Segment roll(StoredSegment[] current, long firstId) throws IOException {
+        Segment done = activeOf(current);
+        done.seal();
+        done.buildFilter();
+        Segment next = Segment.create(this.dir.resolve(segmentFileName(firstId)), firstId, this.segmentBytes);
+        StoredSegment[] rolled = Arrays.copyOf(current, current.length + 1);
+        rolled[current.length] = next;
+        this.segments = rolled;
+        return next;
+    }
+
+    /**
+     * @return the last id appended, or {@code 0} if the log is empty
+     */
+    public synchronized long getLastId() {
+        return this.nextId - 1;
+    }
+
+    /**
+     * Visits records in id order, starting at {@code fromId}, until the end of
+     * the log or until {@code visitor} returns {@code false}.
+     */
+    public void scan(long fromId, Predicate<MessageView> visitor) {
+        scan(this.segments, fromId, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Visits, oldest first, up to {@code limit} records before
+     * {@code beforeId}. Pass the oldest id of the previous page to page
+     * backwards through the log; pass {@link #getLastId()} {@code + 1} for the
+     * newest page.
+     */
+    public void readBefore(long beforeId, int limit, Predicate<MessageView> visitor) {
+        checkArgument(limit >= 0, "negative limit");
+        // ids are dense, so the page's first id is known without reading
+        long fromId = Math.max(1, beforeId - limit);
+        if (fromId >= beforeId) {
+            return;
+        }
+        if (!this.hot.readRange(fromId, beforeId, visitor)) {
+            scan(this.segments, fromId, beforeId, visitor);
+        }
+    }
+
+    /**
+     * @return the id of the first record at or after {@code timestamp}, or
+     *         {@link #getLastId()} {@code + 1} if there are none
+     */
+    public long findIdAtOrAfter(long timestamp) {
+        StoredSegment[] snapshot = this.segments;
+        // the last segment starting before the timestamp, its successor
+        // starts at or after it
+        int lo = 0;
+        int hi = snapshot.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (snapshot[mid].getFirstTimestamp() < timestamp) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        long[] found = { -1 };
+        Predicate<MessageView> finder = view -> {
+            if (view.getTimestamp() >= timestamp) {
+                found[0] = view.getId();
+                return false;
+            }
+            return true;
+        };
+        boolean more = snapshot[lo].scanFromTimestamp(timestamp, finder);
+        for (int i = lo + 1; more && i < snapshot.length; i++) {
+            more = snapshot[i].scan(Long.MIN_VALUE, Long.MAX_VALUE, finder);
+        }
+        if (found[0] < 0) {
+            return snapshot[snapshot.length - 1].getLastId() + 1;
+        }
+        return found[0];
+    }
+
+    /**
+     * Visits, oldest first, every record sent by {@code nick} that contains
+     * all of {@code words}, until {@code visitor} returns {@code false}.
+     * Either condition can be left out. Words match whole tokens, ignoring
+     * case, and the nick matches by the network's case mapping.
+     */
+    public void findMatching(@Nullable String nick, Iterable<String> words, Predicate<MessageView> visitor) {
+        List<String> wordTerms = new ArrayList<>();
+        for (String word : words) {
+            Tokenizer.tokenize(word, (token, position) -> wordTerms.add(token));
+        }
+        List<String> terms = new ArrayList<>(wordTerms);
+        if (nick != null) {
+            terms.add(Tokenizer.nickTerm(nick));
+        }
+        CaseMapping caseMapping = getCaseMapping();
+        Predicate<MessageView> matching = view -> {
+            if (nick != null && !caseMapping.equals(nick, view.getSender())) {
+                return true;
+            }
+            if (!wordTerms.isEmpty()) {
+                List<String> missing = new ArrayList<>(wordTerms);
+                Tokenizer.tokenize(view.getText(), (token, position) -> missing.remove(token));
+                if (!missing.isEmpty()) {
+                    return true;
+                }
+            }
+            return visitor.test(view);
+        };
+        for (StoredSegment segment : this.segments) {
+            if (!segment.mightContainAll(terms)) {
+                this.segmentsSkipped.incrementAndGet();
+                continue;
+            }
+            this.segmentsScanned.incrementAndGet();
+            if (!segment.scan(Long.MIN_VALUE, Long.MAX_VALUE, matching)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return how many segments {@link #findMatching} has read
+     */
+    public long getSegmentsScanned() {
+        return this.segmentsScanned.get();
+    }
+
+    /**
+     * @return how many segments {@link #findMatching} has skipped because
+     *         their filter ruled them out
+     */
+    public long getSegmentsSkipped() {
+        return this.segmentsSkipped.get();
+    }
+
+    private static void scan(StoredSegment[] snapshot, long fromId, long toId, Predicate<MessageView> visitor) {
+        for (int i = segmentIndexOf(snapshot, fromId); i < snapshot.length; i++) {
+            if (!snapshot[i].scan(fromId, toId, visitor)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the segment that holds {@code id}, or would
+     */
+    static int segmentIndexOf(StoredSegment[] segments, long id) {
+        int lo = 0;
+        int hi = segments.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (segments[mid].getFirstId() <= id) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Forces written records to disk.
+     */
+    public void force() {
+        activeOf(this.segments).force();
+    }
+
+    StoredSegment[] getSegments() {
+        return this.segments;
+    }
+
+    /**
+     * Replaces a rolled warm segment with a compressed copy, and removes its
+     * files. Readers still on the old segment keep reading the mapping, which
+     * outlives the files.
+     */
+    void demote(Segment warm) throws IOException {
+        ColdSegment cold = ColdSegment.compress(warm, this.coldCache);
+        synchronized (this) {
+            StoredSegment[] current = this.segments;
+            int index = Arrays.asList(current).indexOf(warm);
+            checkState(0 <= index && index < current.length - 1, "not a rolled segment of this log");
+            StoredSegment[] demoted = current.clone();
+            demoted[index] = cold;
+            this.segments = demoted;
+        }
+        deleteWarmFiles(warm.getPath());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!this.closed) {
+            this.closed = true;
+            try {
+                activeOf(this.segments).seal();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close " + this.dir, e);
+            }
+        }
+    }
+
+}
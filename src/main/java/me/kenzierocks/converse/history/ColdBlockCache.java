@@ -0,0 +1,41 @@
+package me.kenzierocks.converse.history;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Inflated {@link ColdSegment} blocks, shared by every log in a store and
+ * bounded by their total size. Least recently read goes first.
+ */
+final class ColdBlockCache {
+
+    private final Cache<Map.Entry<ColdSegment, Integer>, byte[]> blocks;
+
+    ColdBlockCache(long maxBytes) {
+        this.blocks = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+                .weigher((Map.Entry<ColdSegment, Integer> key, byte[] block) -> block.length).recordStats().build();
+    }
+
+    byte[] get(ColdSegment segment, int block, Callable<byte[]> inflate) throws IOException {
+        try {
+            return this.blocks.get(Maps.immutableEntry(segment, block), inflate);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    CacheStats getStats() {
+        return this.blocks.stats();
+    }
+
+}
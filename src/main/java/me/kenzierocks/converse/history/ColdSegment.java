@@ -0,0 +1,326 @@
+package me.kenzierocks.converse.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import me.kenzierocks.converse.util.AtomicFiles;
+
+/**
+ * An old {@link Segment}, compressed. Records are cut into blocks of about
+ * {@link #BLOCK_BYTES}, each deflated on its own, so a read only inflates the
+ * blocks it needs. Nothing is mapped; inflated blocks live in the store's
+ * {@link ColdBlockCache}.
+ * <p>
+ * Layout, big-endian:
+ *
+ * <pre>
+ * int  magic, int version, long firstId, long lastId, long firstTimestamp, long lastTimestamp, int blockCount
+ * blockCount entries of: long firstId, long firstTimestamp, long offset, int compressedLength, int rawLength
+ * the blocks, each a deflate stream of whole records in {@link Segment}'s layout
+ * </pre>
+ *
+ * The block index is read into memory on open.
+ */
+final class ColdSegment implements StoredSegment {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColdSegment.class);
+
+    static final String SUFFIX = ".cold";
+    static final int MAGIC = 0x43534342;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8 + 4;
+    static final int BLOCK_ENTRY_BYTES = 8 + 8 + 8 + 4 + 4;
+    static final int BLOCK_BYTES = 64 * 1024;
+
+    static String fileName(long firstId) {
+        return String.format("%020d", firstId) + SUFFIX;
+    }
+
+    /**
+     * Writes a compressed copy of {@code warm}, which must be sealed, next to
+     * it. The warm files are left for the caller to remove.
+     */
+    static ColdSegment compress(Segment warm, ColdBlockCache cache) throws IOException {
+        ByteBuffer data = warm.newReader();
+        int end = warm.getCommitted();
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream(end / 4);
+        ByteBuffer entries = ByteBuffer.allocate((end / BLOCK_BYTES + 1) * BLOCK_ENTRY_BYTES * 2);
+        int blockCount = 0;
+        Deflater deflater = new Deflater();
+        byte[] raw = new byte[BLOCK_BYTES];
+        byte[] compressed = new byte[BLOCK_BYTES];
+        MessageView view = new MessageView();
+        try {
+            int pos = 0;
+            while (pos < end) {
+                int start = pos;
+                view.at(data, pos);
+                long firstId = view.getId();
+                long firstTimestamp = view.getTimestamp();
+                // whole records only; a record bigger than a block gets one
+                // to itself
+                do {
+                    pos += view.getLength();
+                } while (pos < end && pos - start + view.at(data, pos).getLength() <= BLOCK_BYTES);
+                int rawLength = pos - start;
+                if (raw.length < rawLength) {
+                    raw = new byte[rawLength];
+                }
+                ByteBuffer slice = data.duplicate();
+                slice.position(start);
+                slice.get(raw, 0, rawLength);
+                deflater.reset();
+                deflater.setInput(raw, 0, rawLength);
+                deflater.finish();
+                int offset = blocks.size();
+                while (!deflater.finished()) {
+                    blocks.write(compressed, 0, deflater.deflate(compressed));
+                }
+                if (entries.remaining() < BLOCK_ENTRY_BYTES) {
+                    entries = ByteBuffer.allocate(entries.capacity() * 2).put((ByteBuffer) entries.flip());
+                }
+                entries.putLong(firstId).putLong(firstTimestamp).putLong(offset)
+                        .putInt(blocks.size() - offset).putInt(rawLength);
+                blockCount++;
+            }
+        } finally {
+            deflater.end();
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(warm.getFirstId()).putLong(warm.getLastId())
+                .putLong(warm.getFirstTimestamp()).putLong(warm.getLastTimestamp()).putInt(blockCount);
+        ByteBuffer blockIndex = (ByteBuffer) entries.flip();
+        Path path = warm.getPath().resolveSibling(fileName(warm.getFirstId()));
+        AtomicFiles.write(path, out -> {
+            out.write(header.array());
+            out.write(blockIndex.array(), 0, blockIndex.limit());
+            blocks.writeTo(out);
+        });
+        return open(path, cache);
+    }
+
+    static ColdSegment open(Path path, ColdBlockCache cache) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("not a cold segment: " + path);
+            }
+            int blockCount = header.getInt(40);
+            ColdSegment segment = new ColdSegment(path, cache, header.getLong(8), header.getLong(16),
+                    header.getLong(24), header.getLong(32), blockCount);
+            ByteBuffer entries = readFully(channel, HEADER_BYTES, blockCount * BLOCK_ENTRY_BYTES);
+            long dataStart = HEADER_BYTES + (long) blockCount * BLOCK_ENTRY_BYTES;
+            for (int i = 0; i < blockCount; i++) {
+                segment.blockFirstIds[i] = entries.getLong();
+                segment.blockFirstTimestamps[i] = entries.getLong();
+                segment.blockOffsets[i] = dataStart + entries.getLong();
+                segment.blockCompressedLengths[i] = entries.getInt();
+                segment.blockRawLengths[i] = entries.getInt();
+            }
+            segment.filter = SegmentFilter.load(segment.segmentPath());
+            if (segment.filter == null) {
+                segment.filter = segment.buildFilter();
+            }
+            return segment;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private final Path path;
+    private final ColdBlockCache cache;
+    private final long firstId;
+    private final long lastId;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final long[] blockFirstIds;
+    private final long[] blockFirstTimestamps;
+    private final long[] blockOffsets;
+    private final int[] blockCompressedLengths;
+    private final int[] blockRawLengths;
+    private SegmentFilter filter;
+
+    private ColdSegment(Path path, ColdBlockCache cache, long firstId, long lastId, long firstTimestamp,
+            long lastTimestamp, int blockCount) {
+        this.path = path;
+        this.cache = cache;
+        this.firstId = firstId;
+        this.lastId = lastId;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.blockFirstIds = new long[blockCount];
+        this.blockFirstTimestamps = new long[blockCount];
+        this.blockOffsets = new long[blockCount];
+        this.blockCompressedLengths = new int[blockCount];
+        this.blockRawLengths = new int[blockCount];
+    }
+
+    /**
+     * @return where the warm segment was, which names the filter sidecar
+     */
+    private Path segmentPath() {
+        return this.path.resolveSibling(ChannelLog.segmentFileName(this.firstId));
+    }
+
+    private SegmentFilter buildFilter() throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (int i = 0; i < this.blockFirstIds.length; i++) {
+            all.write(inflate(i));
+        }
+        SegmentFilter built = SegmentFilter.build(ByteBuffer.wrap(all.toByteArray()), all.size());
+        try {
+            built.save(segmentPath());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save the filter for " + this.path + ", it will be rebuilt on next open", e);
+        }
+        return built;
+    }
+
+    Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return the size of the file
+     */
+    long getCompressedBytes() {
+        int blocks = this.blockOffsets.length;
+        return blocks == 0 ? HEADER_BYTES
+                : this.blockOffsets[blocks - 1] + this.blockCompressedLengths[blocks - 1];
+    }
+
+    @Override
+    public long getFirstId() {
+        return this.firstId;
+    }
+
+    @Override
+    public long getLastId() {
+        return this.lastId;
+    }
+
+    @Override
+    public long getFirstTimestamp() {
+        return this.firstTimestamp;
+    }
+
+    @Override
+    public long getLastTimestamp() {
+        return this.lastTimestamp;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.blockFirstIds.length == 0;
+    }
+
+    private byte[] block(int block) {
+        try {
+            return this.cache.get(this, block, () -> inflate(block));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read block " + block + " of " + this.path, e);
+        }
+    }
+
+    private byte[] inflate(int block) throws IOException {
+        ByteBuffer compressed;
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            compressed = readFully(channel, this.blockOffsets[block], this.blockCompressedLengths[block]);
+        }
+        byte[] raw = new byte[this.blockRawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 0, compressed.limit());
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, raw.length - read);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != raw.length) {
+                throw new IOException("block " + block + " of " + this.path + " is short");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("block " + block + " of " + this.path + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    /**
+     * @return the last block starting at or before {@code id}
+     */
+    private int blockOfId(long id) {
+        int found = Arrays.binarySearch(this.blockFirstIds, id);
+        return found >= 0 ? found : Math.max(0, -found - 2);
+    }
+
+    /**
+     * @return the last block starting before {@code timestamp}, since records
+     *         at that time may begin in it
+     */
+    private int blockBeforeTimestamp(long timestamp) {
+        int lo = 0;
+        int hi = this.blockFirstTimestamps.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (this.blockFirstTimestamps[mid] < timestamp) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private boolean scanBlocks(int firstBlock, long fromId, long toId, Predicate<MessageView> visitor) {
+        for (int i = firstBlock; i < this.blockFirstIds.length; i++) {
+            byte[] raw = block(i);
+            if (!Segment.scanRecords(ByteBuffer.wrap(raw), 0, raw.length, fromId, toId, visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean scan(long fromId, long toId, Predicate<MessageView> visitor) {
+        return scanBlocks(blockOfId(fromId), fromId, toId, visitor);
+    }
+
+    @Override
+    public boolean scanFromTimestamp(long timestamp, Predicate<MessageView> visitor) {
+        return scanBlocks(blockBeforeTimestamp(timestamp), Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+    }
+
+    @Override
+    public boolean mightContainAll(Iterable<String> terms) {
+        return this.filter.mightContainAll(terms);
+    }
+
+}
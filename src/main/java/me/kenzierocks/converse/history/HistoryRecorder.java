@@ -0,0 +1,86 @@
+package me.kenzierocks.converse.history;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.event.channel.ChannelCTCPEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelJoinEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelNoticeEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelPartEvent;
+import org.kitteh.irc.lib.net.engio.mbassy.listener.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client listener that writes channel traffic for one network into a
+ * {@link HistoryStore}.
+ */
+public final class HistoryRecorder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryRecorder.class);
+    private static final String ACTION_PREFIX = "ACTION ";
+
+    private final HistoryStore store;
+    private final String network;
+    private final Consumer<ChannelLog> afterAppend;
+
+    public HistoryRecorder(HistoryStore store, String network) {
+        this(store, network, log -> {
+        });
+    }
+
+    /**
+     * @param afterAppend
+     *            - called on the event thread after each record is written
+     */
+    public HistoryRecorder(HistoryStore store, String network, Consumer<ChannelLog> afterAppend) {
+        this.store = checkNotNull(store);
+        this.network = checkNotNull(network);
+        this.afterAppend = checkNotNull(afterAppend);
+    }
+
+    private void record(Channel channel, MessageKind kind, String sender, String text) {
+        try {
+            ChannelLog log = this.store.getLog(this.network, channel.getName());
+            log.append(kind, sender, text == null ? "" : text);
+            this.afterAppend.accept(log);
+        } catch (IOException | RuntimeException e) {
+            // losing a line of history isn't worth losing the connection
+            LOGGER.error("Failed to record " + kind + " in " + this.network + "/" + channel.getName(), e);
+        }
+    }
+
+    @Handler
+    public void onMessage(ChannelMessageEvent event) {
+        record(event.getChannel(), MessageKind.MESSAGE, event.getActor().getNick(), event.getMessage());
+    }
+
+    @Handler
+    public void onNotice(ChannelNoticeEvent event) {
+        record(event.getChannel(), MessageKind.NOTICE, event.getActor().getNick(), event.getMessage());
+    }
+
+    @Handler
+    public void onCtcp(ChannelCTCPEvent event) {
+        String message = event.getMessage();
+        if (message.startsWith(ACTION_PREFIX)) {
+            record(event.getChannel(), MessageKind.ACTION, event.getActor().getNick(),
+                    message.substring(ACTION_PREFIX.length()));
+        }
+    }
+
+    @Handler
+    public void onJoin(ChannelJoinEvent event) {
+        record(event.getChannel(), MessageKind.JOIN, event.getUser().getNick(), event.getUser().getName());
+    }
+
+    @Handler
+    public void onPart(ChannelPartEvent event) {
+        record(event.getChannel(), MessageKind.PART, event.getUser().getNick(), event.getMessage());
+    }
+
+}
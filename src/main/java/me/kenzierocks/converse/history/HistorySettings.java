@@ -0,0 +1,95 @@
+package me.kenzierocks.converse.history;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Sizes and budgets for a {@link HistoryStore}'s tiers.
+ * <ul>
+ * <li>hot: the newest records of each channel, in a heap ring of
+ * {@code hotRecords} records and {@code hotBytes} bytes</li>
+ * <li>warm: mapped segments of {@code segmentBytes}, rolled over when full or
+ * {@code segmentMillis} old, with at most {@code warmBytes} mapped across the
+ * store</li>
+ * <li>cold: segments older than {@code coldAfterMillis}, or pushed out of the
+ * warm budget, compressed, with up to {@code coldCacheBytes} of inflated
+ * blocks kept across the store</li>
+ * </ul>
+ */
+@AutoValue
+public abstract class HistorySettings {
+
+    public static final HistorySettings DEFAULTS = builder().build();
+
+    public static Builder builder() {
+        return new AutoValue_HistorySettings.Builder().segmentBytes(16 * 1024 * 1024)
+                .segmentMillis(TimeUnit.DAYS.toMillis(1)).hotRecords(512).hotBytes(64 * 1024)
+                .warmBytes(1024L * 1024 * 1024).coldAfterMillis(TimeUnit.DAYS.toMillis(7))
+                .coldCacheBytes(32 * 1024 * 1024);
+    }
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+
+        Builder() {
+        }
+
+        /**
+         * Segments are sparse files, so this costs address space, not disk.
+         */
+        public abstract Builder segmentBytes(int val);
+
+        /**
+         * Quiet channels still roll over, so their filters stay useful and
+         * they can go cold.
+         */
+        public abstract Builder segmentMillis(long val);
+
+        public abstract Builder hotRecords(int val);
+
+        public abstract Builder hotBytes(int val);
+
+        public abstract Builder warmBytes(long val);
+
+        public abstract Builder coldAfterMillis(long val);
+
+        public abstract Builder coldCacheBytes(long val);
+
+        abstract HistorySettings autoBuild();
+
+        public HistorySettings build() {
+            HistorySettings settings = autoBuild();
+            checkArgument(settings.getSegmentBytes() > Segment.HEADER_BYTES, "segments too small");
+            checkArgument(settings.getSegmentMillis() > 0, "segmentMillis must be positive");
+            checkArgument(settings.getHotRecords() >= 0 && settings.getHotBytes() >= 0, "negative hot budget");
+            checkArgument(settings.getWarmBytes() >= 0, "negative warm budget");
+            checkArgument(settings.getColdAfterMillis() >= 0, "negative cold age");
+            checkArgument(settings.getColdCacheBytes() >= 0, "negative cold budget");
+            return settings;
+        }
+
+    }
+
+    HistorySettings() {
+    }
+
+    public abstract int getSegmentBytes();
+
+    public abstract long getSegmentMillis();
+
+    public abstract int getHotRecords();
+
+    public abstract int getHotBytes();
+
+    public abstract long getWarmBytes();
+
+    public abstract long getColdAfterMillis();
+
+    public abstract long getColdCacheBytes();
+
+    public abstract Builder toBuilder();
+
+}
@@ -0,0 +1,280 @@
+package me.kenzierocks.converse.history;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import me.kenzierocks.converse.util.CaseMapping;
+
+/**
+ * All the {@link ChannelLog channel logs}, laid out as
+ * {@code <root>/<network>/<channel>/}. Logs are opened on first use and stay
+ * open until the store is closed.
+ * <p>
+ * The store owns the budgets in its {@link HistorySettings}, and moves
+ * segments from the warm tier to the cold one in the background to keep to
+ * them.
+ */
+public final class HistoryStore implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryStore.class);
+
+    /**
+     * How often segments are checked against the tier budgets.
+     */
+    private static final long TIERING_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Makes a name safe to use as a file name on any platform. The name is
+     * folded by {@code caseMapping} first, so every spelling of a channel
+     * gets the same file.
+     */
+    public static String fileNameOf(CaseMapping caseMapping, String name) {
+        checkArgument(!name.isEmpty(), "empty name");
+        StringBuilder escaped = new StringBuilder(name.length());
+        for (char c : caseMapping.fold(name).toCharArray()) {
+            if (('a' <= c && c <= 'z') || ('0' <= c && c <= '9') || "#&+-_!.".indexOf(c) >= 0) {
+                escaped.append(c);
+            } else {
+                escaped.append('%').append(String.format("%04x", (int) c));
+            }
+        }
+        // no ".", "..", or hidden files
+        if (escaped.charAt(0) == '.') {
+            escaped.replace(0, 1, "%002e");
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Undoes {@link #fileNameOf}, except for the folding.
+     */
+    static String nameOf(String fileName) {
+        StringBuilder name = new StringBuilder(fileName.length());
+        for (int i = 0; i < fileName.length(); i++) {
+            char c = fileName.charAt(i);
+            if (c == '%' && i + 5 <= fileName.length()) {
+                name.append((char) Integer.parseInt(fileName.substring(i + 1, i + 5), 16));
+                i += 4;
+            } else {
+                name.append(c);
+            }
+        }
+        return name.toString();
+    }
+
+    private final Path root;
+    private final HistorySettings settings;
+    private final ColdBlockCache coldCache;
+    private final ConcurrentMap<Path, ChannelLog> logs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CaseMapping> caseMappings = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService tiering = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("converse-history-tiering").setDaemon(true).build());
+    private volatile boolean closed;
+
+    public HistoryStore(Path root) {
+        this(root, HistorySettings.DEFAULTS);
+    }
+
+    public HistoryStore(Path root, int segmentBytes) {
+        this(root, HistorySettings.DEFAULTS.toBuilder().segmentBytes(segmentBytes).build());
+    }
+
+    public HistoryStore(Path root, int segmentBytes, long segmentMillis) {
+        this(root, HistorySettings.DEFAULTS.toBuilder().segmentBytes(segmentBytes).segmentMillis(segmentMillis)
+                .build());
+    }
+
+    public HistoryStore(Path root, HistorySettings settings) {
+        this.root = checkNotNull(root);
+        this.settings = checkNotNull(settings);
+        this.coldCache = new ColdBlockCache(settings.getColdCacheBytes());
+        this.tiering.scheduleWithFixedDelay(this::enforceBudgets, TIERING_INTERVAL_MILLIS, TIERING_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public HistorySettings getSettings() {
+        return this.settings;
+    }
+
+    public Path getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Folds {@code network}'s channel names by {@code caseMapping} from now
+     * on. Until then they fold by {@link CaseMapping#RFC1459}.
+     */
+    public void setCaseMapping(String network, CaseMapping caseMapping) {
+        this.caseMappings.put(CaseMapping.RFC1459.fold(network), caseMapping);
+    }
+
+    public CaseMapping getCaseMapping(String network) {
+        // folded like the directory, which is all getAllLogs has to go on
+        return this.caseMappings.getOrDefault(CaseMapping.RFC1459.fold(network), CaseMapping.RFC1459);
+    }
+
+    private Path dirOf(String network, String channel) {
+        // network names are ours, not the server's
+        return this.root.resolve(fileNameOf(CaseMapping.RFC1459, network))
+                .resolve(fileNameOf(getCaseMapping(network), channel));
+    }
+
+    /**
+     * @return the channel's log, created if it has none yet
+     */
+    public ChannelLog getLog(String network, String channel) throws IOException {
+        checkState(!this.closed, "store is closed");
+        return open(dirOf(network, channel), network, channel);
+    }
+
+    /**
+     * @return the channel's log, or {@code null} if it has none; nothing is
+     *         created, so names from outside can be looked up
+     */
+    @Nullable
+    public ChannelLog findLog(String network, String channel) throws IOException {
+        checkState(!this.closed, "store is closed");
+        Path dir = dirOf(network, channel);
+        ChannelLog open = this.logs.get(dir);
+        if (open != null) {
+            return open;
+        }
+        return Files.isDirectory(dir) ? open(dir, network, channel) : null;
+    }
+
+    private ChannelLog open(Path dir, String network, String channel) throws IOException {
+        try {
+            return this.logs.computeIfAbsent(dir, d -> {
+                try {
+                    return ChannelLog.open(d, network, channel, () -> getCaseMapping(network), this.settings,
+                            this.coldCache);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Opens every log on disk, where it is, whatever the network's case
+     * mapping.
+     */
+    public ImmutableList<ChannelLog> getAllLogs() throws IOException {
+        checkState(!this.closed, "store is closed");
+        if (!Files.isDirectory(this.root)) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<ChannelLog> all = ImmutableList.builder();
+        try (DirectoryStream<Path> networks = Files.newDirectoryStream(this.root, Files::isDirectory)) {
+            for (Path network : networks) {
+                try (DirectoryStream<Path> channels = Files.newDirectoryStream(network, Files::isDirectory)) {
+                    for (Path channel : channels) {
+                        all.add(open(channel, nameOf(network.getFileName().toString()),
+                                nameOf(channel.getFileName().toString())));
+                    }
+                }
+            }
+        }
+        return all.build();
+    }
+
+    /**
+     * Compresses rolled segments that are past the cold age, then the oldest
+     * of the rest until the mapped segments fit the warm budget. Runs every
+     * minute on its own; call it to apply the budgets now.
+     */
+    public synchronized void enforceBudgets() {
+        if (this.closed) {
+            return;
+        }
+        long coldBefore = System.currentTimeMillis() - this.settings.getColdAfterMillis();
+        List<Map.Entry<ChannelLog, Segment>> rolled = new ArrayList<>();
+        long warmBytes = 0;
+        for (ChannelLog log : this.logs.values()) {
+            StoredSegment[] segments = log.getSegments();
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] instanceof Segment) {
+                    Segment warm = (Segment) segments[i];
+                    warmBytes += warm.getCapacity();
+                    if (i < segments.length - 1) {
+                        rolled.add(Maps.immutableEntry(log, warm));
+                    }
+                }
+            }
+        }
+        rolled.sort(Comparator.comparingLong(entry -> entry.getValue().getLastTimestamp()));
+        for (Map.Entry<ChannelLog, Segment> entry : rolled) {
+            Segment warm = entry.getValue();
+            if (warm.getLastTimestamp() >= coldBefore && warmBytes <= this.settings.getWarmBytes()) {
+                break;
+            }
+            try {
+                entry.getKey().demote(warm);
+                warmBytes -= warm.getCapacity();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Failed to compress " + warm.getPath() + ", leaving it warm", e);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of segments currently mapped, rolled and active
+     */
+    public long getWarmBytes() {
+        long warmBytes = 0;
+        for (ChannelLog log : this.logs.values()) {
+            for (StoredSegment segment : log.getSegments()) {
+                if (segment instanceof Segment) {
+                    warmBytes += ((Segment) segment).getCapacity();
+                }
+            }
+        }
+        return warmBytes;
+    }
+
+    /**
+     * @return hits, misses and evictions of inflated cold blocks
+     */
+    public CacheStats getColdCacheStats() {
+        return this.coldCache.getStats();
+    }
+
+    @Override
+    public void close() {
+        this.tiering.shutdownNow();
+        synchronized (this) {
+            this.closed = true;
+        }
+        this.logs.values().forEach(ChannelLog::close);
+    }
+
+}
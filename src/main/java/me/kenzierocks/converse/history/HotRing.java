@@ -0,0 +1,102 @@
+package me.kenzierocks.converse.history;
+
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+/**
+ * The newest records of a {@link ChannelLog}, copied into a fixed heap ring,
+ * so scrollback near the bottom of a channel doesn't touch the segments.
+ * Holds at most {@code maxRecords} records and {@code maxBytes} bytes, in
+ * {@link Segment}'s record layout; the oldest are dropped to make room.
+ * <p>
+ * Readers copy the page they want out under the lock and visit it after, so
+ * a slow visitor never holds up appends.
+ */
+final class HotRing {
+
+    private final byte[] data;
+    // record start by id % length
+    private final int[] offsets;
+    private final ByteBuffer reader;
+    // guarded by this
+    private long firstId = 1;
+    private long nextId = 1;
+    private int writePos;
+
+    HotRing(int maxRecords, int maxBytes) {
+        this.data = new byte[maxBytes];
+        this.offsets = new int[maxRecords];
+        this.reader = ByteBuffer.wrap(this.data);
+    }
+
+    private int slot(long id) {
+        return (int) (id % this.offsets.length);
+    }
+
+    /**
+     * Copies the record at {@code offset} in {@code source}, which must be the
+     * next id.
+     */
+    synchronized void add(long id, ByteBuffer source, int offset) {
+        int length = source.getInt(offset);
+        if (length > this.data.length || this.offsets.length == 0) {
+            // can't hold it, start over after it
+            this.firstId = id + 1;
+            this.nextId = id + 1;
+            this.writePos = 0;
+            return;
+        }
+        if (id != this.nextId) {
+            // a fresh log picking up where the segments left off
+            this.firstId = id;
+            this.nextId = id;
+            this.writePos = 0;
+        }
+        boolean wrap = this.writePos + length > this.data.length;
+        int start = wrap ? 0 : this.writePos;
+        // the used bytes run from the oldest record's start up to writePos,
+        // wrapping; drop the oldest until the new record's range is clear
+        while (this.firstId < this.nextId) {
+            int oldest = this.offsets[slot(this.firstId)];
+            boolean overlaps = wrap ? oldest >= this.writePos || oldest < start + length
+                    : oldest >= this.writePos && oldest < start + length;
+            if (!overlaps && this.nextId - this.firstId < this.offsets.length) {
+                break;
+            }
+            this.firstId++;
+        }
+        ByteBuffer from = source.duplicate();
+        from.position(offset);
+        from.get(this.data, start, length);
+        this.offsets[slot(id)] = start;
+        this.writePos = start + length;
+        this.nextId = id + 1;
+    }
+
+    /**
+     * Visits, oldest first, the records in {@code [fromId, beforeId)}, if the
+     * ring holds all of them.
+     *
+     * @return {@code false} if it doesn't, and nothing was visited
+     */
+    boolean readRange(long fromId, long beforeId, Predicate<MessageView> visitor) {
+        ByteBuffer page;
+        synchronized (this) {
+            if (fromId < this.firstId || beforeId > this.nextId) {
+                return false;
+            }
+            int bytes = 0;
+            for (long id = fromId; id < beforeId; id++) {
+                bytes += this.reader.getInt(this.offsets[slot(id)]);
+            }
+            page = ByteBuffer.allocate(bytes);
+            for (long id = fromId; id < beforeId; id++) {
+                int start = this.offsets[slot(id)];
+                page.put(this.data, start, this.reader.getInt(start));
+            }
+        }
+        Segment.scanRecords(page, 0, page.capacity(), Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+        return true;
+    }
+
+}
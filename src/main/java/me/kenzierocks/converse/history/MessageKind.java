@@ -0,0 +1,37 @@
+package me.kenzierocks.converse.history;
+
+/**
+ * What a history record is. The codes are persisted, never reorder or reuse
+ * them.
+ */
+public enum MessageKind {
+
+    MESSAGE(0), ACTION(1), NOTICE(2), JOIN(3), PART(4);
+
+    private static final MessageKind[] BY_CODE;
+    static {
+        MessageKind[] values = values();
+        BY_CODE = new MessageKind[values.length];
+        for (MessageKind kind : values) {
+            BY_CODE[kind.code] = kind;
+        }
+    }
+
+    public static MessageKind fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IllegalArgumentException("unknown message kind " + code);
+        }
+        return BY_CODE[code];
+    }
+
+    private final byte code;
+
+    MessageKind(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return this.code;
+    }
+
+}
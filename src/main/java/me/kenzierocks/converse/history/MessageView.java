@@ -0,0 +1,88 @@
+package me.kenzierocks.converse.history;
+
+import java.nio.ByteBuffer;
+
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * A record in a {@link ChannelLog}, read in place from the mapped segment.
+ * <p>
+ * Views are reused while scanning, so they're only valid inside the callback
+ * they're handed to. Copy out whatever needs to outlive it.
+ */
+public final class MessageView {
+
+    private ByteBuffer buffer;
+    private int offset;
+
+    MessageView() {
+    }
+
+    MessageView at(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    int getLength() {
+        return this.buffer.getInt(this.offset);
+    }
+
+    public long getId() {
+        return this.buffer.getLong(this.offset + Segment.OFFSET_ID);
+    }
+
+    /**
+     * @return the time the record was appended, in epoch millis
+     */
+    public long getTimestamp() {
+        return this.buffer.getLong(this.offset + Segment.OFFSET_TIMESTAMP);
+    }
+
+    public MessageKind getKind() {
+        return MessageKind.fromCode(this.buffer.get(this.offset + Segment.OFFSET_KIND));
+    }
+
+    private int getSenderLength() {
+        return this.buffer.getShort(this.offset + Segment.OFFSET_SENDER_LENGTH) & 0xFFFF;
+    }
+
+    private int getTextLength() {
+        return getLength() - Segment.HEADER_BYTES - getSenderLength();
+    }
+
+    public String getSender() {
+        return Utf8.decode(this.buffer, this.offset + Segment.HEADER_BYTES, getSenderLength());
+    }
+
+    public String getText() {
+        return Utf8.decode(this.buffer, this.offset + Segment.HEADER_BYTES + getSenderLength(), getTextLength());
+    }
+
+    /**
+     * @return the sender's UTF-8 bytes, without copying. Read only.
+     */
+    public ByteBuffer getSenderBytes() {
+        return slice(this.offset + Segment.HEADER_BYTES, getSenderLength());
+    }
+
+    /**
+     * @return the text's UTF-8 bytes, without copying. Read only.
+     */
+    public ByteBuffer getTextBytes() {
+        return slice(this.offset + Segment.HEADER_BYTES + getSenderLength(), getTextLength());
+    }
+
+    private ByteBuffer slice(int start, int length) {
+        ByteBuffer view = this.buffer.asReadOnlyBuffer();
+        view.limit(start + length).position(start);
+        return view.slice();
+    }
+
+    @Override
+    public String toString() {
+        return "MessageView[id=" + getId() + ", timestamp=" + getTimestamp() + ", kind=" + getKind() + ", sender="
+                + getSender() + ", text=" + getText() + "]";
+    }
+
+}
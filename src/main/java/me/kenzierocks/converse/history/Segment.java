@@ -0,0 +1,308 @@
+package me.kenzierocks.converse.history;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * One memory-mapped file of records. The file is sized up front, and the
+ * unused tail is zeros, which reads as the end of the data.
+ * <p>
+ * Record layout, big-endian:
+ *
+ * <pre>
+ * int   length      whole record, header included; 0 marks the end
+ * long  id
+ * long  timestamp   epoch millis
+ * byte  kind        {@link MessageKind#getCode()}
+ * short senderLength
+ * byte[senderLength] sender, UTF-8
+ * byte[]             text, UTF-8, the rest of the record
+ * </pre>
+ *
+ * The length is written last, so a record cut off by a crash reads as the end
+ * of the segment rather than as garbage.
+ * <p>
+ * One writer at a time, which {@link ChannelLog} guarantees. Readers see
+ * everything up to {@link #getCommitted()}, and find their starting point
+ * through the segment's {@link SegmentIndex}. Once a segment has been rolled
+ * over, it also gets a {@link SegmentFilter}.
+ */
+final class Segment implements StoredSegment {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Segment.class);
+
+    static final int HEADER_BYTES = 4 + 8 + 8 + 1 + 2;
+    static final int OFFSET_ID = 4;
+    static final int OFFSET_TIMESTAMP = 12;
+    static final int OFFSET_KIND = 20;
+    static final int OFFSET_SENDER_LENGTH = 21;
+
+    static Segment create(Path path, long firstId, int capacity) throws IOException {
+        return map(path, firstId, capacity, true, true);
+    }
+
+    /**
+     * Opens an existing segment, scanning for the end of its data.
+     *
+     * @param writable
+     *            - if this is the segment being appended to
+     */
+    static Segment open(Path path, long firstId, boolean writable) throws IOException {
+        return map(path, firstId, -1, false, writable);
+    }
+
+    private static Segment map(Path path, long firstId, int capacity, boolean create, boolean writable)
+            throws IOException {
+        try (FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = create ? capacity : channel.size();
+            checkArgument(size <= Integer.MAX_VALUE, "segment %s too large", path);
+            // the mapping outlives the channel
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            Segment segment = new Segment(path, firstId, buffer);
+            if (create) {
+                segment.index = SegmentIndex.create(path);
+            } else {
+                segment.recover();
+                segment.index = SegmentIndex.open(path, buffer.duplicate(), segment.committed, writable);
+                if (writable) {
+                    // records are still going in, a filter would go stale
+                    Files.deleteIfExists(SegmentFilter.pathFor(path));
+                } else {
+                    segment.filter = SegmentFilter.load(path);
+                    if (segment.filter == null) {
+                        segment.buildFilter();
+                    }
+                }
+            }
+            return segment;
+        }
+    }
+
+    private final Path path;
+    private final long firstId;
+    private final MappedByteBuffer buffer;
+    private SegmentIndex index;
+    // null until sealed for good
+    private volatile SegmentFilter filter;
+    private volatile int committed;
+    private int lastOffset;
+    private long lastId;
+    private long lastTimestamp;
+
+    private Segment(Path path, long firstId, MappedByteBuffer buffer) {
+        this.path = path;
+        this.firstId = firstId;
+        this.buffer = buffer;
+        this.lastId = firstId - 1;
+    }
+
+    private void recover() {
+        int pos = 0;
+        int capacity = this.buffer.capacity();
+        while (pos + HEADER_BYTES <= capacity) {
+            int length = this.buffer.getInt(pos);
+            if (length < HEADER_BYTES || length > capacity - pos) {
+                break;
+            }
+            this.lastId = this.buffer.getLong(pos + OFFSET_ID);
+            this.lastTimestamp = this.buffer.getLong(pos + OFFSET_TIMESTAMP);
+            pos += length;
+        }
+        // anything after the last good record is a torn write, clear it so
+        // the next append doesn't leave stale bytes behind its header
+        for (int i = pos; i < Math.min(capacity, pos + HEADER_BYTES); i++) {
+            this.buffer.put(i, (byte) 0);
+        }
+        this.committed = pos;
+    }
+
+    static int recordLength(int senderBytes, int textBytes) {
+        return HEADER_BYTES + senderBytes + textBytes;
+    }
+
+    /**
+     * @return {@code false} if the record doesn't fit
+     */
+    boolean tryAppend(long id, long timestamp, MessageKind kind, CharSequence sender, int senderBytes,
+            CharSequence text, int textBytes) {
+        int length = recordLength(senderBytes, textBytes);
+        int pos = this.committed;
+        if (pos + length > this.buffer.capacity()) {
+            return false;
+        }
+        ByteBuffer out = this.buffer;
+        out.putLong(pos + OFFSET_ID, id);
+        out.putLong(pos + OFFSET_TIMESTAMP, timestamp);
+        out.put(pos + OFFSET_KIND, kind.getCode());
+        out.putShort(pos + OFFSET_SENDER_LENGTH, (short) senderBytes);
+        out.position(pos + HEADER_BYTES);
+        Utf8.encode(sender, out);
+        Utf8.encode(text, out);
+        out.putInt(pos, length);
+        this.index.onAppend(id, timestamp, pos);
+        this.lastOffset = pos;
+        this.lastId = id;
+        this.lastTimestamp = timestamp;
+        // publishes the record to readers
+        this.committed = pos + length;
+        return true;
+    }
+
+    Path getPath() {
+        return this.path;
+    }
+
+    @Override
+    public long getFirstId() {
+        return this.firstId;
+    }
+
+    @Override
+    public long getLastId() {
+        return this.lastId;
+    }
+
+    @Override
+    public long getLastTimestamp() {
+        return this.lastTimestamp;
+    }
+
+    int getCommitted() {
+        return this.committed;
+    }
+
+    /**
+     * @return the offset of the last record appended, only meaningful to the
+     *         writer
+     */
+    int getLastOffset() {
+        return this.lastOffset;
+    }
+
+    /**
+     * @return the mapped size of the segment
+     */
+    int getCapacity() {
+        return this.buffer.capacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.committed == 0;
+    }
+
+    /**
+     * @return a private view of the mapping, for one reader
+     */
+    ByteBuffer newReader() {
+        return this.buffer.duplicate();
+    }
+
+    /**
+     * @return where to start reading forward to find {@code id}
+     */
+    int seekId(long id) {
+        return this.index.floorOffsetOfId(id);
+    }
+
+    /**
+     * @return where to start reading forward to find the first record at or
+     *         after {@code timestamp}
+     */
+    int seekTimestamp(long timestamp) {
+        return this.index.floorOffsetBeforeTimestamp(timestamp);
+    }
+
+    @Override
+    public long getFirstTimestamp() {
+        return this.index.getFirstTimestamp();
+    }
+
+    @Override
+    public boolean scan(long fromId, long toId, Predicate<MessageView> visitor) {
+        return scanRecords(newReader(), seekId(fromId), this.committed, fromId, toId, visitor);
+    }
+
+    @Override
+    public boolean scanFromTimestamp(long timestamp, Predicate<MessageView> visitor) {
+        return scanRecords(newReader(), seekTimestamp(timestamp), this.committed, Long.MIN_VALUE, Long.MAX_VALUE,
+                visitor);
+    }
+
+    /**
+     * Visits the records in {@code data} between {@code start} and
+     * {@code end} with ids in {@code [fromId, toId)}. The walk every tier
+     * shares, since they all hold records in this layout.
+     *
+     * @return {@code false} if the visitor stopped or {@code toId} was
+     *         reached
+     */
+    static boolean scanRecords(ByteBuffer data, int start, int end, long fromId, long toId,
+            Predicate<MessageView> visitor) {
+        MessageView view = new MessageView();
+        for (int pos = start; pos < end;) {
+            view.at(data, pos);
+            pos += view.getLength();
+            long id = view.getId();
+            if (id < fromId) {
+                continue;
+            }
+            if (id >= toId || !visitor.test(view)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void force() {
+        this.buffer.force();
+    }
+
+    /**
+     * Flushes the segment once no more records will be added to it.
+     */
+    void seal() throws IOException {
+        force();
+        this.index.seal();
+    }
+
+    /**
+     * Builds and saves the segment's filter, once it's been rolled over and
+     * won't be reopened for writing. A read of the whole segment.
+     */
+    void buildFilter() {
+        SegmentFilter built = SegmentFilter.build(newReader(), this.committed);
+        try {
+            built.save(this.path);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save the filter for " + this.path + ", it will be rebuilt on next open", e);
+        }
+        this.filter = built;
+    }
+
+    /**
+     * Always {@code true} before the filter is built.
+     */
+    @Override
+    public boolean mightContainAll(Iterable<String> terms) {
+        SegmentFilter filter = this.filter;
+        return filter == null || filter.mightContainAll(terms);
+    }
+
+}
@@ -0,0 +1,115 @@
+package me.kenzierocks.converse.history;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+
+import me.kenzierocks.converse.util.AtomicFiles;
+import me.kenzierocks.converse.util.Tokenizer;
+
+/**
+ * Bloom filter of the nick terms and tokens in a sealed {@link Segment}, so
+ * lookups can skip segments that can't hold a match. Terms are the ones
+ * {@link Tokenizer} makes.
+ * <p>
+ * Kept in a sidecar next to the segment, which, like the
+ * {@link SegmentIndex}, is only a cache and is rebuilt if it's missing,
+ * unreadable, or from another version.
+ */
+final class SegmentFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentFilter.class);
+
+    static final String SUFFIX = ".bloom";
+    // 2: nick terms fold by CaseMapping.RFC1459, and the version comes first
+    private static final int VERSION = 2;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.UTF_8);
+
+    static Path pathFor(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - ChannelLog.SEGMENT_SUFFIX.length()) + SUFFIX);
+    }
+
+    /**
+     * Adds the terms of every record in {@code data} up to {@code committed}.
+     */
+    static SegmentFilter build(ByteBuffer data, int committed) {
+        Set<String> terms = new HashSet<>();
+        MessageView view = new MessageView();
+        for (int pos = 0; pos < committed; pos += view.getLength()) {
+            view.at(data, pos);
+            terms.add(Tokenizer.nickTerm(view.getSender()));
+            Tokenizer.tokenize(view.getText(), (token, position) -> terms.add(token));
+        }
+        BloomFilter<CharSequence> filter = BloomFilter.create(FUNNEL, Math.max(1, terms.size()),
+                FALSE_POSITIVE_RATE);
+        terms.forEach(filter::put);
+        return new SegmentFilter(filter);
+    }
+
+    /**
+     * @return the filter saved for {@code segment}, or {@code null} if there
+     *         isn't a usable one
+     */
+    @Nullable
+    static SegmentFilter load(Path segment) {
+        Path path = pathFor(segment);
+        try (InputStream in = Files.newInputStream(path)) {
+            int version = new DataInputStream(in).readInt();
+            if (version != VERSION) {
+                LOGGER.info("Filter " + path + " is version " + version + ", rebuilding it");
+                return null;
+            }
+            return new SegmentFilter(BloomFilter.readFrom(in, FUNNEL));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Filter " + path + " is unreadable, rebuilding it", e);
+            return null;
+        }
+    }
+
+    private final BloomFilter<CharSequence> filter;
+
+    private SegmentFilter(BloomFilter<CharSequence> filter) {
+        this.filter = filter;
+    }
+
+    void save(Path segment) throws IOException {
+        AtomicFiles.write(pathFor(segment), out -> {
+            new DataOutputStream(out).writeInt(VERSION);
+            this.filter.writeTo(out);
+        });
+    }
+
+    /**
+     * @return {@code false} if some term is definitely not in the segment
+     */
+    boolean mightContainAll(Iterable<String> terms) {
+        for (String term : terms) {
+            if (!this.filter.mightContain(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
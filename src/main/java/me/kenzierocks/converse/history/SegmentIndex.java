@@ -0,0 +1,215 @@
+package me.kenzierocks.converse.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sparse id and time index over one {@link Segment}: one entry per
+ * {@link #INTERVAL_BYTES} of records, so finding a record is a binary search
+ * here plus a short sequential read in the segment.
+ * <p>
+ * Entries are kept in memory as parallel arrays and appended to a sidecar
+ * file as they're made. The sidecar is only a cache; anything missing or
+ * wrong in it is rebuilt from the segment on open.
+ * <p>
+ * Lookups lock the index, but entries are only made every few kilobytes of
+ * records, so the writer rarely holds it.
+ * <p>
+ * Entry layout, big-endian: {@code long id, long timestamp, int offset}.
+ */
+final class SegmentIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentIndex.class);
+
+    static final String SUFFIX = ".idx";
+    static final int INTERVAL_BYTES = 4096;
+    private static final int ENTRY_BYTES = 8 + 8 + 4;
+
+    private long[] ids = new long[16];
+    private long[] timestamps = new long[16];
+    private int[] offsets = new int[16];
+    private int size;
+    private int nextIndexedOffset;
+    private final Path path;
+    private final ByteBuffer entryBuffer = ByteBuffer.allocate(ENTRY_BYTES);
+    // null once the segment is sealed
+    private FileChannel out;
+
+    private SegmentIndex(Path path) {
+        this.path = path;
+    }
+
+    static Path pathFor(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - ChannelLog.SEGMENT_SUFFIX.length()) + SUFFIX);
+    }
+
+    static SegmentIndex create(Path segment) throws IOException {
+        SegmentIndex index = new SegmentIndex(pathFor(segment));
+        index.out = FileChannel.open(index.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return index;
+    }
+
+    /**
+     * Loads the sidecar, checks it against the segment, and indexes whatever
+     * it's missing.
+     *
+     * @param data
+     *            - a reader over the segment
+     * @param committed
+     *            - the end of the segment's records
+     * @param writable
+     *            - if the segment is still being appended to
+     */
+    static SegmentIndex open(Path segment, ByteBuffer data, int committed, boolean writable) throws IOException {
+        SegmentIndex index = new SegmentIndex(pathFor(segment));
+        byte[] raw;
+        try {
+            raw = Files.readAllBytes(index.path);
+        } catch (NoSuchFileException e) {
+            raw = new byte[0];
+        }
+        ByteBuffer entries = ByteBuffer.wrap(raw);
+        MessageView view = new MessageView();
+        while (entries.remaining() >= ENTRY_BYTES) {
+            long id = entries.getLong();
+            long timestamp = entries.getLong();
+            int offset = entries.getInt();
+            boolean valid = offset >= index.nextIndexedOffset && offset < committed
+                    && view.at(data, offset).getId() == id && view.getTimestamp() == timestamp;
+            if (!valid) {
+                LOGGER.warn("Index " + index.path + " doesn't match its segment, rebuilding from offset "
+                        + index.nextIndexedOffset);
+                break;
+            }
+            index.add(id, timestamp, offset);
+        }
+        int validBytes = index.size * ENTRY_BYTES;
+        index.out = FileChannel.open(index.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        index.out.truncate(validBytes);
+        index.out.position(validBytes);
+        // catch up from the last entry, the sidecar can lag the data
+        int pos = index.size == 0 ? 0 : index.offsets[index.size - 1];
+        while (pos < committed) {
+            view.at(data, pos);
+            index.onAppend(view.getId(), view.getTimestamp(), pos);
+            pos += view.getLength();
+        }
+        if (!writable) {
+            index.seal();
+        }
+        return index;
+    }
+
+    private void add(long id, long timestamp, int offset) {
+        if (this.size == this.ids.length) {
+            int grown = this.size * 2;
+            this.ids = Arrays.copyOf(this.ids, grown);
+            this.timestamps = Arrays.copyOf(this.timestamps, grown);
+            this.offsets = Arrays.copyOf(this.offsets, grown);
+        }
+        this.ids[this.size] = id;
+        this.timestamps[this.size] = timestamp;
+        this.offsets[this.size] = offset;
+        this.size++;
+        this.nextIndexedOffset = offset + INTERVAL_BYTES;
+    }
+
+    /**
+     * Called for every record appended, in order.
+     */
+    synchronized void onAppend(long id, long timestamp, int offset) {
+        if (offset < this.nextIndexedOffset) {
+            return;
+        }
+        add(id, timestamp, offset);
+        if (this.out != null) {
+            this.entryBuffer.clear();
+            this.entryBuffer.putLong(id).putLong(timestamp).putInt(offset).flip();
+            try {
+                while (this.entryBuffer.hasRemaining()) {
+                    this.out.write(this.entryBuffer);
+                }
+            } catch (IOException e) {
+                // the in-memory index is fine, the sidecar gets rebuilt
+                LOGGER.warn("Failed to write index " + this.path + ", it will be rebuilt on next open", e);
+                closeQuietly();
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            seal();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close index " + this.path, e);
+        }
+    }
+
+    /**
+     * @return the offset of an indexed record at or before {@code id}, or
+     *         {@code 0}
+     */
+    synchronized int floorOffsetOfId(long id) {
+        int i = Arrays.binarySearch(this.ids, 0, this.size, id);
+        if (i < 0) {
+            // insertion point - 1
+            i = -i - 2;
+        }
+        return i < 0 ? 0 : this.offsets[i];
+    }
+
+    /**
+     * @return the offset of an indexed record strictly before
+     *         {@code timestamp}, or {@code 0}. Records sharing a timestamp
+     *         may straddle an entry, hence strictly.
+     */
+    synchronized int floorOffsetBeforeTimestamp(long timestamp) {
+        int lo = 0;
+        int hi = this.size - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.timestamps[mid] < timestamp) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found < 0 ? 0 : this.offsets[found];
+    }
+
+    /**
+     * @return the first timestamp in the segment, or {@link Long#MAX_VALUE}
+     *         if it's empty
+     */
+    synchronized long getFirstTimestamp() {
+        return this.size == 0 ? Long.MAX_VALUE : this.timestamps[0];
+    }
+
+    synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Closes the sidecar for writing. Lookups still work.
+     */
+    synchronized void seal() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package me.kenzierocks.converse.history;
+
+import java.util.function.Predicate;
+
+/**
+ * A run of records with consecutive ids, in one of the on-disk tiers: a
+ * mapped {@link Segment}, or a {@link ColdSegment} of compressed blocks.
+ * {@link ChannelLog} reads through this without caring which.
+ */
+interface StoredSegment {
+
+    long getFirstId();
+
+    /**
+     * @return the last id stored, or {@code firstId - 1} if empty
+     */
+    long getLastId();
+
+    /**
+     * @return the first timestamp, or {@link Long#MAX_VALUE} if empty
+     */
+    long getFirstTimestamp();
+
+    long getLastTimestamp();
+
+    boolean isEmpty();
+
+    /**
+     * Visits records with ids in {@code [fromId, toId)}, in order.
+     *
+     * @return {@code false} if the visitor stopped, or {@code toId} was
+     *         reached, so the caller shouldn't go on to the next segment
+     */
+    boolean scan(long fromId, long toId, Predicate<MessageView> visitor);
+
+    /**
+     * Visits records in order, starting at or shortly before the first one
+     * at or after {@code timestamp}.
+     *
+     * @return {@code false} if the visitor stopped
+     */
+    boolean scanFromTimestamp(long timestamp, Predicate<MessageView> visitor);
+
+    /**
+     * @return {@code false} if some term is definitely not in the segment
+     */
+    boolean mightContainAll(Iterable<String> terms);
+
+}
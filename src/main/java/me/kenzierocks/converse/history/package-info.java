@@ -0,0 +1,5 @@
+/**
+ * Persistent message history: append-only, memory-mapped segment files per
+ * network and channel.
+ */
+package me.kenzierocks.converse.history;
\ No newline at end of file
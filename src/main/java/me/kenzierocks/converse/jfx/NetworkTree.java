@@ -0,0 +1,202 @@
+package me.kenzierocks.converse.jfx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+import me.kenzierocks.converse.NetworkObserver;
+import me.kenzierocks.converse.NetworkState;
+import me.kenzierocks.converse.unread.ChannelActivity;
+import me.kenzierocks.converse.unread.UnreadTracker;
+import me.kenzierocks.converse.util.CaseMappedMap;
+
+/**
+ * The network tree: a node per network, styled by whether it's connected,
+ * with a child per channel, showing its unread count. Changes go through the
+ * {@link UiDispatcher}: networks and channels coming and going are replayed
+ * in the order they happened, and networks added together go in as one
+ * batch.
+ * <p>
+ * Connection styles and unread counts are merged per node: only the latest
+ * waits for the next pulse, so a busy channel or a flapping connection costs
+ * one update per pulse, not one per event.
+ */
+public final class NetworkTree implements NetworkObserver {
+
+    private final UnreadTracker unread;
+    private final UiDispatcher dispatcher;
+    private final BiConsumer<String, String> viewer;
+    private final TreeItem<String> root = new TreeItem<>();
+    // FX thread only
+    private final Map<NetworkState, StylableTreeItem<String>> networkItems = new HashMap<>();
+    // channel names fold, so the server's spelling finds the config's
+    private final Map<NetworkState, CaseMappedMap<StylableTreeItem<String>>> channelItems = new HashMap<>();
+
+    /**
+     * @param viewer
+     *            - told the network and channel selected, or {@code null}s
+     *            if it's neither
+     */
+    public NetworkTree(UnreadTracker unread, UiDispatcher dispatcher, BiConsumer<String, String> viewer) {
+        this.unread = unread;
+        this.dispatcher = dispatcher;
+        this.viewer = viewer;
+        unread.addListener(this::activityChanged);
+    }
+
+    public TreeItem<String> getRoot() {
+        return this.root;
+    }
+
+    @Override
+    public void networksAdded(int index, List<NetworkState> added) {
+        this.dispatcher.post(() -> {
+            List<TreeItem<String>> items = new ArrayList<>(added.size());
+            for (NetworkState network : added) {
+                StylableTreeItem<String> item = StylableTreeItem.fromTreeItem(new TreeItem<>(network.getName()));
+                this.networkItems.put(network, item);
+                this.channelItems.put(network, new CaseMappedMap<>(network.getCaseMapping()));
+                setConnectedStyle(network);
+                addChannels(network, network.getChannels());
+                items.add(item.getItem());
+            }
+            // one change event for the whole batch, not one layout pass per
+            // network
+            this.root.getChildren().addAll(index, items);
+        });
+    }
+
+    @Override
+    public void networkRemoved(NetworkState network) {
+        this.dispatcher.post(() -> {
+            StylableTreeItem<String> item = this.networkItems.remove(network);
+            this.channelItems.remove(network);
+            this.root.getChildren().remove(item.getItem());
+        });
+    }
+
+    @Override
+    public void connectionChanged(NetworkState network) {
+        // the style reads the state when it runs, so the latest post will do
+        this.dispatcher.post(network, () -> setConnectedStyle(network));
+    }
+
+    @Override
+    public void caseMappingChanged(NetworkState network) {
+        this.dispatcher.post(() -> {
+            CaseMappedMap<StylableTreeItem<String>> items = this.channelItems.get(network);
+            if (items == null) {
+                // removed since
+                return;
+            }
+            CaseMappedMap<StylableTreeItem<String>> refolded = new CaseMappedMap<>(network.getCaseMapping());
+            items.forEach(refolded::put);
+            this.channelItems.put(network, refolded);
+        });
+    }
+
+    @Override
+    public void channelsAdded(NetworkState network, List<String> channels) {
+        this.dispatcher.post(() -> addChannels(network, channels));
+    }
+
+    @Override
+    public void channelRemoved(NetworkState network, String channel) {
+        this.dispatcher.post(() -> {
+            CaseMappedMap<StylableTreeItem<String>> items = this.channelItems.get(network);
+            StylableTreeItem<String> item = items == null ? null : items.remove(channel);
+            if (item != null) {
+                this.networkItems.get(network).getItem().getChildren().remove(item.getItem());
+            }
+        });
+    }
+
+    private void addChannels(NetworkState network, List<String> channels) {
+        CaseMappedMap<StylableTreeItem<String>> items = this.channelItems.get(network);
+        if (items == null) {
+            // removed since
+            return;
+        }
+        List<TreeItem<String>> added = new ArrayList<>(channels.size());
+        for (String channel : channels) {
+            if (!items.containsKey(channel)) {
+                StylableTreeItem<String> item = StylableTreeItem.fromTreeItem(new TreeItem<>(channel));
+                items.put(channel, item);
+                setActivity(item, this.unread.get(network.getName(), channel));
+                added.add(item.getItem());
+            }
+        }
+        this.networkItems.get(network).getItem().getChildren().addAll(added);
+    }
+
+    /**
+     * Focuses the selected channel, if it is one, which marks it read and
+     * joins it if it's lazy.
+     */
+    public void select(@Nullable TreeItem<String> selected) {
+        for (Map.Entry<NetworkState, CaseMappedMap<StylableTreeItem<String>>> network : this.channelItems
+                .entrySet()) {
+            for (String channel : network.getValue().keys()) {
+                if (network.getValue().get(channel).getItem() == selected) {
+                    this.unread.setFocused(network.getKey().getName(), channel);
+                    this.viewer.accept(network.getKey().getName(), channel);
+                    return;
+                }
+            }
+        }
+        this.unread.setFocused(null, null);
+        this.viewer.accept(null, null);
+    }
+
+    private void activityChanged(ChannelActivity activity) {
+        String network = activity.getNetwork();
+        String channel = activity.getChannel();
+        // snapshots from different threads can arrive out of order, so the
+        // count is read when it runs, like the connection style
+        this.dispatcher.post(ImmutableList.of(network, this.unread.getCaseMapping(network).fold(channel)),
+                () -> applyActivity(network, channel));
+    }
+
+    private void applyActivity(String networkName, String channel) {
+        this.channelItems.forEach((network, items) -> {
+            StylableTreeItem<String> item = network.getName().equals(networkName) ? items.get(channel) : null;
+            if (item != null) {
+                setActivity(item, this.unread.get(networkName, channel));
+            }
+        });
+    }
+
+    private static void setActivity(StylableTreeItem<String> item, ChannelActivity activity) {
+        int unread = activity.getUnread();
+        item.setActualText(unread == 0 ? activity.getChannel() : activity.getChannel() + " (" + unread + ")");
+        ObservableList<String> styles = item.getStylableItem().getStyleClass();
+        styles.removeAll("unread-channel", "mention-channel");
+        if (activity.getMentions() > 0) {
+            styles.add("mention-channel");
+        } else if (unread > 0) {
+            styles.add("unread-channel");
+        }
+    }
+
+    private void setConnectedStyle(NetworkState network) {
+        StylableTreeItem<String> item = this.networkItems.get(network);
+        if (item == null) {
+            // removed since
+            return;
+        }
+        // the state, not what it was when this was queued
+        ObservableList<String> styles = item.getStylableItem().getStyleClass();
+        styles.removeAll("dscn-network", "conn-network");
+        // the next pulse restyles it, no need to force a CSS pass now
+        styles.add(network.isConnected() ? "conn-network" : "dscn-network");
+    }
+
+}
@@ -0,0 +1,64 @@
+package me.kenzierocks.converse.jfx;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import me.kenzierocks.converse.util.CoalescingQueue;
+
+/**
+ * Carries UI changes from the network threads to the FX thread. Posting
+ * never blocks; the FX thread runs everything waiting once per pulse, so a
+ * burst of changes costs a frame's worth of work, not a runnable each on the
+ * FX event queue.
+ * <p>
+ * The pulse timer only runs while there's work: the first post after an idle
+ * pulse starts it, and a pulse that finds nothing more stops it.
+ */
+public final class UiDispatcher {
+
+    private final CoalescingQueue queue = new CoalescingQueue("UI updates", this::wake);
+    private final AnimationTimer pulse = new AnimationTimer() {
+
+        @Override
+        public void handle(long now) {
+            UiDispatcher.this.queue.drain();
+            if (!UiDispatcher.this.queue.isAwake()) {
+                // a post after this starts it again
+                stop();
+            }
+        }
+
+    };
+
+    private void wake() {
+        Platform.runLater(this.pulse::start);
+    }
+
+    /**
+     * Runs {@code update} on the FX thread, after everything posted before
+     * it.
+     */
+    public void post(Runnable update) {
+        this.queue.post(update);
+    }
+
+    /**
+     * Runs {@code update} on the FX thread, unless another is posted under
+     * {@code key} first, in which case only that one runs.
+     */
+    public void post(Object key, Runnable update) {
+        this.queue.post(key, update);
+    }
+
+    /**
+     * @return the queue depth and per-pulse drain time
+     */
+    public CoalescingQueue getQueue() {
+        return this.queue;
+    }
+
+    @Override
+    public String toString() {
+        return this.queue.toString();
+    }
+
+}
@@ -1,19 +1,37 @@
 package me.kenzierocks.converse.listeners;
 
+import java.util.function.Consumer;
+
 import org.kitteh.irc.client.library.event.client.ClientConnectedEvent;
 import org.kitteh.irc.lib.net.engio.mbassy.listener.Handler;
 
+/**
+ * Joins the configured channels each time the client connects.
+ */
 public class AddChannelListener {
 
-    private final String[] channelsToJoin;
+    private final Consumer<String[]> joiner;
+    private volatile String[] channelsToJoin;
+
+    /**
+     * @param joiner
+     *            - joins the channels on the connected client
+     */
+    public AddChannelListener(Consumer<String[]> joiner, String... channels) {
+        this.joiner = joiner;
+        setChannels(channels);
+    }
 
-    public AddChannelListener(String... channels) {
+    /**
+     * Replaces the channels joined on the next connection.
+     */
+    public void setChannels(String... channels) {
         this.channelsToJoin = channels.clone();
     }
 
     @Handler
     public void onConnection(ClientConnectedEvent event) {
-        event.getClient().addChannel(this.channelsToJoin);
+        this.joiner.accept(this.channelsToJoin);
     }
 
 }
@@ -0,0 +1,145 @@
+package me.kenzierocks.converse.relay;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import me.kenzierocks.converse.util.AtomicFiles;
+import me.kenzierocks.converse.util.WriteBehind;
+
+/**
+ * The read cursors of named clients, as of their last snapshot, saved to a
+ * JSON file a moment after they change: client name to a list of
+ * {@code {network, channel, lastSeenId}}.
+ */
+final class CursorStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CursorStore.class);
+    private static final long SAVE_WINDOW_MILLIS = 2000;
+
+    @Nullable
+    private final Path file;
+    private final ConcurrentMap<String, ImmutableList<RelayCursor>> cursors = new ConcurrentHashMap<>();
+    private final WriteBehind saver;
+
+    /**
+     * @param file
+     *            - where to keep them, or {@code null} for memory only
+     */
+    CursorStore(@Nullable Path file, ScheduledExecutorService executor) {
+        this.file = file;
+        this.saver = new WriteBehind("relay cursors", executor, SAVE_WINDOW_MILLIS, this::save);
+        if (file != null && Files.exists(file)) {
+            try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+                load(new JsonReader(reader));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to load relay cursors from " + file + ", clients will start from live", e);
+                this.cursors.clear();
+            }
+        }
+    }
+
+    private void load(JsonReader json) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            String client = json.nextName();
+            ImmutableList.Builder<RelayCursor> list = ImmutableList.builder();
+            json.beginArray();
+            while (json.hasNext()) {
+                String network = null;
+                String channel = null;
+                long lastSeenId = 0;
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    switch (name) {
+                        case "network":
+                            network = json.nextString();
+                            break;
+                        case "channel":
+                            channel = json.nextString();
+                            break;
+                        case "lastSeenId":
+                            lastSeenId = json.nextLong();
+                            break;
+                        default:
+                            json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (network != null && channel != null) {
+                    list.add(RelayCursor.create(network, channel, lastSeenId));
+                }
+            }
+            json.endArray();
+            this.cursors.put(client, list.build());
+        }
+        json.endObject();
+    }
+
+    private void save() throws IOException {
+        if (this.file == null) {
+            return;
+        }
+        AtomicFiles.write(this.file, out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            JsonWriter json = new JsonWriter(writer);
+            json.setIndent("  ");
+            json.beginObject();
+            for (Map.Entry<String, ImmutableList<RelayCursor>> client : this.cursors.entrySet()) {
+                json.name(client.getKey()).beginArray();
+                for (RelayCursor cursor : client.getValue()) {
+                    json.beginObject();
+                    json.name("network").value(cursor.getNetwork());
+                    json.name("channel").value(cursor.getChannel());
+                    json.name("lastSeenId").value(cursor.getLastSeenId());
+                    json.endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+            json.flush();
+        });
+    }
+
+    ImmutableList<RelayCursor> get(String client) {
+        return this.cursors.getOrDefault(client, ImmutableList.of());
+    }
+
+    void put(String client, ImmutableList<RelayCursor> cursors) {
+        if (!cursors.equals(this.cursors.put(client, cursors))) {
+            this.saver.requestWrite();
+        }
+    }
+
+    void flush() {
+        try {
+            this.saver.flush(5, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warn("Timed out saving relay cursors");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package me.kenzierocks.converse.relay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An encoded frame, shared by every connection it's sent to, and the name
+ * ids it uses, which a connection must have had defined first. A logged
+ * {@code MESSAGE} also knows its channel and history id, for cursors.
+ */
+final class Frame {
+
+    /**
+     * @return a key for the channel, from the network and channel name ids
+     */
+    static long channelKey(int network, int channel) {
+        return (long) network << 32 | channel;
+    }
+
+    private final ByteBuffer bytes;
+    private final int[] names;
+    private final long channel;
+    private final long id;
+
+    Frame(ByteBuffer bytes, int... names) {
+        this(bytes, -1, -1, names);
+    }
+
+    Frame(ByteBuffer bytes, long channel, long id, int... names) {
+        this.bytes = bytes;
+        this.names = names;
+        this.channel = channel;
+        this.id = id;
+    }
+
+    ByteBuffer getBytes() {
+        return this.bytes;
+    }
+
+    int[] getNames() {
+        return this.names;
+    }
+
+    long getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * @return the message's history id, or {@code -1}
+     */
+    long getId() {
+        return this.id;
+    }
+
+}
@@ -0,0 +1,78 @@
+package me.kenzierocks.converse.relay;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * Writes one {@link RelayProtocol} frame at a time into a growable array.
+ * Room for the length prefix is left at the front and filled in by
+ * {@link #finish()}.
+ */
+final class FrameBuilder {
+
+    // the most a varint of an int takes
+    private static final int PREFIX_BYTES = 5;
+
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    FrameBuilder start(byte opcode) {
+        this.length = PREFIX_BYTES;
+        return writeByte(opcode);
+    }
+
+    private void ensure(int more) {
+        if (this.length + more > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.length + more));
+        }
+    }
+
+    FrameBuilder writeByte(int value) {
+        ensure(1);
+        this.bytes[this.length++] = (byte) value;
+        return this;
+    }
+
+    FrameBuilder writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            this.bytes[this.length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.bytes[this.length++] = (byte) value;
+        return this;
+    }
+
+    FrameBuilder writeString(String value) {
+        int encoded = Utf8.encodedLength(value);
+        writeVarLong(encoded);
+        ensure(encoded);
+        ByteBuffer target = ByteBuffer.wrap(this.bytes, this.length, encoded);
+        Utf8.encode(value, target);
+        this.length += encoded;
+        return this;
+    }
+
+    /**
+     * @return a read-only copy of the frame, length prefix and all
+     */
+    ByteBuffer finish() {
+        int body = this.length - PREFIX_BYTES;
+        int prefix = 1;
+        for (int v = body; (v & ~0x7F) != 0; v >>>= 7) {
+            prefix++;
+        }
+        int start = PREFIX_BYTES - prefix;
+        int at = start;
+        int v = body;
+        while ((v & ~0x7F) != 0) {
+            this.bytes[at++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        this.bytes[at] = (byte) v;
+        return ByteBuffer.wrap(Arrays.copyOfRange(this.bytes, start, this.length)).asReadOnlyBuffer();
+    }
+
+}
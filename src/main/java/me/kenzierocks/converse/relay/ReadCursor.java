@@ -0,0 +1,77 @@
+package me.kenzierocks.converse.relay;
+
+/**
+ * Where a client is in one channel: the last id it was sent, and whether
+ * it's being caught up from the history. While it is, live messages for the
+ * channel aren't sent, only noted, and the pages carry on past them.
+ * <p>
+ * Selector thread only.
+ */
+final class ReadCursor {
+
+    private final String network;
+    private final String channel;
+    private long last;
+    private long newest;
+    private boolean paging;
+    private boolean waiting;
+
+    ReadCursor(String network, String channel, long last) {
+        this.network = network;
+        this.channel = channel;
+        this.last = last;
+        this.newest = last;
+    }
+
+    String getNetwork() {
+        return this.network;
+    }
+
+    String getChannel() {
+        return this.channel;
+    }
+
+    long getLast() {
+        return this.last;
+    }
+
+    void setLast(long last) {
+        this.last = last;
+        this.newest = Math.max(this.newest, last);
+    }
+
+    /**
+     * @return the newest id known to be in the history, sent or not
+     */
+    long getNewest() {
+        return this.newest;
+    }
+
+    void noteNewest(long id) {
+        this.newest = Math.max(this.newest, id);
+    }
+
+    boolean isPaging() {
+        return this.paging;
+    }
+
+    void setPaging(boolean paging) {
+        this.paging = paging;
+    }
+
+    /**
+     * @return if the next page waits for the client's queue to drain
+     */
+    boolean isWaiting() {
+        return this.waiting;
+    }
+
+    void setWaiting(boolean waiting) {
+        this.waiting = waiting;
+    }
+
+    RelayCursor snapshot() {
+        return RelayCursor.create(this.network, this.channel, this.last);
+    }
+
+}
@@ -0,0 +1,279 @@
+package me.kenzierocks.converse.relay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nullable;
+
+/**
+ * A connected frontend: its socket, the frames waiting to be written to it,
+ * the ids it has been sent a {@code DEFINE} for, and its read cursors if it
+ * resumed under a name. The frames are views of
+ * the shared encoded frames, so queueing one costs a small object, not a
+ * copy. A deflating client compresses what's queued only once the socket
+ * has taken the last of it, so a stalled one costs no CPU.
+ * <p>
+ * Selector thread only.
+ */
+final class RelayClient {
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String name;
+    private final RelayDecoder input;
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final BitSet defined = new BitSet();
+    private final Map<Long, ReadCursor> cursors = new HashMap<>();
+    private final ArrayDeque<ReadCursor> waiting = new ArrayDeque<>();
+    private long queuedBytes;
+    private boolean attached;
+    private boolean closed;
+    @Nullable
+    private String clientName;
+    private Deflater deflater;
+    // write mode
+    private ByteBuffer deflated;
+
+    RelayClient(RelayServer server, SocketChannel channel, SelectionKey key, String name) {
+        this.channel = channel;
+        this.key = key;
+        this.name = name;
+        this.input = new RelayDecoder(new RelayDecoder.Listener() {
+
+            @Override
+            public void hello(int version, int flags) {
+                server.handshake(RelayClient.this, version, flags);
+            }
+
+            @Override
+            public void resume(String client, List<RelayCursor> cursors) {
+                server.resume(RelayClient.this, client, cursors);
+            }
+
+            @Override
+            public void catchUp(RelayCursor cursor) {
+                server.catchUp(RelayClient.this, cursor);
+            }
+
+        }, false, RelayServer.MAX_CLIENT_FRAME_BYTES);
+    }
+
+    SocketChannel getChannel() {
+        return this.channel;
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    RelayDecoder getInput() {
+        return this.input;
+    }
+
+    /**
+     * @return if it has said {@code HELLO}, and gets published frames
+     */
+    boolean isAttached() {
+        return this.attached;
+    }
+
+    void attach(boolean deflate) {
+        this.attached = true;
+        if (deflate) {
+            this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            this.deflated = ByteBuffer.allocate(16 * 1024);
+        }
+    }
+
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * @return the name it resumed as, or {@code null} if it hasn't
+     */
+    @Nullable
+    String getClientName() {
+        return this.clientName;
+    }
+
+    void setClientName(String clientName) {
+        this.clientName = clientName;
+    }
+
+    /**
+     * @param channel
+     *            - from {@link Frame#channelKey(int, int)}
+     */
+    @Nullable
+    ReadCursor getCursor(long channel) {
+        return this.cursors.get(channel);
+    }
+
+    void putCursor(long channel, ReadCursor cursor) {
+        this.cursors.put(channel, cursor);
+    }
+
+    Collection<ReadCursor> getCursors() {
+        return this.cursors.values();
+    }
+
+    /**
+     * @return the cursors whose next page waits for the queue to drain
+     */
+    ArrayDeque<ReadCursor> getWaiting() {
+        return this.waiting;
+    }
+
+    /**
+     * @return the raw frames queued plus what's deflated but not yet written
+     */
+    long getQueuedBytes() {
+        return this.queuedBytes + (this.deflated == null ? 0 : this.deflated.position());
+    }
+
+    boolean hasQueued() {
+        return !this.queue.isEmpty() || this.deflated != null && this.deflated.position() > 0;
+    }
+
+    /**
+     * Queues the frame, after defining any of its names this client hasn't
+     * seen.
+     */
+    void enqueue(Frame frame, RelayCodec codec) {
+        for (int id : frame.getNames()) {
+            if (!this.defined.get(id)) {
+                this.defined.set(id);
+                enqueue(codec.define(id));
+            }
+        }
+        enqueue(frame.getBytes());
+    }
+
+    private void enqueue(ByteBuffer frame) {
+        this.queue.add(frame.duplicate());
+        this.queuedBytes += frame.remaining();
+    }
+
+    /**
+     * Writes as much as the socket takes, and waits for the socket to drain
+     * if any is left.
+     *
+     * @param frames
+     *            - scratch for gathering writes, the most frames written in
+     *            one call
+     * @param bytes
+     *            - scratch for feeding the deflater
+     * @return the bytes written
+     */
+    long flush(ByteBuffer[] frames, byte[] bytes) throws IOException {
+        long total = this.deflater == null ? writeFrames(frames) : writeDeflated(bytes);
+        this.key.interestOps(hasQueued() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        return total;
+    }
+
+    private long writeFrames(ByteBuffer[] scratch) throws IOException {
+        long total = 0;
+        while (!this.queue.isEmpty()) {
+            int count = 0;
+            Iterator<ByteBuffer> frames = this.queue.iterator();
+            while (count < scratch.length && frames.hasNext()) {
+                scratch[count++] = frames.next();
+            }
+            long written = this.channel.write(scratch, 0, count);
+            total += written;
+            this.queuedBytes -= written;
+            while (!this.queue.isEmpty() && !this.queue.peek().hasRemaining()) {
+                this.queue.poll();
+            }
+            if (written == 0 || this.queue.size() > 0 && this.queue.peek().position() > 0) {
+                // the socket buffer is full
+                break;
+            }
+        }
+        return total;
+    }
+
+    private long writeDeflated(byte[] scratch) throws IOException {
+        long total = 0;
+        while (true) {
+            if (this.deflated.position() == 0) {
+                if (this.queue.isEmpty()) {
+                    break;
+                }
+                deflateQueued(scratch);
+            }
+            this.deflated.flip();
+            int written = this.channel.write(this.deflated);
+            this.deflated.compact();
+            total += written;
+            if (this.deflated.position() > 0) {
+                // the socket buffer is full
+                break;
+            }
+        }
+        return total;
+    }
+
+    private void deflateQueued(byte[] scratch) {
+        ByteBuffer frame;
+        while ((frame = this.queue.poll()) != null) {
+            this.queuedBytes -= frame.remaining();
+            while (frame.hasRemaining()) {
+                int length = Math.min(scratch.length, frame.remaining());
+                frame.get(scratch, 0, length);
+                this.deflater.setInput(scratch, 0, length);
+                while (!this.deflater.needsInput()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+            }
+        }
+        // the client can decode everything so far without waiting for more
+        while (deflate(Deflater.SYNC_FLUSH)) {
+        }
+    }
+
+    /**
+     * @return if the output filled up, so there may be more
+     */
+    private boolean deflate(int flush) {
+        if (!this.deflated.hasRemaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(this.deflated.capacity() * 2);
+            this.deflated.flip();
+            grown.put(this.deflated);
+            this.deflated = grown;
+        }
+        int length = this.deflater.deflate(this.deflated.array(), this.deflated.position(),
+                this.deflated.remaining(), flush);
+        this.deflated.position(this.deflated.position() + length);
+        return !this.deflated.hasRemaining();
+    }
+
+    void close() {
+        this.closed = true;
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // nothing more to send it
+        }
+        this.queue.clear();
+        this.queuedBytes = 0;
+        if (this.deflater != null) {
+            this.deflater.end();
+            this.deflater = null;
+            this.deflated = null;
+        }
+    }
+
+}
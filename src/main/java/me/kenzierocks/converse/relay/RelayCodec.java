@@ -0,0 +1,104 @@
+package me.kenzierocks.converse.relay;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import me.kenzierocks.converse.buffer.NameDictionary;
+
+/**
+ * Encodes server frames, giving names their ids. Encoding is safe from any
+ * thread; {@link #define(int)} is for the selector thread.
+ */
+final class RelayCodec {
+
+    private static final ThreadLocal<FrameBuilder> BUILDERS = ThreadLocal.withInitial(FrameBuilder::new);
+
+    private final NameDictionary names = new NameDictionary();
+    // selector thread only, by id
+    private ByteBuffer[] defines = new ByteBuffer[64];
+
+    NameDictionary getNames() {
+        return this.names;
+    }
+
+    Frame message(RelayEvent event) {
+        int network = this.names.idOf(event.getNetwork());
+        int channel = this.names.idOf(event.getChannel());
+        int nick = this.names.idOf(event.getNick());
+        FrameBuilder frame = BUILDERS.get().start(RelayProtocol.MESSAGE).writeVarLong(network)
+                .writeVarLong(channel);
+        writeLine(frame, event, nick);
+        return new Frame(frame.finish(), Frame.channelKey(network, channel), event.getId(), network, channel, nick);
+    }
+
+    private static void writeLine(FrameBuilder frame, RelayEvent event, int nick) {
+        // -1 for lines that aren't logged
+        frame.writeVarLong(event.getId() + 1).writeVarLong(event.getTimestamp())
+                .writeByte(event.getKind().getCode()).writeVarLong(nick).writeString(event.getText());
+    }
+
+    /**
+     * @param lines
+     *            - all from {@code network} and {@code channel}, oldest first
+     */
+    Frame page(String network, String channel, List<RelayEvent> lines) {
+        int[] ids = new int[lines.size() + 2];
+        ids[0] = this.names.idOf(network);
+        ids[1] = this.names.idOf(channel);
+        FrameBuilder frame = BUILDERS.get().start(RelayProtocol.PAGE).writeVarLong(ids[0]).writeVarLong(ids[1])
+                .writeVarLong(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            ids[i + 2] = this.names.idOf(lines.get(i).getNick());
+            writeLine(frame, lines.get(i), ids[i + 2]);
+        }
+        return new Frame(frame.finish(), ids);
+    }
+
+    Frame users(String network, String channel, boolean added, List<String> nicks) {
+        int[] ids = new int[nicks.size() + 2];
+        ids[0] = this.names.idOf(network);
+        ids[1] = this.names.idOf(channel);
+        FrameBuilder frame = BUILDERS.get().start(RelayProtocol.USERS).writeVarLong(ids[0]).writeVarLong(ids[1])
+                .writeByte(added ? 1 : 0).writeVarLong(nicks.size());
+        for (int i = 0; i < nicks.size(); i++) {
+            ids[i + 2] = this.names.idOf(nicks.get(i));
+            frame.writeVarLong(ids[i + 2]);
+        }
+        return new Frame(frame.finish(), ids);
+    }
+
+    Frame topic(String network, String channel, String setter, String topic) {
+        return change(RelayProtocol.TOPIC, network, channel, setter, topic);
+    }
+
+    Frame mode(String network, String channel, String actor, String change) {
+        return change(RelayProtocol.MODE, network, channel, actor, change);
+    }
+
+    private Frame change(byte opcode, String network, String channel, String nick, String value) {
+        int networkId = this.names.idOf(network);
+        int channelId = this.names.idOf(channel);
+        int nickId = this.names.idOf(nick);
+        ByteBuffer bytes = BUILDERS.get().start(opcode).writeVarLong(networkId).writeVarLong(channelId)
+                .writeVarLong(nickId).writeString(value).finish();
+        return new Frame(bytes, networkId, channelId, nickId);
+    }
+
+    /**
+     * @return the frame defining {@code id}, encoded once and kept
+     */
+    ByteBuffer define(int id) {
+        if (id >= this.defines.length) {
+            this.defines = Arrays.copyOf(this.defines, Math.max(this.defines.length * 2, id + 1));
+        }
+        ByteBuffer define = this.defines[id];
+        if (define == null) {
+            define = BUILDERS.get().start(RelayProtocol.DEFINE).writeVarLong(id)
+                    .writeString(this.names.nameOf(id)).finish();
+            this.defines[id] = define;
+        }
+        return define;
+    }
+
+}
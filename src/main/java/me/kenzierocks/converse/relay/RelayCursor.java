@@ -0,0 +1,24 @@
+package me.kenzierocks.converse.relay;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * The last message a client has been sent from a channel, by history id.
+ */
+@AutoValue
+public abstract class RelayCursor {
+
+    public static RelayCursor create(String network, String channel, long lastSeenId) {
+        return new AutoValue_RelayCursor(network, channel, lastSeenId);
+    }
+
+    RelayCursor() {
+    }
+
+    public abstract String getNetwork();
+
+    public abstract String getChannel();
+
+    public abstract long getLastSeenId();
+
+}
@@ -0,0 +1,323 @@
+package me.kenzierocks.converse.relay;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import me.kenzierocks.converse.history.MessageKind;
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * Reads a {@link RelayProtocol} stream, fed in whatever pieces the socket
+ * gives, and hands each frame to a {@link Listener}. Keeps the stream's
+ * dictionary, and starts inflating after a server {@code HELLO} that
+ * accepted {@link RelayProtocol#FLAG_DEFLATE}.
+ * <p>
+ * Unknown opcodes are skipped in a server's stream. A client's stream may
+ * only hold what a client sends, {@code HELLO}, {@code RESUME} and
+ * {@code CATCH_UP}, and anything else is a {@link ProtocolException}. Not
+ * thread safe.
+ */
+public final class RelayDecoder {
+
+    public interface Listener {
+
+        default void hello(int version, int flags) {
+        }
+
+        default void message(RelayEvent event) {
+        }
+
+        default void page(String network, String channel, List<RelayEvent> lines) {
+        }
+
+        default void users(String network, String channel, boolean added, List<String> nicks) {
+        }
+
+        default void topic(String network, String channel, String setter, String topic) {
+        }
+
+        default void mode(String network, String channel, String actor, String change) {
+        }
+
+        default void resume(String client, List<RelayCursor> cursors) {
+        }
+
+        default void catchUp(RelayCursor cursor) {
+        }
+
+    }
+
+    private final Listener listener;
+    private final boolean serverStream;
+    private final int maxFrameBytes;
+    private Inflater inflater;
+    // write mode, holds at most a partial frame between feeds
+    private ByteBuffer pending = ByteBuffer.allocate(8192);
+    private byte[] copy = new byte[0];
+    private String[] names = new String[64];
+
+    /**
+     * Decodes a server's stream.
+     */
+    public RelayDecoder(Listener listener) {
+        this(listener, true, Integer.MAX_VALUE);
+    }
+
+    RelayDecoder(Listener listener, boolean serverStream, int maxFrameBytes) {
+        this.listener = checkNotNull(listener);
+        this.serverStream = serverStream;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    public void feed(ByteBuffer bytes) throws IOException {
+        if (this.inflater != null) {
+            inflate(bytes);
+            return;
+        }
+        ensure(bytes.remaining());
+        this.pending.put(bytes);
+        if (decodeFrames() && this.pending.position() > 0) {
+            // the rest came after the HELLO, so it's deflated
+            this.pending.flip();
+            ByteBuffer rest = ByteBuffer.allocate(this.pending.remaining());
+            rest.put(this.pending).flip();
+            this.pending.clear();
+            inflate(rest);
+        }
+    }
+
+    private void inflate(ByteBuffer bytes) throws IOException {
+        int length = bytes.remaining();
+        if (bytes.hasArray()) {
+            this.inflater.setInput(bytes.array(), bytes.arrayOffset() + bytes.position(), length);
+        } else {
+            if (this.copy.length < length) {
+                this.copy = new byte[length];
+            }
+            bytes.duplicate().get(this.copy, 0, length);
+            this.inflater.setInput(this.copy, 0, length);
+        }
+        bytes.position(bytes.limit());
+        try {
+            while (true) {
+                ensure(1024);
+                int n = this.inflater.inflate(this.pending.array(), this.pending.position(),
+                        this.pending.remaining());
+                if (n == 0) {
+                    if (this.inflater.needsInput() || this.inflater.finished()) {
+                        break;
+                    }
+                    throw new ProtocolException("inflater stalled");
+                }
+                this.pending.position(this.pending.position() + n);
+                decodeFrames();
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("bad deflate stream: " + e.getMessage());
+        }
+    }
+
+    private void ensure(int more) {
+        if (this.pending.remaining() < more) {
+            ByteBuffer grown = ByteBuffer
+                    .allocate(Math.max(this.pending.capacity() * 2, this.pending.position() + more));
+            this.pending.flip();
+            grown.put(this.pending);
+            this.pending = grown;
+        }
+    }
+
+    /**
+     * @return if a HELLO turned on inflating, leaving the rest undecoded
+     */
+    private boolean decodeFrames() throws IOException {
+        ByteBuffer in = this.pending;
+        in.flip();
+        try {
+            while (in.hasRemaining()) {
+                int start = in.position();
+                int length = readVarInt(in, true);
+                if (length == 0 || length > this.maxFrameBytes) {
+                    throw new ProtocolException("bad frame length " + length);
+                }
+                if (length < 0 || in.remaining() < length) {
+                    in.position(start);
+                    break;
+                }
+                ByteBuffer frame = in.slice();
+                frame.limit(length);
+                in.position(in.position() + length);
+                try {
+                    if (dispatch(frame)) {
+                        return true;
+                    }
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    throw new ProtocolException("malformed frame, opcode " + frame.get(0));
+                }
+            }
+            return false;
+        } finally {
+            in.compact();
+        }
+    }
+
+    private boolean dispatch(ByteBuffer frame) throws IOException {
+        byte opcode = frame.get();
+        if (!this.serverStream && opcode != RelayProtocol.HELLO && opcode != RelayProtocol.RESUME
+                && opcode != RelayProtocol.CATCH_UP) {
+            throw new ProtocolException("opcode " + opcode + " isn't a client's to send");
+        }
+        switch (opcode) {
+            case RelayProtocol.HELLO:
+                int version = readVarInt(frame);
+                int flags = readVarInt(frame);
+                this.listener.hello(version, flags);
+                if (this.serverStream && (flags & RelayProtocol.FLAG_DEFLATE) != 0) {
+                    this.inflater = new Inflater(true);
+                    return true;
+                }
+                break;
+            case RelayProtocol.DEFINE:
+                int id = readVarInt(frame);
+                if (id > RelayProtocol.MAX_NAME_ID) {
+                    throw new ProtocolException("id " + id + " is past the highest allowed");
+                }
+                if (id >= this.names.length) {
+                    this.names = Arrays.copyOf(this.names, Math.max(this.names.length * 2, id + 1));
+                }
+                this.names[id] = readString(frame);
+                break;
+            case RelayProtocol.RESUME: {
+                String client = readString(frame);
+                int count = readVarInt(frame);
+                List<RelayCursor> cursors = new ArrayList<>(Math.min(count, frame.remaining()));
+                for (int i = 0; i < count; i++) {
+                    cursors.add(readCursor(frame));
+                }
+                this.listener.resume(client, cursors);
+                break;
+            }
+            case RelayProtocol.CATCH_UP:
+                this.listener.catchUp(readCursor(frame));
+                break;
+            case RelayProtocol.MESSAGE: {
+                String network = readName(frame);
+                String channel = readName(frame);
+                this.listener.message(readLine(frame, network, channel));
+                break;
+            }
+            case RelayProtocol.PAGE: {
+                String network = readName(frame);
+                String channel = readName(frame);
+                int count = readVarInt(frame);
+                List<RelayEvent> lines = new ArrayList<>(Math.min(count, frame.remaining()));
+                for (int i = 0; i < count; i++) {
+                    lines.add(readLine(frame, network, channel));
+                }
+                this.listener.page(network, channel, lines);
+                break;
+            }
+            case RelayProtocol.USERS: {
+                String network = readName(frame);
+                String channel = readName(frame);
+                boolean added = frame.get() != 0;
+                int count = readVarInt(frame);
+                List<String> nicks = new ArrayList<>(Math.min(count, frame.remaining()));
+                for (int i = 0; i < count; i++) {
+                    nicks.add(readName(frame));
+                }
+                this.listener.users(network, channel, added, nicks);
+                break;
+            }
+            case RelayProtocol.TOPIC:
+                this.listener.topic(readName(frame), readName(frame), readName(frame), readString(frame));
+                break;
+            case RelayProtocol.MODE:
+                this.listener.mode(readName(frame), readName(frame), readName(frame), readString(frame));
+                break;
+            default:
+                // newer than us
+                break;
+        }
+        return false;
+    }
+
+    private RelayEvent readLine(ByteBuffer frame, String network, String channel) throws IOException {
+        long id = readVarLong(frame) - 1;
+        long timestamp = readVarLong(frame);
+        MessageKind kind = MessageKind.fromCode(frame.get());
+        String nick = readName(frame);
+        return RelayEvent.create(network, channel, id, timestamp, kind, nick, readString(frame));
+    }
+
+    private static RelayCursor readCursor(ByteBuffer frame) throws IOException {
+        return RelayCursor.create(readString(frame), readString(frame), readVarLong(frame));
+    }
+
+    private String readName(ByteBuffer frame) throws IOException {
+        int id = readVarInt(frame);
+        String name = id < this.names.length ? this.names[id] : null;
+        if (name == null) {
+            throw new ProtocolException("id " + id + " used before it was defined");
+        }
+        return name;
+    }
+
+    private static String readString(ByteBuffer frame) throws IOException {
+        int length = readVarInt(frame);
+        if (length > frame.remaining()) {
+            throw new ProtocolException("string runs past the frame");
+        }
+        String value = Utf8.decode(frame, frame.position(), length);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    private static int readVarInt(ByteBuffer in) throws IOException {
+        return readVarInt(in, false);
+    }
+
+    /**
+     * @return the value, or {@code -1} if {@code partial} and it isn't all
+     *         there yet
+     */
+    private static int readVarInt(ByteBuffer in, boolean partial) throws IOException {
+        long value = readVarLong(in, partial);
+        if (value > Integer.MAX_VALUE) {
+            throw new ProtocolException("varint too large: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(ByteBuffer in) throws IOException {
+        return readVarLong(in, false);
+    }
+
+    private static long readVarLong(ByteBuffer in, boolean partial) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                if (partial) {
+                    return -1;
+                }
+                throw new ProtocolException("varint runs past the frame");
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("varint too long");
+    }
+
+}
@@ -0,0 +1,44 @@
+package me.kenzierocks.converse.relay;
+
+import com.google.auto.value.AutoValue;
+
+import me.kenzierocks.converse.history.MessageKind;
+
+/**
+ * A line of channel traffic, as sent to relay clients.
+ */
+@AutoValue
+public abstract class RelayEvent {
+
+    public static RelayEvent create(String network, String channel, long timestamp, MessageKind kind, String nick,
+            String text) {
+        return create(network, channel, -1, timestamp, kind, nick, text);
+    }
+
+    public static RelayEvent create(String network, String channel, long id, long timestamp, MessageKind kind,
+            String nick, String text) {
+        return new AutoValue_RelayEvent(network, channel, id, timestamp, kind, nick, text);
+    }
+
+    RelayEvent() {
+    }
+
+    public abstract String getNetwork();
+
+    public abstract String getChannel();
+
+    /**
+     * @return the line's id in its channel's history, or {@code -1} if it
+     *         isn't logged
+     */
+    public abstract long getId();
+
+    public abstract long getTimestamp();
+
+    public abstract MessageKind getKind();
+
+    public abstract String getNick();
+
+    public abstract String getText();
+
+}
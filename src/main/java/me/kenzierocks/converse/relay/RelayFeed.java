@@ -0,0 +1,136 @@
+package me.kenzierocks.converse.relay;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.element.Actor;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.channel.ChannelJoinEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelKickEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelModeEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelPartEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelTopicEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelUsersUpdatedEvent;
+import org.kitteh.irc.client.library.event.user.UserNickChangeEvent;
+import org.kitteh.irc.client.library.event.user.UserQuitEvent;
+import org.kitteh.irc.lib.net.engio.mbassy.listener.Handler;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Client listener that publishes the state of a network's channels, who is
+ * in them and topic and mode changes, to a {@link RelayServer}. Members are
+ * sent as deltas: the whole list once the server has named it on our
+ * joining, then joins, parts, kicks, quits and nick changes. The lines
+ * themselves go out through the {@link RelayHistoryFeed}.
+ */
+public final class RelayFeed {
+
+    private final RelayServer server;
+    private final String network;
+
+    public RelayFeed(RelayServer server, String network) {
+        this.server = checkNotNull(server);
+        this.network = checkNotNull(network);
+    }
+
+    @Handler
+    public void onJoin(ChannelJoinEvent event) {
+        this.server.publishUsers(this.network, event.getChannel().getName(), true,
+                ImmutableList.of(event.getUser().getNick()));
+    }
+
+    /**
+     * Fires once the server has sent the channel's names, after we join.
+     */
+    @Handler
+    public void onUsersUpdated(ChannelUsersUpdatedEvent event) {
+        Channel channel = event.getChannel();
+        this.server.publishUsers(this.network, channel.getName(), true, ImmutableList.copyOf(channel.getNicknames()));
+    }
+
+    @Handler
+    public void onPart(ChannelPartEvent event) {
+        userLeft(event.getClient(), event.getChannel(), event.getUser());
+    }
+
+    @Handler
+    public void onKick(ChannelKickEvent event) {
+        userLeft(event.getClient(), event.getChannel(), event.getTarget());
+    }
+
+    private void userLeft(Client client, Channel channel, User user) {
+        // if it's us, everyone we knew of goes with us
+        this.server.publishUsers(this.network, channel.getName(), false, user.getNick().equals(client.getNick())
+                ? ImmutableList.copyOf(channel.getNicknames()) : ImmutableList.of(user.getNick()));
+    }
+
+    @Handler
+    public void onQuit(UserQuitEvent event) {
+        userQuit(event.getUser().getChannels(), event.getUser().getNick());
+    }
+
+    @Handler
+    public void onNickChange(UserNickChangeEvent event) {
+        nickChanged(event.getNewUser().getChannels(), event.getOldUser().getNick(), event.getNewUser().getNick());
+    }
+
+    /**
+     * Fires for the topic sent on join as well as for changes, so clients
+     * learn it either way.
+     */
+    @Handler
+    public void onTopic(ChannelTopicEvent event) {
+        Channel.Topic topic = event.getChannel().getTopic();
+        topicChanged(event.getChannel().getName(), topic.getSetter().map(RelayFeed::nameOf).orElse(""),
+                topic.getValue().orElse(""));
+    }
+
+    @Handler
+    public void onMode(ChannelModeEvent event) {
+        modeChanged(event.getChannel().getName(), nameOf(event.getActor()),
+                event.getStatusList().getStatusString());
+    }
+
+    private static String nameOf(Actor actor) {
+        // a user's name is nick!user@host
+        return actor instanceof User ? ((User) actor).getNick() : actor.getName();
+    }
+
+    /**
+     * @param channels
+     *            - the channels {@code nick} was in
+     */
+    public void userQuit(Collection<String> channels, String nick) {
+        for (String channel : channels) {
+            this.server.publishUsers(this.network, channel, false, ImmutableList.of(nick));
+        }
+    }
+
+    /**
+     * Sends a nick change as the old nick leaving and the new one joining,
+     * in each of {@code channels}.
+     */
+    public void nickChanged(Collection<String> channels, String oldNick, String newNick) {
+        for (String channel : channels) {
+            this.server.publishUsers(this.network, channel, false, ImmutableList.of(oldNick));
+            this.server.publishUsers(this.network, channel, true, ImmutableList.of(newNick));
+        }
+    }
+
+    public void topicChanged(String channel, String setter, String topic) {
+        this.server.publishTopic(this.network, channel, setter, topic);
+    }
+
+    /**
+     * @param change
+     *            - the modes as the server sent them, such as {@code +o nick}
+     */
+    public void modeChanged(String channel, String actor, String change) {
+        this.server.publishMode(this.network, channel, actor, change);
+    }
+
+}
@@ -0,0 +1,53 @@
+package me.kenzierocks.converse.relay;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import me.kenzierocks.converse.history.ChannelLog;
+
+/**
+ * Publishes channel traffic to a {@link RelayServer} as it's appended to the
+ * history, reading the new records back from the log, so every message goes
+ * out with its history id and in id order. Reading back the newest records
+ * is served from the log's hot ring.
+ */
+public final class RelayHistoryFeed implements Consumer<ChannelLog> {
+
+    /**
+     * The most read back at once; a client missing more than this catches
+     * up from its cursor.
+     */
+    private static final int MAX_READ_BACK = 1000;
+
+    private final RelayServer server;
+    // the last id published, per log
+    private final ConcurrentMap<ChannelLog, AtomicLong> published = new ConcurrentHashMap<>();
+
+    public RelayHistoryFeed(RelayServer server) {
+        this.server = checkNotNull(server);
+    }
+
+    @Override
+    public void accept(ChannelLog log) {
+        AtomicLong done = this.published.computeIfAbsent(log, l -> new AtomicLong(l.getLastId() - 1));
+        synchronized (done) {
+            long last = log.getLastId();
+            long from = done.get() + 1;
+            if (from > last) {
+                return;
+            }
+            int count = (int) Math.min(last - from + 1, MAX_READ_BACK);
+            log.readBefore(last + 1, count, view -> {
+                this.server.publish(RelayEvent.create(log.getNetwork(), log.getChannel(), view.getId(),
+                        view.getTimestamp(), view.getKind(), view.getSender(), view.getText()));
+                return true;
+            });
+            done.set(last);
+        }
+    }
+
+}
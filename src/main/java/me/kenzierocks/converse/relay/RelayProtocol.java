@@ -0,0 +1,89 @@
+package me.kenzierocks.converse.relay;
+
+/**
+ * The relay's wire format.
+ * <p>
+ * Everything is a frame: its length as a varint, counting the opcode and
+ * payload, then a one-byte opcode and the payload. Integers are unsigned
+ * LEB128 varints and strings are a varint byte count and UTF-8.
+ * <p>
+ * A client opens with {@link #HELLO}: the protocol version and flags. The
+ * server answers with a {@code HELLO} of the flags it accepted, and from
+ * then on, if {@link #FLAG_DEFLATE} was accepted, everything it sends is
+ * one raw deflate stream, sync-flushed whenever the socket drains.
+ * <p>
+ * Networks, channels and nicks are sent as ids. Ids are the server's, the
+ * same for every connection, but each connection is only sent a
+ * {@link #DEFINE} for an id just before the first frame that uses it, so
+ * what a client holds is its own dictionary of the names it has seen.
+ * <p>
+ * A client that says {@link #RESUME} with a name gets a read cursor per
+ * channel, the last history id it was sent, which the server keeps across
+ * connections. Whatever it missed is replayed from the history in
+ * {@link #PAGE}s, a bounded page at a time, before live messages for that
+ * channel resume where the pages leave off, so a channel's lines always
+ * arrive once and in order. {@link #CATCH_UP} moves one cursor, to replay
+ * from there.
+ */
+public final class RelayProtocol {
+
+    public static final int VERSION = 1;
+
+    /**
+     * Asks for, or accepts, a deflated server stream.
+     */
+    public static final int FLAG_DEFLATE = 1;
+
+    /**
+     * version, flags; either way.
+     */
+    public static final byte HELLO = 0x01;
+    /**
+     * id, name.
+     */
+    public static final byte DEFINE = 0x02;
+    /**
+     * Highest id a {@link #DEFINE} may give, so a bad stream can't make a
+     * dictionary allocate gigabytes.
+     */
+    public static final int MAX_NAME_ID = (1 << 24) - 1;
+
+    /**
+     * Client only: client name, cursor count, then per cursor: network,
+     * channel, last seen id. Names here are strings, not ids. Cursors given
+     * replace the ones the server kept.
+     */
+    public static final byte RESUME = 0x03;
+    /**
+     * Client only: network, channel, last seen id.
+     */
+    public static final byte CATCH_UP = 0x04;
+    /**
+     * network id, channel id, then the line: its history id plus one, or
+     * {@code 0} if it isn't logged, timestamp, kind code, nick id, text.
+     */
+    public static final byte MESSAGE = 0x10;
+    /**
+     * network id, channel id, line count, then the lines as in
+     * {@link #MESSAGE}, oldest first.
+     */
+    public static final byte PAGE = 0x11;
+    /**
+     * network id, channel id, {@code 1} if added or {@code 0} if removed,
+     * nick count, nick ids.
+     */
+    public static final byte USERS = 0x20;
+    /**
+     * network id, channel id, setter nick id, topic.
+     */
+    public static final byte TOPIC = 0x21;
+    /**
+     * network id, channel id, actor nick id, mode change as sent by the
+     * server, e.g. {@code +o nick}.
+     */
+    public static final byte MODE = 0x22;
+
+    private RelayProtocol() {
+    }
+
+}
@@ -0,0 +1,37 @@
+package me.kenzierocks.converse.relay;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encodes the frames a client sends.
+ */
+public final class RelayRequests {
+
+    public static ByteBuffer hello(int flags) {
+        return new FrameBuilder().start(RelayProtocol.HELLO).writeVarLong(RelayProtocol.VERSION)
+                .writeVarLong(flags).finish();
+    }
+
+    public static ByteBuffer resume(String client, List<RelayCursor> cursors) {
+        FrameBuilder frame = new FrameBuilder().start(RelayProtocol.RESUME).writeString(client)
+                .writeVarLong(cursors.size());
+        cursors.forEach(cursor -> writeCursor(frame, cursor));
+        return frame.finish();
+    }
+
+    public static ByteBuffer catchUp(RelayCursor cursor) {
+        FrameBuilder frame = new FrameBuilder().start(RelayProtocol.CATCH_UP);
+        writeCursor(frame, cursor);
+        return frame.finish();
+    }
+
+    private static void writeCursor(FrameBuilder frame, RelayCursor cursor) {
+        frame.writeString(cursor.getNetwork()).writeString(cursor.getChannel())
+                .writeVarLong(cursor.getLastSeenId());
+    }
+
+    private RelayRequests() {
+    }
+
+}
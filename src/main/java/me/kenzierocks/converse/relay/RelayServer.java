@@ -0,0 +1,631 @@
+package me.kenzierocks.converse.relay;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import me.kenzierocks.converse.buffer.NameDictionary;
+import me.kenzierocks.converse.history.ChannelLog;
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.util.Histogram;
+
+/**
+ * Pushes channel traffic to every attached frontend over TCP, in
+ * {@link RelayProtocol} frames. A frontend is attached once it has sent its
+ * {@code HELLO}.
+ * <p>
+ * {@link #publish(RelayEvent)} encodes the event once, on the caller's
+ * thread, and hands it to the selector thread, which queues a view of the
+ * same bytes on every client, behind the {@code DEFINE}s that client is
+ * missing, and writes them out as the sockets take them.
+ * A client that falls more than {@code maxQueuedBytes} behind is
+ * disconnected, so a slow one never holds up the others or the networks
+ * feeding them; it can reconnect and carry on.
+ * <p>
+ * A client that resumes under a name gets read cursors, and catches up on
+ * what it missed from the {@link HistoryStore}. Pages are read on a worker
+ * thread, one at a time per channel, and the next is only read once the
+ * client's queue has mostly drained, so a long absence costs a page of
+ * memory, not the backlog. The cursors of named clients are snapshotted on
+ * disconnect and every few seconds, and saved to the cursor file.
+ */
+public final class RelayServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RelayServer.class);
+
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+    /**
+     * Frames handed to the socket in one gathering write.
+     */
+    private static final int MAX_WRITE_FRAMES = 64;
+    /**
+     * Clients only send small requests.
+     */
+    static final int MAX_CLIENT_FRAME_BYTES = 64 * 1024;
+    private static final int PAGE_LINES = 500;
+    private static final int PAGE_BYTES = 64 * 1024;
+    private static final int PAGE_LOW_WATER_BYTES = 256 * 1024;
+    private static final long CURSOR_SNAPSHOT_MILLIS = 10000;
+
+    /**
+     * Lines read from the history for one cursor, to be sent if the cursor
+     * hasn't moved since.
+     */
+    private static final class Page {
+
+        private final RelayClient client;
+        private final ReadCursor cursor;
+        private final long after;
+        @Nullable
+        private final Frame frame;
+        private final int lines;
+        private final long lastId;
+        private final boolean more;
+        private final boolean failed;
+
+        Page(RelayClient client, ReadCursor cursor, long after, @Nullable Frame frame, int lines, long lastId,
+                boolean more, boolean failed) {
+            this.client = client;
+            this.cursor = cursor;
+            this.after = after;
+            this.frame = frame;
+            this.lines = lines;
+            this.lastId = lastId;
+            this.more = more;
+            this.failed = failed;
+        }
+
+    }
+
+    private final int maxQueuedBytes;
+    private final int pageLowWater;
+    @Nullable
+    private final HistoryStore history;
+    private final ScheduledExecutorService pager = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("converse-relay-pager").setDaemon(true).build());
+    private final CursorStore cursors;
+    private final Queue<Page> pages = new ConcurrentLinkedQueue<>();
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final RelayCodec codec = new RelayCodec();
+    private final Queue<Frame> published = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    // selector thread only
+    private final List<RelayClient> clients = new ArrayList<>();
+    private final ByteBuffer readScratch = ByteBuffer.allocate(4096);
+    private final ByteBuffer[] writeScratch = new ByteBuffer[MAX_WRITE_FRAMES];
+    private final byte[] deflateScratch = new byte[8192];
+    private long lastSnapshot = System.currentTimeMillis();
+    private volatile int clientCount;
+    private volatile boolean closed;
+    private final LongAdder eventsPublished = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Histogram fanOutMicros = new Histogram();
+    private final LongAdder pagesSent = new LongAdder();
+    private final LongAdder linesReplayed = new LongAdder();
+
+    public RelayServer(SocketAddress bind) throws IOException {
+        this(bind, DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    public RelayServer(SocketAddress bind, int maxQueuedBytes) throws IOException {
+        this(bind, maxQueuedBytes, null, null);
+    }
+
+    /**
+     * @param history
+     *            - where resuming clients catch up from, or {@code null} to
+     *            only send live traffic
+     * @param cursorFile
+     *            - where to save cursors across restarts, or {@code null}
+     */
+    public RelayServer(SocketAddress bind, int maxQueuedBytes, @Nullable HistoryStore history,
+            @Nullable Path cursorFile) throws IOException {
+        checkArgument(maxQueuedBytes > 0, "maxQueuedBytes must be positive");
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.pageLowWater = Math.min(PAGE_LOW_WATER_BYTES, maxQueuedBytes / 4);
+        this.history = history;
+        this.cursors = new CursorStore(cursorFile, this.pager);
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            this.server.bind(bind);
+            this.server.configureBlocking(false);
+            this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            this.server.close();
+            this.selector.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "converse-relay-selector");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        LOGGER.info("Relay listening on " + getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) this.server.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Sends the event to every client attached now. Safe from any thread;
+     * dropped once the relay is closed.
+     */
+    public void publish(RelayEvent event) {
+        if (this.closed) {
+            return;
+        }
+        enqueue(this.codec.message(event));
+    }
+
+    /**
+     * Sends who joined or left {@code channel}.
+     */
+    public void publishUsers(String network, String channel, boolean added, List<String> nicks) {
+        if (this.closed) {
+            return;
+        }
+        enqueue(this.codec.users(network, channel, added, nicks));
+    }
+
+    public void publishTopic(String network, String channel, String setter, String topic) {
+        if (this.closed) {
+            return;
+        }
+        enqueue(this.codec.topic(network, channel, setter, topic));
+    }
+
+    public void publishMode(String network, String channel, String actor, String change) {
+        if (this.closed) {
+            return;
+        }
+        enqueue(this.codec.mode(network, channel, actor, change));
+    }
+
+    private void enqueue(Frame frame) {
+        this.published.add(frame);
+        this.eventsPublished.increment();
+        wakeup();
+    }
+
+    private void wakeup() {
+        if (this.wakeupPending.compareAndSet(false, true)) {
+            this.selector.wakeup();
+        }
+    }
+
+    private void run() {
+        while (!this.closed) {
+            try {
+                this.selector.select();
+                // before draining, so a publish after this wakes us again
+                this.wakeupPending.set(false);
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        RelayClient client = (RelayClient) key.attachment();
+                        if (key.isReadable()) {
+                            read(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(client);
+                        }
+                    }
+                }
+                sendPages();
+                fanOut();
+                if (System.currentTimeMillis() - this.lastSnapshot >= CURSOR_SNAPSHOT_MILLIS) {
+                    this.clients.forEach(this::snapshotCursors);
+                    this.lastSnapshot = System.currentTimeMillis();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Relay selector failed, carrying on", e);
+            }
+        }
+        this.clients.forEach(this::snapshotCursors);
+        this.clients.forEach(RelayClient::close);
+        this.clients.clear();
+        this.clientCount = 0;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+        RelayClient client = new RelayClient(this, channel, key, String.valueOf(channel.getRemoteAddress()));
+        key.attach(client);
+        this.clients.add(client);
+    }
+
+    private void read(RelayClient client) {
+        this.readScratch.clear();
+        try {
+            if (client.getChannel().read(this.readScratch) < 0) {
+                disconnect(client, "closed by client");
+                return;
+            }
+            this.readScratch.flip();
+            client.getInput().feed(this.readScratch);
+        } catch (IOException e) {
+            disconnect(client, e.getMessage());
+        }
+    }
+
+    void handshake(RelayClient client, int version, int flags) {
+        if (client.isClosed()) {
+            // the rest of a read after a bad frame
+            return;
+        }
+        if (client.isAttached()) {
+            disconnect(client, "said HELLO twice");
+            return;
+        }
+        if (version != RelayProtocol.VERSION) {
+            disconnect(client, "unsupported protocol version " + version);
+            return;
+        }
+        int accepted = flags & RelayProtocol.FLAG_DEFLATE;
+        try {
+            // nothing else has been written, so the socket takes all of it
+            ByteBuffer hello = RelayRequests.hello(accepted);
+            client.getChannel().write(hello);
+            if (hello.hasRemaining()) {
+                disconnect(client, "HELLO not taken");
+                return;
+            }
+        } catch (IOException e) {
+            disconnect(client, e.getMessage());
+            return;
+        }
+        client.attach(accepted != 0);
+        this.clientCount++;
+        LOGGER.info("Relay client " + client.getName() + " attached"
+                + (accepted != 0 ? ", deflating" : ""));
+    }
+
+    void resume(RelayClient client, String name, List<RelayCursor> given) {
+        if (client.isClosed()) {
+            return;
+        }
+        if (!client.isAttached() || client.getClientName() != null) {
+            disconnect(client, "RESUME out of turn");
+            return;
+        }
+        for (RelayClient other : this.clients.toArray(new RelayClient[0])) {
+            if (name.equals(other.getClientName())) {
+                // saves its cursors for us
+                disconnect(other, "resumed elsewhere");
+            }
+        }
+        client.setClientName(name);
+        Map<Long, RelayCursor> merged = new LinkedHashMap<>();
+        for (RelayCursor cursor : this.cursors.get(name)) {
+            merged.put(channelKey(cursor), cursor);
+        }
+        for (RelayCursor cursor : given) {
+            merged.put(channelKey(cursor), cursor);
+        }
+        merged.forEach((channel, cursor) -> {
+            ReadCursor read = new ReadCursor(cursor.getNetwork(), cursor.getChannel(), cursor.getLastSeenId());
+            client.putCursor(channel, read);
+            requestPage(client, read);
+        });
+        LOGGER.info("Relay client " + client.getName() + " resumed as " + name + " with " + merged.size()
+                + " cursors");
+    }
+
+    void catchUp(RelayClient client, RelayCursor cursor) {
+        if (client.isClosed()) {
+            return;
+        }
+        if (!client.isAttached()) {
+            disconnect(client, "CATCH_UP before HELLO");
+            return;
+        }
+        long channel = channelKey(cursor);
+        ReadCursor read = client.getCursor(channel);
+        if (read == null) {
+            read = new ReadCursor(cursor.getNetwork(), cursor.getChannel(), cursor.getLastSeenId());
+            client.putCursor(channel, read);
+        } else {
+            read.setLast(cursor.getLastSeenId());
+        }
+        // a page in flight sees the cursor moved, and asks again
+        if (!read.isPaging()) {
+            requestPage(client, read);
+        }
+    }
+
+    private long channelKey(RelayCursor cursor) {
+        NameDictionary names = this.codec.getNames();
+        return Frame.channelKey(names.idOf(cursor.getNetwork()), names.idOf(cursor.getChannel()));
+    }
+
+    private void requestPage(RelayClient client, ReadCursor cursor) {
+        if (this.history == null) {
+            cursor.setPaging(false);
+            return;
+        }
+        cursor.setPaging(true);
+        if (client.getQueuedBytes() > this.pageLowWater) {
+            if (!cursor.isWaiting()) {
+                cursor.setWaiting(true);
+                client.getWaiting().add(cursor);
+            }
+            return;
+        }
+        long after = cursor.getLast();
+        this.pager.execute(() -> readPage(client, cursor, after));
+    }
+
+    /**
+     * Runs on the pager thread.
+     */
+    private void readPage(RelayClient client, ReadCursor cursor, long after) {
+        String network = cursor.getNetwork();
+        String channel = cursor.getChannel();
+        List<RelayEvent> lines = new ArrayList<>();
+        long[] bytes = { 0 };
+        boolean more;
+        boolean failed = false;
+        try {
+            // a cursor names any channel it likes; one we have no log of has
+            // nothing to send, and mustn't get a log made for it
+            ChannelLog log = this.history.findLog(network, channel);
+            if (log != null) {
+                log.scan(after + 1, view -> {
+                    lines.add(RelayEvent.create(network, channel, view.getId(), view.getTimestamp(),
+                            view.getKind(), view.getSender(), view.getText()));
+                    bytes[0] += view.getSenderBytes().remaining() + view.getTextBytes().remaining();
+                    return lines.size() < PAGE_LINES && bytes[0] < PAGE_BYTES;
+                });
+            }
+            more = lines.size() >= PAGE_LINES || bytes[0] >= PAGE_BYTES;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to read " + network + "/" + channel + " to catch up " + client.getName(), e);
+            lines.clear();
+            more = false;
+            failed = true;
+        }
+        if (lines.isEmpty()) {
+            this.pages.add(new Page(client, cursor, after, null, 0, after, more, failed));
+        } else {
+            Frame frame = this.codec.page(network, channel, lines);
+            long lastId = lines.get(lines.size() - 1).getId();
+            this.pages.add(new Page(client, cursor, after, frame, lines.size(), lastId, more, false));
+        }
+        wakeup();
+    }
+
+    private void sendPages() {
+        Page page;
+        while ((page = this.pages.poll()) != null) {
+            RelayClient client = page.client;
+            ReadCursor cursor = page.cursor;
+            if (client.isClosed()) {
+                continue;
+            }
+            if (cursor.getLast() != page.after) {
+                // moved by a CATCH_UP while the page was read
+                requestPage(client, cursor);
+                continue;
+            }
+            if (page.frame != null) {
+                client.enqueue(page.frame, this.codec);
+                cursor.setLast(page.lastId);
+                this.pagesSent.increment();
+                this.linesReplayed.add(page.lines);
+            }
+            // live lines dropped while paging may be past this page
+            if (page.more || !page.failed && cursor.getNewest() > cursor.getLast()) {
+                requestPage(client, cursor);
+            } else {
+                cursor.setPaging(false);
+            }
+            flush(client);
+        }
+    }
+
+    private void flush(RelayClient client) {
+        try {
+            this.bytesWritten.add(client.flush(this.writeScratch, this.deflateScratch));
+        } catch (IOException e) {
+            disconnect(client, e.getMessage());
+            return;
+        }
+        if (!client.getWaiting().isEmpty() && client.getQueuedBytes() <= this.pageLowWater) {
+            ReadCursor cursor;
+            while ((cursor = client.getWaiting().poll()) != null) {
+                cursor.setWaiting(false);
+                requestPage(client, cursor);
+            }
+        }
+    }
+
+    /**
+     * Sends a live frame, unless the client's cursor says it's behind in
+     * that channel, or already has it.
+     */
+    private void deliver(RelayClient client, Frame frame) {
+        long id = frame.getId();
+        ReadCursor cursor = id > 0 ? client.getCursor(frame.getChannel()) : null;
+        if (cursor == null) {
+            if (id > 0 && client.getClientName() != null) {
+                NameDictionary names = this.codec.getNames();
+                client.putCursor(frame.getChannel(), new ReadCursor(names.nameOf((int) (frame.getChannel() >>> 32)),
+                        names.nameOf((int) frame.getChannel()), id));
+            }
+            client.enqueue(frame, this.codec);
+            return;
+        }
+        if (id <= cursor.getLast()) {
+            return;
+        }
+        if (!cursor.isPaging() && (id == cursor.getLast() + 1 || this.history == null)) {
+            client.enqueue(frame, this.codec);
+            cursor.setLast(id);
+            return;
+        }
+        cursor.noteNewest(id);
+        if (!cursor.isPaging()) {
+            requestPage(client, cursor);
+        }
+    }
+
+    private void fanOut() {
+        if (this.published.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        Frame frame;
+        while ((frame = this.published.poll()) != null) {
+            for (int i = 0; i < this.clients.size(); i++) {
+                RelayClient client = this.clients.get(i);
+                if (client.isAttached()) {
+                    deliver(client, frame);
+                }
+            }
+        }
+        // a copy, disconnect removes from the list
+        for (RelayClient client : this.clients.toArray(new RelayClient[0])) {
+            if (client.getQueuedBytes() > this.maxQueuedBytes) {
+                this.evictions.increment();
+                disconnect(client, client.getQueuedBytes() + " bytes behind");
+            } else if (client.hasQueued()) {
+                flush(client);
+            }
+        }
+        this.fanOutMicros.record((System.nanoTime() - start) / 1000);
+    }
+
+    private void snapshotCursors(RelayClient client) {
+        if (client.getClientName() != null) {
+            this.cursors.put(client.getClientName(),
+                    ImmutableList.copyOf(client.getCursors().stream().map(ReadCursor::snapshot).iterator()));
+        }
+    }
+
+    private void disconnect(RelayClient client, String reason) {
+        if (client.isClosed()) {
+            return;
+        }
+        snapshotCursors(client);
+        if (client.isAttached()) {
+            this.clientCount--;
+        }
+        client.close();
+        this.clients.remove(client);
+        LOGGER.info("Relay client " + client.getName() + " detached: " + reason);
+    }
+
+    /**
+     * @return how many clients have said {@code HELLO} and are connected
+     */
+    public int getClientCount() {
+        return this.clientCount;
+    }
+
+    /**
+     * @return how many frames were published, events and the rest
+     */
+    public long getEventsPublished() {
+        return this.eventsPublished.sum();
+    }
+
+    public long getBytesWritten() {
+        return this.bytesWritten.sum();
+    }
+
+    /**
+     * @return how many clients were disconnected for falling too far behind
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return the time taken to queue each batch of published events on
+     *         every client and start writing them, in microseconds
+     */
+    public Histogram getFanOutMicros() {
+        return this.fanOutMicros;
+    }
+
+    public long getPagesSent() {
+        return this.pagesSent.sum();
+    }
+
+    public long getLinesReplayed() {
+        return this.linesReplayed.sum();
+    }
+
+    /**
+     * @return the cursors of the client named {@code client}, as of their
+     *         last snapshot
+     */
+    public ImmutableList<RelayCursor> getCursors(String client) {
+        return this.cursors.get(client);
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.selector.wakeup();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.cursors.flush();
+        this.pager.shutdown();
+        try {
+            this.server.close();
+            this.selector.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close the relay socket", e);
+        }
+    }
+
+}
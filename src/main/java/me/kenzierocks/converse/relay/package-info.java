@@ -0,0 +1,4 @@
+/**
+ * The relay server: live channel traffic, pushed to attached frontends.
+ */
+package me.kenzierocks.converse.relay;
\ No newline at end of file
@@ -0,0 +1,147 @@
+package me.kenzierocks.converse.search;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.history.ChannelLog;
+import me.kenzierocks.converse.history.MessageKind;
+import me.kenzierocks.converse.history.MessageView;
+import me.kenzierocks.converse.util.AtomicFiles;
+
+/**
+ * The inverted index for one {@link ChannelLog}, kept in a {@code search}
+ * directory inside the log's. Records are indexed into a {@link LiveSegment},
+ * which is written out as a {@link DiskSegment} every {@code flushDocs}
+ * records. The live segment isn't saved on shutdown, it's rebuilt from the log
+ * on the next {@link #catchUp()}.
+ */
+final class ChannelIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChannelIndex.class);
+
+    /**
+     * Sealed segments and the live segment's matches, taken together so a
+     * flush can't hide or duplicate docs.
+     */
+    static final class Snapshot {
+
+        final ImmutableList<DiskSegment> sealed;
+        final long liveFirstId;
+        final int[] liveMatches;
+
+        Snapshot(ImmutableList<DiskSegment> sealed, long liveFirstId, int[] liveMatches) {
+            this.sealed = sealed;
+            this.liveFirstId = liveFirstId;
+            this.liveMatches = liveMatches;
+        }
+
+    }
+
+    static ChannelIndex open(ChannelLog log, int flushDocs) throws IOException {
+        Path dir = log.getDirectory().resolve("search");
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + DiskSegment.SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        // names are zero-padded ids, so this is id order
+        files.sort(null);
+        ImmutableList.Builder<DiskSegment> sealed = ImmutableList.builder();
+        long nextId = 1;
+        for (Path file : files) {
+            DiskSegment segment;
+            try {
+                segment = DiskSegment.open(file);
+            } catch (IOException e) {
+                LOGGER.warn("Dropping unreadable index segment " + file + " and everything after it", e);
+                break;
+            }
+            if (segment.getFirstId() != nextId) {
+                LOGGER.warn("Index segment " + file + " doesn't follow on, dropping it and everything after it");
+                break;
+            }
+            sealed.add(segment);
+            nextId += segment.getDocCount();
+        }
+        return new ChannelIndex(log, dir, flushDocs, sealed.build(), nextId);
+    }
+
+    private final ChannelLog log;
+    private final Path dir;
+    private final int flushDocs;
+    // guarded by this
+    private ImmutableList<DiskSegment> sealed;
+    private LiveSegment live;
+
+    private ChannelIndex(ChannelLog log, Path dir, int flushDocs, ImmutableList<DiskSegment> sealed, long nextId) {
+        this.log = log;
+        this.dir = dir;
+        this.flushDocs = flushDocs;
+        this.sealed = sealed;
+        this.live = new LiveSegment(nextId);
+    }
+
+    ChannelLog getLog() {
+        return this.log;
+    }
+
+    /**
+     * Indexes everything appended to the log since the last call.
+     */
+    synchronized void catchUp() throws IOException {
+        long lastId = this.log.getLastId();
+        while (this.live.getNextId() <= lastId) {
+            long before = this.live.getNextId();
+            this.log.scan(before, view -> {
+                this.live.addDoc(view.getSender(), textOf(view));
+                return this.live.getDocCount() < this.flushDocs;
+            });
+            if (this.live.getDocCount() >= this.flushDocs) {
+                flush();
+            } else if (this.live.getNextId() == before) {
+                // nothing visible yet, the next append will bring us back
+                break;
+            }
+        }
+    }
+
+    private static String textOf(MessageView view) {
+        // a join's text is the user's mask, not worth searching
+        return view.getKind() == MessageKind.JOIN ? null : view.getText();
+    }
+
+    private void flush() throws IOException {
+        Path path = this.dir.resolve(DiskSegment.fileName(this.live.getFirstId()));
+        AtomicFiles.write(path, out -> Channels.newChannel(out).write(this.live.encode()));
+        this.sealed = ImmutableList.<DiskSegment> builder().addAll(this.sealed).add(DiskSegment.open(path)).build();
+        this.live = new LiveSegment(this.live.getNextId());
+    }
+
+    /**
+     * Matches the live segment, and grabs the sealed ones for matching
+     * outside the lock.
+     */
+    synchronized Snapshot snapshot(CompiledQuery query, long fromId, long toId) {
+        LiveSegment live = this.live;
+        int[] liveMatches = query.match(live, docOf(live, fromId), docOf(live, toId));
+        return new Snapshot(this.sealed, live.getFirstId(), liveMatches);
+    }
+
+    /**
+     * @return {@code id} as a doc in {@code segment}, clamped to it
+     */
+    static int docOf(IndexSegment segment, long id) {
+        return (int) Math.max(0, Math.min(segment.getDocCount(), id - segment.getFirstId()));
+    }
+
+}
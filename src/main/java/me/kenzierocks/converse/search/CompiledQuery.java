@@ -0,0 +1,125 @@
+package me.kenzierocks.converse.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.kenzierocks.converse.util.Tokenizer;
+
+/**
+ * A {@link Query}'s text conditions, tokenized once and matched against index
+ * segments.
+ */
+final class CompiledQuery {
+
+    private static final int[] NO_DOCS = {};
+
+    private final String[] terms;
+    private final byte[][] termsUtf8;
+    // indexes into terms
+    private final int[][] phrases;
+
+    CompiledQuery(Query query) {
+        Map<String, Integer> termIndexes = new LinkedHashMap<>();
+        for (String word : query.getWords()) {
+            Tokenizer.tokenize(word, (token, position) -> termIndexes.putIfAbsent(token, termIndexes.size()));
+        }
+        List<int[]> phraseList = new ArrayList<>();
+        for (String phrase : query.getPhrases()) {
+            List<Integer> phraseTerms = new ArrayList<>();
+            Tokenizer.tokenize(phrase, (token, position) -> {
+                termIndexes.putIfAbsent(token, termIndexes.size());
+                phraseTerms.add(termIndexes.get(token));
+            });
+            if (phraseTerms.size() > 1) {
+                phraseList.add(phraseTerms.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        if (query.getNick() != null) {
+            termIndexes.putIfAbsent(Tokenizer.nickTerm(query.getNick()), termIndexes.size());
+        }
+        this.terms = termIndexes.keySet().toArray(new String[termIndexes.size()]);
+        this.termsUtf8 = new byte[this.terms.length][];
+        for (int i = 0; i < this.terms.length; i++) {
+            this.termsUtf8[i] = this.terms[i].getBytes(StandardCharsets.UTF_8);
+        }
+        this.phrases = phraseList.toArray(new int[phraseList.size()][]);
+    }
+
+    /**
+     * @return {@code true} if there are no text conditions, which matches
+     *         every message
+     */
+    boolean isEmpty() {
+        return this.terms.length == 0;
+    }
+
+    /**
+     * @return the matching docs in {@code [fromDoc, toDoc)}, ascending
+     */
+    int[] match(IndexSegment segment, int fromDoc, int toDoc) {
+        if (fromDoc >= toDoc) {
+            return NO_DOCS;
+        }
+        if (isEmpty()) {
+            int[] all = new int[toDoc - fromDoc];
+            Arrays.setAll(all, i -> fromDoc + i);
+            return all;
+        }
+        PostingsCursor[] cursors = new PostingsCursor[this.terms.length];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = segment.postings(this.terms[i], this.termsUtf8[i]);
+            if (cursors[i] == null) {
+                return NO_DOCS;
+            }
+        }
+        // leapfrog, driven by the rarest term
+        PostingsCursor[] byFreq = cursors.clone();
+        Arrays.sort(byFreq, Comparator.comparingInt(PostingsCursor::getDocFreq));
+        PostingsCursor lead = byFreq[0];
+        int[] matches = new int[Math.min(lead.getDocFreq(), toDoc - fromDoc)];
+        int count = 0;
+        int doc = lead.advance(fromDoc);
+        outer: while (doc < toDoc) {
+            for (int i = 1; i < byFreq.length; i++) {
+                int other = byFreq[i].advance(doc);
+                if (other != doc) {
+                    doc = lead.advance(other);
+                    continue outer;
+                }
+            }
+            if (phrasesMatch(cursors)) {
+                matches[count++] = doc;
+            }
+            doc = lead.nextDoc();
+        }
+        return count == matches.length ? matches : Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * All cursors must be on the same doc.
+     */
+    private boolean phrasesMatch(PostingsCursor[] cursors) {
+        for (int[] phrase : this.phrases) {
+            PostingsCursor first = cursors[phrase[0]];
+            int[] starts = first.positions();
+            boolean found = false;
+            for (int s = 0; s < first.getFreq() && !found; s++) {
+                found = true;
+                for (int k = 1; k < phrase.length && found; k++) {
+                    PostingsCursor next = cursors[phrase[k]];
+                    found = Arrays.binarySearch(next.positions(), 0, next.getFreq(), starts[s] + k) >= 0;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,116 @@
+package me.kenzierocks.converse.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nullable;
+
+/**
+ * A sealed, memory-mapped index segment.
+ * <p>
+ * Layout, big-endian:
+ *
+ * <pre>
+ * int  magic, int version, long firstId, int docCount, int termCount
+ * termCount entries of: int termStart, int termLength, int postingsStart, int docFreq
+ * term bytes, UTF-8, in unsigned byte order
+ * postings, see {@link PostingsCursor}
+ * </pre>
+ *
+ * Term lookups binary search the entry table, comparing bytes in place.
+ */
+final class DiskSegment implements IndexSegment {
+
+    static final String SUFFIX = ".six";
+    static final int MAGIC = 0x43534958;
+    // 2: nick terms fold by CaseMapping.RFC1459
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+    static final int TERM_ENTRY_BYTES = 4 * 4;
+
+    static String fileName(long firstId) {
+        return String.format("%020d", firstId) + SUFFIX;
+    }
+
+    static DiskSegment open(Path path) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("not an index segment: " + path);
+        }
+        return new DiskSegment(data);
+    }
+
+    private final ByteBuffer data;
+    private final long firstId;
+    private final int docCount;
+    private final int termCount;
+    private final int blobStart;
+    private final int postingsStart;
+
+    private DiskSegment(ByteBuffer data) {
+        this.data = data;
+        this.firstId = data.getLong(8);
+        this.docCount = data.getInt(16);
+        this.termCount = data.getInt(20);
+        this.blobStart = HEADER_BYTES + this.termCount * TERM_ENTRY_BYTES;
+        int blobBytes = 0;
+        if (this.termCount > 0) {
+            int last = HEADER_BYTES + (this.termCount - 1) * TERM_ENTRY_BYTES;
+            blobBytes = data.getInt(last) + data.getInt(last + 4);
+        }
+        this.postingsStart = this.blobStart + blobBytes;
+    }
+
+    @Override
+    public long getFirstId() {
+        return this.firstId;
+    }
+
+    @Override
+    public int getDocCount() {
+        return this.docCount;
+    }
+
+    private int compareTerm(int entry, byte[] utf8) {
+        int start = this.blobStart + this.data.getInt(entry);
+        int length = this.data.getInt(entry + 4);
+        int common = Math.min(length, utf8.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (this.data.get(start + i) & 0xFF) - (utf8[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - utf8.length;
+    }
+
+    @Override
+    @Nullable
+    public PostingsCursor postings(String term, byte[] utf8) {
+        int lo = 0;
+        int hi = this.termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = HEADER_BYTES + mid * TERM_ENTRY_BYTES;
+            int cmp = compareTerm(entry, utf8);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                ByteBuffer in = this.data.duplicate();
+                in.position(this.postingsStart + this.data.getInt(entry + 8));
+                return new PostingsCursor(in, this.data.getInt(entry + 12));
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,25 @@
+package me.kenzierocks.converse.search;
+
+import javax.annotation.Nullable;
+
+/**
+ * A run of consecutive log records, indexed. Doc {@code n} is log record
+ * {@code getFirstId() + n}.
+ */
+interface IndexSegment {
+
+    long getFirstId();
+
+    int getDocCount();
+
+    /**
+     * @param utf8
+     *            - {@code term} encoded as UTF-8, for segments that compare
+     *            bytes
+     * @return a fresh cursor over the term's postings, or {@code null} if no
+     *         doc has the term
+     */
+    @Nullable
+    PostingsCursor postings(String term, byte[] utf8);
+
+}
@@ -0,0 +1,157 @@
+package me.kenzierocks.converse.search;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Maps;
+import com.google.common.primitives.UnsignedBytes;
+
+import me.kenzierocks.converse.util.Tokenizer;
+
+/**
+ * The segment being added to. Postings are built in memory in the same
+ * encoding {@link DiskSegment} uses, so writing one out is a copy.
+ * <p>
+ * Not thread safe, {@link ChannelIndex} locks around it.
+ */
+final class LiveSegment implements IndexSegment {
+
+    private static final class TermPostings {
+
+        private final VarInts.Sink data = new VarInts.Sink(16);
+        private int docFreq;
+        private int lastDoc;
+
+        void add(int doc, Positions positions) {
+            this.data.write(this.docFreq == 0 ? doc : doc - this.lastDoc);
+            this.data.write(positions.size);
+            int bytes = 0;
+            for (int i = 0, prev = 0; i < positions.size; i++) {
+                bytes += VarInts.sizeOf(positions.values[i] - prev);
+                prev = positions.values[i];
+            }
+            this.data.write(bytes);
+            for (int i = 0, prev = 0; i < positions.size; i++) {
+                this.data.write(positions.values[i] - prev);
+                prev = positions.values[i];
+            }
+            this.docFreq++;
+            this.lastDoc = doc;
+        }
+
+    }
+
+    private static final class Positions {
+
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int position) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = position;
+        }
+
+    }
+
+    private final long firstId;
+    private int docCount;
+    private final Map<String, TermPostings> terms = new HashMap<>();
+    // per-doc scratch
+    private final Map<String, Positions> docTerms = new HashMap<>();
+
+    LiveSegment(long firstId) {
+        this.firstId = firstId;
+    }
+
+    @Override
+    public long getFirstId() {
+        return this.firstId;
+    }
+
+    @Override
+    public int getDocCount() {
+        return this.docCount;
+    }
+
+    long getNextId() {
+        return this.firstId + this.docCount;
+    }
+
+    /**
+     * Indexes the next record.
+     */
+    void addDoc(@Nullable String nick, @Nullable CharSequence text) {
+        int doc = this.docCount++;
+        this.docTerms.clear();
+        if (nick != null) {
+            positionsOf(Tokenizer.nickTerm(nick)).add(0);
+        }
+        if (text != null) {
+            Tokenizer.tokenize(text, (token, position) -> positionsOf(token).add(position));
+        }
+        this.docTerms.forEach((term, positions) -> this.terms.computeIfAbsent(term, t -> new TermPostings())
+                .add(doc, positions));
+    }
+
+    private Positions positionsOf(String term) {
+        return this.docTerms.computeIfAbsent(term, t -> new Positions());
+    }
+
+    @Override
+    @Nullable
+    public PostingsCursor postings(String term, byte[] utf8) {
+        TermPostings postings = this.terms.get(term);
+        return postings == null ? null : new PostingsCursor(postings.data.view(), postings.docFreq);
+    }
+
+    /**
+     * @return the segment in {@link DiskSegment}'s format
+     */
+    ByteBuffer encode() {
+        List<Map.Entry<byte[], TermPostings>> sortedTerms = new ArrayList<>(this.terms.size());
+        int blobBytes = 0;
+        int postingsBytes = 0;
+        for (Map.Entry<String, TermPostings> entry : this.terms.entrySet()) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            sortedTerms.add(Maps.immutableEntry(bytes, entry.getValue()));
+            blobBytes += bytes.length;
+            postingsBytes += entry.getValue().data.length();
+        }
+        // byte order, which is what lookups binary search by
+        sortedTerms.sort((a, b) -> UnsignedBytes.lexicographicalComparator().compare(a.getKey(), b.getKey()));
+        int termCount = sortedTerms.size();
+        ByteBuffer out = ByteBuffer.allocate(
+                DiskSegment.HEADER_BYTES + termCount * DiskSegment.TERM_ENTRY_BYTES + blobBytes + postingsBytes);
+        out.putInt(DiskSegment.MAGIC).putInt(DiskSegment.VERSION).putLong(this.firstId).putInt(this.docCount)
+                .putInt(termCount);
+        int blobStart = out.position() + termCount * DiskSegment.TERM_ENTRY_BYTES;
+        int postingsStart = blobStart + blobBytes;
+        int blobPos = 0;
+        int postingsPos = 0;
+        for (Map.Entry<byte[], TermPostings> entry : sortedTerms) {
+            byte[] term = entry.getKey();
+            TermPostings postings = entry.getValue();
+            out.putInt(blobPos).putInt(term.length).putInt(postingsPos).putInt(postings.docFreq);
+            int tableEnd = out.position();
+            out.position(blobStart + blobPos);
+            out.put(term);
+            out.position(postingsStart + postingsPos);
+            postings.data.writeTo(out);
+            out.position(tableEnd);
+            blobPos += term.length;
+            postingsPos += postings.data.length();
+        }
+        out.clear();
+        return out;
+    }
+
+}
@@ -0,0 +1,91 @@
+package me.kenzierocks.converse.search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Walks one term's postings list, in doc order.
+ * <p>
+ * Each entry is varints: the doc delta from the previous entry (the first
+ * entry is the doc itself), the number of positions, the number of bytes the
+ * positions take, then the position deltas. Storing the byte count lets
+ * {@link #nextDoc()} skip positions nobody asked for.
+ */
+final class PostingsCursor {
+
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private final ByteBuffer in;
+    private final int docFreq;
+    private int read;
+    private int doc = -1;
+    private int freq;
+    private int positionsStart;
+    private int positionsBytes;
+    private int[] positions = new int[8];
+    private int positionsDoc = -1;
+
+    PostingsCursor(ByteBuffer in, int docFreq) {
+        this.in = in;
+        this.docFreq = docFreq;
+    }
+
+    int getDocFreq() {
+        return this.docFreq;
+    }
+
+    int doc() {
+        return this.doc;
+    }
+
+    int nextDoc() {
+        if (this.read == this.docFreq) {
+            return this.doc = NO_MORE_DOCS;
+        }
+        if (this.read > 0) {
+            this.in.position(this.positionsStart + this.positionsBytes);
+        }
+        int delta = VarInts.read(this.in);
+        this.doc = this.read == 0 ? delta : this.doc + delta;
+        this.read++;
+        this.freq = VarInts.read(this.in);
+        this.positionsBytes = VarInts.read(this.in);
+        this.positionsStart = this.in.position();
+        return this.doc;
+    }
+
+    /**
+     * @return the first doc at or after {@code target}
+     */
+    int advance(int target) {
+        while (this.doc < target) {
+            nextDoc();
+        }
+        return this.doc;
+    }
+
+    int getFreq() {
+        return this.freq;
+    }
+
+    /**
+     * @return the current doc's positions, ascending, in the first
+     *         {@link #getFreq()} slots. Reused between calls.
+     */
+    int[] positions() {
+        if (this.positionsDoc != this.doc) {
+            if (this.positions.length < this.freq) {
+                this.positions = Arrays.copyOf(this.positions, Math.max(this.freq, this.positions.length * 2));
+            }
+            this.in.position(this.positionsStart);
+            int position = 0;
+            for (int i = 0; i < this.freq; i++) {
+                position += VarInts.read(this.in);
+                this.positions[i] = position;
+            }
+            this.positionsDoc = this.doc;
+        }
+        return this.positions;
+    }
+
+}
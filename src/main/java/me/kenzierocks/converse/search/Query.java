@@ -0,0 +1,90 @@
+package me.kenzierocks.converse.search;
+
+import javax.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A search. Every condition must hold for a message to match.
+ */
+@AutoValue
+public abstract class Query {
+
+    public static Builder builder() {
+        return new AutoValue_Query.Builder().words(ImmutableList.of()).phrases(ImmutableList.of())
+                .from(Long.MIN_VALUE).to(Long.MAX_VALUE);
+    }
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+
+        Builder() {
+        }
+
+        /**
+         * Each word must appear somewhere in the message, in any order.
+         */
+        public abstract Builder words(Iterable<String> val);
+
+        public Builder words(String... val) {
+            return words(ImmutableList.copyOf(val));
+        }
+
+        /**
+         * Each phrase's words must appear in the message, next to each other
+         * and in order.
+         */
+        public abstract Builder phrases(Iterable<String> val);
+
+        public Builder phrases(String... val) {
+            return phrases(ImmutableList.copyOf(val));
+        }
+
+        public abstract Builder nick(@Nullable String val);
+
+        /**
+         * Only search this network, ignoring case.
+         */
+        public abstract Builder network(@Nullable String val);
+
+        /**
+         * Only search this channel, ignoring case.
+         */
+        public abstract Builder channel(@Nullable String val);
+
+        /**
+         * Only messages at or after this time, in epoch millis.
+         */
+        public abstract Builder from(long val);
+
+        /**
+         * Only messages before this time, in epoch millis.
+         */
+        public abstract Builder to(long val);
+
+        public abstract Query build();
+
+    }
+
+    Query() {
+    }
+
+    public abstract ImmutableList<String> getWords();
+
+    public abstract ImmutableList<String> getPhrases();
+
+    @Nullable
+    public abstract String getNick();
+
+    @Nullable
+    public abstract String getNetwork();
+
+    @Nullable
+    public abstract String getChannel();
+
+    public abstract long getFrom();
+
+    public abstract long getTo();
+
+}
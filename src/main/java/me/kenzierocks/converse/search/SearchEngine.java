@@ -0,0 +1,226 @@
+package me.kenzierocks.converse.search;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import me.kenzierocks.converse.history.ChannelLog;
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.util.CaseMapping;
+import me.kenzierocks.converse.util.WriteBehind;
+
+/**
+ * Full-text search over a {@link HistoryStore}.
+ * <p>
+ * Each channel log has its own index, where a record's doc is its log id.
+ * Indexes follow their logs: {@link #onAppend(ChannelLog)} queues a catch-up
+ * on the indexer thread, and every search catches up the logs it reads first,
+ * so results are never behind the log.
+ */
+public final class SearchEngine implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchEngine.class);
+
+    /**
+     * Records per sealed index segment.
+     */
+    public static final int DEFAULT_FLUSH_DOCS = 64 * 1024;
+    private static final long CATCH_UP_WINDOW_MILLIS = 1000;
+    private static final Comparator<SearchHit> NEWEST_FIRST =
+            Comparator.comparingLong(SearchHit::getTimestamp).reversed();
+
+    private final HistoryStore history;
+    private final int flushDocs;
+    private final ConcurrentMap<ChannelLog, ChannelIndex> indexes = new ConcurrentHashMap<>();
+    private final Set<ChannelLog> behind = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService indexer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("converse-search-indexer").setDaemon(true).build());
+    private final WriteBehind catchUp =
+            new WriteBehind("search index", this.indexer, CATCH_UP_WINDOW_MILLIS, this::catchUpBehind);
+    private volatile boolean closed;
+
+    public SearchEngine(HistoryStore history) {
+        this(history, DEFAULT_FLUSH_DOCS);
+    }
+
+    public SearchEngine(HistoryStore history, int flushDocs) {
+        checkArgument(flushDocs > 0, "flushDocs must be positive");
+        this.history = checkNotNull(history);
+        this.flushDocs = flushDocs;
+    }
+
+    /**
+     * Tells the engine {@code log} has new records. Cheap enough to call for
+     * every append.
+     */
+    public void onAppend(ChannelLog log) {
+        if (this.closed) {
+            return;
+        }
+        this.behind.add(log);
+        this.catchUp.requestWrite();
+    }
+
+    private void catchUpBehind() throws IOException {
+        for (Iterator<ChannelLog> iter = this.behind.iterator(); iter.hasNext();) {
+            ChannelLog log = iter.next();
+            iter.remove();
+            indexOf(log).catchUp();
+        }
+    }
+
+    private ChannelIndex indexOf(ChannelLog log) throws IOException {
+        try {
+            return this.indexes.computeIfAbsent(log, l -> {
+                try {
+                    return ChannelIndex.open(l, this.flushDocs);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Runs a search. Hits are streamed newest first, and segments are only
+     * matched as the stream reaches them, so taking the first page of a broad
+     * search is cheap.
+     */
+    public Stream<SearchHit> search(Query query) throws IOException {
+        checkState(!this.closed, "engine is closed");
+        CompiledQuery compiled = new CompiledQuery(query);
+        List<Iterator<SearchHit>> channels = new ArrayList<>();
+        for (ChannelLog log : this.history.getAllLogs()) {
+            // network names are ours, and fold like their directories
+            if (!nameMatches(CaseMapping.RFC1459, query.getNetwork(), log.getNetwork())
+                    || !nameMatches(log.getCaseMapping(), query.getChannel(), log.getChannel())) {
+                continue;
+            }
+            ChannelIndex index = indexOf(log);
+            index.catchUp();
+            long fromId = query.getFrom() == Long.MIN_VALUE ? 1 : log.findIdAtOrAfter(query.getFrom());
+            long toId = query.getTo() == Long.MAX_VALUE ? log.getLastId() + 1 : log.findIdAtOrAfter(query.getTo());
+            if (fromId < toId) {
+                channels.add(new ChannelHits(log, compiled, query.getNick(), index.snapshot(compiled, fromId, toId),
+                        fromId, toId));
+            }
+        }
+        Iterator<SearchHit> merged = Iterators.mergeSorted(channels, NEWEST_FIRST);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private static boolean nameMatches(CaseMapping caseMapping, @Nullable String wanted, String name) {
+        return wanted == null || caseMapping.equals(wanted, name);
+    }
+
+    /**
+     * One channel's hits, newest first. Sealed segments are matched when the
+     * iterator reaches them. Nick terms fold broadly, so hits are checked
+     * against the network's case mapping before they're returned.
+     */
+    private static final class ChannelHits extends AbstractIterator<SearchHit> {
+
+        private final ChannelLog log;
+        private final CompiledQuery query;
+        @Nullable
+        private final String nick;
+        private final CaseMapping caseMapping;
+        private final List<DiskSegment> sealed;
+        private final long fromId;
+        private final long toId;
+        private int nextSegment;
+        private long segmentFirstId;
+        private int[] matches;
+        private int nextMatch;
+
+        ChannelHits(ChannelLog log, CompiledQuery query, @Nullable String nick, ChannelIndex.Snapshot snapshot,
+                long fromId, long toId) {
+            this.log = log;
+            this.query = query;
+            this.nick = nick;
+            this.caseMapping = log.getCaseMapping();
+            this.sealed = snapshot.sealed;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.nextSegment = this.sealed.size() - 1;
+            this.segmentFirstId = snapshot.liveFirstId;
+            this.matches = snapshot.liveMatches;
+            this.nextMatch = this.matches.length - 1;
+        }
+
+        @Override
+        protected SearchHit computeNext() {
+            while (true) {
+                while (this.nextMatch < 0) {
+                    if (this.nextSegment < 0) {
+                        return endOfData();
+                    }
+                    DiskSegment segment = this.sealed.get(this.nextSegment--);
+                    if (segment.getFirstId() + segment.getDocCount() <= this.fromId) {
+                        // everything older is out of range too
+                        this.nextSegment = -1;
+                        continue;
+                    }
+                    this.segmentFirstId = segment.getFirstId();
+                    this.matches = this.query.match(segment, ChannelIndex.docOf(segment, this.fromId),
+                            ChannelIndex.docOf(segment, this.toId));
+                    this.nextMatch = this.matches.length - 1;
+                }
+                long id = this.segmentFirstId + this.matches[this.nextMatch--];
+                SearchHit[] hit = { null };
+                this.log.readBefore(id + 1, 1, view -> {
+                    hit[0] = SearchHit.create(this.log.getNetwork(), this.log.getChannel(), view.getId(),
+                            view.getTimestamp(), view.getKind(), view.getSender(), view.getText());
+                    return false;
+                });
+                if (hit[0] == null) {
+                    LOGGER.warn("Index of " + this.log.getDirectory() + " points past the log at " + id);
+                    return endOfData();
+                }
+                if (this.nick == null || this.caseMapping.equals(this.nick, hit[0].getSender())) {
+                    return hit[0];
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Stops the indexer. Indexing resumes from the logs on the next start.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.indexer.shutdownNow();
+    }
+
+}
@@ -0,0 +1,38 @@
+package me.kenzierocks.converse.search;
+
+import com.google.auto.value.AutoValue;
+
+import me.kenzierocks.converse.history.MessageKind;
+
+/**
+ * A message that matched a {@link Query}.
+ */
+@AutoValue
+public abstract class SearchHit {
+
+    static SearchHit create(String network, String channel, long id, long timestamp, MessageKind kind,
+            String sender, String text) {
+        return new AutoValue_SearchHit(network, channel, id, timestamp, kind, sender, text);
+    }
+
+    SearchHit() {
+    }
+
+    public abstract String getNetwork();
+
+    public abstract String getChannel();
+
+    /**
+     * @return the message's id in its channel's log
+     */
+    public abstract long getId();
+
+    public abstract long getTimestamp();
+
+    public abstract MessageKind getKind();
+
+    public abstract String getSender();
+
+    public abstract String getText();
+
+}
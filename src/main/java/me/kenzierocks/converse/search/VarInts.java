@@ -0,0 +1,84 @@
+package me.kenzierocks.converse.search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Unsigned LEB128 ints: seven bits per byte, high bit set on all but the last.
+ * Small deltas, which is most of a postings list, take one byte.
+ */
+final class VarInts {
+
+    /**
+     * A growable byte array that varints are written to.
+     */
+    static final class Sink {
+
+        private byte[] bytes;
+        private int length;
+
+        Sink(int initialCapacity) {
+            this.bytes = new byte[initialCapacity];
+        }
+
+        void write(int value) {
+            if (this.length + 5 > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.length + 5));
+            }
+            while ((value & ~0x7F) != 0) {
+                this.bytes[this.length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.bytes[this.length++] = (byte) value;
+        }
+
+        void writeTo(ByteBuffer out) {
+            out.put(this.bytes, 0, this.length);
+        }
+
+        /**
+         * @return a view of the bytes written so far
+         */
+        ByteBuffer view() {
+            return ByteBuffer.wrap(this.bytes, 0, this.length).slice();
+        }
+
+        int length() {
+            return this.length;
+        }
+
+        void clear() {
+            this.length = 0;
+        }
+
+    }
+
+    static int sizeOf(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Reads a varint at the buffer's position, advancing it.
+     */
+    static int read(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private VarInts() {
+        throw new AssertionError();
+    }
+
+}
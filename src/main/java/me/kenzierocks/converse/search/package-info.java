@@ -0,0 +1,5 @@
+/**
+ * Full-text search over the message history: an inverted index per channel
+ * log, kept up to date in the background.
+ */
+package me.kenzierocks.converse.search;
\ No newline at end of file
@@ -0,0 +1,239 @@
+package me.kenzierocks.converse.send;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import me.kenzierocks.converse.util.CaseMappedMap;
+import me.kenzierocks.converse.util.CaseMapping;
+import me.kenzierocks.converse.util.Histogram;
+
+/**
+ * Plans one connection's joins: packs the channels into as few
+ * comma-separated {@code JOIN} lines as fit the 512 byte line limit, the
+ * channels the user has open first, and times each join from planning to
+ * the server's echo. The lines go out in the {@link SendLane#JOIN} lane, so
+ * the {@link OutboundScheduler} paces them, and a hundred channels cost a
+ * handful of lines instead of a hundred.
+ * <p>
+ * Channels are given as {@code #chan} or {@code #chan key}.
+ */
+public final class JoinPlanner {
+
+    /**
+     * Longest line a server takes, with its CRLF.
+     */
+    public static final int MAX_LINE_BYTES = 512;
+
+    // the server couldn't put us in the channel; the channel is the third
+    // parameter of each
+    private static final ImmutableSet<String> JOIN_FAILURES =
+            ImmutableSet.of("403", "405", "437", "471", "473", "474", "475", "476", "477");
+
+    private static final class Line {
+
+        private final List<String> keyed = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        private final List<String> unkeyed = new ArrayList<>();
+        private int bytes = "JOIN \r\n".length();
+
+        /**
+         * @return the line's length with the channel added
+         */
+        int bytesWith(String channel, String key) {
+            // a comma or space before each
+            int added = bytes(channel) + (this.keyed.isEmpty() && this.unkeyed.isEmpty() ? 0 : 1);
+            if (key != null) {
+                added += bytes(key) + 1;
+            }
+            return this.bytes + added;
+        }
+
+        void add(String channel, String key) {
+            this.bytes = bytesWith(channel, key);
+            if (key == null) {
+                this.unkeyed.add(channel);
+            } else {
+                this.keyed.add(channel);
+                this.keys.add(key);
+            }
+        }
+
+        boolean isEmpty() {
+            return this.keyed.isEmpty() && this.unkeyed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            // keyed channels first, so the keys line up with them
+            List<String> channels = new ArrayList<>(this.keyed);
+            channels.addAll(this.unkeyed);
+            String line = "JOIN " + String.join(",", channels);
+            return this.keys.isEmpty() ? line : line + " " + String.join(",", this.keys);
+        }
+
+    }
+
+    private static int bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Packs {@code channels} into {@code JOIN} lines, in order. A channel
+     * too long to share a line gets one of its own.
+     */
+    public static ImmutableList<String> pack(List<String> channels) {
+        ImmutableList.Builder<String> lines = ImmutableList.builder();
+        Line line = new Line();
+        for (String entry : channels) {
+            int space = entry.indexOf(' ');
+            String channel = space < 0 ? entry : entry.substring(0, space);
+            String key = space < 0 ? null : entry.substring(space + 1).trim();
+            if (!line.isEmpty() && line.bytesWith(channel, key) > MAX_LINE_BYTES) {
+                lines.add(line.toString());
+                line = new Line();
+            }
+            line.add(channel, key);
+        }
+        if (!line.isEmpty()) {
+            lines.add(line.toString());
+        }
+        return lines.build();
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private final Histogram joinLatency = new Histogram();
+    private final Histogram fullyJoined = new Histogram();
+    // guarded by this, channel to when it was planned
+    private CaseMappedMap<Long> pending = new CaseMappedMap<>(CaseMapping.RFC1459);
+    // read without the lock, to match our nick
+    private volatile CaseMapping caseMapping = CaseMapping.RFC1459;
+    private long firstPlanned;
+    // read without the lock, to skip the lines that can't matter
+    private volatile int pendingCount;
+
+    /**
+     * Packs the channels, open ones first, and starts timing them.
+     *
+     * @param open
+     *            - if the user has a channel open
+     * @return the lines to send
+     */
+    public ImmutableList<String> plan(List<String> channels, Predicate<String> open) {
+        List<String> ordered = new ArrayList<>(channels.size());
+        List<String> rest = new ArrayList<>(channels.size());
+        for (String entry : channels) {
+            int space = entry.indexOf(' ');
+            (open.test(space < 0 ? entry : entry.substring(0, space)) ? ordered : rest).add(entry);
+        }
+        ordered.addAll(rest);
+        long now = now();
+        synchronized (this) {
+            if (this.pending.isEmpty()) {
+                this.firstPlanned = now;
+            }
+            for (String entry : ordered) {
+                int space = entry.indexOf(' ');
+                this.pending.computeIfAbsent(space < 0 ? entry : entry.substring(0, space), c -> now);
+            }
+            this.pendingCount = this.pending.size();
+        }
+        return pack(ordered);
+    }
+
+    /**
+     * Looks for the server putting {@code nick} in a channel, or refusing
+     * to.
+     */
+    public void onServerLine(String line, String nick) {
+        if (this.pendingCount == 0) {
+            return;
+        }
+        String[] parts = line.split(" ", 5);
+        if (parts.length < 3 || !parts[0].startsWith(":")) {
+            return;
+        }
+        if (parts[1].equals("JOIN")) {
+            int bang = parts[0].indexOf('!');
+            String from = parts[0].substring(1, bang < 0 ? parts[0].length() : bang);
+            if (this.caseMapping.equals(from, nick)) {
+                String channel = parts[2].startsWith(":") ? parts[2].substring(1) : parts[2];
+                done(channel, true);
+            }
+        } else if (parts.length >= 4 && JOIN_FAILURES.contains(parts[1])) {
+            done(parts[3], false);
+        }
+    }
+
+    private synchronized void done(String channel, boolean joined) {
+        Long planned = this.pending.remove(channel);
+        if (planned == null) {
+            return;
+        }
+        long now = now();
+        if (joined) {
+            this.joinLatency.record(Math.max(now - planned, 0));
+        }
+        this.pendingCount = this.pending.size();
+        if (this.pending.isEmpty()) {
+            this.fullyJoined.record(Math.max(now - this.firstPlanned, 0));
+        }
+    }
+
+    /**
+     * Matches nicks and channels the way the server says it does from now
+     * on.
+     */
+    public synchronized void setCaseMapping(CaseMapping caseMapping) {
+        CaseMappedMap<Long> old = this.pending;
+        this.pending = new CaseMappedMap<>(caseMapping);
+        old.forEach(this.pending::put);
+        this.pendingCount = this.pending.size();
+        this.caseMapping = caseMapping;
+    }
+
+    /**
+     * Stops waiting on joins, as the connection is gone.
+     */
+    public synchronized void reset() {
+        this.pending.clear();
+        this.pendingCount = 0;
+    }
+
+    /**
+     * @return the joins still waiting for the server
+     */
+    public int getPending() {
+        return this.pendingCount;
+    }
+
+    /**
+     * @return milliseconds from planning a channel's join to being in it
+     */
+    public Histogram getJoinLatency() {
+        return this.joinLatency;
+    }
+
+    /**
+     * @return milliseconds from the first plan to the server having answered
+     *         every join
+     */
+    public Histogram getFullyJoined() {
+        return this.fullyJoined;
+    }
+
+    @Override
+    public String toString() {
+        return "JoinPlanner[pending=" + getPending() + ", joinLatency={" + this.joinLatency + "}, fullyJoined={"
+                + this.fullyJoined + "}]";
+    }
+
+}
@@ -0,0 +1,74 @@
+package me.kenzierocks.converse.send;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.util.Utf8;
+
+/**
+ * Turns what the user typed into {@code PRIVMSG} lines: one per line of the
+ * text, whichever line breaks it uses, so a stray {@code \r} can't end the
+ * command early, and long lines split, at a space if there's one, so the
+ * server relays each piece whole instead of cutting it off.
+ */
+public final class MessageLines {
+
+    /**
+     * Room for the {@code :nick!user@host } the server puts in front of the
+     * lines it relays, with a 30 byte nick, 10 byte user and 63 byte host.
+     */
+    private static final int PREFIX_BYTES = 1 + 30 + 1 + 10 + 1 + 63 + 1;
+    private static final Splitter LINES = Splitter.onPattern("\r\n|\r|\n").omitEmptyStrings();
+    private static final CharMatcher NUL = CharMatcher.is('\0');
+
+    /**
+     * @return the lines to send, none if there's nothing to say
+     */
+    public static ImmutableList<String> privmsg(String target, String text) {
+        String command = "PRIVMSG " + target + " :";
+        int room = JoinPlanner.MAX_LINE_BYTES - PREFIX_BYTES - Utf8.encodedLength(command) - "\r\n".length();
+        checkArgument(room >= 4, "target too long: %s", target);
+        ImmutableList.Builder<String> lines = ImmutableList.builder();
+        for (String line : LINES.split(NUL.removeFrom(text))) {
+            int start = 0;
+            while (start < line.length()) {
+                int end = fit(line, start, room);
+                lines.add(command + line.substring(start, end));
+                start = end;
+            }
+        }
+        return lines.build();
+    }
+
+    /**
+     * @return where the piece of {@code line} from {@code start} ends: the
+     *         end of the line if it fits in {@code room} bytes, otherwise
+     *         after the last space that fits, or after the last whole
+     *         character that fits if no space does
+     */
+    private static int fit(String line, int start, int room) {
+        int bytes = 0;
+        int afterSpace = -1;
+        int i = start;
+        while (i < line.length()) {
+            int codePoint = line.codePointAt(i);
+            int size = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (bytes + size > room) {
+                return afterSpace > start ? afterSpace : i;
+            }
+            bytes += size;
+            i += Character.charCount(codePoint);
+            if (codePoint == ' ') {
+                afterSpace = i;
+            }
+        }
+        return i;
+    }
+
+    private MessageLines() {
+    }
+
+}
@@ -0,0 +1,220 @@
+package me.kenzierocks.converse.send;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.util.Histogram;
+import me.kenzierocks.converse.util.TokenBucket;
+
+/**
+ * Sends one client's lines no faster than the server's flood limit. Lines
+ * wait in {@link SendLane lanes}, and each time the token bucket has room
+ * the oldest job in the most urgent lane sends its next line, so a long
+ * paste is interleaved with, not ahead of, anything more urgent.
+ * <p>
+ * The defaults follow RFC 1459's flood control: a line costs two seconds,
+ * and a client may run ten seconds ahead. Lines are written on the given
+ * executor, at most one drain at a time.
+ */
+public final class OutboundScheduler implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboundScheduler.class);
+
+    public static final int DEFAULT_BURST = 5;
+    public static final long DEFAULT_REFILL_MILLIS = 2000;
+
+    private final String name;
+    private final Consumer<String> sink;
+    private final ScheduledExecutorService executor;
+    // guarded by this
+    private final TokenBucket bucket;
+    private final Map<SendLane, ArrayDeque<SendJob>> lanes = new EnumMap<>(SendLane.class);
+    private boolean draining;
+    private ScheduledFuture<?> pending;
+    private boolean closed;
+    private final Map<SendLane, Histogram> waits = new EnumMap<>(SendLane.class);
+    private final LongAdder linesSent = new LongAdder();
+    private final LongAdder jobsCancelled = new LongAdder();
+
+    public OutboundScheduler(String name, Consumer<String> sink, ScheduledExecutorService executor) {
+        this(name, sink, executor, DEFAULT_BURST, DEFAULT_REFILL_MILLIS);
+    }
+
+    /**
+     * @param sink
+     *            - writes a line to the server now
+     * @param burst
+     *            - lines that may go back to back
+     * @param refillMillis
+     *            - time to earn another line
+     */
+    public OutboundScheduler(String name, Consumer<String> sink, ScheduledExecutorService executor, int burst,
+            long refillMillis) {
+        this.name = checkNotNull(name);
+        this.sink = checkNotNull(sink);
+        this.executor = checkNotNull(executor);
+        this.bucket = new TokenBucket(burst, refillMillis);
+        for (SendLane lane : SendLane.values()) {
+            this.lanes.put(lane, new ArrayDeque<>());
+            this.waits.put(lane, new Histogram());
+        }
+    }
+
+    public SendJob send(SendLane lane, String line) {
+        return send(lane, ImmutableList.of(line));
+    }
+
+    /**
+     * Queues {@code lines} as one job, sent in order.
+     */
+    public SendJob send(SendLane lane, List<String> lines) {
+        checkArgument(!lines.isEmpty(), "nothing to send");
+        SendJob job = new SendJob(checkNotNull(lane), ImmutableList.copyOf(lines), System.nanoTime());
+        synchronized (this) {
+            if (this.closed) {
+                job.cancel();
+                this.jobsCancelled.increment();
+                return job;
+            }
+            this.lanes.get(lane).add(job);
+            if (!this.draining) {
+                this.draining = true;
+                this.executor.execute(this::drain);
+            }
+        }
+        return job;
+    }
+
+    private void drain() {
+        while (true) {
+            String line;
+            synchronized (this) {
+                this.pending = null;
+                SendJob job = nextJob();
+                if (job == null) {
+                    this.draining = false;
+                    return;
+                }
+                long wait = this.bucket.tryTake(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+                if (wait > 0) {
+                    this.pending = this.executor.schedule(this::drain, wait, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                if (job.getSent() == 0) {
+                    this.waits.get(job.getLane())
+                            .record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.getQueuedAt()));
+                }
+                line = job.next();
+                if (job.isDone()) {
+                    this.lanes.get(job.getLane()).poll();
+                }
+            }
+            // one drain at a time, so lines still go out in order
+            try {
+                this.sink.accept(line);
+                this.linesSent.increment();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error sending a line to " + this.name, e);
+            }
+        }
+    }
+
+    /**
+     * @return the next job with a line to send, dropping cancelled ones
+     */
+    private SendJob nextJob() {
+        for (ArrayDeque<SendJob> lane : this.lanes.values()) {
+            SendJob job;
+            while ((job = lane.peek()) != null && job.isCancelled()) {
+                lane.poll();
+                this.jobsCancelled.increment();
+            }
+            if (job != null) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the jobs waiting in {@code lane}, including one part sent
+     */
+    public synchronized int getDepth(SendLane lane) {
+        return this.lanes.get(lane).size();
+    }
+
+    /**
+     * @return the lines waiting in every lane
+     */
+    public synchronized int getQueuedLines() {
+        int lines = 0;
+        for (ArrayDeque<SendJob> lane : this.lanes.values()) {
+            for (SendJob job : lane) {
+                lines += job.isCancelled() ? 0 : job.getLines().size() - job.getSent();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return milliseconds from queueing a job in {@code lane} to its first
+     *         line going out
+     */
+    public Histogram getWait(SendLane lane) {
+        return this.waits.get(lane);
+    }
+
+    public long getLinesSent() {
+        return this.linesSent.sum();
+    }
+
+    public long getJobsCancelled() {
+        return this.jobsCancelled.sum();
+    }
+
+    /**
+     * Cancels everything waiting. Nothing more is sent.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (this.pending != null) {
+            this.pending.cancel(false);
+            this.pending = null;
+        }
+        for (ArrayDeque<SendJob> lane : this.lanes.values()) {
+            for (SendJob job : lane) {
+                job.cancel();
+                this.jobsCancelled.increment();
+            }
+            lane.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder waits = new StringBuilder();
+        for (SendLane lane : SendLane.values()) {
+            waits.append(", ").append(lane).append("={depth=").append(getDepth(lane)).append(", wait={")
+                    .append(this.waits.get(lane)).append("}}");
+        }
+        return this.name + "[sent=" + getLinesSent() + ", cancelled=" + getJobsCancelled() + waits + "]";
+    }
+
+}
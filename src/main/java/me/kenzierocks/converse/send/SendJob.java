@@ -0,0 +1,69 @@
+package me.kenzierocks.converse.send;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Lines queued together, such as a paste, sent one at a time as the
+ * {@link OutboundScheduler} has room. Cancelling drops whatever hasn't been
+ * sent yet.
+ */
+public final class SendJob {
+
+    private final SendLane lane;
+    private final ImmutableList<String> lines;
+    private final long queuedAt;
+    // written by the scheduler under its lock
+    private volatile int sent;
+    private volatile boolean cancelled;
+
+    SendJob(SendLane lane, ImmutableList<String> lines, long queuedAt) {
+        this.lane = lane;
+        this.lines = lines;
+        this.queuedAt = queuedAt;
+    }
+
+    public SendLane getLane() {
+        return this.lane;
+    }
+
+    public ImmutableList<String> getLines() {
+        return this.lines;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when it was queued
+     */
+    long getQueuedAt() {
+        return this.queuedAt;
+    }
+
+    public int getSent() {
+        return this.sent;
+    }
+
+    /**
+     * @return the next line, counted as sent
+     */
+    String next() {
+        return this.lines.get(this.sent++);
+    }
+
+    /**
+     * Stops sending the rest. Lines already sent stay sent.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * @return if nothing more will be sent
+     */
+    public boolean isDone() {
+        return this.cancelled || this.sent == this.lines.size();
+    }
+
+}
@@ -0,0 +1,24 @@
+package me.kenzierocks.converse.send;
+
+/**
+ * How urgent a line is. A line goes before every line in a later lane, so
+ * a paste never holds up what the user types next.
+ */
+public enum SendLane {
+    /**
+     * Keepalives and authentication, which the connection dies without.
+     */
+    URGENT,
+    /**
+     * Lines the user typed.
+     */
+    INTERACTIVE,
+    /**
+     * Joining and parting channels.
+     */
+    JOIN,
+    /**
+     * Multi-line pastes, and anything else that can wait.
+     */
+    BULK;
+}
@@ -0,0 +1,5 @@
+/**
+ * Outbound lines to a server, paced under its flood limits and sent in
+ * order of urgency.
+ */
+package me.kenzierocks.converse.send;
\ No newline at end of file
@@ -0,0 +1,38 @@
+package me.kenzierocks.converse.unread;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * A channel's unread state, and the delta pushed when it changes.
+ */
+@AutoValue
+public abstract class ChannelActivity {
+
+    public static ChannelActivity create(String network, String channel, long readMarker, int unread,
+            int mentions) {
+        return new AutoValue_ChannelActivity(network, channel, readMarker, unread, mentions);
+    }
+
+    ChannelActivity() {
+    }
+
+    public abstract String getNetwork();
+
+    public abstract String getChannel();
+
+    /**
+     * @return how many lines the channel had when it was last read
+     */
+    public abstract long getReadMarker();
+
+    /**
+     * @return lines since the read marker
+     */
+    public abstract int getUnread();
+
+    /**
+     * @return lines since the read marker that mention us
+     */
+    public abstract int getMentions();
+
+}
@@ -0,0 +1,43 @@
+package me.kenzierocks.converse.unread;
+
+import me.kenzierocks.converse.util.CaseMapping;
+
+/**
+ * Finds a nick in a line, as a whole word and folding case by the network's
+ * {@link CaseMapping}.
+ */
+public final class Mentions {
+
+    public static boolean mentions(String text, String nick, CaseMapping caseMapping) {
+        int length = nick.length();
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i + length <= text.length(); i++) {
+            if (regionMatches(caseMapping, text, i, nick) && (i == 0 || !isNickChar(text.charAt(i - 1)))
+                    && (i + length == text.length() || !isNickChar(text.charAt(i + length)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatches(CaseMapping caseMapping, String text, int offset, String nick) {
+        for (int i = 0; i < nick.length(); i++) {
+            if (caseMapping.fold(text.charAt(offset + i)) != caseMapping.fold(nick.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNickChar(char c) {
+        // letters, digits and the RFC 2812 specials
+        return Character.isLetterOrDigit(c) || "-[]\\`^{}_|".indexOf(c) >= 0;
+    }
+
+    private Mentions() {
+        throw new AssertionError();
+    }
+
+}
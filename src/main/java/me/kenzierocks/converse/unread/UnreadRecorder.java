@@ -0,0 +1,60 @@
+package me.kenzierocks.converse.unread;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.channel.ChannelCTCPEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelNoticeEvent;
+import org.kitteh.irc.lib.net.engio.mbassy.listener.Handler;
+
+import me.kenzierocks.converse.util.CaseMapping;
+
+/**
+ * Client listener that counts a network's channel messages, notices and
+ * actions in an {@link UnreadTracker}. Joins and parts aren't worth a look.
+ */
+public final class UnreadRecorder {
+
+    private static final String ACTION_PREFIX = "ACTION ";
+
+    private final UnreadTracker tracker;
+    private final String network;
+
+    public UnreadRecorder(UnreadTracker tracker, String network) {
+        this.tracker = checkNotNull(tracker);
+        this.network = checkNotNull(network);
+    }
+
+    private void count(Client client, Channel channel, User actor, String text) {
+        String nick = client.getNick();
+        CaseMapping caseMapping = this.tracker.getCaseMapping(this.network);
+        if (caseMapping.equals(actor.getNick(), nick)) {
+            // our own, echoed back
+            return;
+        }
+        this.tracker.onLine(this.network, channel.getName(),
+                text != null && Mentions.mentions(text, nick, caseMapping));
+    }
+
+    @Handler
+    public void onMessage(ChannelMessageEvent event) {
+        count(event.getClient(), event.getChannel(), event.getActor(), event.getMessage());
+    }
+
+    @Handler
+    public void onNotice(ChannelNoticeEvent event) {
+        count(event.getClient(), event.getChannel(), event.getActor(), event.getMessage());
+    }
+
+    @Handler
+    public void onCtcp(ChannelCTCPEvent event) {
+        String message = event.getMessage();
+        if (message.startsWith(ACTION_PREFIX)) {
+            count(event.getClient(), event.getChannel(), event.getActor(), message.substring(ACTION_PREFIX.length()));
+        }
+    }
+
+}
@@ -0,0 +1,300 @@
+package me.kenzierocks.converse.unread;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import me.kenzierocks.converse.util.AtomicFiles;
+import me.kenzierocks.converse.util.CaseMapping;
+import me.kenzierocks.converse.util.WriteBehind;
+
+/**
+ * Unread and mention counts for every channel, kept as lines arrive. A
+ * channel counts its lines; its read marker is the count when it was last
+ * read, so unread is one subtraction and marking read is one assignment.
+ * Lines in the focused channel are read as they arrive. Channel names fold
+ * by each network's {@link CaseMapping}, RFC1459 until it's set.
+ * <p>
+ * Every change is pushed to the listeners as the channel's new
+ * {@link ChannelActivity}, on the thread that made it, and the counts are
+ * saved to a JSON file a moment after they change, so startup doesn't
+ * recount either. Changes on different threads can reach listeners out of
+ * order; a listener that keeps only the latest should {@link #get re-read}
+ * the channel instead of trusting the last snapshot it was given.
+ */
+public final class UnreadTracker implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnreadTracker.class);
+    private static final long SAVE_WINDOW_MILLIS = 5000;
+
+    private static final class Counts {
+
+        private final String network;
+        private final String channel;
+        // guarded by this
+        private long lines;
+        private long readMarker;
+        private int mentions;
+
+        Counts(String network, String channel) {
+            this.network = network;
+            this.channel = channel;
+        }
+
+        synchronized ChannelActivity add(boolean mention, boolean focused) {
+            this.lines++;
+            if (focused) {
+                this.readMarker = this.lines;
+                this.mentions = 0;
+            } else if (mention) {
+                this.mentions++;
+            }
+            return snapshot();
+        }
+
+        /**
+         * @return the new state, or {@code null} if it was already read
+         */
+        @Nullable
+        synchronized ChannelActivity markRead() {
+            if (this.readMarker == this.lines && this.mentions == 0) {
+                return null;
+            }
+            this.readMarker = this.lines;
+            this.mentions = 0;
+            return snapshot();
+        }
+
+        synchronized ChannelActivity snapshot() {
+            return ChannelActivity.create(this.network, this.channel, this.readMarker,
+                    (int) Math.min(this.lines - this.readMarker, Integer.MAX_VALUE), this.mentions);
+        }
+
+    }
+
+    @Nullable
+    private final Path file;
+    // channels by folded name
+    private final ConcurrentMap<String, ConcurrentMap<String, Counts>> networks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CaseMapping> caseMappings = new ConcurrentHashMap<>();
+    private final List<Consumer<ChannelActivity>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService saveThread = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("converse-unread-saver").setDaemon(true).build());
+    private final WriteBehind saver =
+            new WriteBehind("unread counts", this.saveThread, SAVE_WINDOW_MILLIS, this::save);
+    @Nullable
+    private volatile Counts focused;
+
+    /**
+     * @param file
+     *            - where to keep the counts, or {@code null} for memory only
+     */
+    public UnreadTracker(@Nullable Path file) {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+                load(new JsonReader(reader));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to load unread counts from " + file + ", starting from zero", e);
+                this.networks.clear();
+            }
+        }
+    }
+
+    private Counts countsOf(String network, String channel) {
+        return this.networks.computeIfAbsent(network, n -> new ConcurrentHashMap<>())
+                .computeIfAbsent(getCaseMapping(network).fold(channel), c -> new Counts(network, channel));
+    }
+
+    public CaseMapping getCaseMapping(String network) {
+        return this.caseMappings.getOrDefault(network, CaseMapping.RFC1459);
+    }
+
+    /**
+     * Folds {@code network}'s channel names by {@code caseMapping} from now
+     * on. Channels that now fold together keep one's counts.
+     */
+    public synchronized void setCaseMapping(String network, CaseMapping caseMapping) {
+        if (getCaseMapping(network) == caseMapping) {
+            return;
+        }
+        this.caseMappings.put(network, caseMapping);
+        ConcurrentMap<String, Counts> channels = this.networks.get(network);
+        if (channels == null) {
+            return;
+        }
+        for (Map.Entry<String, Counts> entry : channels.entrySet()) {
+            String folded = caseMapping.fold(entry.getValue().channel);
+            if (!folded.equals(entry.getKey()) && channels.remove(entry.getKey(), entry.getValue())) {
+                channels.putIfAbsent(folded, entry.getValue());
+            }
+        }
+    }
+
+    public void addListener(Consumer<ChannelActivity> listener) {
+        this.listeners.add(checkNotNull(listener));
+    }
+
+    public void removeListener(Consumer<ChannelActivity> listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Counts a line in {@code channel}.
+     */
+    public void onLine(String network, String channel, boolean mention) {
+        Counts counts = countsOf(network, channel);
+        changed(counts.add(mention, counts == this.focused));
+    }
+
+    public void markRead(String network, String channel) {
+        ChannelActivity read = countsOf(network, channel).markRead();
+        if (read != null) {
+            changed(read);
+        }
+    }
+
+    /**
+     * Marks the channel read, and keeps it read until something else is
+     * focused.
+     *
+     * @param network
+     *            - {@code null}, with {@code channel}, to focus nothing
+     */
+    public void setFocused(@Nullable String network, @Nullable String channel) {
+        if (network == null || channel == null) {
+            this.focused = null;
+            return;
+        }
+        this.focused = countsOf(network, channel);
+        markRead(network, channel);
+    }
+
+    public boolean isFocused(String network, String channel) {
+        Counts counts = this.focused;
+        return counts != null && counts.network.equals(network)
+                && getCaseMapping(network).equals(counts.channel, channel);
+    }
+
+    private void changed(ChannelActivity activity) {
+        for (Consumer<ChannelActivity> listener : this.listeners) {
+            listener.accept(activity);
+        }
+        if (this.file != null) {
+            this.saver.requestWrite();
+        }
+    }
+
+    public ChannelActivity get(String network, String channel) {
+        Map<String, Counts> channels = this.networks.get(network);
+        Counts counts = channels == null ? null : channels.get(getCaseMapping(network).fold(channel));
+        return counts == null ? ChannelActivity.create(network, channel, 0, 0, 0) : counts.snapshot();
+    }
+
+    /**
+     * @return every channel with a count, for building a view without
+     *         waiting for deltas
+     */
+    public ImmutableList<ChannelActivity> getAll() {
+        ImmutableList.Builder<ChannelActivity> all = ImmutableList.builder();
+        this.networks.values().forEach(channels -> channels.values().forEach(c -> all.add(c.snapshot())));
+        return all.build();
+    }
+
+    private void load(JsonReader json) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            String network = json.nextName();
+            json.beginObject();
+            while (json.hasNext()) {
+                Counts counts = countsOf(network, json.nextName());
+                json.beginObject();
+                while (json.hasNext()) {
+                    switch (json.nextName()) {
+                        case "lines":
+                            counts.lines = json.nextLong();
+                            break;
+                        case "readMarker":
+                            counts.readMarker = json.nextLong();
+                            break;
+                        case "mentions":
+                            counts.mentions = json.nextInt();
+                            break;
+                        default:
+                            json.skipValue();
+                    }
+                }
+                json.endObject();
+            }
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    private void save() throws IOException {
+        AtomicFiles.write(this.file, out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            JsonWriter json = new JsonWriter(writer);
+            json.setIndent("  ");
+            json.beginObject();
+            for (Map.Entry<String, ConcurrentMap<String, Counts>> network : this.networks.entrySet()) {
+                json.name(network.getKey()).beginObject();
+                for (Counts counts : network.getValue().values()) {
+                    ChannelActivity activity = counts.snapshot();
+                    json.name(activity.getChannel()).beginObject();
+                    json.name("lines").value(activity.getReadMarker() + activity.getUnread());
+                    json.name("readMarker").value(activity.getReadMarker());
+                    json.name("mentions").value(activity.getMentions());
+                    json.endObject();
+                }
+                json.endObject();
+            }
+            json.endObject();
+            json.flush();
+        });
+    }
+
+    /**
+     * Saves any pending change now.
+     */
+    @Override
+    public void close() {
+        try {
+            this.saver.flush(5, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warn("Timed out saving unread counts");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.saveThread.shutdown();
+    }
+
+}
@@ -0,0 +1,5 @@
+/**
+ * Unread and mention counts per channel, with read markers, kept as lines
+ * arrive so nothing is ever counted by rescanning.
+ */
+package me.kenzierocks.converse.unread;
\ No newline at end of file
@@ -0,0 +1,75 @@
+package me.kenzierocks.converse.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces files so that readers, and a crash, only ever see the old or the
+ * new contents in full.
+ */
+public final class AtomicFiles {
+
+    @FunctionalInterface
+    public interface ContentWriter {
+
+        void writeTo(OutputStream out) throws IOException;
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AtomicFiles.class);
+
+    /**
+     * Writes the contents to a temporary sibling of {@code target}, forces it
+     * to disk, then renames it over {@code target}.
+     */
+    public static void write(Path target, ContentWriter writer) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // not closing the wrapper, the channel is closed for us
+            OutputStream out = Channels.newOutputStream(channel);
+            writer.writeTo(out);
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOGGER.warn("Atomic move unsupported for " + target + ", falling back to plain replace");
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(dir);
+    }
+
+    /**
+     * Makes a rename in {@code dir} durable. Not every platform can open a
+     * directory, so this is best-effort.
+     */
+    public static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows, mostly. The rename itself is still atomic.
+        }
+    }
+
+    private AtomicFiles() {
+        throw new AssertionError();
+    }
+
+}
@@ -0,0 +1,61 @@
+package me.kenzierocks.converse.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Exponential backoff with jitter. The n-th delay is drawn uniformly from
+ * {@code [cap/2, cap]}, where {@code cap = min(max, base * 2^n)}, so
+ * clients that failed together spread out instead of retrying in lockstep,
+ * while still never retrying immediately.
+ * <p>
+ * Not thread safe.
+ */
+public final class Backoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final LongUnaryOperator random;
+    private int attempts;
+
+    public Backoff(long baseMillis, long maxMillis) {
+        this(baseMillis, maxMillis, bound -> ThreadLocalRandom.current().nextLong(bound + 1));
+    }
+
+    /**
+     * @param random
+     *            - returns a value in {@code [0, bound]} for a given bound
+     */
+    Backoff(long baseMillis, long maxMillis, LongUnaryOperator random) {
+        checkArgument(baseMillis > 0, "base must be positive");
+        checkArgument(maxMillis >= baseMillis, "max must be at least base");
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /**
+     * @return the delay before the next attempt, counting this attempt
+     */
+    public long nextDelayMillis() {
+        long cap = this.maxMillis;
+        // past this shift base would overflow, and we're well past max anyway
+        if (this.attempts <= Long.numberOfLeadingZeros(this.baseMillis) - 2) {
+            cap = Math.min(this.maxMillis, this.baseMillis << this.attempts);
+        }
+        this.attempts++;
+        long half = cap / 2;
+        return half + this.random.applyAsLong(cap - half);
+    }
+
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    public void reset() {
+        this.attempts = 0;
+    }
+
+}
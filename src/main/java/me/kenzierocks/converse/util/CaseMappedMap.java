@@ -0,0 +1,202 @@
+package me.kenzierocks.converse.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A hash map keyed by nick or channel name under a {@link CaseMapping}, so
+ * {@code #Chan} and {@code #chan} are one key. Lookups hash and compare the
+ * given name in place, without folding a copy of it; keys keep the spelling
+ * they were first put with.
+ * <p>
+ * Open addressing with linear probing, at most half full. Not thread safe.
+ */
+public final class CaseMappedMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private final CaseMapping mapping;
+    private String[] keys;
+    private int[] hashes;
+    private Object[] values;
+    private int size;
+
+    public CaseMappedMap(CaseMapping mapping) {
+        this.mapping = checkNotNull(mapping);
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new String[capacity];
+        this.hashes = new int[capacity];
+        this.values = new Object[capacity];
+    }
+
+    public CaseMapping getCaseMapping() {
+        return this.mapping;
+    }
+
+    private int hash(CharSequence key) {
+        int hash = this.mapping.hash(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return the slot holding {@code key}, or the empty slot it would go in
+     */
+    private int slot(CharSequence key, int hash) {
+        int mask = this.keys.length - 1;
+        int slot = hash & mask;
+        String existing;
+        while ((existing = this.keys[slot]) != null) {
+            if (this.hashes[slot] == hash && this.mapping.equals(existing, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(CharSequence key) {
+        return (V) this.values[slot(key, hash(key))];
+    }
+
+    public boolean containsKey(CharSequence key) {
+        return this.keys[slot(key, hash(key))] != null;
+    }
+
+    /**
+     * @return the value it replaced, if any
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V put(String key, V value) {
+        checkNotNull(value);
+        int hash = hash(key);
+        int slot = slot(key, hash);
+        V old = (V) this.values[slot];
+        this.values[slot] = value;
+        if (old == null) {
+            this.keys[slot] = key;
+            this.hashes[slot] = hash;
+            if (++this.size * 2 > this.keys.length) {
+                resize(this.keys.length * 2);
+            }
+        }
+        return old;
+    }
+
+    public V computeIfAbsent(String key, Function<? super String, ? extends V> function) {
+        V value = get(key);
+        if (value == null) {
+            value = checkNotNull(function.apply(key));
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the value removed, if any
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V remove(CharSequence key) {
+        int slot = slot(key, hash(key));
+        V old = (V) this.values[slot];
+        if (old == null) {
+            return null;
+        }
+        this.size--;
+        // shift back the entries after it that probed past it, so every
+        // entry stays reachable from its home slot
+        int mask = this.keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; this.keys[next] != null; next = (next + 1) & mask) {
+            int home = this.hashes[next] & mask;
+            boolean between = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!between) {
+                this.keys[hole] = this.keys[next];
+                this.hashes[hole] = this.hashes[next];
+                this.values[hole] = this.values[next];
+                hole = next;
+            }
+        }
+        this.keys[hole] = null;
+        this.values[hole] = null;
+        return old;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = this.keys;
+        int[] oldHashes = this.hashes;
+        Object[] oldValues = this.values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (this.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.hashes[slot] = oldHashes[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        this.size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super String, ? super V> action) {
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) {
+                action.accept(this.keys[i], (V) this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the keys, as first put, in no particular order
+     */
+    public ImmutableList<String> keys() {
+        ImmutableList.Builder<String> keys = ImmutableList.builder();
+        for (String key : this.keys) {
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        return keys.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    public ImmutableList<V> values() {
+        ImmutableList.Builder<V> values = ImmutableList.builder();
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) {
+                values.add((V) this.values[i]);
+            }
+        }
+        return values.build();
+    }
+
+}
@@ -0,0 +1,154 @@
+package me.kenzierocks.converse.util;
+
+import javax.annotation.Nullable;
+
+/**
+ * How a server folds the case of nicks and channel names, as named by its
+ * {@code CASEMAPPING} token. Folding is a table lookup per char, and
+ * comparing, hashing and equality fold as they go, so none of them makes a
+ * lowercased copy.
+ * <p>
+ * {@link #hash(CharSequence)} equals {@code fold(s).hashCode()}, so folded
+ * strings can share a hash table with mapped lookups.
+ */
+public enum CaseMapping {
+
+    /**
+     * Only {@code A-Z} fold, to {@code a-z}.
+     */
+    ASCII("ascii", ""),
+    /**
+     * {@code []\} also fold, to <code>{}|</code>.
+     */
+    STRICT_RFC1459("strict-rfc1459", "[{]}\\|"),
+    /**
+     * As {@link #STRICT_RFC1459}, and {@code ~} folds to {@code ^}. What
+     * servers that don't say use.
+     */
+    RFC1459("rfc1459", "[{]}\\|~^");
+
+    private static final String ISUPPORT_KEY = "CASEMAPPING=";
+
+    /**
+     * @param token
+     *            - the {@code CASEMAPPING} value from {@code RPL_ISUPPORT}
+     * @return the mapping it names, or {@link #RFC1459} if it names none
+     *         known
+     */
+    public static CaseMapping fromISupport(@Nullable String token) {
+        for (CaseMapping mapping : values()) {
+            if (mapping.token.equals(token)) {
+                return mapping;
+            }
+        }
+        return RFC1459;
+    }
+
+    /**
+     * @param line
+     *            - a raw line from the server
+     * @return the mapping named by {@code line}, if it's an
+     *         {@code RPL_ISUPPORT} with a {@code CASEMAPPING} token, as
+     *         {@link #fromISupport(String)} reads it; otherwise {@code null}
+     */
+    @Nullable
+    public static CaseMapping fromISupportLine(String line) {
+        int command = line.indexOf(' ');
+        if (!line.startsWith(":") || command < 0 || !line.startsWith(" 005 ", command)) {
+            return null;
+        }
+        // our nick, then the tokens, then a trailing ":are supported..."
+        for (String param : line.substring(command + " 005 ".length()).split(" ")) {
+            if (param.startsWith(":")) {
+                break;
+            }
+            if (param.startsWith(ISUPPORT_KEY)) {
+                return fromISupport(param.substring(ISUPPORT_KEY.length()));
+            }
+        }
+        return null;
+    }
+
+    private final String token;
+    private final char[] lower = new char[128];
+
+    /**
+     * @param extra
+     *            - pairs of an upper case char and its lower case
+     */
+    CaseMapping(String token, String extra) {
+        this.token = token;
+        for (char c = 0; c < this.lower.length; c++) {
+            this.lower[c] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        for (int i = 0; i < extra.length(); i += 2) {
+            this.lower[extra.charAt(i)] = extra.charAt(i + 1);
+        }
+    }
+
+    public String getToken() {
+        return this.token;
+    }
+
+    public char fold(char c) {
+        return c < 128 ? this.lower[c] : c;
+    }
+
+    /**
+     * @return {@code s} folded, which is {@code s} itself if it already was
+     */
+    public String fold(String s) {
+        int length = s.length();
+        int first = 0;
+        while (first < length && fold(s.charAt(first)) == s.charAt(first)) {
+            first++;
+        }
+        if (first == length) {
+            return s;
+        }
+        char[] folded = s.toCharArray();
+        for (int i = first; i < length; i++) {
+            folded[i] = fold(folded[i]);
+        }
+        return new String(folded);
+    }
+
+    public boolean equals(CharSequence a, CharSequence b) {
+        int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y && fold(x) != fold(y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hash(CharSequence s) {
+        int hash = 0;
+        for (int i = 0, length = s.length(); i < length; i++) {
+            hash = 31 * hash + fold(s.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Orders by folded chars, like {@link String#compareTo(String)} on
+     * folded copies.
+     */
+    public int compare(CharSequence a, CharSequence b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            int diff = fold(a.charAt(i)) - fold(b.charAt(i));
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+}
@@ -0,0 +1,168 @@
+package me.kenzierocks.converse.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lock-free queue of updates from any number of threads to one thread,
+ * which runs them in batches. An update posted under a key replaces any
+ * update under that key still waiting, and keeps its place in line;
+ * unkeyed updates all run, in the order they were posted.
+ * <p>
+ * The first post after a batch calls {@code wake}, so the consumer hears
+ * about work once per batch, not once per update.
+ */
+public final class CoalescingQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingQueue.class);
+
+    private static final class Keyed {
+
+        private final Object key;
+
+        Keyed(Object key) {
+            this.key = key;
+        }
+
+    }
+
+    private final String name;
+    private final Runnable wake;
+    // Runnable or Keyed
+    private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<Object, Runnable> latest = new ConcurrentHashMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean awake = new AtomicBoolean();
+    private final LongAdder posted = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final Histogram batchSize = new Histogram();
+    private final Histogram drainTime = new Histogram();
+
+    public CoalescingQueue(String name, Runnable wake) {
+        this.name = checkNotNull(name);
+        this.wake = checkNotNull(wake);
+    }
+
+    /**
+     * Queues an update that always runs, after everything posted before it.
+     */
+    public void post(Runnable update) {
+        checkNotNull(update);
+        // counted before it's visible, so a drain never counts below zero
+        this.depth.incrementAndGet();
+        this.queue.add(update);
+        this.posted.increment();
+        wake();
+    }
+
+    /**
+     * Queues an update that replaces any waiting under the same key. The
+     * update should read the state it shows when it runs, or carry the
+     * latest of it.
+     */
+    public void post(Object key, Runnable update) {
+        checkNotNull(update);
+        if (this.latest.put(checkNotNull(key), update) == null) {
+            this.depth.incrementAndGet();
+            this.queue.add(new Keyed(key));
+        } else {
+            this.merged.increment();
+        }
+        this.posted.increment();
+        wake();
+    }
+
+    private void wake() {
+        if (this.awake.compareAndSet(false, true)) {
+            this.wake.run();
+        }
+    }
+
+    /**
+     * Runs the updates waiting, on the calling thread. Updates posted while
+     * it runs wait for the next drain, so a busy producer can't hold it.
+     *
+     * @return how many updates ran
+     */
+    public int drain() {
+        long start = System.nanoTime();
+        int waiting = this.depth.get();
+        int ran = 0;
+        for (; ran < waiting; ran++) {
+            Object next = this.queue.poll();
+            if (next == null) {
+                break;
+            }
+            this.depth.decrementAndGet();
+            Runnable update = next instanceof Keyed ? this.latest.remove(((Keyed) next).key) : (Runnable) next;
+            try {
+                update.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("error running an update from " + this.name, e);
+            }
+        }
+        this.batchSize.record(ran);
+        this.drainTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        // before looking, so a post after this wakes the consumer again
+        this.awake.set(false);
+        if (!this.queue.isEmpty()) {
+            wake();
+        }
+        return ran;
+    }
+
+    /**
+     * @return if there's work the consumer has been woken for and not yet
+     *         drained
+     */
+    public boolean isAwake() {
+        return this.awake.get();
+    }
+
+    /**
+     * @return the updates waiting, merged ones counted once
+     */
+    public int getDepth() {
+        return this.depth.get();
+    }
+
+    public long getPostedCount() {
+        return this.posted.sum();
+    }
+
+    public long getMergedCount() {
+        return this.merged.sum();
+    }
+
+    /**
+     * @return the updates run by each drain
+     */
+    public Histogram getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * @return microseconds spent in each drain
+     */
+    public Histogram getDrainTime() {
+        return this.drainTime;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + "[depth=" + getDepth() + ", posted=" + getPostedCount() + ", merged=" + getMergedCount()
+                + ", batchSize={" + this.batchSize + "}, drainTime={" + this.drainTime + "}]";
+    }
+
+}
@@ -0,0 +1,81 @@
+package me.kenzierocks.converse.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values with power-of-two buckets.
+ * Cheap enough to record into from any thread on every event. Percentiles are
+ * reported as the upper bound of the bucket they land in.
+ */
+public final class Histogram {
+
+    // bucket 0 holds 0, bucket i holds [2^(i-1), 2^i)
+    private static final int BUCKETS = 64;
+
+    private static int bucketOf(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        checkArgument(value >= 0, "negative value %s", value);
+        this.buckets.incrementAndGet(bucketOf(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        long c = getCount();
+        return c == 0 ? 0 : (double) this.sum.sum() / c;
+    }
+
+    /**
+     * @param percentile
+     *            - a value in {@code [0, 100]}
+     * @return an upper bound for the value at the given percentile
+     */
+    public long getPercentile(double percentile) {
+        checkArgument(0 <= percentile && percentile <= 100, "percentile %s out of range", percentile);
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * (percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.buckets.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1f, p50<=%d, p99<=%d, max=%d", getCount(), getMean(),
+                getPercentile(50), getPercentile(99), getMax());
+    }
+
+}
@@ -1,18 +1,74 @@
 package me.kenzierocks.converse.util;
 
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
+/**
+ * Checks nicks and channel names against bitsets of the chars they may hold,
+ * one lookup per char. Folding and comparing them is {@link CaseMapping}'s.
+ */
 public final class IRCUtil {
 
+    /**
+     * Chars that can start a channel name.
+     */
+    public static final String CHANNEL_PREFIXES = "#&+!";
+    /**
+     * Longest channel name, prefix included, per RFC 1459.
+     */
+    public static final int MAX_CHANNEL_LENGTH = 200;
+
     // a to z, digits, and '`^-\[]{}|'
-    private static final Predicate<String> NICK_PATTERN =
-            Pattern.compile("^[a-zA-Z0-9`^\\-\\\\\\[\\]{}|]+$").asPredicate();
+    private static final long[] NICK_CHARS = charSet("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "0123456789`^-\\[]{}|", false);
+    // anything but NUL, BEL, CR, LF, space and comma; past ASCII is fine
+    private static final long[] CHANNEL_CHARS = charSet("\0\u0007\r\n ,", true);
     // Anything is probably good.
     private static final Predicate<String> REAL_NAME_PATTERN = s -> true;
 
+    /**
+     * @return a bitset over ASCII of {@code chars}, or of every char but
+     *         them
+     */
+    private static long[] charSet(String chars, boolean exclude) {
+        long[] set = new long[2];
+        for (char c = 0; c < 128; c++) {
+            if (chars.indexOf(c) >= 0 != exclude) {
+                set[c >>> 6] |= 1L << c;
+            }
+        }
+        return set;
+    }
+
+    private static boolean in(long[] set, char c) {
+        return (set[c >>> 6] & (1L << c)) != 0;
+    }
+
     public static boolean isValidNickName(String val) {
-        return NICK_PATTERN.test(val);
+        int length = val.length();
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = val.charAt(i);
+            if (c >= 128 || !in(NICK_CHARS, c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean isValidChannelName(String val) {
+        int length = val.length();
+        if (length < 2 || length > MAX_CHANNEL_LENGTH || CHANNEL_PREFIXES.indexOf(val.charAt(0)) < 0) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            char c = val.charAt(i);
+            if (c < 128 && !in(CHANNEL_CHARS, c)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static boolean isValidRealName(String val) {
@@ -0,0 +1,50 @@
+package me.kenzierocks.converse.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A token bucket, kept the way RFC 1459 servers keep their flood timer: each
+ * line pushes a timer {@code refillMillis} further ahead of now, and a line
+ * may go while the timer is at most {@code burst} lines ahead. That's one
+ * number to update instead of a refill to compute.
+ * <p>
+ * Not thread safe.
+ */
+public final class TokenBucket {
+
+    private final long refillMillis;
+    private final long allowanceMillis;
+    private long timer = Long.MIN_VALUE;
+
+    /**
+     * @param burst
+     *            - lines that may go back to back
+     * @param refillMillis
+     *            - time to earn another line
+     */
+    public TokenBucket(int burst, long refillMillis) {
+        checkArgument(burst > 0, "burst must be positive");
+        checkArgument(refillMillis > 0, "refill must be positive");
+        this.refillMillis = refillMillis;
+        this.allowanceMillis = burst * refillMillis;
+    }
+
+    /**
+     * Takes a token if there is one.
+     *
+     * @param now
+     *            - monotonic time in milliseconds
+     * @return {@code 0} if a token was taken, else the milliseconds until
+     *         there is one
+     */
+    public long tryTake(long now) {
+        long after = Math.max(this.timer, now) + this.refillMillis;
+        long wait = after - now - this.allowanceMillis;
+        if (wait > 0) {
+            return wait;
+        }
+        this.timer = after;
+        return 0;
+    }
+
+}
@@ -0,0 +1,58 @@
+package me.kenzierocks.converse.util;
+
+/**
+ * Splits text into lower-cased runs of letters and digits. Anything else,
+ * punctuation included, separates tokens, so "don't" is "don" and "t" both
+ * when indexing and when searching.
+ */
+public final class Tokenizer {
+
+    /**
+     * Long tokens are pastes and URLs, cut them down to size.
+     */
+    public static final int MAX_TOKEN_LENGTH = 64;
+    /**
+     * Prefix for nick terms. Never produced by {@link #tokenize}, so nicks
+     * don't collide with words.
+     */
+    public static final String NICK_PREFIX = "@";
+
+    @FunctionalInterface
+    public interface TokenConsumer {
+
+        void accept(String token, int position);
+
+    }
+
+    /**
+     * Nicks fold by {@link CaseMapping#RFC1459}, the broadest mapping, so
+     * every spelling a server could take for the same nick has the same term
+     * whichever mapping the network uses. Matches still have to be checked
+     * against the network's own mapping.
+     */
+    public static String nickTerm(String nick) {
+        return NICK_PREFIX + CaseMapping.RFC1459.fold(nick);
+    }
+
+    public static void tokenize(CharSequence text, TokenConsumer consumer) {
+        StringBuilder token = new StringBuilder();
+        int position = 0;
+        int len = text.length();
+        for (int i = 0; i <= len; i++) {
+            char c = i < len ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (token.length() < MAX_TOKEN_LENGTH) {
+                    token.append(Character.toLowerCase(c));
+                }
+            } else if (token.length() > 0) {
+                consumer.accept(token.toString(), position++);
+                token.setLength(0);
+            }
+        }
+    }
+
+    private Tokenizer() {
+        throw new AssertionError();
+    }
+
+}
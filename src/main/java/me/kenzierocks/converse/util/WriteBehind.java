@@ -0,0 +1,127 @@
+package me.kenzierocks.converse.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces bursts of write requests into a single write per time window.
+ * <p>
+ * The first {@link #requestWrite()} after a write schedules the next one
+ * {@code windowMillis} later on the given executor; every request made before
+ * that write starts is folded into it. Requesting never blocks.
+ */
+public final class WriteBehind {
+
+    @FunctionalInterface
+    public interface WriteAction {
+
+        void write() throws Exception;
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehind.class);
+
+    private final String name;
+    private final ScheduledExecutorService executor;
+    private final long windowMillis;
+    private final WriteAction action;
+    private final AtomicReference<Timing> firstPendingRequest = new AtomicReference<>();
+    private final AtomicLong pendingRequests = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    private final Histogram latency = new Histogram();
+    private final Histogram writeTime = new Histogram();
+
+    public WriteBehind(String name, ScheduledExecutorService executor, long windowMillis, WriteAction action) {
+        checkArgument(windowMillis >= 0, "window must be non-negative");
+        this.name = checkNotNull(name);
+        this.executor = checkNotNull(executor);
+        this.windowMillis = windowMillis;
+        this.action = checkNotNull(action);
+    }
+
+    public void requestWrite() {
+        this.pendingRequests.incrementAndGet();
+        if (this.firstPendingRequest.compareAndSet(null, Timing.now())) {
+            this.executor.schedule(this::runPendingWrite, this.windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isWritePending() {
+        return this.firstPendingRequest.get() != null;
+    }
+
+    /**
+     * Performs any pending write now, waiting up to the given time for it to
+     * finish.
+     */
+    public void flush(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        try {
+            this.executor.submit(this::runPendingWrite).get(timeout, unit);
+        } catch (ExecutionException e) {
+            // runPendingWrite logs its own failures
+            LOGGER.warn("unexpected error flushing " + this.name, e.getCause());
+        }
+    }
+
+    private void runPendingWrite() {
+        Timing requested = this.firstPendingRequest.getAndSet(null);
+        if (requested == null) {
+            // already flushed
+            return;
+        }
+        long requests = this.pendingRequests.getAndSet(0);
+        Timing start = Timing.now();
+        try {
+            this.action.write();
+        } catch (Exception e) {
+            LOGGER.warn("error writing " + this.name, e);
+            return;
+        }
+        this.writes.incrementAndGet();
+        // a request racing the reset may be counted by the next write instead
+        this.coalescedRequests.addAndGet(Math.max(requests - 1, 0));
+        this.latency.record(Math.max(requested.getDifferenceNow(), 0));
+        this.writeTime.record(Math.max(start.getDifferenceNow(), 0));
+    }
+
+    public long getWriteCount() {
+        return this.writes.get();
+    }
+
+    public long getCoalescedRequestCount() {
+        return this.coalescedRequests.get();
+    }
+
+    /**
+     * @return milliseconds from the first request of a window to the end of
+     *         its write
+     */
+    public Histogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * @return milliseconds spent in the write itself
+     */
+    public Histogram getWriteTime() {
+        return this.writeTime;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + "[writes=" + getWriteCount() + ", coalesced=" + getCoalescedRequestCount() + ", latency={"
+                + this.latency + "}, writeTime={" + this.writeTime + "}]";
+    }
+
+}
@@ -0,0 +1,98 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.util.CoalescingQueue;
+
+public class CoalescingQueueTest {
+
+    private final AtomicInteger wakes = new AtomicInteger();
+    private final CoalescingQueue queue = new CoalescingQueue("test", this.wakes::incrementAndGet);
+
+    @Test
+    public void keyedUpdatesMergeAndKeepTheirPlace() {
+        List<String> ran = new ArrayList<>();
+        this.queue.post(() -> ran.add("a"));
+        for (int i = 0; i < 100; i++) {
+            int count = i;
+            this.queue.post("#chan", () -> ran.add("#chan " + count));
+        }
+        this.queue.post(() -> ran.add("b"));
+        this.queue.post("#other", () -> ran.add("#other"));
+
+        assertEquals(1, this.wakes.get());
+        assertEquals(4, this.queue.getDepth());
+        assertEquals(4, this.queue.drain());
+        assertEquals(ImmutableList.of("a", "#chan 99", "b", "#other"), ran);
+        assertEquals(99, this.queue.getMergedCount());
+        assertEquals(0, this.queue.getDepth());
+        assertFalse(this.queue.isAwake());
+
+        // the next post wakes the consumer again
+        this.queue.post("#chan", () -> ran.add("#chan again"));
+        assertEquals(2, this.wakes.get());
+        assertEquals(1, this.queue.drain());
+        assertEquals("#chan again", ran.get(ran.size() - 1));
+    }
+
+    @Test
+    public void postsDuringADrainWaitForTheNext() {
+        List<Integer> ran = new ArrayList<>();
+        this.queue.post(new Runnable() {
+
+            private int runs;
+
+            @Override
+            public void run() {
+                ran.add(this.runs++);
+                CoalescingQueueTest.this.queue.post(this);
+            }
+
+        });
+        assertEquals(1, this.queue.drain());
+        assertTrue(this.queue.isAwake());
+        assertEquals(2, this.wakes.get());
+        assertEquals(1, this.queue.drain());
+        assertEquals(ImmutableList.of(0, 1), ran);
+    }
+
+    @Test
+    public void everyProducerIsHeard() throws Exception {
+        int producers = 4;
+        int perProducer = 20000;
+        AtomicInteger ran = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    this.queue.post(ran::incrementAndGet);
+                    this.queue.post(producer, () -> {
+                    });
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        boolean done = false;
+        while (!done) {
+            done = threads.stream().noneMatch(Thread::isAlive);
+            this.queue.drain();
+        }
+        this.queue.drain();
+        assertEquals(producers * perProducer, ran.get());
+        assertEquals(0, this.queue.getDepth());
+        assertEquals(2L * producers * perProducer, this.queue.getPostedCount());
+    }
+
+}
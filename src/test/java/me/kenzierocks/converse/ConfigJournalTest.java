@@ -0,0 +1,86 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.OptionalInt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import me.kenzierocks.converse.gsonadapt.ImmutableCollectionsAdapterFactory;
+import me.kenzierocks.converse.gsonadapt.OptionalIntAdapter;
+import me.kenzierocks.converse.gsonadapt.autovalue.AutoValueAdapterFactory;
+
+public class ConfigJournalTest {
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls()
+            .registerTypeAdapterFactory(new ImmutableCollectionsAdapterFactory())
+            .registerTypeAdapterFactory(new AutoValueAdapterFactory())
+            .registerTypeAdapter(OptionalInt.class, OptionalIntAdapter.INSTANCE).create();
+
+    private static final Network NETWORK = Network.builderNoDefaults().networkAddress("irc.example.com")
+            .networkPort(6697).useSsl(true).nickName("converse").channelsToJoinOnStartup(ImmutableList.of("#a"))
+            .build();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ConfigJournal newJournal() throws IOException {
+        return new ConfigJournal(this.folder.getRoot().toPath().resolve("config.cfg.journal"), GSON);
+    }
+
+    @Test
+    public void replayAppliesRecordsInOrder() throws Exception {
+        ConfigSnapshot base = ConfigSnapshot.builder().build();
+        ConfigSnapshot first = base.withNetworks(ImmutableList.of(NETWORK)).toBuilder().revision(1).build();
+        ConfigSnapshot second = first.withWindowSettings(first.getWindowSettings().withX(42)).toBuilder()
+                .revision(2).build();
+        ConfigJournal journal = newJournal();
+        journal.append(base, first);
+        journal.append(first, second);
+
+        assertEquals(second, newJournal().replay(base));
+        // records already in the snapshot are skipped
+        assertEquals(second, newJournal().replay(second));
+    }
+
+    @Test
+    public void tornTailIsDropped() throws Exception {
+        ConfigSnapshot base = ConfigSnapshot.builder().build();
+        ConfigSnapshot first = base.withWindowSettings(base.getWindowSettings().withWidth(1024)).toBuilder()
+                .revision(1).build();
+        ConfigJournal journal = newJournal();
+        journal.append(base, first);
+        long goodSize = journal.getSizeInBytes();
+        Path path = journal.getPath();
+        Files.write(path, "0badf00d {\"revision\":2,\"windowSe".getBytes(), StandardOpenOption.APPEND);
+
+        assertEquals(first, newJournal().replay(base));
+        assertEquals(goodSize, Files.size(path));
+    }
+
+    @Test
+    public void corruptRecordStopsReplay() throws Exception {
+        ConfigSnapshot base = ConfigSnapshot.builder().build();
+        ConfigSnapshot first = base.withWindowSettings(base.getWindowSettings().withHeight(10)).toBuilder()
+                .revision(1).build();
+        ConfigJournal journal = newJournal();
+        journal.append(base, first);
+        byte[] data = Files.readAllBytes(journal.getPath());
+        // flip a byte inside the JSON, the checksum no longer matches
+        data[data.length - 3] ^= 1;
+        Files.write(journal.getPath(), data);
+
+        assertEquals(base, newJournal().replay(base));
+    }
+
+}
@@ -0,0 +1,78 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalInt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import me.kenzierocks.converse.gsonadapt.ImmutableCollectionsAdapterFactory;
+import me.kenzierocks.converse.gsonadapt.OptionalIntAdapter;
+import me.kenzierocks.converse.gsonadapt.autovalue.AutoValueAdapterFactory;
+
+public class ConfigurationTest {
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls()
+            .registerTypeAdapterFactory(new ImmutableCollectionsAdapterFactory())
+            .registerTypeAdapterFactory(new AutoValueAdapterFactory())
+            .registerTypeAdapter(OptionalInt.class, OptionalIntAdapter.INSTANCE).create();
+
+    private static Network network(String address) {
+        return Network.builderNoDefaults().networkAddress(address).networkPort(6697).useSsl(true)
+                .nickName("converse").channelsToJoinOnStartup(ImmutableList.of()).build();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path configFile;
+    private Configuration config;
+
+    @Before
+    public void setUp() throws IOException {
+        this.configFile = this.folder.getRoot().toPath().resolve("config.cfg");
+        this.config = new Configuration(this.configFile,
+                ConfigSnapshot.builder().build().withNetworks(ImmutableList.of(network("a.example.com"))));
+        // as at startup, config.cfg is our own full write
+        this.config.saveConfig();
+    }
+
+    @After
+    public void tearDown() {
+        this.config.flush();
+    }
+
+    @Test
+    public void reloadOfOurOwnWriteKeepsNewerChanges() throws Exception {
+        ImmutableList<Network> changed = ImmutableList.of(network("a.example.com"), network("b.example.com"));
+        this.config.setNetworks(changed);
+        // the watcher firing late for the compact above
+        this.config.reloadNow();
+
+        assertEquals(changed, this.config.getNetworks());
+    }
+
+    @Test
+    public void externalEditIsApplied() throws Exception {
+        ImmutableList<Network> edited = ImmutableList.of(network("c.example.com"));
+        try (Writer writer = Files.newBufferedWriter(this.configFile)) {
+            GSON.toJson(this.config.getSnapshot().withNetworks(edited), writer);
+        }
+        this.config.reloadNow();
+
+        assertEquals(edited, this.config.getNetworks());
+    }
+
+}
@@ -0,0 +1,296 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.kenzierocks.converse.history.ChannelLog;
+import me.kenzierocks.converse.history.HistorySettings;
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.history.MessageKind;
+import me.kenzierocks.converse.util.CaseMapping;
+
+public class HistoryStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> texts(ChannelLog log, long fromId) {
+        List<String> texts = new ArrayList<>();
+        log.scan(fromId, view -> texts.add(view.getId() + ":" + view.getText()));
+        return texts;
+    }
+
+    @Test
+    public void appendsRollAcrossSegmentsAndSurviveReopening() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        // room for about three records per segment
+        try (HistoryStore store = new HistoryStore(root, 128)) {
+            ChannelLog log = store.getLog("irc.example.com", "#Chan");
+            for (int i = 1; i <= 10; i++) {
+                assertEquals(i, log.append(i * 1000L, MessageKind.MESSAGE, "nick", "message ☃ " + i));
+            }
+            assertEquals(10, log.getLastId());
+            assertEquals("7:message ☃ 7", texts(log, 7).get(0));
+        }
+        try (HistoryStore store = new HistoryStore(root, 128)) {
+            // channel names are case-insensitive
+            ChannelLog log = store.getLog("irc.example.com", "#chan");
+            assertEquals(10, log.getLastId());
+            assertEquals(11, log.append(MessageKind.ACTION, "nick", "waves"));
+            List<String> all = texts(log, 1);
+            assertEquals(11, all.size());
+            assertEquals("11:waves", all.get(10));
+            assertEquals(1, all.stream().filter(t -> t.startsWith("1:")).collect(Collectors.toList()).size());
+        }
+    }
+
+    @Test
+    public void findingALogCreatesNothing() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        try (HistoryStore store = new HistoryStore(root)) {
+            assertNull(store.findLog("net", "#nowhere"));
+            assertFalse(Files.exists(root.resolve("net")));
+            ChannelLog log = store.getLog("net", "#here");
+            assertSame(log, store.findLog("net", "#HERE"));
+            assertNull(store.findLog("net", "#nowhere"));
+        }
+        try (HistoryStore store = new HistoryStore(root)) {
+            // on disk, but not open yet
+            assertEquals(0, store.findLog("net", "#here").getLastId());
+        }
+    }
+
+    @Test
+    public void channelsFoldByTheirNetworksCaseMapping() throws Exception {
+        try (HistoryStore store = new HistoryStore(this.folder.getRoot().toPath())) {
+            assertSame(store.getLog("net", "#Chan[1]"), store.getLog("net", "#chan{1}"));
+            assertSame(store.getLog("net", "#a~"), store.getLog("net", "#A^"));
+
+            store.setCaseMapping("net", CaseMapping.ASCII);
+            assertSame(store.getLog("net", "#Chan[1]"), store.getLog("net", "#chan[1]"));
+            assertNotSame(store.getLog("net", "#chan[1]"), store.getLog("net", "#chan{1}"));
+            // other networks keep the default
+            assertSame(store.getLog("other", "#chan[1]"), store.getLog("other", "#chan{1}"));
+        }
+    }
+
+    @Test
+    public void timestampsNeverGoBackwards() throws Exception {
+        try (HistoryStore store = new HistoryStore(this.folder.getRoot().toPath())) {
+            ChannelLog log = store.getLog("net", "#a");
+            log.append(5000, MessageKind.MESSAGE, "a", "first");
+            log.append(4000, MessageKind.MESSAGE, "a", "clock went back");
+            List<Long> times = new ArrayList<>();
+            log.scan(1, view -> times.add(view.getTimestamp()));
+            assertEquals(5000L, (long) times.get(1));
+        }
+    }
+
+    @Test
+    public void tornRecordIsDroppedOnReopen() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        Path segment;
+        try (HistoryStore store = new HistoryStore(root)) {
+            ChannelLog log = store.getLog("net", "#a");
+            log.append(MessageKind.MESSAGE, "a", "kept");
+            segment = Files.list(log.getDirectory()).findFirst().get();
+        }
+        // a record whose length points past the end of the file
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE);
+            channel.write(torn, 4 + 8 + 8 + 1 + 2 + 1 + 4);
+        }
+        try (HistoryStore store = new HistoryStore(root)) {
+            ChannelLog log = store.getLog("net", "#a");
+            assertEquals(1, log.getLastId());
+            log.append(MessageKind.MESSAGE, "a", "next");
+            assertEquals(2, texts(log, 1).size());
+        }
+    }
+
+    @Test
+    public void pagesBackwardAndSeeksByTimeWithOrWithoutTheIndex() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        try (HistoryStore store = new HistoryStore(root, 64 * 1024)) {
+            ChannelLog log = store.getLog("net", "#busy");
+            for (int i = 1; i <= 5000; i++) {
+                // two records per timestamp
+                log.append(i / 2 * 10L, MessageKind.MESSAGE, "n", "line " + i);
+            }
+            checkSeeks(log);
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path idx : files.filter(p -> p.toString().endsWith(".idx")).collect(Collectors.toList())) {
+                Files.delete(idx);
+            }
+        }
+        try (HistoryStore store = new HistoryStore(root, 64 * 1024)) {
+            checkSeeks(store.getLog("net", "#busy"));
+        }
+    }
+
+    private static void checkSeeks(ChannelLog log) {
+        List<Long> page = new ArrayList<>();
+        log.readBefore(log.getLastId() + 1, 3, view -> page.add(view.getId()));
+        assertEquals(Arrays.asList(4998L, 4999L, 5000L), page);
+        page.clear();
+        log.readBefore(3000, 2, view -> page.add(view.getId()));
+        assertEquals(Arrays.asList(2998L, 2999L), page);
+        page.clear();
+        log.readBefore(2, 10, view -> page.add(view.getId()));
+        assertEquals(Arrays.asList(1L), page);
+
+        // first record with timestamp 12340 is id 2468
+        assertEquals(2468, log.findIdAtOrAfter(12340));
+        assertEquals(2468, log.findIdAtOrAfter(12331));
+        assertEquals(1, log.findIdAtOrAfter(-5));
+        assertEquals(5001, log.findIdAtOrAfter(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void nicksMatchByTheNetworksCaseMapping() throws Exception {
+        try (HistoryStore store = new HistoryStore(this.folder.getRoot().toPath(), 64 * 1024, 1000)) {
+            ChannelLog log = store.getLog("net", "#a");
+            // rolled segments, so the filters are consulted too
+            for (int i = 0; i < 30; i++) {
+                log.append(i * 100L, MessageKind.MESSAGE, i % 2 == 0 ? "{Foo}" : "[foo]", "line " + i);
+            }
+            List<Long> ids = new ArrayList<>();
+            log.findMatching("[FOO]", Arrays.asList(), view -> ids.add(view.getId()));
+            assertEquals(30, ids.size());
+
+            store.setCaseMapping("net", CaseMapping.ASCII);
+            ids.clear();
+            log.findMatching("[FOO]", Arrays.asList("line"), view -> ids.add(view.getId()));
+            assertEquals(15, ids.size());
+            assertEquals(2L, (long) ids.get(0));
+        }
+    }
+
+    @Test
+    public void filtersSkipSegmentsThatCannotMatch() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        // a new segment every second of log time
+        try (HistoryStore store = new HistoryStore(root, 64 * 1024, 1000)) {
+            ChannelLog log = store.getLog("net", "#a");
+            for (int i = 0; i < 100; i++) {
+                log.append(i * 100L, MessageKind.MESSAGE, "nick" + i / 10, "segment " + i / 10 + " line " + i);
+            }
+            checkFilters(log);
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path bloom : files.filter(p -> p.toString().endsWith(".bloom")).limit(3)
+                    .collect(Collectors.toList())) {
+                Files.delete(bloom);
+            }
+        }
+        try (HistoryStore store = new HistoryStore(root, 64 * 1024, 1000)) {
+            checkFilters(store.getLog("net", "#a"));
+        }
+    }
+
+    private static void checkFilters(ChannelLog log) {
+        List<Long> ids = new ArrayList<>();
+        log.findMatching("NICK3", Arrays.asList("Line"), view -> ids.add(view.getId()));
+        assertEquals(10, ids.size());
+        assertEquals(31L, (long) ids.get(0));
+        ids.clear();
+        log.findMatching(null, Arrays.asList("line", "42"), view -> ids.add(view.getId()));
+        assertEquals(Arrays.asList(43L), ids);
+        // each lookup reads its segment and the active one, which has no
+        // filter yet, and skips the other eight
+        assertEquals(16, log.getSegmentsSkipped());
+        assertEquals(4, log.getSegmentsScanned());
+    }
+
+    @Test
+    public void readsPageAcrossHotWarmAndColdTiers() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        // everything rolled goes cold
+        HistorySettings settings = HistorySettings.builder().segmentBytes(64 * 1024).hotRecords(100)
+                .hotBytes(4096).coldAfterMillis(0).build();
+        try (HistoryStore store = new HistoryStore(root, settings)) {
+            ChannelLog log = store.getLog("net", "#busy");
+            for (int i = 1; i <= 5000; i++) {
+                log.append(i / 2 * 10L, MessageKind.MESSAGE, "n" + i % 7, "line " + i);
+            }
+            store.enforceBudgets();
+            assertEquals(64 * 1024, store.getWarmBytes());
+            checkSeeks(log);
+            checkTiers(log);
+        }
+        try (Stream<Path> files = Files.list(root.resolve("net").resolve("#busy"))) {
+            assertEquals(1, files.filter(p -> p.toString().endsWith(".seg")).count());
+        }
+        try (HistoryStore store = new HistoryStore(root, settings)) {
+            ChannelLog log = store.getLog("net", "#busy");
+            checkSeeks(log);
+            checkTiers(log);
+            log.append(MessageKind.MESSAGE, "n", "after");
+            assertEquals(5001, log.getLastId());
+        }
+    }
+
+    private static void checkTiers(ChannelLog log) {
+        // every id once, in order
+        long[] expected = { 1 };
+        log.scan(1, view -> {
+            assertEquals(expected[0]++, view.getId());
+            assertEquals("line " + view.getId(), view.getText());
+            return true;
+        });
+        assertEquals(5001, expected[0]);
+        // the hot ring's whole reach, when it's been filled
+        List<String> page = new ArrayList<>();
+        log.readBefore(5001, 100, view -> page.add(view.getText()));
+        assertEquals(100, page.size());
+        assertEquals("line 4901", page.get(0));
+        assertEquals("line 5000", page.get(99));
+        List<Long> ids = new ArrayList<>();
+        log.findMatching("n4", Arrays.asList("line", "1999"), view -> ids.add(view.getId()));
+        assertEquals(Arrays.asList(1999L), ids);
+    }
+
+    @Test
+    public void warmBudgetPushesOldestSegmentsCold() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        HistorySettings settings = HistorySettings.builder().segmentBytes(64 * 1024).warmBytes(3 * 64 * 1024)
+                .build();
+        try (HistoryStore store = new HistoryStore(root, settings)) {
+            ChannelLog a = store.getLog("net", "#a");
+            ChannelLog b = store.getLog("net", "#b");
+            // recent, so only the budget sends anything cold
+            long now = System.currentTimeMillis();
+            for (int i = 1; i <= 3000; i++) {
+                a.append(now + i, MessageKind.MESSAGE, "n", "line " + i);
+                b.append(now + i, MessageKind.MESSAGE, "n", "line " + i);
+            }
+            assertTrue(store.getWarmBytes() > 3 * 64 * 1024);
+            store.enforceBudgets();
+            assertEquals(3 * 64 * 1024, store.getWarmBytes());
+            List<String> page = new ArrayList<>();
+            a.readBefore(3, 2, view -> page.add(view.getText()));
+            assertEquals(Arrays.asList("line 1", "line 2"), page);
+        }
+    }
+
+}
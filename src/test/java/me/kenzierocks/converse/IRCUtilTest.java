@@ -0,0 +1,118 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import me.kenzierocks.converse.util.CaseMappedMap;
+import me.kenzierocks.converse.util.CaseMapping;
+import me.kenzierocks.converse.util.IRCUtil;
+
+public class IRCUtilTest {
+
+    private static final Predicate<String> OLD_NICK_PATTERN =
+            Pattern.compile("^[a-zA-Z0-9`^\\-\\\\\\[\\]{}|]+$").asPredicate();
+    private static final String NICK_ISH = "aZ09`^-\\[]{}|~_ .#é";
+
+    private static String randomName(Random random, String chars, int maxLength) {
+        StringBuilder name = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--) {
+            name.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return name.toString();
+    }
+
+    @Test
+    public void nickTableAgreesWithTheOldRegex() {
+        Random random = new Random(25);
+        for (int i = 0; i < 100000; i++) {
+            String nick = randomName(random, NICK_ISH, 6);
+            assertEquals(nick, OLD_NICK_PATTERN.test(nick), IRCUtil.isValidNickName(nick));
+        }
+        for (char c = 0; c < 256; c++) {
+            String nick = String.valueOf(c);
+            assertEquals(nick, OLD_NICK_PATTERN.test(nick), IRCUtil.isValidNickName(nick));
+        }
+    }
+
+    @Test
+    public void channelNames() {
+        assertTrue(IRCUtil.isValidChannelName("#converse"));
+        assertTrue(IRCUtil.isValidChannelName("&local"));
+        assertTrue(IRCUtil.isValidChannelName("#café"));
+        assertFalse(IRCUtil.isValidChannelName("#"));
+        assertFalse(IRCUtil.isValidChannelName("converse"));
+        assertFalse(IRCUtil.isValidChannelName("#a,#b"));
+        assertFalse(IRCUtil.isValidChannelName("#a b"));
+        assertFalse(IRCUtil.isValidChannelName("#bell\u0007"));
+    }
+
+    @Test
+    public void mappingsFoldWhatTheySay() {
+        assertTrue(CaseMapping.ASCII.equals("Nick[1]", "nick[1]"));
+        assertFalse(CaseMapping.ASCII.equals("Nick[1]", "nick{1}"));
+        assertTrue(CaseMapping.STRICT_RFC1459.equals("Nick[1]\\", "nick{1}|"));
+        assertFalse(CaseMapping.STRICT_RFC1459.equals("~", "^"));
+        assertTrue(CaseMapping.RFC1459.equals("~Nick", "^nick"));
+        assertEquals(CaseMapping.RFC1459, CaseMapping.fromISupport(null));
+        assertEquals(CaseMapping.STRICT_RFC1459, CaseMapping.fromISupport("strict-rfc1459"));
+        assertEquals(CaseMapping.ASCII, CaseMapping.fromISupportLine(
+                ":irc.example.com 005 converse NICKLEN=30 CASEMAPPING=ascii CHANTYPES=# :are supported"));
+        assertEquals(CaseMapping.RFC1459,
+                CaseMapping.fromISupportLine(":irc.example.com 005 converse CASEMAPPING=unheard-of :are supported"));
+        assertNull(CaseMapping.fromISupportLine(":irc.example.com 005 converse NICKLEN=30 :CASEMAPPING=ascii"));
+        assertNull(CaseMapping.fromISupportLine(":nick!user@host PRIVMSG #chan :005 CASEMAPPING=ascii"));
+
+        String folded = "#already-folded";
+        assertSame(folded, CaseMapping.RFC1459.fold(folded));
+        Random random = new Random(1459);
+        for (int i = 0; i < 10000; i++) {
+            String a = randomName(random, "aAbB[{]}\\|~^", 4);
+            String b = randomName(random, "aAbB[{]}\\|~^", 4);
+            for (CaseMapping mapping : CaseMapping.values()) {
+                String fa = mapping.fold(a);
+                String fb = mapping.fold(b);
+                assertEquals(fa.equals(fb), mapping.equals(a, b));
+                assertEquals(fa.hashCode(), mapping.hash(a));
+                assertEquals(Integer.signum(fa.compareTo(fb)), Integer.signum(mapping.compare(a, b)));
+            }
+        }
+    }
+
+    @Test
+    public void mappedMapMatchesAMapOfFoldedKeys() {
+        CaseMappedMap<Integer> map = new CaseMappedMap<>(CaseMapping.RFC1459);
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(512);
+        for (int i = 0; i < 200000; i++) {
+            String key = "#" + randomName(random, "aAbBcC[{~^", 3);
+            String folded = CaseMapping.RFC1459.fold(key);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.put(folded, i), map.put(key, i));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(folded), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(folded), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        map.forEach((key, value) -> assertEquals(expected.get(CaseMapping.RFC1459.fold(key)), value));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get("#a"));
+    }
+
+}
@@ -0,0 +1,95 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Type;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import me.kenzierocks.converse.gsonadapt.ImmutableCollectionsAdapterFactory;
+
+public class ImmutableCollectionsAdapterFactoryTest {
+
+    private static final Gson GSON =
+            new GsonBuilder().registerTypeAdapterFactory(new ImmutableCollectionsAdapterFactory()).create();
+
+    private static <T> T roundTrip(T value, Type type) {
+        T read = GSON.fromJson(GSON.toJson(value, type), type);
+        assertEquals(value, read);
+        return read;
+    }
+
+    @Test
+    public void listsKeepTheirOrder() {
+        Type type = new TypeToken<ImmutableList<String>>() {
+        }.getType();
+        roundTrip(ImmutableList.of("#b", "#a", "#b"), type);
+        roundTrip(ImmutableList.of(), type);
+        assertEquals("[\"#b\",\"#a\"]", GSON.toJson(ImmutableList.of("#b", "#a"), type));
+    }
+
+    @Test
+    public void setsDropDuplicates() {
+        Type type = new TypeToken<ImmutableSet<Integer>>() {
+        }.getType();
+        roundTrip(ImmutableSet.of(3, 1, 2), type);
+        assertEquals(ImmutableSet.of(1, 2), GSON.fromJson("[1,2,1]", type));
+    }
+
+    @Test
+    public void mapsWithStringAndOtherKeys() {
+        roundTrip(ImmutableMap.of("freenode", 6697, "esper", 6667), new TypeToken<ImmutableMap<String, Integer>>() {
+        }.getType());
+        Type intKeys = new TypeToken<ImmutableMap<Integer, String>>() {
+        }.getType();
+        roundTrip(ImmutableMap.of(1, "one", 2, "two"), intKeys);
+        assertEquals("{\"1\":\"one\"}", GSON.toJson(ImmutableMap.of(1, "one"), intKeys));
+    }
+
+    @Test
+    public void nestedCollectionsAreImmutableAllTheWayDown() {
+        Type type = new TypeToken<ImmutableMap<String, ImmutableList<ImmutableSet<String>>>>() {
+        }.getType();
+        ImmutableMap<String, ImmutableList<ImmutableSet<String>>> read = roundTrip(
+                ImmutableMap.of("net", ImmutableList.of(ImmutableSet.of("#a", "#b"), ImmutableSet.of())), type);
+        assertTrue(read.get("net").get(0) instanceof ImmutableSet);
+    }
+
+    @Test
+    public void wildcardsReadAsTheirBound() {
+        // unresolved, the inner elements would read as Object, i.e. Double
+        Type type = new TypeToken<ImmutableList<? extends ImmutableList<Integer>>>() {
+        }.getType();
+        ImmutableList<? extends ImmutableList<Integer>> read = GSON.fromJson("[[1],[]]", type);
+        assertEquals(ImmutableList.of(ImmutableList.of(1), ImmutableList.of()), read);
+    }
+
+    @Test
+    public void jsonNullIsANullCollection() {
+        assertNull(GSON.fromJson("null", new TypeToken<ImmutableList<String>>() {
+        }.getType()));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void nullElementsAreRejected() {
+        GSON.fromJson("[\"a\",null]", new TypeToken<ImmutableList<String>>() {
+        }.getType());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void nullMapValuesAreRejected() {
+        GSON.fromJson("{\"a\":null}", new TypeToken<ImmutableMap<String, String>>() {
+        }.getType());
+    }
+
+}
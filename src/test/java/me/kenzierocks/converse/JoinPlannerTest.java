@@ -0,0 +1,78 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.send.JoinPlanner;
+import me.kenzierocks.converse.util.CaseMapping;
+
+public class JoinPlannerTest {
+
+    @Test
+    public void channelsArePackedUnderTheLineLimit() {
+        List<String> channels = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            channels.add("#channel-number-" + i);
+        }
+        ImmutableList<String> lines = JoinPlanner.pack(channels);
+        assertEquals(6, lines.size());
+        List<String> joined = new ArrayList<>();
+        for (String line : lines) {
+            assertTrue(line, (line + "\r\n").getBytes(StandardCharsets.UTF_8).length <= JoinPlanner.MAX_LINE_BYTES);
+            joined.addAll(ImmutableList.copyOf(line.substring("JOIN ".length()).split(",")));
+        }
+        assertEquals(channels, joined);
+    }
+
+    @Test
+    public void keyedChannelsLeadTheirLine() {
+        assertEquals(ImmutableList.of("JOIN #secret,#other,#open,#plain sesame,hunter2"),
+                JoinPlanner.pack(ImmutableList.of("#open", "#secret sesame", "#plain", "#other hunter2")));
+    }
+
+    @Test
+    public void openChannelsGoFirstAndJoinsAreTimed() {
+        JoinPlanner planner = new JoinPlanner();
+        ImmutableList<String> lines =
+                planner.plan(ImmutableList.of("#a", "#b", "#c", "#d"), channel -> channel.equals("#c"));
+        assertEquals(ImmutableList.of("JOIN #c,#a,#b,#d"), lines);
+        assertEquals(4, planner.getPending());
+
+        planner.onServerLine(":someone!u@h JOIN #a", "me");
+        planner.onServerLine(":me!u@h JOIN :#C", "me");
+        planner.onServerLine(":me!u@h JOIN #a * :Real Name", "me");
+        planner.onServerLine(":server 474 me #b :Cannot join channel (+b)", "me");
+        assertEquals(1, planner.getPending());
+        assertEquals(0, planner.getFullyJoined().getCount());
+
+        planner.onServerLine(":Me!u@h JOIN #d", "me");
+        assertEquals(0, planner.getPending());
+        assertEquals(3, planner.getJoinLatency().getCount());
+        assertEquals(1, planner.getFullyJoined().getCount());
+    }
+
+    @Test
+    public void echoesMatchByTheServersCaseMapping() {
+        JoinPlanner planner = new JoinPlanner();
+        planner.plan(ImmutableList.of("#a[1]", "#b[1]"), channel -> false);
+        // rfc1459 until the server says
+        planner.onServerLine(":me[m]!u@h JOIN #A{1}", "me{m}");
+        assertEquals(1, planner.getPending());
+
+        planner.setCaseMapping(CaseMapping.ASCII);
+        planner.onServerLine(":me[m]!u@h JOIN #B{1}", "me[m]");
+        planner.onServerLine(":me{m}!u@h JOIN #B[1]", "me[m]");
+        assertEquals(1, planner.getPending());
+        planner.onServerLine(":ME[M]!u@h JOIN #B[1]", "me[m]");
+        assertEquals(0, planner.getPending());
+    }
+
+}
@@ -0,0 +1,106 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import me.kenzierocks.converse.gsonadapt.ImmutableCollectionsAdapterFactory;
+import me.kenzierocks.converse.gsonadapt.autovalue.AutoValueAdapterFactory;
+import me.kenzierocks.converse.util.CaseMapping;
+
+public class LazyChannelsTest {
+
+    private static final long IDLE = 1000;
+
+    private final List<String> sent = new ArrayList<>();
+    private final LazyChannels lazy = new LazyChannels(new LazyChannels.Membership() {
+
+        @Override
+        public void join(String channel) {
+            LazyChannelsTest.this.sent.add("JOIN " + channel);
+        }
+
+        @Override
+        public void part(String channel) {
+            LazyChannelsTest.this.sent.add("PART " + channel);
+        }
+
+    });
+
+    @Test
+    public void viewedChannelsJoinAndIdleOnesPart() {
+        this.lazy.configure(ImmutableList.of("#quiet", "#busy"), IDLE, ImmutableList.of(), 0);
+        assertEquals(ImmutableList.of(), this.lazy.getWanted());
+
+        this.lazy.view("#Quiet", 10);
+        this.lazy.view("#busy", 20);
+        this.lazy.view("#busy", 30);
+        this.lazy.view(null, 40);
+        assertEquals(ImmutableList.of("JOIN #quiet", "JOIN #busy"), this.sent);
+
+        this.lazy.touch("#busy", 900);
+        assertEquals(ImmutableList.of("#quiet"), this.lazy.partIdle(1040));
+        assertEquals(ImmutableList.of("#busy"), this.lazy.getWanted());
+        assertEquals(ImmutableList.of("#busy"), this.lazy.partIdle(1900));
+        assertEquals("PART #busy", this.sent.get(this.sent.size() - 1));
+    }
+
+    @Test
+    public void viewingOrSubscribingKeepsAChannelJoined() {
+        this.lazy.configure(ImmutableList.of("#watched", "#open"), IDLE, ImmutableList.of(), 0);
+        this.lazy.subscribe("#watched", 0);
+        this.lazy.subscribe("#watched", 0);
+        this.lazy.view("#open", 0);
+        assertEquals(ImmutableList.of(), this.lazy.partIdle(5000));
+
+        this.lazy.unsubscribe("#watched", 5000);
+        assertEquals(ImmutableList.of(), this.lazy.partIdle(10000));
+        this.lazy.unsubscribe("#watched", 10000);
+        this.lazy.view(null, 10000);
+        assertEquals(ImmutableList.of(), this.lazy.partIdle(10500));
+        assertEquals(2, this.lazy.partIdle(11000).size());
+    }
+
+    @Test
+    public void reconfiguringKeepsWhatWeAreIn() {
+        this.lazy.configure(ImmutableList.of("#a"), IDLE, ImmutableList.of(), 0);
+        this.lazy.view("#a", 0);
+        // #b was eager and joined, #a stops being lazy
+        List<String> nowEager = this.lazy.configure(ImmutableList.of("#b"), IDLE, ImmutableList.of("#b"), 100);
+        assertEquals(ImmutableList.of(), nowEager);
+        assertEquals(ImmutableList.of("#b"), this.lazy.getWanted());
+        assertEquals(ImmutableList.of("#b"), this.lazy.partIdle(1100));
+        // parted, so making it eager means joining it
+        assertEquals(ImmutableList.of("#b"), this.lazy.configure(ImmutableList.of(), IDLE, ImmutableList.of(), 2000));
+    }
+
+    @Test
+    public void namesFoldByTheServersCaseMapping() {
+        this.lazy.configure(ImmutableList.of("#a[1]"), IDLE, ImmutableList.of(), 0);
+        assertTrue(this.lazy.isLazy("#A{1}"));
+        this.lazy.setCaseMapping(CaseMapping.ASCII);
+        assertFalse(this.lazy.isLazy("#A{1}"));
+        this.lazy.view("#A[1]", 0);
+        assertEquals(ImmutableList.of("JOIN #a[1]"), this.sent);
+    }
+
+    @Test
+    public void configsFromBeforeLazyChannelsStillLoad() {
+        Gson gson = new GsonBuilder().registerTypeAdapterFactory(new ImmutableCollectionsAdapterFactory())
+                .registerTypeAdapterFactory(new AutoValueAdapterFactory()).create();
+        Network network = gson.fromJson("{\"networkAddress\":\"irc.example.com\",\"networkPort\":6667,"
+                + "\"useSsl\":false,\"nickName\":\"converse\",\"channelsToJoinOnStartup\":[\"#a\"]}", Network.class);
+        assertEquals(ImmutableList.of(), network.getLazyChannels());
+        assertEquals(Network.DEFAULT_LAZY_IDLE_MINUTES * 60000L, network.getLazyIdleMillis());
+    }
+
+}
@@ -0,0 +1,86 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import me.kenzierocks.converse.buffer.MessageBuffer;
+import me.kenzierocks.converse.buffer.NameDictionary;
+import me.kenzierocks.converse.history.MessageKind;
+
+public class MessageBufferTest {
+
+    private static List<String> page(MessageBuffer buffer, long before, int limit, String channel) {
+        List<String> lines = new ArrayList<>();
+        buffer.readBefore(before, limit, channel, line -> lines.add(line.getSequence() + " " + line.getChannel()
+                + " <" + line.getNick() + "> " + line.getText()));
+        return lines;
+    }
+
+    @Test
+    public void namesAreSharedAndLinesPageByChannel() {
+        NameDictionary names = new NameDictionary();
+        MessageBuffer buffer = new MessageBuffer(names, 10);
+        buffer.add(1, MessageKind.MESSAGE, "#a", "alice", "al@example.com", "hi ☃");
+        buffer.add(2, MessageKind.MESSAGE, new String("#b"), "bob", "b@example.com", "yo");
+        buffer.add(3, MessageKind.ACTION, new String("#a"), new String("alice"), "al@example.com", "waves");
+        assertEquals(6, names.size());
+        assertEquals(Arrays.asList("0 #a <alice> hi ☃", "2 #a <alice> waves"), page(buffer, 3, 10, "#a"));
+        assertEquals(Arrays.asList("1 #b <bob> yo", "2 #a <alice> waves"), page(buffer, 3, 2, null));
+        assertEquals(Arrays.asList(), page(buffer, 3, 10, "#never"));
+        // one string per name, however many lines use it
+        List<String> channels = new ArrayList<>();
+        buffer.readBefore(3, 10, "#a", line -> channels.add(line.getChannel()));
+        assertSame(channels.get(0), channels.get(1));
+    }
+
+    @Test
+    public void namesAreForgottenWithTheirLastLine() {
+        NameDictionary names = new NameDictionary();
+        int pinned = names.idOf("#relayed");
+        MessageBuffer buffer = new MessageBuffer(names, 3);
+        for (int i = 0; i < 1000; i++) {
+            buffer.add(i, MessageKind.MESSAGE, "#a", "nick" + i, "u" + i + "@h", "hi");
+        }
+        // #a, and the nick and user@host of the three lines left, and the
+        // pinned one
+        assertEquals(8, names.size());
+        assertEquals(-1, names.find("nick996"));
+        assertEquals(Arrays.asList("999 #a <nick999> hi"), page(buffer, Long.MAX_VALUE, 1, null));
+
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(1, names.size());
+        assertEquals("#relayed", names.nameOf(pinned));
+        // freed ids are handed out again, so they never went past the ten
+        // names in use at once: four lines' worth, #a and the pinned one
+        buffer.add(1000, MessageKind.MESSAGE, "#b", "nick", "u@h", "back");
+        buffer.readBefore(Long.MAX_VALUE, 1, null, line -> {
+            assertEquals(true, line.getNickId() < 10);
+            return true;
+        });
+        assertEquals(Arrays.asList("1000 #b <nick> back"), page(buffer, Long.MAX_VALUE, 1, null));
+    }
+
+    @Test
+    public void oldestLinesAndArenaChunksAreDropped() {
+        MessageBuffer buffer = new MessageBuffer(new NameDictionary(), 100);
+        char[] kilobyte = new char[1024];
+        Arrays.fill(kilobyte, 'x');
+        for (int i = 0; i < 10000; i++) {
+            buffer.add(i, MessageKind.MESSAGE, "#a", "n", "n@h", i + new String(kilobyte));
+        }
+        assertEquals(9900, buffer.getFirstSequence());
+        // 100K of live text, in at most two 1M chunks
+        assertEquals(true, buffer.getArenaBytes() <= 2 * 1024 * 1024);
+        List<String> lines = page(buffer, Long.MAX_VALUE, 1000, "#a");
+        assertEquals(100, lines.size());
+        assertEquals("9900 #a <n> 9900x", lines.get(0).substring(0, 17));
+    }
+
+}
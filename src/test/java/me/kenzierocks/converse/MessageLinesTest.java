@@ -0,0 +1,52 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.send.JoinPlanner;
+import me.kenzierocks.converse.send.MessageLines;
+
+public class MessageLinesTest {
+
+    @Test
+    public void everyLineBreakEndsALine() {
+        assertEquals(ImmutableList.of("PRIVMSG #chan :a", "PRIVMSG #chan :b", "PRIVMSG #chan :c",
+                "PRIVMSG #chan :d QUIT"), MessageLines.privmsg("#chan", "a\r\nb\nc\r\rd\0 QUIT\r\n"));
+        assertEquals(ImmutableList.of(), MessageLines.privmsg("#chan", "\r\n\r"));
+    }
+
+    @Test
+    public void longLinesSplitAtSpacesAndWholeCharacters() {
+        String words = Strings.repeat("word ", 200).trim();
+        ImmutableList<String> lines = MessageLines.privmsg("#chan", words);
+        // with room for the server's prefix
+        int limit = JoinPlanner.MAX_LINE_BYTES - 100;
+        StringBuilder joined = new StringBuilder();
+        for (String line : lines) {
+            assertTrue(line, (line + "\r\n").getBytes(StandardCharsets.UTF_8).length <= limit);
+            assertTrue(line, line.endsWith(" ") || line.endsWith("word"));
+            joined.append(line.substring("PRIVMSG #chan :".length()));
+        }
+        assertTrue(lines.size() > 1);
+        assertEquals(words, joined.toString());
+
+        // no spaces, and four bytes a character
+        String emoji = Strings.repeat("😀", 300);
+        joined.setLength(0);
+        for (String line : MessageLines.privmsg("#chan", emoji)) {
+            String text = line.substring("PRIVMSG #chan :".length());
+            assertTrue(Character.isHighSurrogate(text.charAt(0)));
+            assertTrue(Character.isLowSurrogate(text.charAt(text.length() - 1)));
+            joined.append(text);
+        }
+        assertEquals(emoji, joined.toString());
+    }
+
+}
@@ -0,0 +1,43 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class NetworkDiffTest {
+
+    private static Network network(String name, String nick, String... channels) {
+        return Network.builderNoDefaults().forcedNetworkName(name).networkAddress(name).networkPort(6667)
+                .useSsl(false).nickName(nick).channelsToJoinOnStartup(ImmutableList.copyOf(channels)).build();
+    }
+
+    @Test
+    public void identicalListsHaveNoDiff() {
+        ImmutableList<Network> nets = ImmutableList.of(network("a", "me", "#x"), network("b", "me"));
+        assertTrue(NetworkDiff.between(nets, nets).isEmpty());
+    }
+
+    @Test
+    public void changesAreSortedByDisruption() {
+        Network kept = network("kept", "me", "#x", "#y");
+        Network renick = network("renick", "me");
+        Network gone = network("gone", "me");
+        NetworkDiff diff = NetworkDiff.between(ImmutableList.of(kept, renick, gone),
+                ImmutableList.of(network("kept", "me", "#y", "#z"), network("renick", "you"), network("new", "me")));
+
+        assertEquals(1, diff.getAdded().size());
+        assertEquals("new", diff.getAdded().get(0).getNetworkName());
+        assertEquals(ImmutableList.of(gone), diff.getRemoved());
+        assertEquals(1, diff.getReconnected().size());
+        assertEquals(renick, diff.getReconnected().get(0).getOldNetwork());
+        assertEquals(1, diff.getUpdated().size());
+        NetworkDiff.Update update = diff.getUpdated().get(0);
+        assertEquals(ImmutableSet.of("#z"), update.getJoinedChannels());
+        assertEquals(ImmutableSet.of("#x"), update.getPartedChannels());
+    }
+
+}
@@ -0,0 +1,85 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.send.OutboundScheduler;
+import me.kenzierocks.converse.send.SendJob;
+import me.kenzierocks.converse.send.SendLane;
+import me.kenzierocks.converse.util.TokenBucket;
+
+public class OutboundSchedulerTest {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    @After
+    public void shutdownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && this.sent.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, this.sent.size());
+    }
+
+    @Test
+    public void bucketAllowsABurstThenOneLinePerRefill() {
+        TokenBucket bucket = new TokenBucket(3, 100);
+        assertEquals(0, bucket.tryTake(1000));
+        assertEquals(0, bucket.tryTake(1000));
+        assertEquals(0, bucket.tryTake(1000));
+        assertEquals(100, bucket.tryTake(1000));
+        assertEquals(40, bucket.tryTake(1060));
+        assertEquals(0, bucket.tryTake(1100));
+        // idle time refills, but no more than the burst
+        assertEquals(0, bucket.tryTake(5000));
+        assertEquals(0, bucket.tryTake(5000));
+        assertEquals(0, bucket.tryTake(5000));
+        assertEquals(100, bucket.tryTake(5000));
+    }
+
+    @Test
+    public void urgentLinesCutInBetweenPasteLines() throws Exception {
+        OutboundScheduler outbound = new OutboundScheduler("test", this.sent::add, this.executor, 2, 100);
+        SendJob paste = outbound.send(SendLane.BULK,
+                ImmutableList.of("paste 1", "paste 2", "paste 3", "paste 4", "paste 5"));
+        awaitSent(2);
+        outbound.send(SendLane.JOIN, "JOIN #chan");
+        outbound.send(SendLane.INTERACTIVE, "typed");
+        outbound.send(SendLane.URGENT, "PING :probe");
+        awaitSent(8);
+        assertEquals(ImmutableList.of("paste 1", "paste 2", "PING :probe", "typed", "JOIN #chan", "paste 3",
+                "paste 4", "paste 5"), this.sent);
+        assertTrue(paste.isDone());
+        assertEquals(1, outbound.getWait(SendLane.URGENT).getCount());
+        assertEquals(8, outbound.getLinesSent());
+    }
+
+    @Test
+    public void cancellingAPasteDropsTheRest() throws Exception {
+        OutboundScheduler outbound = new OutboundScheduler("test", this.sent::add, this.executor, 1, 100);
+        SendJob paste = outbound.send(SendLane.BULK, ImmutableList.of("1", "2", "3", "4", "5", "6"));
+        awaitSent(1);
+        paste.cancel();
+        outbound.send(SendLane.INTERACTIVE, "after");
+        awaitSent(2);
+        Thread.sleep(300);
+        assertEquals(ImmutableList.of("1", "after"), this.sent);
+        assertEquals(1, outbound.getJobsCancelled());
+        assertEquals(0, outbound.getQueuedLines());
+    }
+
+}
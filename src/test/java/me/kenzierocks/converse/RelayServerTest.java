@@ -0,0 +1,314 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+import me.kenzierocks.converse.history.ChannelLog;
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.history.MessageKind;
+import me.kenzierocks.converse.relay.RelayCursor;
+import me.kenzierocks.converse.relay.RelayDecoder;
+import me.kenzierocks.converse.relay.RelayEvent;
+import me.kenzierocks.converse.relay.RelayFeed;
+import me.kenzierocks.converse.relay.RelayHistoryFeed;
+import me.kenzierocks.converse.relay.RelayProtocol;
+import me.kenzierocks.converse.relay.RelayRequests;
+import me.kenzierocks.converse.relay.RelayServer;
+
+public class RelayServerTest {
+
+    private static final String TEXT = "the quick brown fox jumps over the lazy dog, again and again and again";
+
+    private static final class Received implements RelayDecoder.Listener {
+
+        private final List<Object> frames = new ArrayList<>();
+        private final RelayDecoder decoder = new RelayDecoder(this);
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] bytes = new byte[4096];
+
+        Received(Socket socket, int flags) throws IOException {
+            this.in = socket.getInputStream();
+            // HELLO: length, opcode, version, flags
+            this.out = socket.getOutputStream();
+            send(RelayRequests.hello(flags));
+        }
+
+        void send(ByteBuffer frame) throws IOException {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            this.out.write(bytes);
+        }
+
+        Object next() throws IOException {
+            while (this.frames.isEmpty()) {
+                int read = this.in.read(this.bytes);
+                if (read < 0) {
+                    throw new IOException("closed");
+                }
+                this.decoder.feed(ByteBuffer.wrap(this.bytes, 0, read));
+            }
+            return this.frames.remove(0);
+        }
+
+        @Override
+        public void hello(int version, int flags) {
+            this.frames.add("HELLO " + version + " " + flags);
+        }
+
+        @Override
+        public void message(RelayEvent event) {
+            this.frames.add(event);
+        }
+
+        @Override
+        public void page(String network, String channel, List<RelayEvent> lines) {
+            this.frames.addAll(lines);
+        }
+
+        @Override
+        public void users(String network, String channel, boolean added, List<String> nicks) {
+            this.frames.add(network + " " + channel + (added ? " +" : " -") + nicks);
+        }
+
+        @Override
+        public void topic(String network, String channel, String setter, String topic) {
+            this.frames.add(network + " " + channel + " topic by " + setter + ": " + topic);
+        }
+
+        @Override
+        public void mode(String network, String channel, String actor, String change) {
+            this.frames.add(network + " " + channel + " mode by " + actor + ": " + change);
+        }
+
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static RelayServer newServer() throws IOException {
+        return new RelayServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64 * 1024);
+    }
+
+    private static Socket connect(RelayServer server) throws IOException {
+        return new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+    }
+
+    private static void awaitClients(RelayServer server, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && server.getClientCount() != count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, server.getClientCount());
+    }
+
+    @Test
+    public void slowClientsAreDroppedWithoutHoldingUpTheRest() throws Exception {
+        try (RelayServer server = newServer(); Socket fast = connect(server); Socket slow = connect(server)) {
+            slow.setReceiveBufferSize(4096);
+            Received frames = new Received(fast, 0);
+            new Received(slow, 0);
+            awaitClients(server, 2);
+            assertEquals("HELLO 1 0", frames.next());
+            RelayEvent waves = RelayEvent.create("net", "#chan", 1000, MessageKind.ACTION, "nick", "waves \"hi\"");
+            server.publish(waves);
+            assertEquals(waves, frames.next());
+
+            // the slow client never reads, the fast one keeps up
+            for (int batch = 0; batch < 60000; batch += 100) {
+                for (int i = batch; i < batch + 100; i++) {
+                    server.publish(
+                            RelayEvent.create("net", "#chan", i, MessageKind.MESSAGE, "nick", i + " " + TEXT));
+                }
+                for (int i = batch; i < batch + 100; i++) {
+                    assertEquals(i + " " + TEXT, ((RelayEvent) frames.next()).getText());
+                }
+            }
+            awaitClients(server, 1);
+            assertEquals(1, server.getEvictions());
+            assertEquals(60001, server.getEventsPublished());
+        }
+    }
+
+    @Test
+    public void hostileFramesDropOnlyTheirClient() throws Exception {
+        // DEFINE of id 2^30, before any HELLO
+        byte[] define = { 8, RelayProtocol.DEFINE, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 4, 1, 'x' };
+        try (RelayServer server = newServer(); Socket hostile = connect(server); Socket fine = connect(server)) {
+            hostile.setSoTimeout(5000);
+            hostile.getOutputStream().write(define);
+            assertEquals(-1, hostile.getInputStream().read());
+
+            Received frames = new Received(fine, 0);
+            awaitClients(server, 1);
+            assertEquals("HELLO 1 0", frames.next());
+            server.publishUsers("net", "#chan", true, ImmutableList.of("alice"));
+            assertEquals("net #chan +[alice]", frames.next());
+        }
+        // and the same id from a server is refused, not allocated
+        RelayDecoder decoder = new RelayDecoder(new RelayDecoder.Listener() {
+        });
+        try {
+            decoder.feed(ByteBuffer.wrap(define));
+            fail("defined id 2^30");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void deflatedStreamDefinesNamesOnFirstUse() throws Exception {
+        try (RelayServer server = newServer(); Socket socket = connect(server)) {
+            Received frames = new Received(socket, RelayProtocol.FLAG_DEFLATE);
+            awaitClients(server, 1);
+            assertEquals("HELLO 1 1", frames.next());
+            server.publishUsers("net", "#chan", true, ImmutableList.of("alice", "bob"));
+            List<RelayEvent> sent = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                RelayEvent event = RelayEvent.create("net", "#chan" + (i % 3), i, i, MessageKind.MESSAGE,
+                        i % 2 == 0 ? "alice" : "bob", i + " " + TEXT);
+                sent.add(event);
+                server.publish(event);
+            }
+            server.publishUsers("net", "#chan", false, ImmutableList.of("bob"));
+
+            assertEquals("net #chan +[alice, bob]", frames.next());
+            for (RelayEvent event : sent) {
+                assertEquals(event, frames.next());
+            }
+            assertEquals("net #chan -[bob]", frames.next());
+            // deflate and the dictionary more than pay for themselves
+            assertTrue(server.getBytesWritten() + " bytes", server.getBytesWritten() < 100 * TEXT.length() / 2);
+        }
+    }
+
+    @Test
+    public void feedPublishesTopicAndModeChanges() throws Exception {
+        try (RelayServer server = newServer(); Socket socket = connect(server)) {
+            Received frames = new Received(socket, RelayProtocol.FLAG_DEFLATE);
+            awaitClients(server, 1);
+            assertEquals("HELLO 1 1", frames.next());
+            RelayFeed feed = new RelayFeed(server, "net");
+            feed.topicChanged("#chan", "alice", "welcome to #chan");
+            feed.modeChanged("#chan", "ChanServ", "+o alice");
+            feed.topicChanged("#chan", "", "");
+
+            assertEquals("net #chan topic by alice: welcome to #chan", frames.next());
+            assertEquals("net #chan mode by ChanServ: +o alice", frames.next());
+            assertEquals("net #chan topic by : ", frames.next());
+        }
+    }
+
+    @Test
+    public void feedPublishesQuitsAndNickChangesPerChannel() throws Exception {
+        try (RelayServer server = newServer(); Socket socket = connect(server)) {
+            Received frames = new Received(socket, 0);
+            awaitClients(server, 1);
+            assertEquals("HELLO 1 0", frames.next());
+            RelayFeed feed = new RelayFeed(server, "net");
+            feed.nickChanged(ImmutableList.of("#a", "#b"), "bob", "bobby");
+            feed.userQuit(ImmutableList.of("#b"), "bobby");
+
+            assertEquals("net #a -[bob]", frames.next());
+            assertEquals("net #a +[bobby]", frames.next());
+            assertEquals("net #b -[bob]", frames.next());
+            assertEquals("net #b +[bobby]", frames.next());
+            assertEquals("net #b -[bobby]", frames.next());
+        }
+    }
+
+    @Test
+    public void cursorsForUnknownChannelsCreateNoLogs() throws Exception {
+        Path root = this.folder.newFolder("history").toPath();
+        try (HistoryStore history = new HistoryStore(root);
+                RelayServer server = new RelayServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                        RelayServer.DEFAULT_MAX_QUEUED_BYTES, history, this.folder.getRoot().toPath()
+                                .resolve("cursors.json"));
+                Socket socket = connect(server)) {
+            history.getLog("net", "#chan").append(MessageKind.MESSAGE, "nick", "hello");
+            Received frames = new Received(socket, 0);
+            frames.send(RelayRequests.resume("phone", ImmutableList.of(RelayCursor.create("net", "#nowhere", 0),
+                    RelayCursor.create("elsewhere", "#chan", 0), RelayCursor.create("net", "#chan", 0))));
+            assertEquals("HELLO 1 0", frames.next());
+            // pages are read in order, so the unknown ones are done by now
+            assertEquals("hello", ((RelayEvent) frames.next()).getText());
+            assertFalse(Files.exists(root.resolve("net").resolve("#nowhere")));
+            assertFalse(Files.exists(root.resolve("elsewhere")));
+        }
+    }
+
+    @Test
+    public void resumedClientCatchesUpOnExactlyWhatItMissed() throws Exception {
+        try (HistoryStore history = new HistoryStore(this.folder.newFolder("history").toPath());
+                RelayServer server = new RelayServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                        RelayServer.DEFAULT_MAX_QUEUED_BYTES, history, this.folder.getRoot().toPath()
+                                .resolve("cursors.json"))) {
+            ChannelLog log = history.getLog("net", "#chan");
+            RelayHistoryFeed feed = new RelayHistoryFeed(server);
+            try (Socket socket = connect(server)) {
+                Received frames = new Received(socket, 0);
+                frames.send(RelayRequests.resume("phone", ImmutableList.of()));
+                awaitClients(server, 1);
+                frames.next();
+                for (int i = 1; i <= 10; i++) {
+                    log.append(MessageKind.MESSAGE, "nick", "line " + i);
+                    feed.accept(log);
+                    assertEquals(i, ((RelayEvent) frames.next()).getId());
+                }
+            }
+            awaitClients(server, 0);
+            assertEquals(ImmutableList.of(RelayCursor.create("net", "#chan", 10)), server.getCursors("phone"));
+
+            // away for a while
+            for (int i = 11; i <= 1200; i++) {
+                log.append(MessageKind.MESSAGE, "nick", "line " + i);
+                feed.accept(log);
+            }
+            try (Socket socket = connect(server)) {
+                Received frames = new Received(socket, RelayProtocol.FLAG_DEFLATE);
+                frames.send(RelayRequests.resume("phone", ImmutableList.of()));
+                frames.next();
+                // and talk carries on while it catches up
+                Thread talker = new Thread(() -> {
+                    try {
+                        for (int i = 1201; i <= 1500; i++) {
+                            log.append(MessageKind.MESSAGE, "nick", "line " + i);
+                            feed.accept(log);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                talker.start();
+                for (long id = 11; id <= 1500; id++) {
+                    RelayEvent event = (RelayEvent) frames.next();
+                    assertEquals(id, event.getId());
+                    assertEquals("line " + id, event.getText());
+                }
+                talker.join();
+            }
+            assertTrue(server.getPagesSent() >= 3);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.kenzierocks.converse.buffer.ChannelFootprint;
+import me.kenzierocks.converse.buffer.MessageBuffer;
+import me.kenzierocks.converse.buffer.NetworkScrollback;
+import me.kenzierocks.converse.buffer.Scrollback;
+import me.kenzierocks.converse.history.MessageKind;
+import me.kenzierocks.converse.util.CaseMapping;
+
+public class ScrollbackTest {
+
+    private static final String TEXT = "the quick brown fox jumps over the lazy dog, again and again and again";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static void fill(NetworkScrollback network, String channel, int lines) {
+        for (int i = 0; i < lines; i++) {
+            network.add(i, MessageKind.MESSAGE, channel, "nick", "user@host", i + " " + TEXT);
+        }
+    }
+
+    private static ChannelFootprint footprint(Scrollback scrollback, String channel) {
+        return scrollback.getFootprints().stream().filter(f -> f.getChannel().equals(channel)).findFirst().get();
+    }
+
+    @Test
+    public void leastRecentlyViewedChannelsGoFirst() throws Exception {
+        Scrollback scrollback = new Scrollback(400 * 1024, 100000, null);
+        NetworkScrollback network = scrollback.getNetwork("net");
+        fill(network, "#old", 1000);
+        network.view("#old");
+        Thread.sleep(5);
+        fill(network, "#new", 1000);
+        network.view("#new");
+        assertEquals(0, scrollback.getEvictions());
+        // never viewed, so it goes before either
+        fill(network, "#busy", 2000);
+        assertTrue(scrollback.getEvictions() > 0);
+        assertTrue(footprint(scrollback, "#busy").getLines() < 2000);
+        assertEquals(1000, footprint(scrollback, "#old").getLines());
+        assertEquals(1000, footprint(scrollback, "#new").getLines());
+
+        Thread.sleep(5);
+        network.view("#busy");
+        fill(network, "#busy", 1000);
+        assertEquals(0, footprint(scrollback, "#old").getLines());
+        assertEquals(1000, footprint(scrollback, "#new").getLines());
+        assertTrue(scrollback.getUsedBytes() <= scrollback.getBudgetBytes());
+        long total = scrollback.getFootprints().stream().mapToLong(ChannelFootprint::getBytes).sum();
+        assertEquals(total, scrollback.getUsedBytes());
+    }
+
+    @Test
+    public void spilledChannelsComeBackWhenViewed() throws Exception {
+        Path spill = this.folder.newFolder("spill").toPath();
+        Scrollback scrollback = new Scrollback(128 * 1024, 100000, spill);
+        NetworkScrollback network = scrollback.getNetwork("net");
+        fill(network, "#quiet", 500);
+        fill(network, "#busy", 3000);
+        assertEquals(0, footprint(scrollback, "#quiet").getLines());
+        assertEquals(500, footprint(scrollback, "#quiet").getSpilledLines());
+        network.add(9999, MessageKind.MESSAGE, "#quiet", "nick", "user@host", "after");
+
+        MessageBuffer quiet = network.view("#quiet");
+        assertEquals(0, quiet.getFirstSequence());
+        assertEquals(501, quiet.size());
+        List<String> texts = new ArrayList<>();
+        quiet.readBefore(Long.MAX_VALUE, 2, null, line -> texts.add(line.getSequence() + ":" + line.getText()));
+        assertEquals("499:499 " + TEXT, texts.get(0));
+        assertEquals("500:after", texts.get(1));
+        assertEquals(0, footprint(scrollback, "#quiet").getSpilledLines());
+
+        scrollback.removeNetwork("net");
+        assertEquals(0, scrollback.getUsedBytes());
+    }
+
+    @Test
+    public void channelsAreOneWhateverTheSpelling() throws Exception {
+        Path spill = this.folder.newFolder("spill").toPath();
+        Scrollback scrollback = new Scrollback(128 * 1024, 100000, spill);
+        NetworkScrollback network = scrollback.getNetwork("net");
+        // the server's spelling, then the config's
+        fill(network, "#linux[dev]", 500);
+        fill(network, "#busy", 3000);
+        assertEquals(500, footprint(scrollback, "#linux[dev]").getSpilledLines());
+
+        MessageBuffer viewed = network.view("#Linux{Dev}");
+        assertEquals(500, viewed.size());
+        assertEquals(2, scrollback.getFootprints().size());
+
+        network.setCaseMapping(CaseMapping.ASCII);
+        assertEquals(500, network.view("#LINUX[DEV]").size());
+        assertEquals(0, network.view("#linux{dev}").size());
+        assertEquals(3, scrollback.getFootprints().size());
+    }
+
+    @Test
+    public void evictedChannelsAreLeftAloneAndSpillsAppended() throws Exception {
+        Path spill = this.folder.newFolder("spill").toPath();
+        Path quietSpill = spill.resolve("net").resolve("#quiet.spill");
+        Scrollback scrollback = new Scrollback(128 * 1024, 100000, spill);
+        NetworkScrollback network = scrollback.getNetwork("net");
+        fill(network, "#quiet", 500);
+        fill(network, "#busy", 3000);
+        assertEquals(500, footprint(scrollback, "#quiet").getSpilledLines());
+        assertEquals(0, footprint(scrollback, "#quiet").getBytes());
+        FileTime spilledAt = Files.getLastModifiedTime(quietSpill);
+        long spillSize = Files.size(quietSpill);
+        Thread.sleep(10);
+
+        // #quiet is first in line, but has nothing left to give, so its
+        // spill isn't read or written again
+        long evictions = scrollback.getEvictions();
+        fill(network, "#busy", 3000);
+        assertTrue(scrollback.getEvictions() > evictions);
+        assertEquals(spilledAt, Files.getLastModifiedTime(quietSpill));
+
+        for (int i = 0; i < 10; i++) {
+            network.add(600 + i, MessageKind.MESSAGE, "#quiet", "nick", "user@host", "more " + i);
+        }
+        fill(network, "#busy", 3000);
+        assertEquals(510, footprint(scrollback, "#quiet").getSpilledLines());
+        assertTrue(Files.size(quietSpill) > spillSize);
+
+        MessageBuffer quiet = network.view("#quiet");
+        assertEquals(510, quiet.size());
+        List<String> texts = new ArrayList<>();
+        quiet.readBefore(Long.MAX_VALUE, 11, null, line -> texts.add(line.getSequence() + ":" + line.getText()));
+        assertEquals("499:499 " + TEXT, texts.get(0));
+        assertEquals("509:more 9", texts.get(10));
+    }
+
+}
@@ -0,0 +1,108 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.kenzierocks.converse.history.ChannelLog;
+import me.kenzierocks.converse.history.HistoryStore;
+import me.kenzierocks.converse.history.MessageKind;
+import me.kenzierocks.converse.search.Query;
+import me.kenzierocks.converse.search.SearchEngine;
+import me.kenzierocks.converse.search.SearchHit;
+import me.kenzierocks.converse.util.CaseMapping;
+
+public class SearchEngineTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> search(SearchEngine engine, Query.Builder query) throws Exception {
+        return engine.search(query.build()).map(hit -> hit.getChannel() + ":" + hit.getId())
+                .collect(Collectors.toList());
+    }
+
+    private static void fill(HistoryStore store) throws Exception {
+        ChannelLog chan = store.getLog("net", "#chan");
+        chan.append(1000, MessageKind.MESSAGE, "alice", "The quick brown fox");
+        chan.append(2000, MessageKind.MESSAGE, "bob", "brown quick fox, quickly");
+        chan.append(3000, MessageKind.JOIN, "carol", "carol!c@example.com");
+        chan.append(4000, MessageKind.ACTION, "alice", "jumps over the lazy dog");
+        chan.append(5000, MessageKind.MESSAGE, "carol", "QUICK BROWN dogs");
+        ChannelLog other = store.getLog("net", "#other");
+        other.append(1500, MessageKind.MESSAGE, "alice", "quick brown");
+        other.append(4500, MessageKind.NOTICE, "dave", "brown");
+    }
+
+    @Test
+    public void filtersCombine() throws Exception {
+        try (HistoryStore store = new HistoryStore(this.folder.getRoot().toPath(), 4096);
+                SearchEngine engine = new SearchEngine(store, 2)) {
+            fill(store);
+            // newest first, across channels
+            assertEquals(Arrays.asList("#chan:5", "#chan:2", "#other:1", "#chan:1"),
+                    search(engine, Query.builder().words("quick", "BROWN")));
+            assertEquals(Arrays.asList("#chan:5", "#other:1", "#chan:1"),
+                    search(engine, Query.builder().phrases("quick brown")));
+            assertEquals(Arrays.asList("#chan:4", "#other:1", "#chan:1"),
+                    search(engine, Query.builder().nick("Alice")));
+            assertEquals(Arrays.asList("#chan:3"), search(engine, Query.builder().nick("carol").to(4000)));
+            assertEquals(Arrays.asList("#chan:5", "#chan:2"),
+                    search(engine, Query.builder().words("quick").channel("#CHAN").from(2000)));
+            // a join's mask isn't searchable
+            assertEquals(Arrays.asList(), search(engine, Query.builder().words("example")));
+        }
+    }
+
+    @Test
+    public void namesMatchByTheNetworksCaseMapping() throws Exception {
+        try (HistoryStore store = new HistoryStore(this.folder.getRoot().toPath(), 4096);
+                SearchEngine engine = new SearchEngine(store, 2)) {
+            ChannelLog chan = store.getLog("net", "#chan[1]");
+            chan.append(1000, MessageKind.MESSAGE, "{alice}", "one");
+            chan.append(2000, MessageKind.MESSAGE, "[Alice]", "two");
+            chan.append(3000, MessageKind.MESSAGE, "alice", "three");
+            assertEquals(Arrays.asList("#chan[1]:2", "#chan[1]:1"),
+                    search(engine, Query.builder().nick("[ALICE]").channel("#CHAN{1}")));
+
+            store.setCaseMapping("net", CaseMapping.ASCII);
+            assertEquals(Arrays.asList("#chan[1]:2"), search(engine, Query.builder().nick("[ALICE]")));
+            assertEquals(Arrays.asList(), search(engine, Query.builder().channel("#chan{1}")));
+        }
+    }
+
+    @Test
+    public void indexSurvivesRestartAndCatchesUp() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        try (HistoryStore store = new HistoryStore(root, 4096);
+                SearchEngine engine = new SearchEngine(store, 2)) {
+            fill(store);
+            assertEquals(5, search(engine, Query.builder().words("brown")).size());
+        }
+        // two sealed segments, the live one is rebuilt from the log
+        try (Stream<Path> sealed = Files.list(root.resolve("net").resolve("#chan").resolve("search"))) {
+            assertEquals(2, sealed.count());
+        }
+        try (HistoryStore store = new HistoryStore(root, 4096);
+                SearchEngine engine = new SearchEngine(store, 2)) {
+            ChannelLog chan = store.getLog("net", "#chan");
+            chan.append(6000, MessageKind.PART, "bob", "brown bag lunch");
+            engine.onAppend(chan);
+            List<SearchHit> hits = engine.search(Query.builder().words("brown").channel("#chan").build())
+                    .collect(Collectors.toList());
+            assertEquals(4, hits.size());
+            assertEquals(MessageKind.PART, hits.get(0).getKind());
+            assertEquals("brown bag lunch", hits.get(0).getText());
+        }
+    }
+
+}
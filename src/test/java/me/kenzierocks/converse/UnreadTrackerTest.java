@@ -0,0 +1,105 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.kenzierocks.converse.unread.ChannelActivity;
+import me.kenzierocks.converse.unread.Mentions;
+import me.kenzierocks.converse.unread.UnreadTracker;
+import me.kenzierocks.converse.util.CaseMapping;
+
+public class UnreadTrackerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsUntilReadAndPushesEachChange() throws Exception {
+        List<ChannelActivity> deltas = new ArrayList<>();
+        try (UnreadTracker tracker = new UnreadTracker(null)) {
+            tracker.addListener(deltas::add);
+            tracker.onLine("net", "#a", false);
+            tracker.onLine("net", "#a", true);
+            tracker.onLine("net", "#b", false);
+            assertEquals(ChannelActivity.create("net", "#a", 0, 2, 1), tracker.get("net", "#a"));
+            assertEquals(3, deltas.size());
+
+            tracker.markRead("net", "#a");
+            assertEquals(ChannelActivity.create("net", "#a", 2, 0, 0), deltas.get(3));
+            // nothing new, nothing pushed
+            tracker.markRead("net", "#a");
+            assertEquals(4, deltas.size());
+
+            tracker.setFocused("net", "#b");
+            tracker.onLine("net", "#b", true);
+            assertEquals(ChannelActivity.create("net", "#b", 2, 0, 0), tracker.get("net", "#b"));
+            tracker.setFocused(null, null);
+            tracker.onLine("net", "#b", false);
+            assertEquals(1, tracker.get("net", "#b").getUnread());
+        }
+    }
+
+    @Test
+    public void countsSurviveARestart() throws Exception {
+        Path file = this.folder.getRoot().toPath().resolve("unread.json");
+        try (UnreadTracker tracker = new UnreadTracker(file)) {
+            for (int i = 0; i < 5; i++) {
+                tracker.onLine("net", "#a", i == 4);
+            }
+            tracker.markRead("net", "#a");
+            tracker.onLine("net", "#a", true);
+        }
+        try (UnreadTracker tracker = new UnreadTracker(file)) {
+            assertEquals(ChannelActivity.create("net", "#a", 5, 1, 1), tracker.get("net", "#a"));
+            assertEquals(1, tracker.getAll().size());
+        }
+    }
+
+    @Test
+    public void channelsFoldByTheirNetworksCaseMapping() {
+        try (UnreadTracker tracker = new UnreadTracker(null)) {
+            tracker.onLine("net", "#Chan[1]", false);
+            tracker.onLine("net", "#chan{1}", false);
+            assertEquals(2, tracker.get("net", "#CHAN[1]").getUnread());
+
+            tracker.setCaseMapping("net", CaseMapping.ASCII);
+            // the counts so far move to the new fold of the first spelling
+            assertEquals(2, tracker.get("net", "#chan[1]").getUnread());
+            tracker.onLine("net", "#chan{1}", false);
+            assertEquals(2, tracker.get("net", "#CHAN[1]").getUnread());
+            assertEquals(1, tracker.get("net", "#chan{1}").getUnread());
+
+            tracker.setFocused("net", "#Chan[1]");
+            assertTrue(tracker.isFocused("net", "#chan[1]"));
+            assertFalse(tracker.isFocused("net", "#chan{1}"));
+        }
+    }
+
+    @Test
+    public void mentionsAreWholeNicks() {
+        CaseMapping rfc1459 = CaseMapping.RFC1459;
+        assertTrue(Mentions.mentions("kenzie: ping", "Kenzie", rfc1459));
+        assertTrue(Mentions.mentions("ask kenzie.", "kenzie", rfc1459));
+        assertFalse(Mentions.mentions("kenzierocks: ping", "kenzie", rfc1459));
+        assertFalse(Mentions.mentions("[kenzie]", "kenzie", rfc1459));
+    }
+
+    @Test
+    public void mentionsFoldByTheNetworksCaseMapping() {
+        assertTrue(Mentions.mentions("{kenzie}: ping", "[Kenzie]", CaseMapping.RFC1459));
+        assertTrue(Mentions.mentions("ken^: ping", "KEN~", CaseMapping.RFC1459));
+        assertFalse(Mentions.mentions("ken^: ping", "KEN~", CaseMapping.STRICT_RFC1459));
+        assertFalse(Mentions.mentions("{kenzie}: ping", "[kenzie]", CaseMapping.ASCII));
+        assertFalse(Mentions.mentions("ÄBC: ping", "äbc", CaseMapping.ASCII));
+    }
+
+}
@@ -0,0 +1,58 @@
+package me.kenzierocks.converse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import me.kenzierocks.converse.util.WriteBehind;
+
+public class WriteBehindTest {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger writes = new AtomicInteger();
+
+    @After
+    public void shutdownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void burstIsCoalescedIntoOneWrite() throws Exception {
+        WriteBehind saver = new WriteBehind("test", this.executor, 10_000, this.writes::incrementAndGet);
+        for (int i = 0; i < 100; i++) {
+            saver.requestWrite();
+        }
+        assertEquals(0, this.writes.get());
+        saver.flush(5, TimeUnit.SECONDS);
+        assertEquals(1, this.writes.get());
+        assertEquals(1, saver.getWriteCount());
+        assertEquals(99, saver.getCoalescedRequestCount());
+        assertFalse(saver.isWritePending());
+    }
+
+    @Test
+    public void flushWithNothingPendingDoesNotWrite() throws Exception {
+        WriteBehind saver = new WriteBehind("test", this.executor, 10_000, this.writes::incrementAndGet);
+        saver.flush(5, TimeUnit.SECONDS);
+        assertEquals(0, this.writes.get());
+    }
+
+    @Test
+    public void windowElapsingWritesWithoutFlush() throws Exception {
+        WriteBehind saver = new WriteBehind("test", this.executor, 0, this.writes::incrementAndGet);
+        saver.requestWrite();
+        // queued behind the scheduled write on the single thread
+        this.executor.submit(() -> {
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals(1, this.writes.get());
+        assertEquals(1, saver.getLatency().getCount());
+    }
+
+}
@@ -0,0 +1,58 @@
+package me.kenzierocks.converse.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BackoffTest {
+
+    private static Backoff lowest() {
+        return new Backoff(1000, 60000, bound -> 0);
+    }
+
+    private static Backoff highest() {
+        return new Backoff(1000, 60000, bound -> bound);
+    }
+
+    @Test
+    public void delaysDoubleUpToTheCap() {
+        Backoff backoff = highest();
+        long[] expected = { 1000, 2000, 4000, 8000, 16000, 32000, 60000, 60000 };
+        for (long delay : expected) {
+            assertEquals(delay, backoff.nextDelayMillis());
+        }
+        assertEquals(expected.length, backoff.getAttempts());
+        // far past the point base << attempts would overflow
+        for (int i = 0; i < 100; i++) {
+            assertEquals(60000, backoff.nextDelayMillis());
+        }
+    }
+
+    @Test
+    public void jitterStaysInTheUpperHalf() {
+        Backoff backoff = lowest();
+        long[] expected = { 500, 1000, 2000, 4000, 8000, 16000, 30000, 30000 };
+        for (long delay : expected) {
+            assertEquals(delay, backoff.nextDelayMillis());
+        }
+        Backoff random = new Backoff(1000, 60000);
+        for (int i = 0; i < 1000; i++) {
+            long cap = Math.min(60000, 1000L << Math.min(random.getAttempts(), 6));
+            long delay = random.nextDelayMillis();
+            assertTrue(delay + " outside [" + cap / 2 + ", " + cap + "]", delay >= cap / 2 && delay <= cap);
+        }
+    }
+
+    @Test
+    public void resetStartsOver() {
+        Backoff backoff = highest();
+        for (int i = 0; i < 5; i++) {
+            backoff.nextDelayMillis();
+        }
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertEquals(1000, backoff.nextDelayMillis());
+    }
+
+}